@@ -0,0 +1,129 @@
+package kz.ya.mt.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the raw {@link AccountDao} operations without the transfer
+ * locking protocol on top of them.
+ *
+ * @author yerlan.akhmetov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountDaoBenchmark {
+
+    private static final long INITIAL_BALANCE = Money.of(1_000_000_000L);
+    private static final long AMOUNT = Money.of(1);
+
+    @Param({"UNIFORM", "ZIPF", "HOT_PAIR"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"heap", "offheap"})
+    public String store;
+
+    private Account[] datastore;
+    private String[] numbers;
+
+    /**
+     * Every parameter combination runs in its own fork, so the store is
+     * chosen before the DAO is created.
+     */
+    @Setup(Level.Trial)
+    public void selectStore() {
+        System.setProperty("mt.store", store);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        AccountDao.getInstance().clearDatastore();
+
+        datastore = new Account[accounts];
+        numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            datastore[i] = AccountDao.getInstance().create(INITIAL_BALANCE);
+            numbers[i] = datastore[i].getNumber();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        AccountDao.getInstance().clearDatastore();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        Workload.Picker picker;
+
+        @Setup(Level.Trial)
+        public void setUp(AccountDaoBenchmark benchmark) {
+            picker = benchmark.workload.newPicker(benchmark.accounts);
+        }
+    }
+
+    @Benchmark
+    public Object get(ThreadState state) {
+        return AccountDao.getInstance().get(numbers[state.picker.from()]);
+    }
+
+    /**
+     * Deposit and withdraw the same account under its lock, so the balance
+     * stays stable for the whole iteration.
+     */
+    @Benchmark
+    public void depositAndWithdraw(ThreadState state) {
+        final Account account = datastore[state.picker.from()];
+        account.getLock().lock();
+        try {
+            AccountDao.getInstance().deposit(account, AMOUNT);
+            AccountDao.getInstance().withdraw(account, AMOUNT);
+        } finally {
+            account.getLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public Account create() {
+        return AccountDao.getInstance().create(INITIAL_BALANCE);
+    }
+
+    /**
+     * Writers of {@link #readWhileWriting} group, compare with
+     * {@link #depositAndWithdraw} to see what the readers cost them.
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void write(ThreadState state) {
+        depositAndWithdraw(state);
+    }
+
+    /**
+     * Lock-free reads of the accounts being written.
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public Object read(ThreadState state) {
+        return datastore[state.picker.from()].read();
+    }
+}
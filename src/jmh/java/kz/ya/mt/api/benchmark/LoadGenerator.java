@@ -0,0 +1,289 @@
+package kz.ya.mt.api.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import kz.ya.mt.api.Application;
+import kz.ya.mt.api.metrics.Histogram;
+
+/**
+ * HTTP load generator for POST /transfer. Unlike the JMH benchmarks it goes
+ * through the whole server: Jetty, request parsing, the transfer engine and
+ * the response. Accounts are created with POST /accounts/import, transfers
+ * between them are picked by a {@link Workload}.
+ * <p>
+ * In the closed loop every connection sends its next transfer as soon as the
+ * previous one is answered. In the open loop transfers are due at a fixed
+ * rate whether or not earlier ones are answered, and connections take them
+ * in turn. Either way latency is corrected for coordinated omission: in the
+ * open loop it is measured from the time a transfer was due rather than
+ * sent, in the closed loop a response slower than the expected interval
+ * (median latency of the warmup) also records the transfers which would
+ * have been sent meanwhile, like HdrHistogram does. The uncorrected latency
+ * is reported as service time.
+ * <p>
+ * Options are system properties: load.url (the server is started in this
+ * JVM if missing), load.accounts, load.workload, load.connections,
+ * load.rate (transfers per second, 0 for the closed loop), load.warmup and
+ * load.duration (seconds), load.amount.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class LoadGenerator {
+
+    private static final String BALANCE = "1000000000";
+    private static final int TIMEOUT_MILLIS = 30_000;
+    private static final int IO_ERROR = -1;
+
+    private final String transferUrl;
+    private final String[] numbers;
+    private final Workload workload;
+    private final int connections;
+    private final long intervalNanos;
+    private final String amount;
+    private final AtomicLong ticket = new AtomicLong();
+    private volatile Stats stats = new Stats();
+    private volatile long expectedNanos;
+    private long start;
+    private long end;
+
+    private LoadGenerator(String url, String[] numbers, Workload workload, int connections, double rate,
+            String amount) {
+        this.transferUrl = url + "/transfer";
+        this.numbers = numbers;
+        this.workload = workload;
+        this.connections = connections;
+        this.intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        this.amount = amount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url");
+        final int accounts = Integer.getInteger("load.accounts", 1000);
+        final Workload workload = Workload.valueOf(System.getProperty("load.workload", "UNIFORM"));
+        final int connections = Integer.getInteger("load.connections", 64);
+        final double rate = Double.parseDouble(System.getProperty("load.rate", "0"));
+        final long warmup = Long.getLong("load.warmup", 5);
+        final long duration = Long.getLong("load.duration", 30);
+        final String amount = System.getProperty("load.amount", "1");
+        if (connections < 1 || duration < 1 || warmup < 0 || rate < 0) {
+            throw new IllegalArgumentException("Illegal load options");
+        }
+
+        // idle connections beyond this are closed, every connection has to be kept alive
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(connections));
+        }
+        if (url == null) {
+            if (System.getProperty("mt.accessLog.sampleRate") == null) {
+                System.setProperty("mt.accessLog.sampleRate", "0");
+            }
+            Application.main(new String[0]);
+            url = "http://localhost:" + Integer.getInteger("mt.port", 8000);
+        }
+
+        final String[] numbers = importAccounts(url, accounts);
+        final LoadGenerator generator = new LoadGenerator(url, numbers, workload, connections, rate, amount);
+        final Stats result = generator.run(warmup, duration);
+
+        System.out.printf("%s, %d accounts, %d connections, %s%n", workload, accounts, connections,
+                rate > 0 ? String.format("open loop at %.0f per second", rate) : "closed loop");
+        result.print(generator.expectedNanos);
+        System.exit(0);
+    }
+
+    private static String[] importAccounts(String url, int accounts) throws IOException {
+        final String[] numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            numbers[i] = UUID.randomUUID().toString();
+        }
+        final HttpURLConnection connection = (HttpURLConnection) new URL(
+                url + "/accounts/import?expected=" + accounts).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(1 << 16);
+        connection.setRequestProperty("Content-Type", "text/csv");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(),
+                StandardCharsets.US_ASCII))) {
+            for (String number : numbers) {
+                writer.write(number);
+                writer.write(',');
+                writer.write(BALANCE);
+                writer.write('\n');
+            }
+        }
+        final int status = connection.getResponseCode();
+        drain(connection, status);
+        if (status != 200) {
+            throw new IOException("Accounts were not imported, status " + status);
+        }
+        return numbers;
+    }
+
+    private Stats run(long warmupSeconds, long durationSeconds) throws InterruptedException {
+        start = System.nanoTime();
+        final long measured = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        end = measured + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        final Thread[] workers = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Thread(this::work, "load-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        sleepUntil(measured);
+        final Stats warmup = stats;
+        if (intervalNanos == 0) {
+            // what a connection would send at if nothing stalled
+            expectedNanos = warmup.serviceTime.valueAt(0.5);
+        }
+        final Stats result = new Stats();
+        stats = result;
+        result.start = System.nanoTime();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        result.end = System.nanoTime();
+        return result;
+    }
+
+    private void work() {
+        final Workload.Picker picker = workload.newPicker(numbers.length);
+        while (true) {
+            final long due;
+            if (intervalNanos > 0) {
+                due = start + ticket.getAndIncrement() * intervalNanos;
+                if (due >= end) {
+                    return;
+                }
+                sleepUntil(due);
+            } else {
+                due = System.nanoTime();
+                if (due >= end) {
+                    return;
+                }
+            }
+            final String from = numbers[picker.from()];
+            final String to = numbers[picker.to()];
+            final long sent = System.nanoTime();
+            final int status = transfer(from, to);
+            final long received = System.nanoTime();
+            stats.record(status, received - due, received - sent, expectedNanos);
+        }
+    }
+
+    private int transfer(String from, String to) {
+        try {
+            final byte[] body = ("fromAccountNo=" + encode(from) + "&toAccountNo=" + encode(to)
+                    + "&amount=" + encode(amount)).getBytes(StandardCharsets.US_ASCII);
+            final HttpURLConnection connection = (HttpURLConnection) new URL(transferUrl).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+            final int status = connection.getResponseCode();
+            drain(connection, status);
+            return status;
+        } catch (IOException ex) {
+            return IO_ERROR;
+        }
+    }
+
+    /**
+     * The body has to be read to the end for the connection to be reused.
+     */
+    private static void drain(HttpURLConnection connection, int status) throws IOException {
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (input != null) {
+                final byte[] buffer = new byte[4096];
+                while (input.read(buffer) != -1) {
+                    // discarded
+                }
+            }
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static final class Stats {
+
+        private final Histogram latency = new Histogram();
+        private final Histogram serviceTime = new Histogram();
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private final LongAdder requests = new LongAdder();
+        private long start;
+        private long end;
+
+        void record(int status, long latencyNanos, long serviceNanos, long expectedNanos) {
+            requests.increment();
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+            serviceTime.record(serviceNanos);
+            latency.record(latencyNanos);
+            if (expectedNanos > 0) {
+                // closed loop: transfers which were held back by this slow one
+                for (long missed = latencyNanos - expectedNanos; missed >= expectedNanos; missed -= expectedNanos) {
+                    latency.record(missed);
+                }
+            }
+        }
+
+        void print(long expectedNanos) {
+            final long count = requests.sum();
+            final double seconds = (end - start) / 1e9;
+            System.out.printf("requests      %d in %.1f s, %.1f per second%n", count, seconds, count / seconds);
+
+            final StringBuilder mix = new StringBuilder();
+            for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(statuses).entrySet()) {
+                if (mix.length() > 0) {
+                    mix.append(", ");
+                }
+                mix.append(entry.getKey() == IO_ERROR ? "I/O error" : String.valueOf(entry.getKey()))
+                        .append(String.format(": %d (%.2f%%)", entry.getValue().sum(),
+                                100.0 * entry.getValue().sum() / Math.max(1, count)));
+            }
+            System.out.println("statuses      " + mix);
+
+            System.out.println("latency       " + percentiles(latency)
+                    + (expectedNanos > 0 ? String.format(", expected interval %.3f ms", expectedNanos / 1e6) : ""));
+            System.out.println("service time  " + percentiles(serviceTime));
+        }
+
+        private static String percentiles(Histogram histogram) {
+            return String.format("p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms",
+                    histogram.valueAt(0.5) / 1e6, histogram.valueAt(0.99) / 1e6,
+                    histogram.valueAt(0.999) / 1e6, histogram.valueAt(1) / 1e6);
+        }
+    }
+}
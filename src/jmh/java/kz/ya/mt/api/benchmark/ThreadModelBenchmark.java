@@ -0,0 +1,111 @@
+package kz.ya.mt.api.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.engine.ExecutorTransferEngine;
+import kz.ya.mt.api.engine.TransferEngine;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Keeps many transfers in flight at once, each of them blocked on account
+ * locks and, with the journal, on its fsync. Compares a fixed pool of
+ * platform threads, sized like the Jetty default, with a virtual thread
+ * per transfer; the virtual mode needs JDK 21 or newer.
+ *
+ * @author yerlan.akhmetov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThreadModelBenchmark {
+
+    private static final long INITIAL_BALANCE = Money.of(1_000_000_000L);
+    private static final long AMOUNT = Money.of(1);
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"10000"})
+    public int inFlight;
+
+    @Param({"ZIPF", "HOT_PAIR"})
+    public Workload workload;
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    @Param({"1000"})
+    public int accounts;
+
+    private Path directory;
+    private ExecutorTransferEngine transferEngine;
+    private Workload.Picker picker;
+    private Account[] datastore;
+    private CompletableFuture<?>[] results;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AccountDao.getInstance().clearDatastore();
+        if (journal) {
+            directory = Files.createTempDirectory("mt-journal");
+            AccountDao.getInstance().openJournal(directory, 200, 64L << 20);
+        }
+        transferEngine = new ExecutorTransferEngine(TransferEngine.create("lock"), "virtual".equals(threads)
+                ? ExecutorTransferEngine.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS));
+        picker = workload.newPicker(accounts);
+        results = new CompletableFuture<?>[inFlight];
+
+        datastore = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            datastore[i] = AccountDao.getInstance().create(INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        transferEngine.close();
+        AccountDao.getInstance().closeJournal();
+        AccountDao.getInstance().clearDatastore();
+        if (directory != null) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * One operation is a wave of transfers, submitted at once and awaited
+     * together.
+     */
+    @Benchmark
+    public void wave() {
+        for (int i = 0; i < inFlight; i++) {
+            final Account from = datastore[picker.from()];
+            final Account to = datastore[picker.to()];
+            results[i] = transferEngine.transferAsync(from, to, AMOUNT);
+        }
+        CompletableFuture.allOf(results).join();
+    }
+}
@@ -0,0 +1,89 @@
+package kz.ya.mt.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.controller.TransferController;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.engine.TransferEngine;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link TransferController#performTransaction} under different
+ * account distributions and transfer engines. Thread count is driven by the
+ * JMH "-t" option, e.g. -t 1, -t 4, -t max.
+ *
+ * @author yerlan.akhmetov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransferBenchmark {
+
+    private static final long INITIAL_BALANCE = Money.of(1_000_000_000L);
+    private static final long AMOUNT = Money.of(1);
+
+    @Param({"UNIFORM", "ZIPF", "HOT_PAIR"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"lock", "cas", "sharded"})
+    public String engine;
+
+    private TransferEngine transferEngine;
+    private TransferController transferController;
+    private Account[] datastore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        transferEngine = TransferEngine.create(engine);
+        transferController = new TransferController(transferEngine);
+        AccountDao.getInstance().clearDatastore();
+
+        datastore = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            datastore[i] = AccountDao.getInstance().create(INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferEngine.close();
+        AccountDao.getInstance().clearDatastore();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        Workload.Picker picker;
+
+        @Setup(Level.Trial)
+        public void setUp(TransferBenchmark benchmark) {
+            picker = benchmark.workload.newPicker(benchmark.accounts);
+        }
+    }
+
+    @Benchmark
+    public boolean performTransaction(ThreadState state) throws InterruptedException {
+        final Account from = datastore[state.picker.from()];
+        final Account to = datastore[state.picker.to()];
+        try {
+            transferController.performTransaction(from, to, AMOUNT);
+            return true;
+        } catch (NotEnoughFundsException ex) {
+            return false;
+        }
+    }
+}
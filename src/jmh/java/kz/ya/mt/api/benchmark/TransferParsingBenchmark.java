@@ -0,0 +1,76 @@
+package kz.ya.mt.api.benchmark;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.json.TransferJsonReader;
+import kz.ya.mt.api.model.Money;
+import kz.ya.mt.api.model.TransferRequest;
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.UrlEncoded;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the ways a transfer request body is turned into two account
+ * numbers and an amount in minor units: the form body as Jetty decodes it,
+ * Gson binding of the JSON body and the streaming JSON reader.
+ *
+ * @author yerlan.akhmetov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransferParsingBenchmark {
+
+    private final Gson gson = new Gson();
+
+    private String form;
+    private String json;
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setUp() {
+        final String from = UUID.randomUUID().toString();
+        final String to = UUID.randomUUID().toString();
+        form = "fromAccountNo=" + from + "&toAccountNo=" + to + "&amount=1234.56";
+        json = "{\"fromAccountNo\":\"" + from + "\",\"toAccountNo\":\"" + to + "\",\"amount\":\"1234.56\"}";
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void form(Blackhole blackhole) {
+        final MultiMap<String> parameters = new MultiMap<>();
+        UrlEncoded.decodeUtf8To(form, parameters);
+        blackhole.consume(parameters.getValue("fromAccountNo", 0));
+        blackhole.consume(parameters.getValue("toAccountNo", 0));
+        blackhole.consume(Money.parse(parameters.getValue("amount", 0)));
+    }
+
+    /**
+     * The body is decoded to a string first, as Javalin does before binding.
+     */
+    @Benchmark
+    public void gson(Blackhole blackhole) {
+        final TransferRequest request = gson.fromJson(new String(jsonBytes, StandardCharsets.UTF_8),
+                TransferRequest.class);
+        blackhole.consume(request.getFromAccountNo());
+        blackhole.consume(request.getToAccountNo());
+        blackhole.consume(Money.parse(request.getAmount()));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) {
+        final TransferJsonReader.Transfers request = TransferJsonReader.readTransfer(jsonBytes);
+        blackhole.consume(request.getFromAccountNo(0));
+        blackhole.consume(request.getToAccountNo(0));
+        blackhole.consume(request.getAmount(0));
+    }
+}
@@ -0,0 +1,145 @@
+package kz.ya.mt.api.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Account access distributions used by the benchmarks. Every workload picks
+ * a pair of distinct account indexes in range [0, accounts).
+ *
+ * @author yerlan.akhmetov
+ */
+public enum Workload {
+
+    /**
+     * Every account is equally likely to be a sender or a receiver.
+     */
+    UNIFORM,
+    /**
+     * Account popularity follows a Zipf distribution, a few accounts take
+     * the majority of transfers.
+     */
+    ZIPF,
+    /**
+     * All transfers cross between the first two accounts, half of them
+     * A -> B and the other half B -> A.
+     */
+    HOT_PAIR;
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    public Picker newPicker(int accounts) {
+        if (accounts < 2) {
+            throw new IllegalArgumentException("At least 2 accounts are required");
+        }
+        switch (this) {
+            case ZIPF:
+                return new ZipfPicker(accounts);
+            case HOT_PAIR:
+                return new HotPairPicker();
+            default:
+                return new UniformPicker(accounts);
+        }
+    }
+
+    /**
+     * Not thread safe, every benchmark thread owns its own picker.
+     */
+    public interface Picker {
+
+        /**
+         * @return index of the sender, must be called before {@link #to()}
+         */
+        int from();
+
+        /**
+         * @return index of the receiver, never equal to the last {@link #from()}
+         */
+        int to();
+    }
+
+    private static final class UniformPicker implements Picker {
+
+        private final int accounts;
+        private int from;
+
+        UniformPicker(int accounts) {
+            this.accounts = accounts;
+        }
+
+        @Override
+        public int from() {
+            from = ThreadLocalRandom.current().nextInt(accounts);
+            return from;
+        }
+
+        @Override
+        public int to() {
+            // shift by [1, accounts) so the receiver never equals the sender
+            return (from + 1 + ThreadLocalRandom.current().nextInt(accounts - 1)) % accounts;
+        }
+    }
+
+    private static final class ZipfPicker implements Picker {
+
+        private final double[] cdf;
+        private int from;
+
+        ZipfPicker(int accounts) {
+            cdf = new double[accounts];
+            double sum = 0;
+            for (int i = 0; i < accounts; i++) {
+                sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < accounts; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        @Override
+        public int from() {
+            from = next();
+            return from;
+        }
+
+        @Override
+        public int to() {
+            int to = next();
+            while (to == from) {
+                to = next();
+            }
+            return to;
+        }
+
+        private int next() {
+            final double p = ThreadLocalRandom.current().nextDouble();
+            int low = 0;
+            int high = cdf.length - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (cdf[mid] < p) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class HotPairPicker implements Picker {
+
+        private boolean forward = ThreadLocalRandom.current().nextBoolean();
+
+        @Override
+        public int from() {
+            forward = !forward;
+            return forward ? 0 : 1;
+        }
+
+        @Override
+        public int to() {
+            return forward ? 1 : 0;
+        }
+    }
+}
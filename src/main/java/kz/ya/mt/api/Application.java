@@ -6,22 +6,137 @@ import io.javalin.ForbiddenResponse;
 import io.javalin.Javalin;
 import io.javalin.JavalinEvent;
 import io.javalin.json.JavalinJson;
-import io.javalin.validation.JavalinValidation;
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.cache.IdempotencyCache;
+import kz.ya.mt.api.cluster.ClusterNode;
+import kz.ya.mt.api.cluster.HashRing;
+import kz.ya.mt.api.cluster.HttpPeer;
+import kz.ya.mt.api.controller.AccountController;
+import kz.ya.mt.api.controller.ClusterController;
+import kz.ya.mt.api.controller.MetricsController;
+import kz.ya.mt.api.controller.ReplicationController;
 import kz.ya.mt.api.controller.TransferController;
 import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.engine.ExecutorTransferEngine;
+import kz.ya.mt.api.engine.TransferEngine;
 import kz.ya.mt.api.exception.*;
+import kz.ya.mt.api.importer.AccountImporter;
+import kz.ya.mt.api.log.AccessLog;
 import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import kz.ya.mt.api.replication.ReplicationClient;
+import kz.ya.mt.api.replication.ReplicationServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class Application {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
-    private static final int PORT = 8000;
 
-    public static void main(String[] args) {
-        final TransferController transferController = new TransferController();
+    public static void main(String[] args) throws IOException {
+        final int port = Integer.getInteger("mt.port", 8000);
+        final String engine = System.getProperty("mt.engine", "lock");
+        if ("cas".equals(engine) && "offheap".equals(System.getProperty("mt.store"))) {
+            throw new IllegalArgumentException("The cas engine needs the heap account store");
+        }
+        final String clusterNodes = System.getProperty("mt.cluster.nodes");
+        if (clusterNodes != null && !"lock".equals(engine) && !"async".equals(engine)) {
+            throw new IllegalArgumentException("A cluster needs the lock or async engine");
+        }
+        final String replicationPrimary = System.getProperty("mt.replication.primary");
+        final Integer replicationPort = Integer.getInteger("mt.replication.port");
+        if (replicationPrimary != null || replicationPort != null) {
+            if (System.getProperty("mt.journal.dir") == null) {
+                throw new IllegalArgumentException("Replication needs mt.journal.dir");
+            }
+            if (clusterNodes != null) {
+                throw new IllegalArgumentException("Replication is not supported in a cluster");
+            }
+        }
+
+        final String journalDir = System.getProperty("mt.journal.dir");
+        if (journalDir != null) {
+            AccountDao.getInstance().openJournal(Paths.get(journalDir),
+                    Long.getLong("mt.journal.maxDelayMicros", 200),
+                    Long.getLong("mt.journal.segmentSize", 64L << 20));
+            if (replicationPrimary == null) {
+                // a follower gets the credits settled by the primary
+                AccountDao.getInstance().settleOwed();
+            }
+            scheduleSnapshots(Long.getLong("mt.snapshot.intervalSeconds", 300));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    AccountDao.getInstance().closeJournal();
+                } catch (IOException ex) {
+                    LOGGER.error("Journal was not closed: ", ex);
+                }
+            }));
+        }
+
+        final long heartbeatMillis = Long.getLong("mt.replication.heartbeatMillis", 1000);
+        ReplicationServer replicationServer = null;
+        if (replicationPort != null) {
+            replicationServer = new ReplicationServer(AccountDao.getInstance(), replicationPort, heartbeatMillis,
+                    Integer.getInteger("mt.replication.syncFollowers", 1),
+                    Long.getLong("mt.replication.ackTimeoutMillis", 5000));
+            if ("sync".equals(System.getProperty("mt.replication.mode", "async"))) {
+                AccountDao.getInstance().setReplicas(replicationServer);
+            }
+        }
+        final ReplicationClient replicationClient = replicationPrimary == null ? null
+                : new ReplicationClient(AccountDao.getInstance(), ReplicationClient.parseAddress(replicationPrimary),
+                        heartbeatMillis);
+
+        ClusterNode cluster = null;
+        if (clusterNodes != null) {
+            final HashRing ring = new HashRing(System.getProperty("mt.cluster.self", "http://localhost:" + port),
+                    Arrays.asList(clusterNodes.split(",")));
+            cluster = new ClusterNode(ring,
+                    new HttpPeer(Integer.getInteger("mt.cluster.timeoutMillis", 5000)),
+                    Paths.get(System.getProperty("mt.cluster.dir", journalDir != null ? journalDir : "cluster-" + port)),
+                    Long.getLong("mt.cluster.resendMillis", 1000));
+            LOGGER.info("Node {} of cluster {}", ring.getSelf(), ring.getNodes());
+        }
+
+        TransferEngine transferEngine = TransferEngine.create(engine);
+        if (transferEngine instanceof AccountDao.Writers) {
+            AccountDao.getInstance().setWriters((AccountDao.Writers) transferEngine);
+        }
+        if ("virtual".equals(System.getProperty("mt.threads", "platform"))) {
+            // Jetty 9 selectors would pin carrier threads, only transfers are moved to virtual threads
+            transferEngine = new ExecutorTransferEngine(transferEngine,
+                    ExecutorTransferEngine.newVirtualThreadPerTaskExecutor());
+        }
+        final String accessLogFile = System.getProperty("mt.accessLog.file");
+        final AccessLog accessLog = new AccessLog(accessLogFile == null ? null : Paths.get(accessLogFile),
+                Long.getLong("mt.accessLog.maxBytes", 64L << 20),
+                Integer.getInteger("mt.accessLog.maxFiles", 5),
+                Integer.getInteger("mt.accessLog.capacity", 8192),
+                Double.parseDouble(System.getProperty("mt.accessLog.sampleRate", "1")));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                accessLog.close();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        final TransferController transferController = new TransferController(transferEngine,
+                new IdempotencyCache(Integer.getInteger("mt.idempotency.capacity", 100_000),
+                        Long.getLong("mt.idempotency.ttlSeconds", 86_400)),
+                cluster);
+        final MetricsController metricsController = new MetricsController();
+        final ClusterNode node = cluster;
+        final AccountController accountController = new AccountController(new AccountImporter(
+                Integer.getInteger("mt.import.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("mt.import.maxErrors", 1000),
+                number -> node == null || node.isLocal(number)),
+                cluster);
 
         final Gson gson = new GsonBuilder().create();
         JavalinJson.setFromJsonMapper(gson::fromJson);
@@ -30,37 +145,88 @@ public class Application {
         final Javalin app = Javalin.create()
                 .event(JavalinEvent.SERVER_STARTED, () -> LOGGER.info("Server is started..."))
                 .event(JavalinEvent.SERVER_START_FAILED, () -> LOGGER.error("Server start was failed!"))
-                .requestLogger((context, executionTimeMs)
-                        -> LOGGER.info("{} ms\t {}\t {} {}",
-                        executionTimeMs,
-                        context.req.getMethod(),
+                .requestLogger((context, executionTimeMs) -> accessLog.log(
+                        context.method(),
                         context.req.getRequestURI(),
-                        context.req.getParameterMap().toString().replaceAll("^.|.$", "")
+                        context.status(),
+                        (long) (executionTimeMs * 1000)
                 ))
-                .start(PORT);
-        
-        // Validation
-        // Register a custom converter
-        JavalinValidation.register(BigDecimal.class, BigDecimal::new);
+                .start(port);
 
         // Request Handlers
+        final ReplicationController replicationController = new ReplicationController(replicationServer,
+                replicationClient, replicationPrimary);
+        app.before(replicationController::checkWritable);
         app.get("/", ctx -> {
             throw new ForbiddenResponse();
         });
         app.get("/health", ctx
                 -> ctx.status(200) // OK
         );
+        app.get("/metrics", metricsController::metrics);
+        app.get("/contention", metricsController::contention);
+        app.get("/accounts", accountController::getAll);
+        app.post("/accounts/import", accountController::importAccounts);
+        app.get("/accounts/:number", accountController::get);
+        app.get("/accounts/:number/transactions", accountController::transactions);
         app.post("/transfer", transferController::process);
+        app.post("/transfers/batch", transferController::processBatch);
+        if (cluster != null) {
+            final ClusterController clusterController = new ClusterController(cluster);
+            app.post("/cluster/prepare", clusterController::prepare);
+            app.post("/cluster/commit", clusterController::commit);
+            app.post("/cluster/abort", clusterController::abort);
+        }
+        if (journalDir != null) {
+            app.get("/replication", replicationController::status);
+            app.post("/replication/promote", replicationController::promote);
+        }
 
         // Exception Handlers
         app.exception(Exception.class, (ex, ctx) -> {
             LOGGER.error("Error occurred: ", ex.getMessage());
             ctx.status(500); // SERVER INTERNAL ERROR
         });
+        app.exception(UnsupportedOperationException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(501); // NOT IMPLEMENTED
+        });
+        app.exception(IdempotencyKeyReusedException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(422); // UNPROCESSABLE ENTITY
+        });
+        app.exception(JournalException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(503); // SERVICE UNAVAILABLE
+        });
+        app.exception(NodeUnavailableException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(503); // SERVICE UNAVAILABLE
+        });
+        app.exception(ReadOnlyReplicaException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(503); // SERVICE UNAVAILABLE
+        });
         app.exception(AccountNotFoundException.class, (ex, ctx) -> {
             LOGGER.error("Exception: ", ex.getMessage());
             ctx.status(404); // NOT FOUND
         });
+        app.exception(InvalidAmountException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(400); // BAD REQUEST
+        });
+        app.exception(NullInputAccountException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex.getMessage());
+            ctx.status(400); // BAD REQUEST
+        });
+        app.exception(NullInputAmountException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(400); // BAD REQUEST
+        });
+        app.exception(MalformedJsonException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(400); // BAD REQUEST
+        });
         app.exception(NotEnoughFundsException.class, (ex, ctx) -> {
             LOGGER.error("Exception: ", ex.getMessage());
             ctx.status(400); // BAD REQUEST
@@ -73,24 +239,60 @@ public class Application {
             LOGGER.error("Exception: ", ex.getMessage());
             ctx.status(406); // NOT ACCEPTABLE
         });
+        app.exception(BalanceOverflowException.class, (ex, ctx) -> {
+            LOGGER.error("Exception: ", ex);
+            ctx.status(406); // NOT ACCEPTABLE
+        });
         app.exception(TransferToTheSameAccountException.class, (ex, ctx) -> {
             LOGGER.error("Exception: ", ex.getMessage());
             ctx.status(406); // NOT ACCEPTABLE
         });
 
-        createSampleData();
+        if (replicationClient == null) {
+            // a follower gets the accounts of the primary
+            createSampleData(cluster);
+        }
     }
 
     /**
-     * Create custom accounts for testing
+     * Take snapshots in the background, so the journal to replay on startup stays short
      */
-    private static void createSampleData() {
+    private static void scheduleSnapshots(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                AccountDao.getInstance().snapshot();
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Snapshot failed: ", ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create custom accounts for testing, unless they were restored from the journal.
+     * In a cluster every node creates those it owns.
+     */
+    private static void createSampleData(ClusterNode cluster) {
         LOGGER.info("Populate initial data:");
-        final Account acc1 = AccountDao.getInstance().create(
-                "0ec8ab7c-5af2-11e9-8647-d663bd873d93", new BigDecimal(1000));
-        final Account acc2 = AccountDao.getInstance().create(
-                "0ec8b1e4-5af2-11e9-8647-d663bd873d93", new BigDecimal(2000));
-        LOGGER.info(acc1.toString());
-        LOGGER.info(acc2.toString());
+        createSample(cluster, "0ec8ab7c-5af2-11e9-8647-d663bd873d93", Money.of(1000));
+        createSample(cluster, "0ec8b1e4-5af2-11e9-8647-d663bd873d93", Money.of(2000));
+    }
+
+    private static void createSample(ClusterNode cluster, String number, long balance) {
+        if (cluster != null && !cluster.isLocal(number)) {
+            return;
+        }
+        final Account account = AccountDao.getInstance().get(number)
+                .orElseGet(() -> AccountDao.getInstance().create(number, balance));
+        LOGGER.info(account.toString());
     }
 }
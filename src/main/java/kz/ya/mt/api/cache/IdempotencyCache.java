@@ -0,0 +1,215 @@
+package kz.ya.mt.api.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Outcomes of transfers by their Idempotency-Key, so a retried request gets
+ * the outcome of the first one instead of transferring again.
+ * <p>
+ * Bounded by size and age. Every stripe is a segmented LRU: a new key goes
+ * to the probation segment and is promoted to the protected one when it is
+ * seen again, so a storm of one-off keys only evicts other one-off keys and
+ * not the ones clients are retrying. Transfers still in progress are never
+ * evicted, there are at most as many of them as requests in flight. Keys of
+ * transfers which failed for a transient reason are removed by the caller.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class IdempotencyCache {
+
+    /**
+     * Share of a stripe kept for keys which were seen more than once.
+     */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Segments[] stripes;
+
+    /**
+     * @param capacity number of keys kept, at least one per stripe
+     * @param ttlSeconds how long a key is kept after its first request
+     */
+    public IdempotencyCache(int capacity, long ttlSeconds) {
+        this(capacity, ttlSeconds, System::nanoTime);
+    }
+
+    IdempotencyCache(int capacity, long ttlSeconds, LongSupplier clock) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.clock = clock;
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors() * 2 && count * 2 <= capacity) {
+            count <<= 1;
+        }
+        final int stripeCapacity = (capacity + count - 1) / count;
+        stripes = new Segments[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Segments(stripeCapacity);
+        }
+    }
+
+    /**
+     * Register the first request with the key, unless there is one already.
+     *
+     * @return entry of the earlier request, or null if the candidate was
+     * registered and its request has to be executed
+     */
+    public Entry putIfAbsent(String key, Entry candidate) {
+        final Segments stripe = stripeOf(key);
+        final long now = clock.getAsLong();
+        stripe.lock.lock();
+        try {
+            final Entry existing = stripe.get(key, now);
+            if (existing != null) {
+                return existing;
+            }
+            candidate.expiresAt = now + ttlNanos;
+            stripe.insert(key, candidate);
+            return null;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Forget the entry registered with the key, so the next request with
+     * it is executed again. Nothing is done if the key has another entry by
+     * now.
+     */
+    public void remove(String key, Entry entry) {
+        final Segments stripe = stripeOf(key);
+        stripe.lock.lock();
+        try {
+            if (!stripe.probation.remove(key, entry)) {
+                stripe.protectedSegment.remove(key, entry);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of keys kept, including expired ones not evicted yet
+     */
+    public int size() {
+        int size = 0;
+        for (Segments stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.probation.size() + stripe.protectedSegment.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Segments stripeOf(String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * A request with a key: what it asked for and how it ended.
+     */
+    public static final class Entry {
+
+        private final String fingerprint;
+        private final CompletableFuture<Void> outcome = new CompletableFuture<>();
+        private long expiresAt;
+
+        /**
+         * @param fingerprint identifies the transfer, a key may not be reused
+         * for another one
+         */
+        public Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return completed like the first request, pending while it runs
+         */
+        public CompletableFuture<Void> getOutcome() {
+            return outcome;
+        }
+    }
+
+    private static final class Segments {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        final int protectedCapacity;
+        // both are in access order, eldest first
+        final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        Segments(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (int) (capacity * PROTECTED_SHARE);
+        }
+
+        Entry get(String key, long now) {
+            Entry entry = protectedSegment.get(key);
+            if (entry != null) {
+                if (isExpired(entry, now)) {
+                    protectedSegment.remove(key);
+                    return null;
+                }
+                return entry;
+            }
+            entry = probation.remove(key);
+            if (entry == null || isExpired(entry, now)) {
+                return null;
+            }
+            protectedSegment.put(key, entry);
+            if (protectedSegment.size() > protectedCapacity) {
+                // the least recent protected key gets another chance in probation
+                final Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+                final Map.Entry<String, Entry> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry;
+        }
+
+        void insert(String key, Entry entry) {
+            probation.put(key, entry);
+            if (probation.size() + protectedSegment.size() > capacity && !evictFrom(probation)) {
+                // if every key is in progress too, the stripe stays larger
+                // until later inserts find finished ones
+                evictFrom(protectedSegment);
+            }
+        }
+
+        /**
+         * @return false if every entry of the segment is still in progress
+         */
+        private boolean evictFrom(LinkedHashMap<String, Entry> segment) {
+            final Iterator<Entry> entries = segment.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().outcome.isDone()) {
+                    entries.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isExpired(Entry entry, long now) {
+            return now - entry.expiresAt >= 0 && entry.outcome.isDone();
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.AccountNotFoundException;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NodeUnavailableException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.journal.Journal;
+import kz.ya.mt.api.model.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A node of a partitioned deployment. Every node keeps the accounts the
+ * {@link HashRing} assigns to it, and a transfer to an account of another
+ * node is a two-phase commit coordinated by the node of the sender:
+ * <ol>
+ * <li>PREPARE is logged and the sender is debited,</li>
+ * <li>the node of the receiver logs RESERVE and promises the credit,</li>
+ * <li>COMMIT is logged, or ABORT and the sender is refunded,</li>
+ * <li>the node of the receiver gets the decision, and on COMMIT logs APPLY
+ * and credits the receiver.</li>
+ * </ol>
+ * A transfer without a logged decision is aborted on recovery, and a
+ * decision is resent until the node of the receiver has got it. All calls
+ * to the node of the receiver may thus be repeated.
+ * <p>
+ * Every debit, refund and credit is logged with the version the account gets
+ * by it, so recovery can tell whether the change made it into the journal:
+ * it did if the account has reached that version. The record is appended
+ * under the account lock before the change is journaled, and the journal
+ * syncs the log before it writes the change, so the account lock is never
+ * held during an fsync. Without a journal balances don't survive a restart,
+ * and the log is started afresh.
+ * <p>
+ * Accounts are changed under their locks, so only the locking engines may
+ * run in a cluster.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ClusterNode implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final HashRing ring;
+    private final Peer peer;
+    private final TransferLog log;
+    /**
+     * Transfers coordinated here with a decision the receiver's node may
+     * not have got yet.
+     */
+    private final ConcurrentMap<String, Outgoing> outgoing = new ConcurrentHashMap<>();
+    /**
+     * Credits reserved here, neither applied nor released yet.
+     */
+    private final ConcurrentMap<String, Incoming> reservations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService resender;
+
+    /**
+     * Recover transfers from the log in the directory, the journal must be
+     * replayed already.
+     *
+     * @param resendMillis interval of resending decisions, 0 to resend them
+     * only by {@link #resendDecisions()}
+     */
+    public ClusterNode(HashRing ring, Peer peer, Path directory, long resendMillis) throws IOException {
+        this.ring = ring;
+        this.peer = peer;
+        final AccountDao dao = AccountDao.getInstance();
+        if (dao.isJournaled()) {
+            TransferLog.replay(directory, new Recovery());
+        }
+
+        final List<Runnable> redo = new ArrayList<>();
+        final Map<String, Long> versions = new HashMap<>();
+        log = TransferLog.create(directory, fresh -> {
+            for (Outgoing transfer : outgoing.values()) {
+                recover(transfer, redo, versions);
+                fresh.prepare(transfer.id, transfer.fromAccountNo, transfer.toAccountNo, transfer.node,
+                        transfer.amount, transfer.debitVersion);
+                if (transfer.committed) {
+                    fresh.commit(transfer.id);
+                } else {
+                    fresh.abort(transfer.id, transfer.refundVersion);
+                }
+            }
+            for (Incoming reservation : new ArrayList<>(reservations.values())) {
+                if (reservation.applyVersion > 0 && !recover(reservation, redo, versions)) {
+                    reservations.remove(reservation.id);
+                    continue;
+                }
+                fresh.reserve(reservation.id, reservation.fromAccountNo, reservation.toAccountNo, reservation.amount);
+                if (reservation.applyVersion > 0) {
+                    fresh.apply(reservation.id, reservation.applyVersion);
+                }
+            }
+        });
+        if (dao.isJournaled()) {
+            // changes are never durable before the records promising them
+            dao.getJournal().setBeforeWrite(log::syncAll);
+        }
+        // the log is durable, the changes it promises can be made
+        redo.forEach(Runnable::run);
+        try {
+            dao.awaitDurable();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        reservations.values().removeIf(reservation -> reservation.applyVersion > 0);
+        if (!outgoing.isEmpty() || !reservations.isEmpty()) {
+            LOGGER.info("{} decisions to resend and {} reservations are recovered",
+                    outgoing.size(), reservations.size());
+        }
+
+        resender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "cluster-resender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (resendMillis > 0) {
+            resender.scheduleWithFixedDelay(this::resendDecisions, resendMillis, resendMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A transfer without a decision is aborted, and a refund which didn't
+     * make it into the journal is made again.
+     */
+    private void recover(Outgoing transfer, List<Runnable> redo, Map<String, Long> versions) {
+        if (transfer.committed) {
+            return;
+        }
+        final Account sender = AccountDao.getInstance().get(transfer.fromAccountNo).orElse(null);
+        if (sender == null) {
+            LOGGER.error("Sender {} of transfer {} is gone", transfer.fromAccountNo, transfer.id);
+            transfer.refundVersion = 0;
+            return;
+        }
+        final boolean debited = sender.getVersion() >= transfer.debitVersion;
+        final boolean refunded = transfer.refundVersion > 0 && sender.getVersion() >= transfer.refundVersion;
+        if (debited && !refunded) {
+            transfer.refundVersion = nextVersion(sender, versions);
+            redo.add(() -> AccountDao.getInstance().deposit(sender, transfer.amount));
+        } else if (!debited) {
+            transfer.refundVersion = 0;
+        }
+    }
+
+    /**
+     * A credit which didn't make it into the journal is made again.
+     *
+     * @return false if the credit is durable already
+     */
+    private boolean recover(Incoming reservation, List<Runnable> redo, Map<String, Long> versions) {
+        final Account receiver = AccountDao.getInstance().get(reservation.toAccountNo).orElse(null);
+        if (receiver == null) {
+            LOGGER.error("Receiver {} of transfer {} is gone", reservation.toAccountNo, reservation.id);
+            return false;
+        }
+        if (receiver.getVersion() >= reservation.applyVersion) {
+            return false;
+        }
+        reservation.applyVersion = nextVersion(receiver, versions);
+        redo.add(() -> {
+            AccountDao.getInstance().deposit(receiver, reservation.amount);
+            AccountDao.getInstance().getLedger().append(reservation.fromAccountNo, reservation.toAccountNo,
+                    reservation.amount, System.currentTimeMillis());
+        });
+        return true;
+    }
+
+    /**
+     * @return version of the account after one more of the changes to redo
+     */
+    private static long nextVersion(Account account, Map<String, Long> versions) {
+        return versions.merge(account.getNumber(), account.getVersion() + 1, (last, ignored) -> last + 1);
+    }
+
+    public String getSelf() {
+        return ring.getSelf();
+    }
+
+    public boolean isLocal(String number) {
+        return ring.isLocal(number);
+    }
+
+    public String ownerOf(String number) {
+        return ring.ownerOf(number);
+    }
+
+    /**
+     * Pass a client request on to another node, see {@link Peer#forward}.
+     */
+    public Peer.Response forward(String node, String method, String path, String contentType,
+            Map<String, String> headers, byte[] body) throws IOException {
+        return peer.forward(node, method, path, contentType, headers, body);
+    }
+
+    /**
+     * Transfer from a local account to an account of another node. Returns
+     * once the transfer is decided and durable here, the receiver may be
+     * credited a bit later if its node doesn't get the decision at once.
+     *
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    public void transfer(Account fromAccount, String toAccountNo, long amount) throws InterruptedException {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+        final AccountDao dao = AccountDao.getInstance();
+        final Outgoing transfer = new Outgoing(UUID.randomUUID().toString(), fromAccount.getNumber(),
+                toAccountNo, ring.ownerOf(toAccountNo), amount);
+
+        final long prepared;
+        final Lock lock = fromAccount.getLock();
+        lock.lockInterruptibly();
+        try {
+            if (fromAccount.getBalance() < amount) {
+                fromAccount.incFailedTransferCount();
+                throw new NotEnoughFundsException(fromAccount.getNumber());
+            }
+            transfer.debitVersion = fromAccount.getVersion() + 1;
+            // appended before the debit is journaled, the journal makes it durable first
+            prepared = log.prepare(transfer.id, transfer.fromAccountNo, toAccountNo, transfer.node,
+                    amount, transfer.debitVersion);
+            try {
+                dao.withdraw(fromAccount, amount);
+            } catch (RuntimeException ex) {
+                log.abort(transfer.id, 0);
+                log.done(transfer.id);
+                throw ex;
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.sync(prepared);
+        dao.awaitDurable();
+
+        final int status;
+        try {
+            status = peer.prepare(transfer.node, transfer.id, transfer.fromAccountNo, toAccountNo, amount);
+        } catch (IOException ex) {
+            abort(transfer, fromAccount, true);
+            throw new NodeUnavailableException(transfer.node, ex);
+        }
+        if (status != 200) {
+            // a node which has refused the credit has reserved nothing
+            abort(transfer, fromAccount, status != 404 && status != 406);
+            if (status == 404) {
+                throw new AccountNotFoundException(toAccountNo);
+            }
+            if (status == 406) {
+                throw new BalanceOverflowException(toAccountNo);
+            }
+            throw new NodeUnavailableException(transfer.node, new IOException("Node answered " + status));
+        }
+
+        transfer.committed = true;
+        // not resent before it's durable, or recovery could abort it after the credit
+        log.sync(log.commit(transfer.id));
+        outgoing.put(transfer.id, transfer);
+        dao.getLedger().append(transfer.fromAccountNo, toAccountNo, amount, System.currentTimeMillis());
+        resend(transfer);
+    }
+
+    private void abort(Outgoing transfer, Account fromAccount, boolean notify) throws InterruptedException {
+        final AccountDao dao = AccountDao.getInstance();
+        final long aborted;
+        final Lock lock = fromAccount.getLock();
+        // the refund must not be skipped by an interrupt
+        lock.lock();
+        try {
+            transfer.refundVersion = fromAccount.getVersion() + 1;
+            aborted = log.abort(transfer.id, transfer.refundVersion);
+            dao.deposit(fromAccount, transfer.amount);
+        } finally {
+            lock.unlock();
+        }
+        log.sync(aborted);
+        dao.awaitDurable();
+        if (notify) {
+            outgoing.put(transfer.id, transfer);
+            resend(transfer);
+        } else {
+            log.done(transfer.id);
+        }
+    }
+
+    /**
+     * Send every decision the receiver's node may not have got yet.
+     */
+    public void resendDecisions() {
+        for (Outgoing transfer : outgoing.values()) {
+            resend(transfer);
+        }
+    }
+
+    private void resend(Outgoing transfer) {
+        try {
+            if (transfer.committed) {
+                peer.commit(transfer.node, transfer.id);
+            } else {
+                peer.abort(transfer.node, transfer.id);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Decision on transfer {} is not delivered to {}: {}", transfer.id, transfer.node,
+                    ex.getMessage());
+            return;
+        }
+        if (outgoing.remove(transfer.id) != null) {
+            // not synced, if it's lost the decision is merely resent
+            log.done(transfer.id);
+        }
+    }
+
+    /**
+     * Promise to credit a local account, called by the coordinator.
+     */
+    public void prepare(String id, String fromAccountNo, String toAccountNo, long amount) {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+        final Account account = AccountDao.getInstance().get(toAccountNo).orElseThrow(
+                () -> new AccountNotFoundException(toAccountNo));
+        if (reservations.containsKey(id)) {
+            return;
+        }
+        if (account.getBalance() > Long.MAX_VALUE - amount) {
+            account.incFailedTransferCount();
+            throw new BalanceOverflowException(toAccountNo);
+        }
+        log.sync(log.reserve(id, fromAccountNo, toAccountNo, amount));
+        reservations.put(id, new Incoming(id, fromAccountNo, toAccountNo, amount));
+    }
+
+    /**
+     * Credit the account as promised. A transfer which isn't reserved has
+     * been credited already.
+     *
+     * @throws BalanceOverflowException if other deposits have used up the
+     * room meanwhile, the coordinator keeps retrying
+     */
+    public void commit(String id) throws InterruptedException {
+        final Incoming reservation = reservations.get(id);
+        if (reservation == null) {
+            return;
+        }
+        final AccountDao dao = AccountDao.getInstance();
+        synchronized (reservation) {
+            if (reservation.applyVersion > 0) {
+                return;
+            }
+            final Account account = dao.get(reservation.toAccountNo).orElseThrow(
+                    () -> new AccountNotFoundException(reservation.toAccountNo));
+            final long applied;
+            final Lock lock = account.getLock();
+            lock.lockInterruptibly();
+            try {
+                if (account.getBalance() > Long.MAX_VALUE - reservation.amount) {
+                    throw new BalanceOverflowException(reservation.toAccountNo);
+                }
+                final long version = account.getVersion() + 1;
+                applied = log.apply(id, version);
+                dao.deposit(account, reservation.amount);
+                reservation.applyVersion = version;
+            } finally {
+                lock.unlock();
+            }
+            log.sync(applied);
+            dao.getLedger().append(reservation.fromAccountNo, reservation.toAccountNo, reservation.amount,
+                    System.currentTimeMillis());
+        }
+        reservations.remove(id);
+        dao.awaitDurable();
+    }
+
+    /**
+     * Drop the promise to credit, nothing to do if there is none.
+     */
+    public void abort(String id) {
+        if (reservations.remove(id) != null) {
+            log.sync(log.release(id));
+        }
+    }
+
+    /**
+     * @return transfers coordinated here whose decision may not be known to
+     * the receiver's node yet
+     */
+    public int getUndeliveredDecisions() {
+        return outgoing.size();
+    }
+
+    /**
+     * @return credits promised to other nodes and not decided yet
+     */
+    public int getReservations() {
+        return reservations.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        resender.shutdownNow();
+        final Journal journal = AccountDao.getInstance().getJournal();
+        if (journal != null) {
+            journal.setBeforeWrite(null);
+        }
+        log.close();
+    }
+
+    /**
+     * Transfer coordinated by this node.
+     */
+    private static final class Outgoing {
+
+        final String id;
+        final String fromAccountNo;
+        final String toAccountNo;
+        final String node;
+        final long amount;
+        long debitVersion;
+        volatile boolean committed;
+        /**
+         * Version of the sender after the refund, 0 if there is none.
+         */
+        long refundVersion;
+
+        Outgoing(String id, String fromAccountNo, String toAccountNo, String node, long amount) {
+            this.id = id;
+            this.fromAccountNo = fromAccountNo;
+            this.toAccountNo = toAccountNo;
+            this.node = node;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Credit reserved by this node.
+     */
+    private static final class Incoming {
+
+        final String id;
+        final String fromAccountNo;
+        final String toAccountNo;
+        final long amount;
+        /**
+         * Version of the receiver after the credit, 0 until it's applied.
+         */
+        long applyVersion;
+
+        Incoming(String id, String fromAccountNo, String toAccountNo, long amount) {
+            this.id = id;
+            this.fromAccountNo = fromAccountNo;
+            this.toAccountNo = toAccountNo;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Rebuilds the transfers in flight from the log.
+     */
+    private final class Recovery implements TransferLog.Handler {
+
+        @Override
+        public void prepared(String id, String fromAccountNo, String toAccountNo, String node, long amount,
+                long version) {
+            final Outgoing transfer = new Outgoing(id, fromAccountNo, toAccountNo, node, amount);
+            transfer.debitVersion = version;
+            outgoing.put(id, transfer);
+        }
+
+        @Override
+        public void committed(String id) {
+            final Outgoing transfer = outgoing.get(id);
+            if (transfer != null) {
+                transfer.committed = true;
+            }
+        }
+
+        @Override
+        public void aborted(String id, long version) {
+            final Outgoing transfer = outgoing.get(id);
+            if (transfer != null) {
+                transfer.refundVersion = version;
+            }
+        }
+
+        @Override
+        public void done(String id) {
+            outgoing.remove(id);
+        }
+
+        @Override
+        public void reserved(String id, String fromAccountNo, String toAccountNo, long amount) {
+            reservations.put(id, new Incoming(id, fromAccountNo, toAccountNo, amount));
+        }
+
+        @Override
+        public void applied(String id, long version) {
+            final Incoming reservation = reservations.get(id);
+            if (reservation != null) {
+                reservation.applyVersion = version;
+            }
+        }
+
+        @Override
+        public void released(String id) {
+            reservations.remove(id);
+        }
+    }
+}
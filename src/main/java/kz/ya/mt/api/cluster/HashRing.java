@@ -0,0 +1,95 @@
+package kz.ya.mt.api.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent hashing of account numbers to nodes. Every node is placed on
+ * the ring at many points, and an account belongs to the node of the first
+ * point at or after its hash, so accounts are spread evenly and adding a
+ * node moves only the accounts it takes over.
+ * <p>
+ * All nodes must be started with the same list of nodes.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class HashRing {
+
+    private static final int POINTS_PER_NODE = 128;
+
+    private final String self;
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param self base URL of this node, one of the nodes
+     * @param nodes base URLs of all nodes, e.g. http://localhost:8000
+     */
+    public HashRing(String self, List<String> nodes) {
+        if (!nodes.contains(self)) {
+            throw new IllegalArgumentException("Node " + self + " is not one of " + nodes);
+        }
+        this.self = self;
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+
+        final long[][] placed = new long[nodes.size() * POINTS_PER_NODE][];
+        int count = 0;
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                placed[count++] = new long[]{hash(nodes.get(node) + '#' + i), node};
+            }
+        }
+        Arrays.sort(placed, (first, second) -> Long.compare(first[0], second[0]));
+        points = new long[count];
+        owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = placed[i][0];
+            owners[i] = nodes.get((int) placed[i][1]);
+        }
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return base URL of the node keeping the account
+     */
+    public String ownerOf(String number) {
+        int index = Arrays.binarySearch(points, hash(number));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public boolean isLocal(String number) {
+        return self.equals(ownerOf(number));
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes with a final mix, so that similar
+     * numbers land far from each other.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,131 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import kz.ya.mt.api.model.Money;
+
+/**
+ * Peer calls as HTTP requests to the /cluster endpoints of the node.
+ * Connections are kept alive by the JDK between calls.
+ *
+ * @author yerlan.akhmetov
+ */
+public class HttpPeer implements Peer {
+
+    /**
+     * Header of a forwarded request, which is never forwarded again.
+     */
+    public static final String FORWARDED = "Mt-Forwarded";
+
+    private final int timeoutMillis;
+
+    public HttpPeer(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int prepare(String node, String id, String fromAccountNo, String toAccountNo, long amount)
+            throws IOException {
+        return post(node, "/cluster/prepare", "id=" + encode(id)
+                + "&fromAccountNo=" + encode(fromAccountNo)
+                + "&toAccountNo=" + encode(toAccountNo)
+                + "&amount=" + Money.toString(amount));
+    }
+
+    @Override
+    public void commit(String node, String id) throws IOException {
+        expectOk(node, post(node, "/cluster/commit", "id=" + encode(id)));
+    }
+
+    @Override
+    public void abort(String node, String id) throws IOException {
+        expectOk(node, post(node, "/cluster/abort", "id=" + encode(id)));
+    }
+
+    @Override
+    public Response forward(String node, String method, String path, String contentType,
+            Map<String, String> headers, byte[] body) throws IOException {
+        final HttpURLConnection connection = open(node + path, method);
+        connection.setRequestProperty(FORWARDED, "true");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (body != null && body.length > 0) {
+            if (contentType != null) {
+                connection.setRequestProperty("Content-Type", contentType);
+            }
+            write(connection, body);
+        }
+        final int status = connection.getResponseCode();
+        final Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            // the status line comes without a name
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                responseHeaders.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return new Response(status, connection.getContentType(), responseHeaders, read(connection, status));
+    }
+
+    private int post(String node, String path, String form) throws IOException {
+        final HttpURLConnection connection = open(node + path, "POST");
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        write(connection, form.getBytes(StandardCharsets.UTF_8));
+        final int status = connection.getResponseCode();
+        read(connection, status);
+        return status;
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection;
+    }
+
+    private static void write(HttpURLConnection connection, byte[] body) throws IOException {
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Read the whole response, so the connection can be reused.
+     */
+    private static byte[] read(HttpURLConnection connection, int status) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (input != null) {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void expectOk(String node, int status) throws IOException {
+        if (status != 200) {
+            throw new IOException("Node " + node + " answered " + status);
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
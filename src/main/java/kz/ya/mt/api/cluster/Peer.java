@@ -0,0 +1,73 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Calls to other nodes of the cluster. The two-phase commit calls are
+ * idempotent, so they are simply repeated after a failure.
+ *
+ * @author yerlan.akhmetov
+ */
+public interface Peer {
+
+    /**
+     * Ask the node to reserve a credit to one of its accounts.
+     *
+     * @return status of the node: 200 if reserved, 404 if there is no such
+     * account, 406 if its balance would overflow
+     */
+    int prepare(String node, String id, String fromAccountNo, String toAccountNo, long amount) throws IOException;
+
+    /**
+     * Apply a reserved credit, fails unless the node answers 200.
+     */
+    void commit(String node, String id) throws IOException;
+
+    /**
+     * Drop a reserved credit, fails unless the node answers 200.
+     */
+    void abort(String node, String id) throws IOException;
+
+    /**
+     * Pass a client request on to the node owning its account.
+     *
+     * @param path path and query of the request
+     */
+    Response forward(String node, String method, String path, String contentType,
+            Map<String, String> headers, byte[] body) throws IOException;
+
+    /**
+     * Response of a forwarded request, with the first value of every header.
+     */
+    final class Response {
+
+        private final int status;
+        private final String contentType;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        public Response(int status, String contentType, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
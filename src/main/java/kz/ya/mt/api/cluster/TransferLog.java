@@ -0,0 +1,307 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead log of the two-phase commits of a node, both the transfers it
+ * coordinates and the credits it has reserved for other nodes. Records are
+ * length-prefixed and checksummed, a torn record at the end is dropped on
+ * replay.
+ * <p>
+ * Appends are buffered by the OS, {@link #sync} makes them durable. Threads
+ * syncing at the same time share one fsync, and so do all changes journaled
+ * in one write of the journal, see {@link #syncAll()}.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class TransferLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransferLog.class);
+    private static final String FILE = "transfers.log";
+    private static final int HEADER = 8;
+    private static final int MAX_RECORD = 1 << 16;
+
+    private static final byte PREPARE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte ABORT = 3;
+    private static final byte DONE = 4;
+    private static final byte RESERVE = 5;
+    private static final byte APPLY = 6;
+    private static final byte RELEASE = 7;
+
+    /**
+     * Records in the order they were logged.
+     */
+    public interface Handler {
+
+        /**
+         * The coordinator is about to debit the sender.
+         *
+         * @param version version of the sender after the debit
+         */
+        void prepared(String id, String fromAccountNo, String toAccountNo, String node, long amount, long version);
+
+        void committed(String id);
+
+        /**
+         * @param version version of the sender after the refund, 0 if
+         * nothing has to be refunded
+         */
+        void aborted(String id, long version);
+
+        /**
+         * The participant has got the decision.
+         */
+        void done(String id);
+
+        /**
+         * The participant has promised to accept the credit.
+         */
+        void reserved(String id, String fromAccountNo, String toAccountNo, long amount);
+
+        /**
+         * @param version version of the receiver after the credit
+         */
+        void applied(String id, long version);
+
+        void released(String id);
+    }
+
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private volatile long appended;
+    private volatile long durable;
+
+    private TransferLog(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.appended = channel.position();
+        this.durable = appended;
+    }
+
+    /**
+     * Read all records of the log in the directory, if there is one.
+     */
+    public static void replay(Path directory, Handler handler) throws IOException {
+        final Path file = directory.resolve(FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+            final CRC32 crc = new CRC32();
+            final byte[] record = new byte[MAX_RECORD];
+            long records = 0;
+            while (true) {
+                final int length;
+                final int checksum;
+                try {
+                    length = input.readInt();
+                    checksum = input.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        break;
+                    }
+                    input.readFully(record, 0, length);
+                } catch (EOFException ex) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                dispatch(new DataInputStream(new ByteArrayInputStream(record, 0, length)), handler);
+                records++;
+            }
+            LOGGER.info("{} transfer log records are replayed from {}", records, file);
+        }
+    }
+
+    /**
+     * Start a new log in the directory, which replaces the old one once the
+     * records still needed are copied into it.
+     *
+     * @param live writes the records still needed into the new log
+     */
+    public static TransferLog create(Path directory, Consumer<TransferLog> live) throws IOException {
+        Files.createDirectories(directory);
+        final Path temporary = directory.resolve(FILE + ".tmp");
+        final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            final TransferLog log = new TransferLog(channel);
+            live.accept(log);
+            channel.force(true);
+            // the channel keeps appending to the file under its new name
+            Files.move(temporary, directory.resolve(FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            log.durable = log.appended;
+            return log;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return position to {@link #sync} to
+     */
+    public long prepare(String id, String fromAccountNo, String toAccountNo, String node, long amount, long version) {
+        return append(PREPARE, out -> {
+            out.writeUTF(id);
+            out.writeUTF(fromAccountNo);
+            out.writeUTF(toAccountNo);
+            out.writeUTF(node);
+            out.writeLong(amount);
+            out.writeLong(version);
+        });
+    }
+
+    public long commit(String id) {
+        return append(COMMIT, out -> out.writeUTF(id));
+    }
+
+    public long abort(String id, long version) {
+        return append(ABORT, out -> {
+            out.writeUTF(id);
+            out.writeLong(version);
+        });
+    }
+
+    public long done(String id) {
+        return append(DONE, out -> out.writeUTF(id));
+    }
+
+    public long reserve(String id, String fromAccountNo, String toAccountNo, long amount) {
+        return append(RESERVE, out -> {
+            out.writeUTF(id);
+            out.writeUTF(fromAccountNo);
+            out.writeUTF(toAccountNo);
+            out.writeLong(amount);
+        });
+    }
+
+    public long apply(String id, long version) {
+        return append(APPLY, out -> {
+            out.writeUTF(id);
+            out.writeLong(version);
+        });
+    }
+
+    public long release(String id) {
+        return append(RELEASE, out -> out.writeUTF(id));
+    }
+
+    /**
+     * Wait until the log is durable up to the position.
+     */
+    public void sync(long position) {
+        if (durable >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= position) {
+                return;
+            }
+            // covers every record appended so far, not only the caller's
+            final long target = appended;
+            try {
+                channel.force(false);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            durable = target;
+        }
+    }
+
+    /**
+     * Wait until every record appended so far is durable.
+     */
+    public void syncAll() {
+        sync(appended);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long append(byte type, RecordWriter writer) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        final int length = record.remaining() - HEADER;
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+
+        synchronized (this) {
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            appended += record.capacity();
+            return appended;
+        }
+    }
+
+    private static void dispatch(DataInputStream in, Handler handler) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case PREPARE:
+                handler.prepared(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+                break;
+            case COMMIT:
+                handler.committed(in.readUTF());
+                break;
+            case ABORT:
+                handler.aborted(in.readUTF(), in.readLong());
+                break;
+            case DONE:
+                handler.done(in.readUTF());
+                break;
+            case RESERVE:
+                handler.reserved(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong());
+                break;
+            case APPLY:
+                handler.applied(in.readUTF(), in.readLong());
+                break;
+            case RELEASE:
+                handler.released(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown transfer log record: " + type);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+}
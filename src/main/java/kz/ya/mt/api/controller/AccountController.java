@@ -0,0 +1,160 @@
+package kz.ya.mt.api.controller;
+
+import io.javalin.BadRequestResponse;
+import io.javalin.Context;
+import java.util.ArrayList;
+import java.util.List;
+import kz.ya.mt.api.cluster.ClusterNode;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.AccountNotFoundException;
+import kz.ya.mt.api.importer.AccountImporter;
+import kz.ya.mt.api.ledger.Ledger;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountSummary;
+import kz.ya.mt.api.model.Money;
+import kz.ya.mt.api.model.Transaction;
+import kz.ya.mt.api.model.TransactionPage;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class AccountController {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 1000;
+
+    private final AccountImporter importer;
+    private final ClusterNode cluster;
+
+    public AccountController(final AccountImporter importer) {
+        this(importer, null);
+    }
+
+    /**
+     * @param cluster node of a partitioned deployment, null if there is one
+     * node only
+     */
+    public AccountController(final AccountImporter importer, final ClusterNode cluster) {
+        this.importer = importer;
+        this.cluster = cluster;
+    }
+
+    /**
+     * Read without the account lock, see {@link kz.ya.mt.api.model.Account#read()}.
+     */
+    public void get(final Context context) {
+        final String number = context.pathParam("number");
+        if (forwarded(context, number)) {
+            return;
+        }
+        final Account account = AccountDao.getInstance().get(number).orElseThrow(
+                () -> new AccountNotFoundException(number));
+        context.json(AccountSummary.of(account));
+    }
+
+    /**
+     * Accounts given by repeated "number" query parameters, unknown ones
+     * are left out. Every account is consistent in itself, the accounts are
+     * not read at one moment together. In a cluster only accounts of this
+     * node are found.
+     */
+    public void getAll(final Context context) {
+        final List<String> numbers = context.queryParams("number");
+        if (numbers.isEmpty()) {
+            throw new BadRequestResponse("No account numbers");
+        }
+        if (numbers.size() > MAX_LIMIT) {
+            throw new BadRequestResponse("Up to " + MAX_LIMIT + " accounts are read at once");
+        }
+        final List<AccountSummary> accounts = new ArrayList<>(numbers.size());
+        for (String number : numbers) {
+            AccountDao.getInstance().get(number).ifPresent(account -> accounts.add(AccountSummary.of(account)));
+        }
+        context.json(accounts);
+    }
+
+    /**
+     * A page of the account history, newest first. The cursor is the
+     * nextCursor of the previous page, pages don't shift while new
+     * transfers are appended.
+     */
+    public void transactions(final Context context) {
+        final String number = context.pathParam("number");
+        if (forwarded(context, number)) {
+            return;
+        }
+        if (!AccountDao.getInstance().get(number).isPresent()) {
+            throw new AccountNotFoundException(number);
+        }
+        final int limit = intParam(context, "limit", DEFAULT_LIMIT);
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BadRequestResponse("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        final long cursor = longParam(context, "cursor", -1);
+        if (context.queryParam("cursor") != null && cursor < 1) {
+            throw new BadRequestResponse("Invalid cursor");
+        }
+
+        final Ledger.Page page = AccountDao.getInstance().getLedger().page(number, cursor, limit);
+        final List<Transaction> transactions = new ArrayList<>(page.getEntries().size());
+        for (Ledger.Entry entry : page.getEntries()) {
+            final long amount = number.equals(entry.getFromAccountNo()) ? -entry.getAmount() : entry.getAmount();
+            transactions.add(new Transaction(entry.getId(), entry.getTimestamp(), entry.getFromAccountNo(),
+                    entry.getToAccountNo(), Money.toString(amount)));
+        }
+        context.json(new TransactionPage(transactions,
+                page.getNext() < 0 ? null : Long.toString(page.getNext())));
+    }
+
+    /**
+     * Create accounts from the streamed body, NDJSON or CSV by the content
+     * type. The optional "expected" query parameter sizes the store up front.
+     */
+    public void importAccounts(final Context context) throws Exception {
+        final String contentType = context.contentType() == null ? "" : context.contentType();
+        final AccountImporter.Format format;
+        if (contentType.startsWith("text/csv")) {
+            format = AccountImporter.Format.CSV;
+        } else if (contentType.startsWith("application/x-ndjson") || contentType.startsWith("application/json")) {
+            format = AccountImporter.Format.NDJSON;
+        } else {
+            throw new BadRequestResponse("Content type must be application/x-ndjson or text/csv");
+        }
+        final int expected = intParam(context, "expected", 0);
+        if (expected < 0) {
+            throw new BadRequestResponse("Expected must not be negative");
+        }
+        context.json(importer.importFrom(context.req.getInputStream(), format, expected));
+    }
+
+    /**
+     * @return true if the account belongs to another node, which has
+     * answered the request
+     */
+    private boolean forwarded(final Context context, final String number) {
+        if (cluster == null || cluster.isLocal(number)) {
+            return false;
+        }
+        ClusterController.forward(context, cluster, cluster.ownerOf(number));
+        return true;
+    }
+
+    private static int intParam(final Context context, final String name, final int defaultValue) {
+        final String value = context.queryParam(name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestResponse(name + " must be a number");
+        }
+    }
+
+    private static long longParam(final Context context, final String name, final long defaultValue) {
+        final String value = context.queryParam(name);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestResponse(name + " must be a number");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package kz.ya.mt.api.controller;
+
+import io.javalin.Context;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import kz.ya.mt.api.cluster.ClusterNode;
+import kz.ya.mt.api.cluster.HttpPeer;
+import kz.ya.mt.api.cluster.Peer;
+import kz.ya.mt.api.exception.NodeUnavailableException;
+import kz.ya.mt.api.model.Money;
+
+/**
+ * Two-phase commit calls of other nodes, see {@link ClusterNode}.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ClusterController {
+
+    private final ClusterNode cluster;
+
+    public ClusterController(final ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+
+    public void prepare(final Context context) {
+        final String id = context.formParam("id", String.class).check(input -> input != null).get();
+        final String fromAccountNo = context.formParam("fromAccountNo", String.class)
+                .check(input -> input != null).get();
+        final String toAccountNo = context.formParam("toAccountNo", String.class)
+                .check(input -> input != null).get();
+        final long amount = Money.parse(context.formParam("amount", String.class)
+                .check(input -> input != null).get());
+        cluster.prepare(id, fromAccountNo, toAccountNo, amount);
+        context.status(200); // OK
+    }
+
+    public void commit(final Context context) throws InterruptedException {
+        cluster.commit(context.formParam("id", String.class).check(input -> input != null).get());
+        context.status(200); // OK
+    }
+
+    public void abort(final Context context) {
+        cluster.abort(context.formParam("id", String.class).check(input -> input != null).get());
+        context.status(200); // OK
+    }
+
+    /**
+     * Pass the request on to the node, and its response back to the client.
+     * A request forwarded already means the nodes disagree about the owner.
+     */
+    static void forward(final Context context, final ClusterNode cluster, final String node) {
+        if (context.header(HttpPeer.FORWARDED) != null) {
+            throw new IllegalStateException("Request forwarded to " + cluster.getSelf() + " belongs to " + node);
+        }
+        final Map<String, String> headers = new HashMap<>();
+        final String key = context.header(TransferController.IDEMPOTENCY_KEY);
+        if (key != null) {
+            headers.put(TransferController.IDEMPOTENCY_KEY, key);
+        }
+        final String query = context.queryString();
+        final Peer.Response response;
+        try {
+            response = cluster.forward(node, context.method(), context.path() + (query == null ? "" : "?" + query),
+                    context.contentType(), headers, context.bodyAsBytes());
+        } catch (IOException ex) {
+            throw new NodeUnavailableException(node, ex);
+        }
+        context.status(response.getStatus());
+        final String replayed = response.getHeaders().get(TransferController.IDEMPOTENT_REPLAYED);
+        if (replayed != null) {
+            context.header(TransferController.IDEMPOTENT_REPLAYED, replayed);
+        }
+        if (response.getBody().length > 0) {
+            if (response.getContentType() != null) {
+                context.contentType(response.getContentType());
+            }
+            context.result(new ByteArrayInputStream(response.getBody()));
+        }
+    }
+}
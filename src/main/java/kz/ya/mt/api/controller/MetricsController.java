@@ -0,0 +1,53 @@
+package kz.ya.mt.api.controller;
+
+import io.javalin.BadRequestResponse;
+import io.javalin.Context;
+import java.util.ArrayList;
+import java.util.List;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.metrics.ContentionTracker;
+import kz.ya.mt.api.metrics.Metrics;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.ContendedAccount;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class MetricsController {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 1000;
+
+    public void metrics(final Context context) {
+        context.contentType("text/plain; version=0.0.4");
+        context.result(Metrics.render());
+    }
+
+    /**
+     * Top accounts by lock waits, limited by the optional "limit" query
+     * parameter.
+     */
+    public void contention(final Context context) {
+        final String limitParam = context.queryParam("limit");
+        final int limit;
+        try {
+            limit = limitParam == null ? DEFAULT_LIMIT : Integer.parseInt(limitParam);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestResponse("Limit must be a number");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BadRequestResponse("Limit must be between 1 and " + MAX_LIMIT);
+        }
+
+        final List<ContendedAccount> accounts = new ArrayList<>(limit);
+        for (ContentionTracker.Entry entry : Metrics.CONTENTION.top(limit)) {
+            final long failedTransfers = AccountDao.getInstance().get(entry.getNumber())
+                    .map(Account::getFailCount)
+                    .orElse(-1L);
+            accounts.add(new ContendedAccount(entry.getNumber(), entry.getWaits(), entry.getOvercount(),
+                    entry.getAverageWaitNanos() / 1000.0, failedTransfers));
+        }
+        context.json(accounts);
+    }
+}
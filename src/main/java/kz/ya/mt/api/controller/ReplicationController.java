@@ -0,0 +1,66 @@
+package kz.ya.mt.api.controller;
+
+import io.javalin.Context;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.ReadOnlyReplicaException;
+import kz.ya.mt.api.model.ReplicationStatus;
+import kz.ya.mt.api.replication.ReplicationClient;
+import kz.ya.mt.api.replication.ReplicationServer;
+
+/**
+ * Status of journal replication, and promotion of a follower to the
+ * primary.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ReplicationController {
+
+    private final ReplicationServer server;
+    private final ReplicationClient client;
+    private final String primary;
+
+    /**
+     * @param server null if the node doesn't ship its journal
+     * @param client null if the node doesn't follow a primary
+     * @param primary address of the primary followed
+     */
+    public ReplicationController(final ReplicationServer server, final ReplicationClient client,
+            final String primary) {
+        this.server = server;
+        this.client = client;
+        this.primary = primary;
+    }
+
+    public void status(final Context context) {
+        final long position = AccountDao.getInstance().getJournal().getDurablePosition();
+        if (client != null && client.isRunning()) {
+            context.json(ReplicationStatus.follower(position, client.isConnected(), client.getLag(),
+                    server == null ? null : server.getFollowers()));
+        } else {
+            context.json(ReplicationStatus.primary(position, server == null ? null : server.getFollowers()));
+        }
+    }
+
+    /**
+     * Stop following the primary and take changes from now on. The primary
+     * must be stopped before, or it and the follower diverge. Credits the
+     * primary owed when it stopped are settled by the promoted node.
+     */
+    public void promote(final Context context) throws InterruptedException {
+        if (client != null) {
+            client.close();
+            AccountDao.getInstance().settleOwed();
+        }
+        context.status(200); // OK
+    }
+
+    /**
+     * Before handler rejecting changes while the node follows a primary.
+     */
+    public void checkWritable(final Context context) {
+        if (client != null && client.isRunning() && !"GET".equals(context.method())
+                && !context.path().startsWith("/replication")) {
+            throw new ReadOnlyReplicaException(primary);
+        }
+    }
+}
@@ -1,16 +1,38 @@
 package kz.ya.mt.api.controller;
 
+import io.javalin.BadRequestResponse;
 import io.javalin.Context;
+import io.javalin.HttpResponseException;
+import kz.ya.mt.api.cluster.ClusterNode;
 import kz.ya.mt.api.exception.AccountNotFoundException;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.IdempotencyKeyReusedException;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.JournalException;
+import kz.ya.mt.api.exception.MalformedJsonException;
+import kz.ya.mt.api.exception.NodeUnavailableException;
 import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.NullInputAccountException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
 import kz.ya.mt.api.exception.TransferToTheSameAccountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
 import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.cache.IdempotencyCache;
 import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.engine.AsyncTransferEngine;
+import kz.ya.mt.api.engine.LockingTransferEngine;
+import kz.ya.mt.api.engine.TransferBatch;
+import kz.ya.mt.api.engine.TransferEngine;
+import kz.ya.mt.api.json.TransferJsonReader;
+import kz.ya.mt.api.metrics.Metrics;
+import kz.ya.mt.api.model.BatchTransferResponse;
+import kz.ya.mt.api.model.Money;
 
-import java.math.BigDecimal;
-import java.util.concurrent.TimeUnit;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  *
@@ -18,74 +40,322 @@ import org.slf4j.LoggerFactory;
  */
 public class TransferController {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(TransferController.class);
-    private static final int LOCK_WAIT_SEC = 5;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
 
-    public void process(final Context context) throws Exception {
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
 
-        String fromAccountNo = context.formParam("fromAccountNo", String.class)
-                .check(input -> input != null).get();
-        String toAccountNo = context.formParam("toAccountNo", String.class)
-                .check(input -> input != null).get();
+    /**
+     * Returned by {@link #transfer} when the owner of the sender has
+     * answered the request already.
+     */
+    private static final CompletableFuture<Void> FORWARDED = CompletableFuture.completedFuture(null);
 
-        if (fromAccountNo.equals(toAccountNo)) {
-            throw new TransferToTheSameAccountException();
-        }
-        
-        BigDecimal amount = context.formParam("amount", BigDecimal.class)
-                .check(input -> input != null).get();
+    private final TransferEngine transferEngine;
+    private final IdempotencyCache idempotencyCache;
+    private final ClusterNode cluster;
 
-        Account fromAccount = AccountDao.getInstance().get(fromAccountNo).orElseThrow(
-                () -> new AccountNotFoundException(fromAccountNo));
+    public TransferController() {
+        this(new LockingTransferEngine());
+    }
+
+    public TransferController(final TransferEngine transferEngine) {
+        this(transferEngine, new IdempotencyCache(100_000, 86_400));
+    }
+
+    public TransferController(final TransferEngine transferEngine, final IdempotencyCache idempotencyCache) {
+        this(transferEngine, idempotencyCache, null);
+    }
+
+    /**
+     * @param cluster node of a partitioned deployment, null if there is one
+     * node only
+     */
+    public TransferController(final TransferEngine transferEngine, final IdempotencyCache idempotencyCache,
+            final ClusterNode cluster) {
+        this.transferEngine = transferEngine;
+        this.idempotencyCache = idempotencyCache;
+        this.cluster = cluster;
+    }
 
-        Account toAccount = AccountDao.getInstance().get(toAccountNo).orElseThrow(
-                () -> new AccountNotFoundException(toAccountNo));
-        
-        boolean isCompletedSuccessfully = performTransaction(fromAccount, toAccount, amount);
-        
-        if (isCompletedSuccessfully) {
+    /**
+     * Times the request and counts its outcome, see {@link Metrics}.
+     */
+    public void process(final Context context) throws Exception {
+        final long started = System.nanoTime();
+        final CompletableFuture<Void> response;
+        try {
+            response = transfer(context);
+        } catch (Exception ex) {
+            finish(started, ex);
+            throw ex;
+        }
+        if (response == FORWARDED) {
+            Metrics.REQUEST.record(System.nanoTime() - started);
+            Metrics.outcome(context.status());
+            return;
+        }
+        if (response == null) {
+            finish(started, null);
             context.status(200); // OK
+            return;
+        }
+        response.whenComplete((ignored, ex) -> finish(started, ex));
+        context.result(response);
+    }
+
+    /**
+     * Takes form parameters, or a JSON object with the same fields. With an
+     * Idempotency-Key header a transfer is executed once, retries get the
+     * outcome of the first request from {@link IdempotencyCache}. Only
+     * definitive outcomes are kept, after a transient failure the key is
+     * forgotten and a retry executes the transfer.
+     * <p>
+     * In a cluster the request is forwarded to the owner of the sender, which
+     * runs a transfer to an account of another node as a two-phase commit.
+     *
+     * @return null if the transfer is done already, {@link #FORWARDED} if
+     * the response is written already
+     */
+    private CompletableFuture<Void> transfer(final Context context) throws Exception {
+
+        String fromAccountNo;
+        String toAccountNo;
+        long amount;
+        if (isJson(context)) {
+            final TransferJsonReader.Transfers request = TransferJsonReader.readTransfer(context.bodyAsBytes());
+            fromAccountNo = request.getFromAccountNo(0);
+            toAccountNo = request.getToAccountNo(0);
+            if (fromAccountNo == null || toAccountNo == null) {
+                throw new NullInputAccountException();
+            }
+            if (fromAccountNo.equals(toAccountNo)) {
+                throw new TransferToTheSameAccountException();
+            }
+            amount = request.getAmount(0);
         } else {
-            context.status(408); // Request Timeout
+            fromAccountNo = context.formParam("fromAccountNo", String.class)
+                    .check(input -> input != null).get();
+            toAccountNo = context.formParam("toAccountNo", String.class)
+                    .check(input -> input != null).get();
+
+            if (fromAccountNo.equals(toAccountNo)) {
+                throw new TransferToTheSameAccountException();
+            }
+
+            amount = Money.parse(context.formParam("amount", String.class)
+                    .check(input -> input != null).get());
+        }
+
+        if (cluster != null && !cluster.isLocal(fromAccountNo)) {
+            ClusterController.forward(context, cluster, cluster.ownerOf(fromAccountNo));
+            return FORWARDED;
+        }
+
+        // looked up before the accounts, a retry of a transfer to an
+        // account deleted since gets the outcome of the first request
+        final String key = context.header(IDEMPOTENCY_KEY);
+        if (key == null) {
+            return execute(fromAccountNo, toAccountNo, amount);
+        }
+        if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new BadRequestResponse("Idempotency key is limited to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+        final IdempotencyCache.Entry entry = new IdempotencyCache.Entry(fromAccountNo + ' ' + toAccountNo + ' ' + amount);
+        final IdempotencyCache.Entry earlier = idempotencyCache.putIfAbsent(key, entry);
+        if (earlier != null) {
+            if (!earlier.getFingerprint().equals(entry.getFingerprint())) {
+                throw new IdempotencyKeyReusedException(key);
+            }
+            context.header(IDEMPOTENT_REPLAYED, "true");
+            final CompletableFuture<Void> outcome = earlier.getOutcome();
+            return outcome.isDone() && !outcome.isCompletedExceptionally() ? null : outcome;
+        }
+
+        final CompletableFuture<Void> response;
+        try {
+            response = execute(fromAccountNo, toAccountNo, amount);
+        } catch (Exception ex) {
+            fail(key, entry, ex);
+            throw ex;
+        }
+        if (response == null) {
+            entry.getOutcome().complete(null);
+            return null;
+        }
+        response.whenComplete((ignored, ex) -> {
+            if (ex == null) {
+                entry.getOutcome().complete(null);
+            } else {
+                fail(key, entry, ex);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Keep the failure for retries if it is definitive, a rejection of the
+     * transfer itself. Any other, like a full engine, an interrupt or an
+     * unavailable journal or node, is forgotten before the requests waiting
+     * for it get it.
+     */
+    private void fail(String key, IdempotencyCache.Entry entry, Throwable ex) {
+        if (!(ex instanceof Exception) || statusOf((Exception) ex) >= 500) {
+            idempotencyCache.remove(key, entry);
         }
+        entry.getOutcome().completeExceptionally(ex);
+    }
+
+    /**
+     * @return null if the transfer is done already
+     */
+    private CompletableFuture<Void> execute(String fromAccountNo, String toAccountNo, long amount) throws Exception {
+        final Account fromAccount = find(fromAccountNo);
+        // null for an account of another node
+        final Account toAccount = cluster == null || cluster.isLocal(toAccountNo) ? find(toAccountNo) : null;
+
+        if (toAccount == null) {
+            cluster.transfer(fromAccount, toAccountNo, amount);
+            return null;
+        }
+        if (transferEngine instanceof AsyncTransferEngine) {
+            // free the request thread, the response is written on completion,
+            // off the engine threads
+            final CompletableFuture<Void> response = new CompletableFuture<>();
+            ((AsyncTransferEngine) transferEngine).transferAsync(fromAccount, toAccount, amount)
+                    .whenCompleteAsync((ignored, ex) -> {
+                        if (ex == null) {
+                            response.complete(null);
+                        } else {
+                            response.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                        }
+                    });
+            return response;
+        }
+
+        performTransaction(fromAccount, toAccount, amount);
+        return null;
+    }
+
+    private static void finish(long started, Throwable ex) {
+        Metrics.REQUEST.record(System.nanoTime() - started);
+        Metrics.outcome(ex == null ? 200 : ex instanceof Exception ? statusOf((Exception) ex) : 500);
     }
     
-    public boolean performTransaction(Account fromAccount, Account toAccount, BigDecimal amount) throws InterruptedException {
-        boolean isCompletedSuccessfully;
+    /**
+     * Apply a JSON list of transfers, atomically by default. Every transfer
+     * gets the status it would get from {@link #process}, transfers of a
+     * rejected atomic batch which haven't failed themselves get 409. In a
+     * cluster all accounts of a batch must be local.
+     */
+    public void processBatch(final Context context) throws Exception {
+        final TransferJsonReader.Transfers transfers = TransferJsonReader.readBatch(context.bodyAsBytes());
+        if (transfers.size() == 0) {
+            throw new BadRequestResponse("Batch has no transfers");
+        }
+        if (transfers.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestResponse("Batch is limited to " + MAX_BATCH_SIZE + " transfers");
+        }
 
-        LOGGER.debug("[" + Thread.currentThread().getName() + "] try to lock Sender");
-        if (fromAccount.getLock().tryLock(LOCK_WAIT_SEC, TimeUnit.SECONDS)) {
+        final TransferBatch batch = new TransferBatch(transfers.size(), transfers.isAtomic());
+        for (int i = 0; i < transfers.size(); i++) {
             try {
-                if (fromAccount.getBalance().compareTo(amount) < 0) {
-                    fromAccount.incFailedTransferCount();
-                    throw new NotEnoughFundsException(fromAccount.getNumber());
+                final String fromAccountNo = transfers.getFromAccountNo(i);
+                final String toAccountNo = transfers.getToAccountNo(i);
+                if (fromAccountNo == null || toAccountNo == null) {
+                    throw new NullInputAccountException();
                 }
-
-                LOGGER.debug("[" + Thread.currentThread().getName() + "] try to lock Receiver");
-                if (toAccount.getLock().tryLock(LOCK_WAIT_SEC, TimeUnit.SECONDS)) {
-                    try {
-                        AccountDao.getInstance().withdraw(fromAccount, amount);
-                        AccountDao.getInstance().deposit(toAccount, amount);
-                        isCompletedSuccessfully = true;
-                    } finally {
-                        LOGGER.debug("[" + Thread.currentThread().getName() + "] unlock Receiver");
-                        toAccount.getLock().unlock();
-                    }
-                } else {
-                    toAccount.incFailedTransferCount();
-                    LOGGER.debug("[" + Thread.currentThread().getName() + "] unable to lock Receiver");
-                    isCompletedSuccessfully = false;
+                if (fromAccountNo.equals(toAccountNo)) {
+                    throw new TransferToTheSameAccountException();
                 }
-            } finally {                
-                LOGGER.debug("[" + Thread.currentThread().getName() + "] unlock Sender");
-                fromAccount.getLock().unlock();
+                if (cluster != null && !(cluster.isLocal(fromAccountNo) && cluster.isLocal(toAccountNo))) {
+                    throw new UnsupportedOperationException("Batches are limited to accounts of one node");
+                }
+                final long amount = transfers.getAmount(i);
+                batch.set(i, find(fromAccountNo), find(toAccountNo), amount);
+            } catch (RuntimeException ex) {
+                batch.fail(i, ex);
             }
-        } else {
-            fromAccount.incFailedTransferCount();
-            LOGGER.debug("[" + Thread.currentThread().getName() + "] unable to lock Sender");
-            isCompletedSuccessfully = false;
         }
-        
-        return isCompletedSuccessfully;
+
+        if (!batch.isAtomic() || !batch.isFailed()) {
+            transferEngine.transfer(batch);
+            AccountDao.getInstance().awaitDurable();
+        }
+
+        final boolean rejected = batch.isAtomic() && batch.isFailed();
+        final List<BatchTransferResponse.Result> results = new ArrayList<>(batch.size());
+        int completed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final RuntimeException failure = batch.getFailure(i);
+            if (failure != null) {
+                results.add(new BatchTransferResponse.Result(statusOf(failure), failure.getMessage()));
+            } else if (rejected) {
+                results.add(new BatchTransferResponse.Result(409, "Batch was rejected"));
+            } else {
+                results.add(new BatchTransferResponse.Result(200, null));
+                completed++;
+            }
+        }
+
+        context.status(rejected ? 409 : 200); // CONFLICT or OK
+        context.json(new BatchTransferResponse(batch.isAtomic(), completed, results));
+    }
+
+    private static boolean isJson(final Context context) {
+        final String contentType = context.contentType();
+        return contentType != null && contentType.startsWith("application/json");
+    }
+
+    private Account find(String number) {
+        return AccountDao.getInstance().get(number).orElseThrow(
+                () -> new AccountNotFoundException(number));
+    }
+
+    /**
+     * Same statuses as the exception handlers of the application.
+     */
+    static int statusOf(Exception ex) {
+        if (ex instanceof HttpResponseException) {
+            return ((HttpResponseException) ex).getStatus();
+        }
+        if (ex instanceof AccountNotFoundException) {
+            return 404; // NOT FOUND
+        }
+        if (ex instanceof NotEnoughFundsException
+                || ex instanceof InvalidAmountException
+                || ex instanceof NullInputAccountException
+                || ex instanceof NullInputAmountException
+                || ex instanceof MalformedJsonException) {
+            return 400; // BAD REQUEST
+        }
+        if (ex instanceof TransferNegativeAmountException
+                || ex instanceof TransferZeroAmountException
+                || ex instanceof TransferToTheSameAccountException
+                || ex instanceof BalanceOverflowException) {
+            return 406; // NOT ACCEPTABLE
+        }
+        if (ex instanceof IdempotencyKeyReusedException) {
+            return 422; // UNPROCESSABLE ENTITY
+        }
+        if (ex instanceof UnsupportedOperationException) {
+            return 501; // NOT IMPLEMENTED
+        }
+        if (ex instanceof JournalException || ex instanceof NodeUnavailableException) {
+            return 503; // SERVICE UNAVAILABLE
+        }
+        return 500; // SERVER INTERNAL ERROR
+    }
+
+    /**
+     * Returns once the transfer is durable, the account locks are already
+     * released while waiting for the journal.
+     *
+     * @param amount in minor units, see {@link Money}
+     */
+    public void performTransaction(Account fromAccount, Account toAccount, long amount) throws InterruptedException {
+        transferEngine.transfer(fromAccount, toAccount, amount);
+        AccountDao.getInstance().awaitDurable();
     }
 }
@@ -6,25 +6,115 @@ import kz.ya.mt.api.exception.NotEnoughFundsException;
 import kz.ya.mt.api.exception.TransferNegativeAmountException;
 import kz.ya.mt.api.exception.TransferZeroAmountException;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import kz.ya.mt.api.exception.AccountAlreadyExistsException;
 import kz.ya.mt.api.exception.EmptyAccountNumberException;
-import kz.ya.mt.api.exception.NullAccountBalanceException;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.JournalException;
 import kz.ya.mt.api.exception.NullInputAccountException;
-import kz.ya.mt.api.exception.NullInputAmountException;
+import kz.ya.mt.api.journal.Journal;
+import kz.ya.mt.api.journal.Snapshot;
+import kz.ya.mt.api.ledger.Ledger;
+import kz.ya.mt.api.metrics.Metrics;
+import kz.ya.mt.api.model.AccountState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Accounts are kept in memory. With a journal opened every change is also
+ * appended to it, and callers wait for {@link #awaitDurable()} before
+ * reporting success, so that acknowledged changes survive a restart.
+ * <p>
+ * Balances are journaled together with the account version, and
+ * {@link #snapshot()} stores every account with the version it has read,
+ * so the journal tail replayed over a snapshot skips changes which are
+ * in the snapshot already.
+ * <p>
+ * A transfer whose halves are applied by different writers journals the
+ * credit owed to the receiver together with the debit, and settles it with
+ * the credit or the refund. Credits not settled before a crash are redone
+ * by {@link #settleOwed()}.
  *
  * @author yerlan.akhmetov
  */
 public class AccountDao {
 
-    private final ConcurrentMap<String, Account> datastore = new ConcurrentHashMap<>(1000);
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountDao.class);
+
+    /**
+     * Followers the journal is shipped to, for changes to be acknowledged
+     * only when they are durable on enough of them as well.
+     */
+    public interface Replicas {
+
+        /**
+         * Wait until enough followers have made the journal durable up to
+         * the position.
+         *
+         * @throws JournalException if they haven't in time
+         */
+        void await(long position) throws InterruptedException;
+
+        /**
+         * Non-blocking version of {@link #await}.
+         */
+        CompletableFuture<Void> when(long position);
+    }
+
+    /**
+     * Writers changing accounts without their locks, a snapshot pauses them
+     * so it reads no change before it is journaled and no transfer whose
+     * credit is still owed.
+     */
+    public interface Writers {
+
+        /**
+         * Return once no change is being made, and no credit is owed, until
+         * {@link #resume()}.
+         */
+        void pause() throws InterruptedException;
+
+        void resume();
+    }
+
+    /**
+     * Replaced only by {@link #restoreSnapshot}.
+     */
+    private volatile AccountStore datastore = newStore();
+    /**
+     * Held for reading while an account is added or removed, so a snapshot
+     * can't start between the journal record and the datastore change.
+     */
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final Ledger ledger = new Ledger(Integer.getInteger("mt.ledger.capacity", Ledger.DEFAULT_CAPACITY));
+    /**
+     * Credits replayed from the journal and not settled yet, in journal
+     * order. Transfers in flight are tracked by their engine instead.
+     */
+    private final Map<Long, Owed> owed = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final AtomicLong transferIds = new AtomicLong();
+    private volatile Journal journal;
+    private volatile Replicas replicas;
+    private volatile Writers writers;
+    private long maxDelayMicros;
+    private long segmentSize;
     private volatile static AccountDao INSTANCE;
 
     private AccountDao() {
@@ -41,6 +131,241 @@ public class AccountDao {
         return INSTANCE;
     }
 
+    /**
+     * Restore accounts from the latest snapshot and the journal after it,
+     * and journal all further changes in the same directory.
+     *
+     * @param maxDelayMicros how long an fsync may be delayed to group
+     * more changes into it
+     * @param segmentSize size of a journal file in bytes
+     */
+    public void openJournal(Path directory, long maxDelayMicros, long segmentSize) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("Journal is already opened: " + journal.getDirectory());
+        }
+        this.maxDelayMicros = maxDelayMicros;
+        this.segmentSize = segmentSize;
+        long position = 0;
+        final Optional<Path> snapshot = Snapshot.latest(directory);
+        if (snapshot.isPresent()) {
+            position = Snapshot.load(snapshot.get(), Runtime.getRuntime().availableProcessors(),
+                    account -> datastore.insert(account, null));
+        }
+        journal = Journal.open(directory, position, maxDelayMicros, segmentSize, new Replayer(datastore, owed, transferIds));
+    }
+
+    /**
+     * Store all accounts, then delete the journal segments and snapshots
+     * made redundant by it. Transfers under account locks go on meanwhile,
+     * the {@link Writers} are paused while the accounts are read.
+     *
+     * @return journal position of the snapshot
+     */
+    public synchronized long snapshot() throws IOException, InterruptedException {
+        final Journal current = journal;
+        if (current == null) {
+            throw new IllegalStateException("Journal is not opened");
+        }
+
+        final Writers paused = writers;
+        if (paused != null) {
+            paused.pause();
+        }
+        final long position;
+        final Path file;
+        try {
+            structureLock.writeLock().lock();
+            try {
+                position = current.getAppendedPosition();
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+            file = Snapshot.write(current.getDirectory(), position, datastore.values());
+        } finally {
+            if (paused != null) {
+                paused.resume();
+            }
+        }
+        // every change read by the snapshot must be durable before it replaces the journal
+        current.awaitDurable(current.getAppendedPosition());
+        final Path published = Snapshot.publish(file);
+        Snapshot.deleteBefore(current.getDirectory(), position);
+        current.deleteSegmentsBefore(position);
+        LOGGER.info("Snapshot {} of {} accounts is taken", published, datastore.size());
+        return position;
+    }
+
+    /**
+     * Replace all accounts and the journal by a snapshot of another journal,
+     * which is continued from the snapshot position on. The snapshot is
+     * loaded into a new store while the current accounts are still served,
+     * then the store and the new journal replace the current ones under the
+     * structure lock, so {@link #getJournal()} is never null meanwhile.
+     * Nothing is changed if the snapshot can't be received or loaded.
+     *
+     * @param length size of the snapshot file
+     */
+    public synchronized void restoreSnapshot(long position, InputStream input, long length) throws IOException {
+        final Journal current = journal;
+        if (current == null) {
+            throw new IllegalStateException("Journal is not opened");
+        }
+        final Path directory = current.getDirectory();
+        final Path file = Snapshot.receive(directory, position, input, length);
+        final AccountStore restored = newStore();
+        try {
+            Snapshot.load(file, Runtime.getRuntime().availableProcessors(), account -> restored.insert(account, null));
+        } catch (IOException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+
+        structureLock.writeLock().lock();
+        try {
+            // if this fails the closed journal stays in place, and the restore can be retried
+            current.close();
+            Journal.deleteSegments(directory);
+            Snapshot.publish(file);
+            Snapshot.deleteBefore(directory, position);
+            final Journal continued = Journal.open(directory, position, maxDelayMicros, segmentSize,
+                    new Replayer(restored, owed, transferIds));
+            ledger.clear();
+            // a snapshot is taken with no credits in flight
+            owed.clear();
+            datastore = restored;
+            journal = continued;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        LOGGER.info("Snapshot at position {} of {} accounts is restored", position, restored.size());
+    }
+
+    /**
+     * Apply whole frames of another journal and append them to this one as
+     * they are, so both journals have the same positions.
+     *
+     * @return journal position after the frames, for
+     * {@link Journal#awaitDurable(long)}
+     * @throws JournalException if the frames are corrupted, nothing is
+     * applied then
+     */
+    public long replicate(ByteBuffer frames) {
+        final Journal current = journal;
+        if (current == null) {
+            throw new IllegalStateException("Journal is not opened");
+        }
+        // the checksums are verified before anything is applied
+        if (Journal.replay(frames.duplicate(), NO_OP) != frames.remaining()) {
+            throw new JournalException("Replicated frames are corrupted", null);
+        }
+        structureLock.readLock().lock();
+        try {
+            final long position = current.appendFrames(frames.duplicate());
+            Journal.replay(frames, new Replayer(datastore, owed, transferIds));
+            return position;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the open journal, null without one
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Make {@link #awaitDurable()} and {@link #whenDurable()} wait for the
+     * followers as well, null to stop waiting for them.
+     */
+    public void setReplicas(Replicas replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * Make {@link #snapshot()} pause the writers, null to stop pausing
+     * them.
+     */
+    public void setWriters(Writers writers) {
+        this.writers = writers;
+    }
+
+    public void closeJournal() throws IOException {
+        final Journal current = journal;
+        if (current != null) {
+            journal = null;
+            current.close();
+        }
+    }
+
+    /**
+     * Wait until all changes made by the current thread are durable, must
+     * be called without account locks held.
+     */
+    public void awaitDurable() throws InterruptedException {
+        final Journal current = journal;
+        if (current != null) {
+            current.awaitDurable();
+            final Replicas followers = replicas;
+            if (followers != null) {
+                followers.await(current.getLastPosition());
+            }
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #awaitDurable()}.
+     */
+    public CompletableFuture<Void> whenDurable() {
+        final Journal current = journal;
+        if (current == null) {
+            return DONE;
+        }
+        final Replicas followers = replicas;
+        if (followers == null) {
+            return current.whenDurable();
+        }
+        // the position of the current thread, the future completes on another one
+        final long position = current.getLastPosition();
+        return current.whenDurable().thenCompose(ignored -> followers.when(position));
+    }
+
+    /**
+     * All changes made by the updates are journaled as one unit, so after
+     * a crash either all of them are restored or none.
+     */
+    public void atomically(Runnable updates) {
+        final Journal current = journal;
+        if (current == null) {
+            updates.run();
+            return;
+        }
+        current.beginFrame();
+        try {
+            updates.run();
+        } finally {
+            current.commitFrame();
+        }
+    }
+
+    /**
+     * Journal records hold whole balances, so with a journal every change of
+     * an account must be made by one writer at a time, under its lock or by
+     * the shard owning it, and accounts can't be striped.
+     */
+    public boolean isJournaled() {
+        return journal != null;
+    }
+
+    /**
+     * History of completed transfers, the engines which don't go through
+     * {@link #transfer} append to it themselves.
+     */
+    public Ledger getLedger() {
+        return ledger;
+    }
+
     public Optional<Account> get(String number) {
         final Account account = datastore.get(number);
 
@@ -50,107 +375,461 @@ public class AccountDao {
         return Optional.of(account);
     }
 
-    public Account create(String number, BigDecimal balance) {
+    public Account create(String number, long balance) {
         if (number == null || number.isEmpty()) {
             throw new EmptyAccountNumberException();
         }
-        if (balance == null) {
-            throw new NullAccountBalanceException();
-        }
         
-        final Account account = new Account(number, balance);
+        return insert(new Account(number, balance));
+    }
+
+    public Account create(long balance) {
+        String number = UUID.randomUUID().toString();
+
+        return insert(new Account(number, balance));
+    }
+
+    /**
+     * Prepare for a bulk import, so the inserts don't grow the store step
+     * by step.
+     */
+    public void reserve(int additional) {
+        datastore.reserve(additional);
+    }
 
-        if (datastore.putIfAbsent(number, account) != null) {
-            throw new AccountAlreadyExistsException(number);
+    /**
+     * @return the stored account, a copy of the given one off-heap
+     */
+    private Account insert(Account account) {
+        final Journal current = journal;
+        final Account stored;
+        if (current == null) {
+            stored = datastore.insert(account, null);
+        } else {
+            // journaled while the number is reserved, so the creation is in
+            // the journal before any change of the account can be
+            structureLock.readLock().lock();
+            try {
+                stored = datastore.insert(account,
+                        number -> current.create(number, account.getBalance(), account.getCreatedAtMillis()));
+            } finally {
+                structureLock.readLock().unlock();
+            }
         }
+        if (stored == null) {
+            throw new AccountAlreadyExistsException(account.getNumber());
+        }
+        return stored;
+    }
 
-        return account;
+    /**
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    public void withdraw(Account account, long amount) {
+        final Account updatedAccount = getForUpdate(account, amount);
+
+        final long balance = updatedAccount.getBalance() - amount;
+        if (balance < 0) {
+            throw new NotEnoughFundsException(updatedAccount.getNumber());
+        }
+        change(updatedAccount, -amount, balance, System.currentTimeMillis());
     }
 
-    public Account create(BigDecimal balance) {
-        if (balance == null) {
-            throw new NullAccountBalanceException();
+    /**
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    public void deposit(Account account, long amount) {
+        final Account updatedAccount = getForUpdate(account, amount);
+
+        final long balance = updatedAccount.getBalance() + amount;
+        // overflow iff both operands are positive and the result is negative
+        if (balance < 0) {
+            throw new BalanceOverflowException(updatedAccount.getNumber());
         }
-        
-        String number = UUID.randomUUID().toString();
+        change(updatedAccount, amount, balance, System.currentTimeMillis());
+    }
 
-        final Account account = new Account(number, balance);
-        
-        datastore.putIfAbsent(number, account);
+    /**
+     * Withdraw and deposit journaled as one record, both accounts must be
+     * locked by the caller, or owned by its shard. Without a journal a striped
+     * receiver needn't be locked.
+     *
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    public void transfer(Account fromAccount, Account toAccount, long amount) {
+        final long started = System.nanoTime();
+        try {
+            apply(fromAccount, toAccount, amount);
+        } finally {
+            Metrics.APPLY.record(System.nanoTime() - started);
+        }
+    }
 
-        return account;
+    private void apply(Account fromAccount, Account toAccount, long amount) {
+        final Account sender = getForUpdate(fromAccount, amount);
+        final Account receiver = getForUpdate(toAccount, amount);
+
+        final long fromBalance = sender.getBalance() - amount;
+        if (fromBalance < 0) {
+            throw new NotEnoughFundsException(sender.getNumber());
+        }
+        final long toBalance = receiver.getBalance() + amount;
+        if (toBalance < 0) {
+            throw new BalanceOverflowException(receiver.getNumber());
+        }
+        final long now = System.currentTimeMillis();
+        final Journal current = journal;
+        if (current == null) {
+            // changed by the amount, a striped receiver takes deposits
+            // without its lock; the deposit goes first as it may still fail
+            receiver.add(amount, now);
+            sender.add(-amount, now);
+        } else {
+            current.beginFrame();
+            try {
+                update(sender, fromBalance, now);
+                update(receiver, toBalance, now);
+            } finally {
+                current.commitFrame();
+            }
+        }
+        ledger.append(sender.getNumber(), receiver.getNumber(), amount, now);
     }
 
-    public void withdraw(Account account, BigDecimal amount) {
-        if (account == null) {
-            throw new NullInputAccountException();
+    /**
+     * First half of a transfer whose receiver is changed by another writer.
+     * The sender is debited and the credit owed to the receiver is journaled
+     * in the same record, the sender must be locked by the caller, or owned
+     * by its shard.
+     *
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     * @return id of the credit for {@link #credit} or {@link #refund}
+     */
+    public long debit(Account fromAccount, Account toAccount, long amount) {
+        final Account sender = getForUpdate(fromAccount, amount);
+
+        final long fromBalance = sender.getBalance() - amount;
+        if (fromBalance < 0) {
+            throw new NotEnoughFundsException(sender.getNumber());
         }
-        if (amount == null) {
-            throw new NullInputAmountException();
+        final long now = System.currentTimeMillis();
+        final Journal current = journal;
+        if (current == null) {
+            sender.add(-amount, now);
+            return 0;
         }
-        if (amount.compareTo(BigDecimal.ZERO) < 0) {
-            throw new TransferNegativeAmountException();
+        final long id = transferIds.incrementAndGet();
+        current.beginFrame();
+        try {
+            update(sender, fromBalance, now);
+            current.owe(id, sender.getNumber(), toAccount.getNumber(), amount, now);
+        } finally {
+            current.commitFrame();
         }
-        if (amount.compareTo(BigDecimal.ZERO) == 0) {
-            throw new TransferZeroAmountException();
+        return id;
+    }
+
+    /**
+     * Second half of a transfer started by {@link #debit}, the receiver
+     * must be locked by the caller, or owned by its shard.
+     *
+     * @throws AccountNotFoundException or {@link BalanceOverflowException}
+     * if the receiver can't take the amount, it must be refunded then
+     */
+    public void credit(long id, Account fromAccount, Account toAccount, long amount) {
+        final Account receiver = getForUpdate(toAccount, amount);
+
+        final long toBalance = receiver.getBalance() + amount;
+        if (toBalance < 0) {
+            throw new BalanceOverflowException(receiver.getNumber());
         }
-        if (!datastore.containsKey(account.getNumber())) {
-            throw new AccountNotFoundException(account.getNumber());
+        final long now = System.currentTimeMillis();
+        settle(id, receiver, amount, toBalance, now);
+        ledger.append(fromAccount.getNumber(), receiver.getNumber(), amount, now);
+    }
+
+    /**
+     * Return the amount of a transfer started by {@link #debit} to the
+     * sender, which must be locked by the caller, or owned by its shard.
+     */
+    public void refund(long id, Account fromAccount, long amount) {
+        final Account sender = getForUpdate(fromAccount, amount);
+
+        final long fromBalance = sender.getBalance() + amount;
+        if (fromBalance < 0) {
+            throw new BalanceOverflowException(sender.getNumber());
         }
+        settle(id, sender, amount, fromBalance, System.currentTimeMillis());
+    }
 
-        final Account updatedAccount = datastore.get(account.getNumber());
+    private void settle(long id, Account account, long amount, long balance, long modifiedAt) {
+        final Journal current = journal;
+        if (current == null) {
+            account.add(amount, modifiedAt);
+            return;
+        }
+        current.beginFrame();
+        try {
+            update(account, balance, modifiedAt);
+            current.settle(id);
+        } finally {
+            current.commitFrame();
+        }
+    }
 
-        BigDecimal balance = updatedAccount.getBalance().subtract(amount);
-        if (balance.compareTo(BigDecimal.ZERO) < 0) {
-            throw new NotEnoughFundsException(updatedAccount.getNumber());
+    /**
+     * Redo the credits which were owed when the journal was closed, or
+     * refund them if the receiver can't take them any more. Must be called
+     * after the journal is opened and before transfers are accepted, not
+     * while following a primary, whose journal settles them.
+     *
+     * @return number of credits settled
+     */
+    public int settleOwed() {
+        final Journal current = journal;
+        if (current == null) {
+            return 0;
+        }
+        final List<Map.Entry<Long, Owed>> pending;
+        synchronized (owed) {
+            pending = new ArrayList<>(owed.entrySet());
+            owed.clear();
+        }
+        for (Map.Entry<Long, Owed> entry : pending) {
+            final long id = entry.getKey();
+            final Owed credit = entry.getValue();
+            final Account receiver = datastore.get(credit.toNumber);
+            final Account sender = datastore.get(credit.fromNumber);
+            final long now = System.currentTimeMillis();
+            if (receiver != null && receiver.getBalance() <= Long.MAX_VALUE - credit.amount) {
+                settle(id, receiver, credit.amount, receiver.getBalance() + credit.amount, now);
+                ledger.append(credit.fromNumber, credit.toNumber, credit.amount, now);
+            } else if (sender != null && sender.getBalance() <= Long.MAX_VALUE - credit.amount) {
+                settle(id, sender, credit.amount, sender.getBalance() + credit.amount, now);
+            } else {
+                current.settle(id);
+                LOGGER.error("Credit of {} from [{}] to [{}] is settled with neither account able to take it",
+                        credit.amount, credit.fromNumber, credit.toNumber);
+            }
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.info("{} owed credits are settled", pending.size());
         }
-        updatedAccount.setBalance(balance);
-        updatedAccount.setModifiedAt(LocalDateTime.now());
+        return pending.size();
+    }
+
+    /**
+     * Journal a transfer applied outside of the DAO by a lock-free engine.
+     * Must be called before the new states become visible, so that a
+     * snapshot can't read a change which isn't journaled yet.
+     */
+    public void recordTransfer(Account[] accounts, AccountState[] states) {
+        final Journal current = journal;
+        if (current != null) {
+            current.beginFrame();
+            try {
+                for (int i = 0; i < accounts.length; i++) {
+                    current.update(accounts[i].getNumber(), states[i].getBalance(),
+                            states[i].getVersion(), states[i].getModifiedAt());
+                }
+            } finally {
+                current.commitFrame();
+            }
+        }
+    }
+
+    /**
+     * Make {@link #awaitDurable()} of the current thread cover changes
+     * journaled by other threads on its behalf.
+     */
+    public void joinJournal() {
+        final Journal current = journal;
+        if (current != null) {
+            current.join();
+        }
+    }
+
+    /**
+     * Must be called by the only writer of the account, see
+     * {@link #isJournaled()}. Without a journal the account is changed by
+     * the amount, deposits to a striped account may land meanwhile.
+     */
+    private void change(Account account, long amount, long balance, long modifiedAt) {
+        if (journal == null) {
+            account.add(amount, modifiedAt);
+        } else {
+            update(account, balance, modifiedAt);
+        }
+    }
+
+    /**
+     * Must be called under the account lock.
+     */
+    private void update(Account account, long balance, long modifiedAt) {
+        final long version = account.update(balance, modifiedAt);
 
-        datastore.replace(account.getNumber(), updatedAccount);
+        final Journal current = journal;
+        if (current != null) {
+            current.update(account.getNumber(), balance, version, modifiedAt);
+        }
     }
 
-    public void deposit(Account account, BigDecimal amount) {
+    private Account getForUpdate(Account account, long amount) {
         if (account == null) {
             throw new NullInputAccountException();
         }
-        if (amount == null) {
-            throw new NullInputAmountException();
-        }
-        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+        if (amount < 0) {
             throw new TransferNegativeAmountException();
         }
-        if (amount.compareTo(BigDecimal.ZERO) == 0) {
+        if (amount == 0) {
             throw new TransferZeroAmountException();
         }
-        if (!datastore.containsKey(account.getNumber())) {
-            throw new AccountNotFoundException(account.getNumber());
-        }
 
         final Account updatedAccount = datastore.get(account.getNumber());
-
-        BigDecimal balance = updatedAccount.getBalance().add(amount);
-        updatedAccount.setBalance(balance);
-        updatedAccount.setModifiedAt(LocalDateTime.now());
-
-        datastore.replace(account.getNumber(), updatedAccount);
+        if (updatedAccount == null) {
+            throw new AccountNotFoundException(account.getNumber());
+        }
+        return updatedAccount;
     }
 
     public void delete(Account account) {
         if (account == null) {
             throw new NullInputAccountException();
         }
-        if (!datastore.containsKey(account.getNumber())) {
+        if (datastore.get(account.getNumber()) == null) {
             throw new AccountNotFoundException(account.getNumber());
         }
-        datastore.remove(account.getNumber());
+        final Journal current = journal;
+        if (current == null) {
+            datastore.remove(account.getNumber(), null);
+        } else {
+            structureLock.readLock().lock();
+            try {
+                datastore.remove(account.getNumber(), current::delete);
+            } finally {
+                structureLock.readLock().unlock();
+            }
+        }
+        ledger.remove(account.getNumber());
     }
 
     public void clearDatastore() {
-        datastore.clear();
+        final Journal current = journal;
+        if (current == null) {
+            datastore.clear();
+        } else {
+            structureLock.writeLock().lock();
+            try {
+                current.clear();
+                datastore.clear();
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+        }
+        ledger.clear();
     }
     
     public boolean isDatastoreIsEmpty() {
-        return datastore.isEmpty();
+        return datastore.size() == 0;
+    }
+
+    private static AccountStore newStore() {
+        return AccountStore.create(System.getProperty("mt.store", "heap"));
+    }
+
+    private static final Journal.Handler NO_OP = new Journal.Handler() {
+
+        @Override
+        public void created(String number, long balance, long timestamp) {
+        }
+
+        @Override
+        public void updated(String number, long balance, long version, long timestamp) {
+        }
+
+        @Override
+        public void deleted(String number) {
+        }
+
+        @Override
+        public void cleared() {
+        }
+
+        @Override
+        public void owed(long id, String fromNumber, String toNumber, long amount, long timestamp) {
+        }
+
+        @Override
+        public void settled(long id) {
+        }
+    };
+
+    private static final class Owed {
+
+        final String fromNumber;
+        final String toNumber;
+        final long amount;
+
+        Owed(String fromNumber, String toNumber, long amount) {
+            this.fromNumber = fromNumber;
+            this.toNumber = toNumber;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Applies journal records as they are, the checks were done when the
+     * changes were made. An update older than the account, already in the
+     * snapshot or journaled late by a lock-free transfer, is skipped.
+     * Credits owed are collected until they are settled, and new ids of
+     * credits continue after the replayed ones.
+     */
+    private static final class Replayer implements Journal.Handler {
+
+        private final AccountStore store;
+        private final Map<Long, Owed> owed;
+        private final AtomicLong ids;
+
+        Replayer(AccountStore store, Map<Long, Owed> owed, AtomicLong ids) {
+            this.store = store;
+            this.owed = owed;
+            this.ids = ids;
+        }
+
+        @Override
+        public void created(String number, long balance, long timestamp) {
+            // the account may be in the snapshot already
+            store.insert(new Account(number, balance, timestamp), null);
+        }
+
+        @Override
+        public void updated(String number, long balance, long version, long timestamp) {
+            final Account account = store.get(number);
+            // a missing account is deleted later in the journal
+            if (account != null && version > account.getVersion()) {
+                account.restore(balance, version, timestamp);
+            }
+        }
+
+        @Override
+        public void deleted(String number) {
+            store.remove(number, null);
+        }
+
+        @Override
+        public void cleared() {
+            store.clear();
+        }
+
+        @Override
+        public void owed(long id, String fromNumber, String toNumber, long amount, long timestamp) {
+            owed.put(id, new Owed(fromNumber, toNumber, amount));
+            ids.accumulateAndGet(id, Math::max);
+        }
+
+        @Override
+        public void settled(long id) {
+            owed.remove(id);
+        }
     }
 }
@@ -0,0 +1,56 @@
+package kz.ya.mt.api.dao;
+
+import java.util.function.Consumer;
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Where {@link AccountDao} keeps accounts, selected with the mt.store
+ * system property.
+ *
+ * @author yerlan.akhmetov
+ */
+interface AccountStore {
+
+    /**
+     * @return null if there is no such account
+     */
+    Account get(String number);
+
+    /**
+     * @param beforeInsert called with the number while no other thread can
+     * insert or remove the same number, before the account becomes visible
+     * @return the stored account, which may be a copy of the given one, or
+     * null if the number is taken already
+     */
+    Account insert(Account account, Consumer<String> beforeInsert);
+
+    /**
+     * @param beforeRemove called the same way as on insert
+     */
+    void remove(String number, Consumer<String> beforeRemove);
+
+    void clear();
+
+    /**
+     * Make room for the given number of accounts to be inserted.
+     */
+    void reserve(int additional);
+
+    int size();
+
+    /**
+     * Weakly consistent, like iterators of concurrent collections.
+     */
+    Iterable<Account> values();
+
+    static AccountStore create(String name) {
+        switch (name) {
+            case "heap":
+                return new HeapAccountStore();
+            case "offheap":
+                return new OffHeapAccountStore(Integer.getInteger("mt.store.lockStripes", 4096));
+            default:
+                throw new IllegalArgumentException("Unknown account store: " + name);
+        }
+    }
+}
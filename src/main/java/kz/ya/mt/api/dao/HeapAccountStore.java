@@ -0,0 +1,127 @@
+package kz.ya.mt.api.dao;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Accounts as plain objects in chunked arrays, found by their position
+ * through a {@link UuidIndex}. Positions of deleted accounts are reused only
+ * after {@link #clear()}.
+ *
+ * @author yerlan.akhmetov
+ */
+final class HeapAccountStore implements AccountStore {
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final UuidIndex index = new UuidIndex();
+    private volatile Account[][] chunks = new Account[0][];
+    /**
+     * Guarded by the index.
+     */
+    private int nextId;
+
+    @Override
+    public Account get(String number) {
+        final int id = index.get(number);
+        return id == UuidIndex.MISSING ? null : accountAt(id);
+    }
+
+    @Override
+    public Account insert(Account account, Consumer<String> beforeInsert) {
+        final int id = index.insert(account.getNumber(), () -> {
+            final int allocated = allocate();
+            chunks[allocated >>> CHUNK_SHIFT][allocated & CHUNK_MASK] = account;
+            return allocated;
+        }, beforeInsert);
+        return id == UuidIndex.MISSING ? null : account;
+    }
+
+    @Override
+    public void remove(String number, Consumer<String> beforeRemove) {
+        synchronized (index) {
+            final int id = index.remove(number, beforeRemove);
+            if (id != UuidIndex.MISSING) {
+                chunks[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = null;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (index) {
+            index.clear();
+            chunks = new Account[0][];
+            nextId = 0;
+        }
+    }
+
+    @Override
+    public void reserve(int additional) {
+        index.reserve(additional);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Iterable<Account> values() {
+        return () -> new Iterator<Account>() {
+
+            private final UuidIndex.Cursor cursor = index.cursor();
+            private Account next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Account next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final Account current = next;
+                next = advance();
+                return current;
+            }
+
+            private Account advance() {
+                while (cursor.next()) {
+                    final Account account = accountAt(cursor.value());
+                    if (account != null) {
+                        return account;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private Account accountAt(int id) {
+        final Account[][] current = chunks;
+        final int chunk = id >>> CHUNK_SHIFT;
+        // the id may belong to an account removed by a concurrent clear
+        return chunk < current.length ? current[chunk][id & CHUNK_MASK] : null;
+    }
+
+    /**
+     * Called only under the index lock, like inserts.
+     */
+    private int allocate() {
+        final int id = nextId++;
+        final int chunk = id >>> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            final Account[][] grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = new Account[CHUNK_MASK + 1];
+            chunks = grown;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,295 @@
+package kz.ya.mt.api.dao;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+
+/**
+ * Balances, versions, timestamps and fail counts are kept in fixed-size
+ * slots of direct buffers, so the heap holds only the {@link UuidIndex} from
+ * account number to slot and a fixed number of locks. Accounts handed out are
+ * short-lived views of their slot, and accounts of the same lock stripe
+ * share a lock.
+ * <p>
+ * Slots of deleted accounts are reused only after {@link #clear()}, a view
+ * must not be used after its account is removed. Lock-free engines need
+ * heap accounts and can't be used with this store.
+ *
+ * @author yerlan.akhmetov
+ */
+final class OffHeapAccountStore implements AccountStore {
+
+    private static final int BALANCE = 0;
+    private static final int VERSION = 8;
+    private static final int CREATED_AT = 16;
+    private static final int MODIFIED_AT = 24;
+    private static final int FAIL_COUNT = 32;
+    static final int SLOT_SIZE = 40;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final UuidIndex index = new UuidIndex();
+    private final Lock[] locks;
+    /**
+     * Write sequences of the lock stripes, for reads without the lock.
+     */
+    private final StampedLock[] sequences;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    /**
+     * Guarded by the index.
+     */
+    private int nextSlot;
+
+    OffHeapAccountStore(int lockStripes) {
+        int stripes = 1;
+        while (stripes < lockStripes) {
+            stripes <<= 1;
+        }
+        locks = new Lock[stripes];
+        sequences = new StampedLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+            sequences[i] = new StampedLock();
+        }
+    }
+
+    @Override
+    public Account get(String number) {
+        final int slot = index.get(number);
+        return slot == UuidIndex.MISSING ? null : view(number, slot);
+    }
+
+    @Override
+    public Account insert(Account account, Consumer<String> beforeInsert) {
+        final int slot = index.insert(account.getNumber(), () -> {
+            final int allocated = allocate();
+            final ByteBuffer chunk = chunks[allocated >>> CHUNK_SHIFT];
+            final int offset = (allocated & CHUNK_MASK) * SLOT_SIZE;
+            final AccountState state = account.snapshot();
+            chunk.putLong(offset + BALANCE, state.getBalance());
+            chunk.putLong(offset + VERSION, state.getVersion());
+            chunk.putLong(offset + CREATED_AT, account.getCreatedAtMillis());
+            chunk.putLong(offset + MODIFIED_AT, state.getModifiedAt());
+            chunk.putLong(offset + FAIL_COUNT, account.getFailCount());
+            return allocated;
+        }, beforeInsert);
+        return slot == UuidIndex.MISSING ? null : view(account.getNumber(), slot);
+    }
+
+    @Override
+    public void remove(String number, Consumer<String> beforeRemove) {
+        index.remove(number, beforeRemove);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (index) {
+            index.clear();
+            nextSlot = 0;
+        }
+    }
+
+    @Override
+    public void reserve(int additional) {
+        index.reserve(additional);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Iterable<Account> values() {
+        return () -> new Iterator<Account>() {
+
+            private final UuidIndex.Cursor cursor = index.cursor();
+            private boolean next = cursor.next();
+
+            @Override
+            public boolean hasNext() {
+                return next;
+            }
+
+            @Override
+            public Account next() {
+                if (!next) {
+                    throw new NoSuchElementException();
+                }
+                final Account account = view(cursor.number(), cursor.value());
+                next = cursor.next();
+                return account;
+            }
+        };
+    }
+
+    /**
+     * @return number of bytes taken by slots off-heap
+     */
+    long capacityBytes() {
+        return (long) chunks.length * (CHUNK_MASK + 1) * SLOT_SIZE;
+    }
+
+    /**
+     * Called only under the index lock, like inserts.
+     */
+    private int allocate() {
+        final int slot = nextSlot++;
+        final int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            final ByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = ByteBuffer.allocateDirect((CHUNK_MASK + 1) * SLOT_SIZE).order(ByteOrder.nativeOrder());
+            chunks = grown;
+        }
+        return slot;
+    }
+
+    private Account view(String number, int slot) {
+        final ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        final int offset = (slot & CHUNK_MASK) * SLOT_SIZE;
+        final int stripe = slot & (locks.length - 1);
+        return new SlotAccount(number, chunk.getLong(offset + CREATED_AT), locks[stripe], sequences[stripe], stripe,
+                chunk, offset);
+    }
+
+    /**
+     * Reads and writes go straight to the slot, writes are made under the
+     * account lock.
+     */
+    private static final class SlotAccount extends Account {
+
+        private final int stripe;
+        private final StampedLock sequence;
+        private final ByteBuffer chunk;
+        private final int offset;
+
+        SlotAccount(String number, long createdAt, Lock lock, StampedLock sequence, int stripe, ByteBuffer chunk,
+                int offset) {
+            super(number, createdAt, lock);
+            this.sequence = sequence;
+            this.stripe = stripe;
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+
+        @Override
+        public long getBalance() {
+            return chunk.getLong(offset + BALANCE);
+        }
+
+        @Override
+        public void setBalance(long balance) {
+            chunk.putLong(offset + BALANCE, balance);
+        }
+
+        @Override
+        public long getModifiedAtMillis() {
+            return chunk.getLong(offset + MODIFIED_AT);
+        }
+
+        @Override
+        public void setModifiedAt(long modifiedAt) {
+            chunk.putLong(offset + MODIFIED_AT, modifiedAt);
+        }
+
+        @Override
+        public long getVersion() {
+            return chunk.getLong(offset + VERSION);
+        }
+
+        @Override
+        public long update(long balance, long modifiedAt) {
+            final long stamp = sequence.writeLock();
+            try {
+                final long version = chunk.getLong(offset + VERSION) + 1;
+                chunk.putLong(offset + BALANCE, balance);
+                chunk.putLong(offset + MODIFIED_AT, modifiedAt);
+                chunk.putLong(offset + VERSION, version);
+                return version;
+            } finally {
+                sequence.unlockWrite(stamp);
+            }
+        }
+
+        @Override
+        public void restore(long balance, long version, long modifiedAt) {
+            final long stamp = sequence.writeLock();
+            try {
+                chunk.putLong(offset + BALANCE, balance);
+                chunk.putLong(offset + VERSION, version);
+                chunk.putLong(offset + MODIFIED_AT, modifiedAt);
+            } finally {
+                sequence.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * The sequence is shared by the stripe, so a write to another account
+         * of the stripe may cause a retry as well.
+         */
+        @Override
+        public AccountState read() {
+            for (int attempt = 1;; attempt++) {
+                final long stamp = sequence.tryOptimisticRead();
+                final long balance = chunk.getLong(offset + BALANCE);
+                final long version = chunk.getLong(offset + VERSION);
+                final long modifiedAt = chunk.getLong(offset + MODIFIED_AT);
+                if (stamp != 0 && sequence.validate(stamp)) {
+                    return new AccountState(balance, version, modifiedAt);
+                }
+                if (attempt % READ_SPINS == 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public AccountState snapshot() {
+            getLock().lock();
+            try {
+                return read();
+            } finally {
+                getLock().unlock();
+            }
+        }
+
+        @Override
+        protected int getLockStripe() {
+            return stripe;
+        }
+
+        @Override
+        public void incFailedTransferCount() {
+            getLock().lock();
+            try {
+                chunk.putLong(offset + FAIL_COUNT, chunk.getLong(offset + FAIL_COUNT) + 1);
+            } finally {
+                getLock().unlock();
+            }
+        }
+
+        @Override
+        public long getFailCount() {
+            return chunk.getLong(offset + FAIL_COUNT);
+        }
+
+        @Override
+        public Object getState() {
+            throw new UnsupportedOperationException("Lock-free engines need heap accounts");
+        }
+
+        @Override
+        public boolean compareAndSetState(Object expect, Object update) {
+            throw new UnsupportedOperationException("Lock-free engines need heap accounts");
+        }
+    }
+}
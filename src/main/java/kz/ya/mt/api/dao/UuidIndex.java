@@ -0,0 +1,315 @@
+package kz.ya.mt.api.dao;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Index from account number to a non-negative int, e.g. the slot of the
+ * account. Canonical UUID numbers are kept as two longs in an open-addressing
+ * table, so a lookup neither hashes nor compares strings and there is no
+ * node object per entry. Other numbers go to a concurrent map.
+ * <p>
+ * Lookups don't lock. Inserts and removals are serialized, they are rare
+ * compared to lookups. A removed entry is only marked, its keys never
+ * change, so a lookup can't see a half-written entry; marks are dropped
+ * when the table is rebuilt.
+ *
+ * @author yerlan.akhmetov
+ */
+final class UuidIndex {
+
+    static final int MISSING = -1;
+
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+
+        final long[] keys;
+        final AtomicIntegerArray values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity * 2];
+            final int[] empty = new int[capacity];
+            Arrays.fill(empty, EMPTY);
+            values = new AtomicIntegerArray(empty);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private final ConcurrentMap<String, Integer> others = new ConcurrentHashMap<>();
+    /**
+     * Entries and removal marks in the table, guarded by this.
+     */
+    private int used;
+    private int size;
+
+    int get(String number) {
+        if (isUuid(number)) {
+            return get(high(number), low(number));
+        }
+        final Integer value = others.get(number);
+        return value == null ? MISSING : value;
+    }
+
+    int get(long high, long low) {
+        final Table current = table;
+        int i = hash(high, low) & current.mask;
+        while (true) {
+            final int value = current.values.get(i);
+            if (value == EMPTY) {
+                return MISSING;
+            }
+            if (value != REMOVED && current.keys[2 * i] == high && current.keys[2 * i + 1] == low) {
+                return value;
+            }
+            i = (i + 1) & current.mask;
+        }
+    }
+
+    /**
+     * @param value called only if the number is absent, its result is
+     * published after the hook has run
+     * @param beforeInsert may be null
+     * @return the inserted value or {@link #MISSING} if the number is taken
+     */
+    synchronized int insert(String number, IntSupplier value, Consumer<String> beforeInsert) {
+        if (!isUuid(number)) {
+            if (others.containsKey(number)) {
+                return MISSING;
+            }
+            final int inserted = value.getAsInt();
+            if (beforeInsert != null) {
+                beforeInsert.accept(number);
+            }
+            others.put(number, inserted);
+            return inserted;
+        }
+
+        final long high = high(number);
+        final long low = low(number);
+        if (get(high, low) != MISSING) {
+            return MISSING;
+        }
+        if ((used + 1) * 2 > table.values.length()) {
+            rebuild();
+        }
+        final Table current = table;
+        int i = hash(high, low) & current.mask;
+        while (current.values.get(i) != EMPTY) {
+            i = (i + 1) & current.mask;
+        }
+        final int inserted = value.getAsInt();
+        if (beforeInsert != null) {
+            beforeInsert.accept(number);
+        }
+        current.keys[2 * i] = high;
+        current.keys[2 * i + 1] = low;
+        current.values.set(i, inserted);
+        used++;
+        size++;
+        return inserted;
+    }
+
+    /**
+     * @param beforeRemove may be null
+     * @return the removed value or {@link #MISSING}
+     */
+    synchronized int remove(String number, Consumer<String> beforeRemove) {
+        if (!isUuid(number)) {
+            final Integer value = others.get(number);
+            if (value == null) {
+                return MISSING;
+            }
+            if (beforeRemove != null) {
+                beforeRemove.accept(number);
+            }
+            others.remove(number);
+            return value;
+        }
+
+        final long high = high(number);
+        final long low = low(number);
+        final Table current = table;
+        int i = hash(high, low) & current.mask;
+        while (true) {
+            final int value = current.values.get(i);
+            if (value == EMPTY) {
+                return MISSING;
+            }
+            if (value != REMOVED && current.keys[2 * i] == high && current.keys[2 * i + 1] == low) {
+                if (beforeRemove != null) {
+                    beforeRemove.accept(number);
+                }
+                current.values.set(i, REMOVED);
+                size--;
+                return value;
+            }
+            i = (i + 1) & current.mask;
+        }
+    }
+
+    /**
+     * Grow the table once for the given number of additional numbers, so
+     * inserting them doesn't rebuild it over and over.
+     */
+    synchronized void reserve(int additional) {
+        final long needed = ((long) size + additional) * 2 + 2;
+        if (needed > table.values.length()) {
+            rebuild((int) Math.min(needed, 1 << 28));
+        }
+    }
+
+    synchronized void clear() {
+        table = new Table(MIN_CAPACITY);
+        others.clear();
+        used = 0;
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size + others.size();
+    }
+
+    /**
+     * Weakly consistent, entries inserted or removed during the iteration
+     * may or may not be seen.
+     */
+    Cursor cursor() {
+        return new Cursor(table, others.entrySet().iterator());
+    }
+
+    /**
+     * Iterates over entries without creating an object per entry, the
+     * number is created only when asked for.
+     */
+    static final class Cursor {
+
+        private final Table table;
+        private final Iterator<Map.Entry<String, Integer>> others;
+        private int index = -1;
+        private int value;
+        private String number;
+
+        private Cursor(Table table, Iterator<Map.Entry<String, Integer>> others) {
+            this.table = table;
+            this.others = others;
+        }
+
+        boolean next() {
+            number = null;
+            while (++index < table.values.length()) {
+                value = table.values.get(index);
+                if (value >= 0) {
+                    return true;
+                }
+            }
+            if (others.hasNext()) {
+                final Map.Entry<String, Integer> entry = others.next();
+                number = entry.getKey();
+                value = entry.getValue();
+                return true;
+            }
+            return false;
+        }
+
+        int value() {
+            return value;
+        }
+
+        String number() {
+            if (number == null) {
+                number = new UUID(table.keys[2 * index], table.keys[2 * index + 1]).toString();
+            }
+            return number;
+        }
+    }
+
+    private void rebuild() {
+        rebuild((size + 1) * 4);
+    }
+
+    private void rebuild(int minCapacity) {
+        final Table old = table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        final Table rebuilt = new Table(capacity);
+        for (int j = 0; j < old.values.length(); j++) {
+            final int value = old.values.get(j);
+            if (value < 0) {
+                continue;
+            }
+            final long high = old.keys[2 * j];
+            final long low = old.keys[2 * j + 1];
+            int i = hash(high, low) & rebuilt.mask;
+            while (rebuilt.values.get(i) != EMPTY) {
+                i = (i + 1) & rebuilt.mask;
+            }
+            rebuilt.keys[2 * i] = high;
+            rebuilt.keys[2 * i + 1] = low;
+            rebuilt.values.set(i, value);
+        }
+        table = rebuilt;
+        used = size;
+    }
+
+    private static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Only the lowercase form produced by {@link UUID#toString()} is
+     * accepted, so the number can be restored from the two longs.
+     */
+    static boolean isUuid(String number) {
+        if (number.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            final char c = number.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long high(String uuid) {
+        return hex(uuid, 0, 18);
+    }
+
+    static long low(String uuid) {
+        return hex(uuid, 19, 36);
+    }
+
+    private static long hex(String uuid, int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            final char c = uuid.charAt(i);
+            if (c != '-') {
+                result = (result << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+            }
+        }
+        return result;
+    }
+}
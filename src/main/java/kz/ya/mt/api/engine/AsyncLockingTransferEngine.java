@@ -0,0 +1,162 @@
+package kz.ya.mt.api.engine;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.metrics.Metrics;
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Locking engine which never blocks a thread waiting for a busy account.
+ * A transfer queues up behind the transfers holding its accounts and is
+ * resumed on the engine executor when the last of them is done, so a hot
+ * account costs queue entries instead of request threads.
+ * <p>
+ * Queued locks are taken in the same global order as account locks, see
+ * {@link Account#compareLockOrder}. Once both are held the transfer is
+ * applied by a {@link LockingTransferEngine}, whose account locks are then
+ * contended only by snapshots and batches. A striped receiver is not queued
+ * for at all, deposits to it don't need to hold it.
+ *
+ * @author yerlan.akhmetov
+ */
+public class AsyncLockingTransferEngine implements AsyncTransferEngine {
+
+    private final LockingTransferEngine delegate;
+    /**
+     * Accounts which are held, an entry is removed when its queue is drained.
+     */
+    private final ConcurrentMap<String, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * @param threads number of threads applying transfers
+     */
+    public AsyncLockingTransferEngine(int threads) {
+        this(threads, new LockingTransferEngine());
+    }
+
+    /**
+     * @param threads number of threads applying transfers
+     * @param delegate engine applying transfers once their accounts are held
+     */
+    public AsyncLockingTransferEngine(int threads, LockingTransferEngine delegate) {
+        this.delegate = delegate;
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            final Thread thread = new Thread(task, "transfer-executor-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> transferAsync(Account fromAccount, Account toAccount, long amount) {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+
+        final boolean senderOnly = toAccount.isStriped() && !AccountDao.getInstance().isJournaled();
+        final boolean senderFirst = senderOnly || Account.compareLockOrder(fromAccount, toAccount) <= 0;
+        final String first = senderFirst ? fromAccount.getNumber() : toAccount.getNumber();
+        final String second = senderOnly ? first : senderFirst ? toAccount.getNumber() : fromAccount.getNumber();
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        final Runnable apply = () -> {
+            try {
+                delegate.transfer(fromAccount, toAccount, amount);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(ex);
+                return;
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            } finally {
+                if (!second.equals(first)) {
+                    release(second);
+                }
+                release(first);
+            }
+            AccountDao.getInstance().whenDurable().whenComplete((ignored, ex) -> {
+                if (ex == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            });
+        };
+        final Account firstReceiver = senderFirst ? null : toAccount;
+        final Account secondReceiver = senderFirst ? toAccount : null;
+        executor.execute(() -> acquire(first, firstReceiver,
+                second.equals(first) ? apply : () -> acquire(second, secondReceiver, apply)));
+        return result;
+    }
+
+    /**
+     * Batches take the account locks directly, queued transfers of their
+     * accounts wait for them on the executor.
+     */
+    @Override
+    public void transfer(TransferBatch batch) throws InterruptedException {
+        delegate.transfer(batch);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Run the continuation now if the account is free, otherwise on the
+     * executor once the account is released to it.
+     *
+     * @param receiver the account if it is the receiver, its contended
+     * deposits are counted, see {@link Account#incContendedDeposits()}
+     */
+    private void acquire(String number, Account receiver, Runnable continuation) {
+        final boolean[] acquired = {false};
+        queues.compute(number, (key, waiters) -> {
+            if (waiters == null) {
+                acquired[0] = true;
+                return new ArrayDeque<>();
+            }
+            final long queued = System.nanoTime();
+            waiters.add(() -> {
+                if (Metrics.CONTENTION.record(number, System.nanoTime() - queued) && receiver != null) {
+                    receiver.incContendedDeposits();
+                }
+                continuation.run();
+            });
+            return waiters;
+        });
+        if (acquired[0]) {
+            continuation.run();
+        }
+    }
+
+    /**
+     * Hand the account over to the first waiter, if there is one.
+     */
+    private void release(String number) {
+        final Runnable[] next = {null};
+        queues.computeIfPresent(number, (key, waiters) -> {
+            next[0] = waiters.poll();
+            return next[0] == null ? null : waiters;
+        });
+        if (next[0] != null) {
+            executor.execute(next[0]);
+        }
+    }
+}
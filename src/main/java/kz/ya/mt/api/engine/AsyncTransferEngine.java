@@ -0,0 +1,68 @@
+package kz.ya.mt.api.engine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Engine which completes transfers on its own threads, so the caller
+ * doesn't have to block until the money is moved.
+ *
+ * @author yerlan.akhmetov
+ */
+public interface AsyncTransferEngine extends TransferEngine {
+
+    /**
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     * @return future completed exceptionally with the same exceptions that
+     * {@link #transfer} throws
+     */
+    CompletableFuture<Void> transferAsync(Account fromAccount, Account toAccount, long amount);
+
+    @Override
+    default void transfer(Account fromAccount, Account toAccount, long amount) throws InterruptedException {
+        try {
+            transferAsync(fromAccount, toAccount, amount).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Submit all transfers at once and wait for them, transfers of the same
+     * sender still complete in order.
+     */
+    @Override
+    default void transfer(TransferBatch batch) throws InterruptedException {
+        if (batch.isAtomic()) {
+            throw new UnsupportedOperationException(
+                    "Atomic batches are not supported by " + getClass().getSimpleName());
+        }
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getFailure(i) != null) {
+                continue;
+            }
+            try {
+                results[i] = transferAsync(batch.getFromAccount(i), batch.getToAccount(i), batch.getAmount(i));
+            } catch (RuntimeException ex) {
+                batch.fail(i, ex);
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                continue;
+            }
+            try {
+                results[i].get();
+            } catch (ExecutionException ex) {
+                batch.fail(i, ex.getCause() instanceof RuntimeException
+                        ? (RuntimeException) ex.getCause()
+                        : new IllegalStateException(ex.getCause()));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package kz.ya.mt.api.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+import kz.ya.mt.api.model.PendingTransfer;
+
+/**
+ * Lock-free engine, account locks are never touched. Balances live in
+ * immutable {@link AccountState} snapshots, and both of them are swapped
+ * with a {@link TransferDescriptor}. A transfer retries only when one of
+ * the accounts was changed concurrently, so some transfer always makes
+ * progress. An atomic batch is committed the same way, with one descriptor
+ * for all of its accounts.
+ *
+ * @author yerlan.akhmetov
+ */
+public class CasTransferEngine implements TransferEngine {
+
+    @Override
+    public void transfer(Account fromAccount, Account toAccount, long amount) {
+        final boolean senderFirst = fromAccount.getNumber().compareTo(toAccount.getNumber()) <= 0;
+        final Account[] accounts = senderFirst
+                ? new Account[]{fromAccount, toAccount}
+                : new Account[]{toAccount, fromAccount};
+        while (true) {
+            final AccountState fromState = stateOf(fromAccount);
+            final AccountState toState = stateOf(toAccount);
+            check(fromAccount, fromState.getBalance(), toAccount, toState.getBalance(), amount);
+
+            final long now = System.currentTimeMillis();
+            final AccountState fromNew = fromState.apply(-amount, now);
+            final AccountState toNew = toState.apply(amount, now);
+            final TransferDescriptor descriptor = senderFirst
+                    ? new TransferDescriptor(accounts, new AccountState[]{fromState, toState},
+                            new AccountState[]{fromNew, toNew})
+                    : new TransferDescriptor(accounts, new AccountState[]{toState, fromState},
+                            new AccountState[]{toNew, fromNew});
+
+            if (descriptor.complete()) {
+                // the transfer might have been journaled by a helper
+                AccountDao.getInstance().joinJournal();
+                AccountDao.getInstance().getLedger().append(fromAccount.getNumber(), toAccount.getNumber(),
+                        amount, now);
+                return;
+            }
+        }
+    }
+
+    /**
+     * An atomic batch swaps the states of all its accounts with one
+     * {@link TransferDescriptor}, after it was replayed on their balances.
+     */
+    @Override
+    public void transfer(TransferBatch batch) throws InterruptedException {
+        if (!batch.isAtomic()) {
+            TransferEngine.super.transfer(batch);
+            return;
+        }
+
+        final Map<String, Account> byNumber = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            byNumber.put(batch.getFromAccount(i).getNumber(), batch.getFromAccount(i));
+            byNumber.put(batch.getToAccount(i).getNumber(), batch.getToAccount(i));
+        }
+        final Account[] accounts = byNumber.values().toArray(new Account[byNumber.size()]);
+        final Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < accounts.length; i++) {
+            indexes.put(accounts[i].getNumber(), i);
+        }
+
+        while (true) {
+            final AccountState[] oldStates = new AccountState[accounts.length];
+            final long[] balances = new long[accounts.length];
+            for (int i = 0; i < accounts.length; i++) {
+                oldStates[i] = stateOf(accounts[i]);
+                balances[i] = oldStates[i].getBalance();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                final int from = indexes.get(batch.getFromAccount(i).getNumber());
+                final int to = indexes.get(batch.getToAccount(i).getNumber());
+                final long amount = batch.getAmount(i);
+                try {
+                    check(accounts[from], balances[from], accounts[to], balances[to], amount);
+                } catch (RuntimeException ex) {
+                    batch.fail(i, ex);
+                    return;
+                }
+                balances[from] -= amount;
+                balances[to] += amount;
+            }
+
+            final long now = System.currentTimeMillis();
+            final AccountState[] newStates = new AccountState[accounts.length];
+            for (int i = 0; i < accounts.length; i++) {
+                newStates[i] = oldStates[i].apply(balances[i] - oldStates[i].getBalance(), now);
+            }
+            if (new TransferDescriptor(accounts, oldStates, newStates).complete()) {
+                AccountDao.getInstance().joinJournal();
+                for (int i = 0; i < batch.size(); i++) {
+                    AccountDao.getInstance().getLedger().append(batch.getFromAccount(i).getNumber(),
+                            batch.getToAccount(i).getNumber(), batch.getAmount(i), now);
+                }
+                return;
+            }
+        }
+    }
+
+    private static void check(Account fromAccount, long fromBalance, Account toAccount, long toBalance,
+            long amount) {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+        if (fromBalance < amount) {
+            fromAccount.incFailedTransferCount();
+            throw new NotEnoughFundsException(fromAccount.getNumber());
+        }
+        if (toBalance > Long.MAX_VALUE - amount) {
+            toAccount.incFailedTransferCount();
+            throw new BalanceOverflowException(toAccount.getNumber());
+        }
+    }
+
+    /**
+     * @return current committed state, completing any transfer in flight
+     */
+    private static AccountState stateOf(Account account) {
+        while (true) {
+            final Object current = account.getState();
+            if (current instanceof AccountState) {
+                return (AccountState) current;
+            }
+            ((PendingTransfer) current).complete();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package kz.ya.mt.api.engine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Runs transfers of a blocking engine on an executor, so request threads
+ * don't block on account locks or the journal. With a virtual thread per
+ * transfer, tens of thousands of transfers may wait for a hot account
+ * without as many platform threads: account locks and the journal wait on
+ * {@link java.util.concurrent.locks.Lock}s, which don't pin the carrier
+ * thread the way monitors do.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ExecutorTransferEngine implements AsyncTransferEngine {
+
+    private final TransferEngine delegate;
+    private final ExecutorService executor;
+
+    public ExecutorTransferEngine(TransferEngine delegate, ExecutorService executor) {
+        if (delegate instanceof AsyncTransferEngine) {
+            throw new IllegalArgumentException(
+                    delegate.getClass().getSimpleName() + " doesn't block the calling thread already");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    /**
+     * The result is completed once the transfer is durable.
+     */
+    @Override
+    public CompletableFuture<Void> transferAsync(Account fromAccount, Account toAccount, long amount) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                delegate.transfer(fromAccount, toAccount, amount);
+                AccountDao.getInstance().awaitDurable();
+                result.complete(null);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(ex);
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void transfer(TransferBatch batch) throws InterruptedException {
+        delegate.transfer(batch);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        delegate.close();
+    }
+
+    /**
+     * Looked up reflectively, the sources are compiled for Java 8.
+     *
+     * @throws UnsupportedOperationException before JDK 21
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer", ex);
+        }
+    }
+}
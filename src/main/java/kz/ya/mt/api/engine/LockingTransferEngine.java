@@ -0,0 +1,227 @@
+package kz.ya.mt.api.engine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.metrics.Metrics;
+import kz.ya.mt.api.model.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Both account locks are always acquired in the same global order (see
+ * {@link Account#compareLockOrder}), so crossing transfers A -> B and B -> A can't deadlock
+ * and there is no need for lock timeouts.
+ * <p>
+ * A receiver which keeps making deposits wait for its lock is striped, see
+ * {@link Account#stripe}, and from then on transfers to it lock only the
+ * sender. Accounts are not striped with a journal.
+ *
+ * @author yerlan.akhmetov
+ */
+public class LockingTransferEngine implements TransferEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockingTransferEngine.class);
+
+    private final int hotDeposits;
+    private final int stripes;
+
+    /**
+     * Accounts are never striped.
+     */
+    public LockingTransferEngine() {
+        this(0, 1);
+    }
+
+    /**
+     * @param hotDeposits deposits which have waited for the receiver lock
+     * before the receiver is striped, 0 to never stripe accounts
+     * @param stripes number of stripes of a hot account
+     */
+    public LockingTransferEngine(int hotDeposits, int stripes) {
+        if (hotDeposits < 0 || stripes < 1) {
+            throw new IllegalArgumentException("Illegal striping: " + hotDeposits + " deposits, " + stripes + " stripes");
+        }
+        this.hotDeposits = hotDeposits;
+        this.stripes = stripes;
+    }
+
+    @Override
+    public void transfer(Account fromAccount, Account toAccount, long amount) throws InterruptedException {
+        if (toAccount.isStriped() && !AccountDao.getInstance().isJournaled()) {
+            transferToStriped(fromAccount, toAccount, amount);
+            return;
+        }
+        final boolean senderFirst = Account.compareLockOrder(fromAccount, toAccount) <= 0;
+        final Lock firstLock = senderFirst ? fromAccount.getLock() : toAccount.getLock();
+        final Lock secondLock = senderFirst ? toAccount.getLock() : fromAccount.getLock();
+
+        LOGGER.debug("[{}] try to lock {}", Thread.currentThread().getName(), senderFirst ? "Sender" : "Receiver");
+        final long started = System.nanoTime();
+        firstLock.lockInterruptibly();
+        try {
+            final long firstLocked = System.nanoTime();
+            (senderFirst ? Metrics.SENDER_LOCK_WAIT : Metrics.RECEIVER_LOCK_WAIT).record(firstLocked - started);
+            final boolean firstContended = Metrics.CONTENTION.record(
+                    (senderFirst ? fromAccount : toAccount).getNumber(), firstLocked - started);
+            LOGGER.debug("[{}] try to lock {}", Thread.currentThread().getName(), senderFirst ? "Receiver" : "Sender");
+            secondLock.lockInterruptibly();
+            try {
+                final long secondWait = System.nanoTime() - firstLocked;
+                (senderFirst ? Metrics.RECEIVER_LOCK_WAIT : Metrics.SENDER_LOCK_WAIT).record(secondWait);
+                final boolean secondContended = Metrics.CONTENTION.record(
+                        (senderFirst ? toAccount : fromAccount).getNumber(), secondWait);
+                apply(fromAccount, toAccount, amount);
+                stripeIfHot(toAccount, senderFirst ? secondContended : firstContended);
+            } finally {
+                secondLock.unlock();
+            }
+        } finally {
+            LOGGER.debug("[{}] unlock Sender and Receiver", Thread.currentThread().getName());
+            firstLock.unlock();
+        }
+    }
+
+    /**
+     * Only the sender is locked, the deposit lands on a stripe of the
+     * receiver.
+     */
+    private void transferToStriped(Account fromAccount, Account toAccount, long amount) throws InterruptedException {
+        final Lock lock = fromAccount.getLock();
+        final long started = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            final long wait = System.nanoTime() - started;
+            Metrics.SENDER_LOCK_WAIT.record(wait);
+            Metrics.CONTENTION.record(fromAccount.getNumber(), wait);
+            apply(fromAccount, toAccount, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called under the receiver lock.
+     *
+     * @param contended true if the deposit has waited for the receiver
+     */
+    private void stripeIfHot(Account toAccount, boolean contended) {
+        if (hotDeposits == 0) {
+            return;
+        }
+        // waits in the queues of the async engine are counted there
+        final int deposits = contended ? toAccount.incContendedDeposits() : toAccount.getContendedDeposits();
+        if (deposits >= hotDeposits && !AccountDao.getInstance().isJournaled() && toAccount.stripe(stripes)) {
+            LOGGER.info("Account {} is striped after {} contended deposits", toAccount.getNumber(), deposits);
+        }
+    }
+
+    /**
+     * Locks of all accounts of the batch are acquired once, in the same
+     * global order as for a single transfer.
+     */
+    @Override
+    public void transfer(TransferBatch batch) throws InterruptedException {
+        final Set<Account> accounts = new TreeSet<>(Account::compareLockOrder);
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getFailure(i) == null) {
+                accounts.add(batch.getFromAccount(i));
+                accounts.add(batch.getToAccount(i));
+            }
+        }
+
+        final Deque<Lock> locks = new ArrayDeque<>(accounts.size());
+        try {
+            for (Account account : accounts) {
+                account.getLock().lockInterruptibly();
+                locks.push(account.getLock());
+            }
+
+            if (batch.isAtomic()) {
+                applyAtomically(batch);
+            } else {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.getFailure(i) != null) {
+                        continue;
+                    }
+                    try {
+                        apply(batch.getFromAccount(i), batch.getToAccount(i), batch.getAmount(i));
+                    } catch (RuntimeException ex) {
+                        batch.fail(i, ex);
+                    }
+                }
+            }
+        } finally {
+            while (!locks.isEmpty()) {
+                locks.pop().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replay the batch on a copy of balances first, so nothing has to be
+     * rolled back if one of the transfers fails.
+     */
+    private void applyAtomically(TransferBatch batch) {
+        final Map<Account, long[]> balances = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final Account fromAccount = batch.getFromAccount(i);
+            final Account toAccount = batch.getToAccount(i);
+            final long amount = batch.getAmount(i);
+            final long[] fromBalance = balances.computeIfAbsent(fromAccount, account -> new long[]{account.getBalance()});
+            final long[] toBalance = balances.computeIfAbsent(toAccount, account -> new long[]{account.getBalance()});
+            try {
+                check(fromAccount, fromBalance[0], toAccount, toBalance[0], amount);
+            } catch (RuntimeException ex) {
+                batch.fail(i, ex);
+                return;
+            }
+            fromBalance[0] -= amount;
+            toBalance[0] += amount;
+        }
+
+        AccountDao.getInstance().atomically(() -> {
+            for (int i = 0; i < batch.size(); i++) {
+                apply(batch.getFromAccount(i), batch.getToAccount(i), batch.getAmount(i));
+            }
+        });
+    }
+
+    /**
+     * Must be called with both account locks held.
+     */
+    private void apply(Account fromAccount, Account toAccount, long amount) {
+        check(fromAccount, fromAccount.getBalance(), toAccount, toAccount.getBalance(), amount);
+
+        AccountDao.getInstance().transfer(fromAccount, toAccount, amount);
+    }
+
+    /**
+     * Check everything before the withdrawal, so the deposit can't fail half way.
+     */
+    private void check(Account fromAccount, long fromBalance, Account toAccount, long toBalance, long amount) {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+        if (fromBalance < amount) {
+            fromAccount.incFailedTransferCount();
+            throw new NotEnoughFundsException(fromAccount.getNumber());
+        }
+        if (toBalance > Long.MAX_VALUE - amount) {
+            toAccount.incFailedTransferCount();
+            throw new BalanceOverflowException(toAccount.getNumber());
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package kz.ya.mt.api.engine;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.model.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single-writer engine. Accounts are hash-partitioned by number into shards,
+ * and every shard is owned by one thread, which is the only one updating
+ * balances of its accounts, so no locks are needed.
+ * <p>
+ * A transfer is first queued to the sender shard, which debits the sender.
+ * If the receiver belongs to another shard the credit is passed to it as a
+ * message, and a failed credit is refunded to the sender the same way. While
+ * a cross-shard transfer is in flight its amount is on neither account, the
+ * debit is journaled with the credit owed, which is redone on recovery if
+ * the journal ends before it is settled, see {@link AccountDao#debit}.
+ * <p>
+ * An atomic batch pauses every shard owning one of its accounts and is
+ * applied by the calling thread while they wait. Batches are applied one at
+ * a time, so two of them can't wait for each other's shards.
+ * <p>
+ * Account locks are not taken. A snapshot pauses all shards, which finish
+ * the cross-shard transfers in flight first, so it reads neither a change
+ * before it is journaled nor a credit still owed.
+ * <p>
+ * {@link #close()} rejects new transfers, and the shards finish those in
+ * flight before they stop.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ShardedTransferEngine implements AsyncTransferEngine, AccountDao.Writers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedTransferEngine.class);
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Shard[] shards;
+    /**
+     * Transfers submitted but not finished by the shards yet.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * Cross-shard transfers debited but neither credited nor refunded yet.
+     */
+    private final AtomicInteger crossing = new AtomicInteger();
+    /**
+     * Held by an atomic batch or a snapshot while the shards are paused.
+     */
+    private final Lock batchLock = new ReentrantLock();
+    private Pause snapshotPause;
+    private volatile boolean closed;
+
+    /**
+     * @param shards number of writer threads
+     * @param capacity capacity of the command ring buffer of every shard
+     */
+    public ShardedTransferEngine(int shards, int capacity) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least 1 shard is required");
+        }
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, capacity);
+        }
+        for (Shard shard : this.shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> transferAsync(Account fromAccount, Account toAccount, long amount) {
+        if (amount < 0) {
+            throw new TransferNegativeAmountException();
+        }
+        if (amount == 0) {
+            throw new TransferZeroAmountException();
+        }
+
+        // counted before the check, so the shards can't stop with it queued
+        inFlight.incrementAndGet();
+        if (closed) {
+            inFlight.decrementAndGet();
+            throw new RejectedExecutionException("Transfer engine is closed");
+        }
+        final Command command = new Command(fromAccount, toAccount, amount);
+        shardOf(fromAccount).submit(command);
+        return command.result;
+    }
+
+    @Override
+    public void transfer(TransferBatch batch) throws InterruptedException {
+        if (!batch.isAtomic()) {
+            AsyncTransferEngine.super.transfer(batch);
+            return;
+        }
+
+        final Set<Shard> owners = new LinkedHashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            owners.add(shardOf(batch.getFromAccount(i)));
+            owners.add(shardOf(batch.getToAccount(i)));
+        }
+
+        batchLock.lockInterruptibly();
+        try {
+            inFlight.addAndGet(owners.size());
+            if (closed) {
+                inFlight.addAndGet(-owners.size());
+                throw new RejectedExecutionException("Transfer engine is closed");
+            }
+            final Pause pause = new Pause(owners.size(), false);
+            for (Shard shard : owners) {
+                shard.submit(new Command(pause));
+            }
+            try {
+                pause.paused.await();
+                applyAtomically(batch);
+            } finally {
+                pause.resumed.countDown();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while the shards of all accounts of the batch are
+     * paused. The batch is replayed on a copy of balances first, so nothing
+     * has to be rolled back if one of the transfers fails.
+     */
+    private void applyAtomically(TransferBatch batch) {
+        final Map<Account, long[]> balances = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final Account fromAccount = batch.getFromAccount(i);
+            final Account toAccount = batch.getToAccount(i);
+            final long amount = batch.getAmount(i);
+            final long[] fromBalance = balances.computeIfAbsent(fromAccount, account -> new long[]{account.getBalance()});
+            final long[] toBalance = balances.computeIfAbsent(toAccount, account -> new long[]{account.getBalance()});
+            try {
+                if (amount < 0) {
+                    throw new TransferNegativeAmountException();
+                }
+                if (amount == 0) {
+                    throw new TransferZeroAmountException();
+                }
+                if (fromBalance[0] < amount) {
+                    fromAccount.incFailedTransferCount();
+                    throw new NotEnoughFundsException(fromAccount.getNumber());
+                }
+                if (toBalance[0] > Long.MAX_VALUE - amount) {
+                    toAccount.incFailedTransferCount();
+                    throw new BalanceOverflowException(toAccount.getNumber());
+                }
+            } catch (RuntimeException ex) {
+                batch.fail(i, ex);
+                return;
+            }
+            fromBalance[0] -= amount;
+            toBalance[0] += amount;
+        }
+
+        AccountDao.getInstance().atomically(() -> {
+            for (int i = 0; i < batch.size(); i++) {
+                AccountDao.getInstance().transfer(batch.getFromAccount(i), batch.getToAccount(i), batch.getAmount(i));
+            }
+        });
+    }
+
+    /**
+     * Pause all shards once they have finished the cross-shard transfers in
+     * flight, must be followed by {@link #resume()} on the same thread.
+     */
+    @Override
+    public void pause() throws InterruptedException {
+        batchLock.lockInterruptibly();
+        inFlight.addAndGet(shards.length);
+        if (closed) {
+            inFlight.addAndGet(-shards.length);
+            // nothing is changed once the shards have stopped
+            close();
+            return;
+        }
+        final Pause pause = new Pause(shards.length, true);
+        for (Shard shard : shards) {
+            shard.submit(new Command(pause));
+        }
+        snapshotPause = pause;
+        try {
+            pause.paused.await();
+            // the shards only take messages now, so nothing starts crossing
+            while (crossing.get() > 0) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        } catch (InterruptedException ex) {
+            resume();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void resume() {
+        final Pause pause = snapshotPause;
+        snapshotPause = null;
+        if (pause != null) {
+            pause.resumed.countDown();
+        }
+        batchLock.unlock();
+    }
+
+    /**
+     * Reject new transfers and wait until the shards have finished the
+     * others.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Shard shardOf(Account account) {
+        return shards[indexOf(account)];
+    }
+
+    /**
+     * @return index of the shard owning the account
+     */
+    int indexOf(Account account) {
+        final int hash = account.getNumber().hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length;
+    }
+
+    private enum Stage {
+        DEBIT, CREDIT, REFUND, PAUSE
+    }
+
+    /**
+     * Shards of an atomic batch count down {@code paused} and wait for
+     * {@code resumed}, which also publishes the changes of the batch to
+     * them. Paused for a snapshot they take messages meanwhile, so the
+     * cross-shard transfers in flight finish.
+     */
+    private static final class Pause {
+
+        final CountDownLatch paused;
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final boolean drain;
+
+        Pause(int shards, boolean drain) {
+            this.paused = new CountDownLatch(shards);
+            this.drain = drain;
+        }
+    }
+
+    /**
+     * Passed between shard threads through their queues, which publishes
+     * the stage change safely.
+     */
+    private static final class Command {
+
+        final Account fromAccount;
+        final Account toAccount;
+        final long amount;
+        final Pause pause;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        Stage stage = Stage.DEBIT;
+        RuntimeException failure;
+        boolean finished;
+        /**
+         * Of the credit owed by the debit of a cross-shard transfer.
+         */
+        long id;
+
+        Command(Account fromAccount, Account toAccount, long amount) {
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.amount = amount;
+            this.pause = null;
+        }
+
+        Command(Pause pause) {
+            this.fromAccount = null;
+            this.toAccount = null;
+            this.amount = 0;
+            this.pause = pause;
+            this.stage = Stage.PAUSE;
+        }
+    }
+
+    private final class Shard implements Runnable {
+
+        /**
+         * Commands from request threads, bounded to push back on them.
+         */
+        private final RingBuffer<Command> commands;
+        /**
+         * Messages from other shards, unbounded, so two shards can never
+         * wait for each other.
+         */
+        private final Queue<Command> messages = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean sleeping;
+
+        Shard(int index, int capacity) {
+            commands = new RingBuffer<>(capacity);
+            thread = new Thread(this, "transfer-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void submit(Command command) {
+            while (!commands.offer(command)) {
+                // the shard is saturated, wait for a free slot
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            wakeUp();
+        }
+
+        void send(Command command) {
+            messages.offer(command);
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (!closed || inFlight.get() > 0) {
+                Command command = messages.poll();
+                if (command == null) {
+                    command = commands.poll();
+                }
+                if (command != null) {
+                    idle = 0;
+                    execute(command);
+                } else if (++idle > SPINS_BEFORE_PARK) {
+                    sleeping = true;
+                    if (messages.isEmpty() && commands.isEmpty()) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private void execute(Command command) {
+            try {
+                switch (command.stage) {
+                    case DEBIT:
+                        debit(command);
+                        break;
+                    case CREDIT:
+                        credit(command);
+                        break;
+                    case PAUSE:
+                        pause(command);
+                        break;
+                    default:
+                        refund(command);
+                }
+            } catch (RuntimeException ex) {
+                if (command.pause != null) {
+                    // a pause has no accounts
+                    LOGGER.error("Shard {} failed at {} stage", thread.getName(), command.stage, ex);
+                } else {
+                    LOGGER.error("Transfer [{}] -> [{}] failed at {} stage", command.fromAccount.getNumber(),
+                            command.toAccount.getNumber(), command.stage, ex);
+                }
+                command.result.completeExceptionally(ex);
+                finish(command);
+            }
+        }
+
+        /**
+         * The command leaves the shards, its result may still wait for the
+         * journal.
+         */
+        private void finish(Command command) {
+            if (!command.finished) {
+                command.finished = true;
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void pause(Command command) {
+            command.pause.paused.countDown();
+            try {
+                if (command.pause.drain) {
+                    while (!command.pause.resumed.await(PARK_NANOS, TimeUnit.NANOSECONDS)) {
+                        Command message;
+                        while ((message = messages.poll()) != null) {
+                            execute(message);
+                        }
+                    }
+                } else {
+                    command.pause.resumed.await();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finish(command);
+            }
+        }
+
+        private void debit(Command command) {
+            final Account fromAccount = command.fromAccount;
+            if (fromAccount.getBalance() < command.amount) {
+                fromAccount.incFailedTransferCount();
+                command.result.completeExceptionally(new NotEnoughFundsException(fromAccount.getNumber()));
+                finish(command);
+                return;
+            }
+
+            final Shard receiverShard = shardOf(command.toAccount);
+            if (receiverShard == this) {
+                if (isOverflow(command.toAccount, command.amount)) {
+                    command.toAccount.incFailedTransferCount();
+                    command.result.completeExceptionally(new BalanceOverflowException(command.toAccount.getNumber()));
+                    finish(command);
+                    return;
+                }
+                AccountDao.getInstance().transfer(fromAccount, command.toAccount, command.amount);
+                succeed(command);
+                return;
+            }
+
+            command.id = AccountDao.getInstance().debit(fromAccount, command.toAccount, command.amount);
+            crossing.incrementAndGet();
+            command.stage = Stage.CREDIT;
+            receiverShard.send(command);
+        }
+
+        private void credit(Command command) {
+            try {
+                if (isOverflow(command.toAccount, command.amount)) {
+                    command.toAccount.incFailedTransferCount();
+                    throw new BalanceOverflowException(command.toAccount.getNumber());
+                }
+                AccountDao.getInstance().credit(command.id, command.fromAccount, command.toAccount, command.amount);
+                crossing.decrementAndGet();
+            } catch (RuntimeException ex) {
+                command.failure = ex;
+                command.stage = Stage.REFUND;
+                shardOf(command.fromAccount).send(command);
+                return;
+            }
+            succeed(command);
+        }
+
+        private void refund(Command command) {
+            try {
+                AccountDao.getInstance().refund(command.id, command.fromAccount, command.amount);
+            } finally {
+                crossing.decrementAndGet();
+            }
+            finish(command);
+            final RuntimeException failure = command.failure;
+            AccountDao.getInstance().whenDurable().whenComplete(
+                    (ignored, ex) -> command.result.completeExceptionally(ex == null ? failure : ex));
+        }
+
+        /**
+         * A cross-shard transfer is completed by the credit, journaled after
+         * the debit, so it is durable as soon as the last change of this
+         * shard is. If the credit doesn't make it, the debit is still there
+         * with the credit owed, and recovery redoes the credit.
+         */
+        private void succeed(Command command) {
+            finish(command);
+            AccountDao.getInstance().whenDurable().whenComplete((ignored, ex) -> {
+                if (ex == null) {
+                    command.result.complete(null);
+                } else {
+                    command.result.completeExceptionally(ex);
+                }
+            });
+        }
+
+        private boolean isOverflow(Account account, long amount) {
+            return account.getBalance() > Long.MAX_VALUE - amount;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package kz.ya.mt.api.engine;
+
+import kz.ya.mt.api.model.Account;
+
+/**
+ * List of transfers applied together. In atomic mode either all transfers
+ * are applied or none of them, otherwise every transfer is applied on its
+ * own. Outcome of every transfer is kept as a failure, null means applied.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class TransferBatch {
+
+    private final Account[] fromAccounts;
+    private final Account[] toAccounts;
+    private final long[] amounts;
+    private final RuntimeException[] failures;
+    private final boolean atomic;
+    private boolean failed;
+
+    public TransferBatch(int size, boolean atomic) {
+        this.fromAccounts = new Account[size];
+        this.toAccounts = new Account[size];
+        this.amounts = new long[size];
+        this.failures = new RuntimeException[size];
+        this.atomic = atomic;
+    }
+
+    /**
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    public void set(int index, Account fromAccount, Account toAccount, long amount) {
+        fromAccounts[index] = fromAccount;
+        toAccounts[index] = toAccount;
+        amounts[index] = amount;
+    }
+
+    public void fail(int index, RuntimeException failure) {
+        failures[index] = failure;
+        failed = true;
+    }
+
+    public int size() {
+        return amounts.length;
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    /**
+     * @return true if at least one transfer has failed, in atomic mode it
+     * means that nothing was applied
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public Account getFromAccount(int index) {
+        return fromAccounts[index];
+    }
+
+    public Account getToAccount(int index) {
+        return toAccounts[index];
+    }
+
+    public long getAmount(int index) {
+        return amounts[index];
+    }
+
+    public RuntimeException getFailure(int index) {
+        return failures[index];
+    }
+}
@@ -0,0 +1,95 @@
+package kz.ya.mt.api.engine;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+import kz.ya.mt.api.model.PendingTransfer;
+
+/**
+ * Multi-word compare-and-swap descriptor. It is installed into the states of
+ * all its accounts in global order and then either rolled forward or back,
+ * any thread which runs into it helps to complete it instead of waiting.
+ *
+ * @author yerlan.akhmetov
+ */
+final class TransferDescriptor implements PendingTransfer {
+
+    private static final int UNDECIDED = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    private static final AtomicIntegerFieldUpdater<TransferDescriptor> STATUS
+            = AtomicIntegerFieldUpdater.newUpdater(TransferDescriptor.class, "status");
+
+    private final Account[] accounts;
+    private final AccountState[] oldStates;
+    private final AccountState[] newStates;
+    private volatile int status = UNDECIDED;
+
+    /**
+     * @param accounts distinct accounts ordered by number
+     */
+    TransferDescriptor(Account[] accounts, AccountState[] oldStates, AccountState[] newStates) {
+        this.accounts = accounts;
+        this.oldStates = oldStates;
+        this.newStates = newStates;
+    }
+
+    @Override
+    public AccountState stateOf(Account account) {
+        final boolean succeeded = status == SUCCEEDED;
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i] == account) {
+                return succeeded ? newStates[i] : oldStates[i];
+            }
+        }
+        throw new IllegalArgumentException("Account " + account.getNumber() + " is not a part of the transfer");
+    }
+
+    @Override
+    public boolean complete() {
+        if (status == UNDECIDED) {
+            boolean installed = true;
+            for (int i = 0; i < accounts.length && installed; i++) {
+                installed = install(accounts[i], oldStates[i]);
+            }
+            if (installed && status == UNDECIDED) {
+                // once installed in all accounts the transfer can only succeed, it is
+                // journaled before it becomes visible, maybe more than once by helpers
+                AccountDao.getInstance().recordTransfer(accounts, newStates);
+            }
+            STATUS.compareAndSet(this, UNDECIDED, installed ? SUCCEEDED : FAILED);
+        }
+
+        final boolean succeeded = status == SUCCEEDED;
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i].compareAndSetState(this, succeeded ? newStates[i] : oldStates[i]);
+        }
+        return succeeded;
+    }
+
+    /**
+     * @return false if the account has moved on from the expected state
+     */
+    private boolean install(Account account, AccountState expected) {
+        while (status == UNDECIDED) {
+            final Object current = account.getState();
+            if (current == this) {
+                return true;
+            }
+            if (current == expected) {
+                if (account.compareAndSetState(expected, this)) {
+                    return true;
+                }
+            } else if (current instanceof PendingTransfer) {
+                // accounts are installed in global order, so helping can't cycle
+                ((PendingTransfer) current).complete();
+            } else {
+                return false;
+            }
+        }
+        // decided by a helper already, the outcome is read by the caller
+        return status == SUCCEEDED;
+    }
+}
@@ -0,0 +1,70 @@
+package kz.ya.mt.api.engine;
+
+import kz.ya.mt.api.model.Account;
+
+/**
+ * Strategy which moves money between two accounts atomically. The engine is
+ * selected once at startup, accounts must not be shared between engines.
+ *
+ * @author yerlan.akhmetov
+ */
+public interface TransferEngine extends AutoCloseable {
+
+    /**
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     */
+    void transfer(Account fromAccount, Account toAccount, long amount) throws InterruptedException;
+
+    /**
+     * Apply transfers of the batch in order, skipping the ones which have
+     * failed already. Atomic batches are only supported by engines which
+     * override this method.
+     */
+    default void transfer(TransferBatch batch) throws InterruptedException {
+        if (batch.isAtomic()) {
+            throw new UnsupportedOperationException(
+                    "Atomic batches are not supported by " + getClass().getSimpleName());
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getFailure(i) != null) {
+                continue;
+            }
+            try {
+                transfer(batch.getFromAccount(i), batch.getToAccount(i), batch.getAmount(i));
+            } catch (RuntimeException ex) {
+                batch.fail(i, ex);
+            }
+        }
+    }
+
+    /**
+     * Stop the engine threads, if there are any.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @param name "lock", "async", "cas" or "sharded"
+     */
+    static TransferEngine create(String name) {
+        switch (name) {
+            case "lock":
+                return new LockingTransferEngine(Integer.getInteger("mt.hot.deposits", 0),
+                        Integer.getInteger("mt.hot.stripes", Runtime.getRuntime().availableProcessors() * 2));
+            case "async":
+                return new AsyncLockingTransferEngine(
+                        Integer.getInteger("mt.async.threads", Runtime.getRuntime().availableProcessors()),
+                        new LockingTransferEngine(Integer.getInteger("mt.hot.deposits", 0),
+                                Integer.getInteger("mt.hot.stripes", Runtime.getRuntime().availableProcessors() * 2)));
+            case "cas":
+                return new CasTransferEngine();
+            case "sharded":
+                return new ShardedTransferEngine(
+                        Integer.getInteger("mt.shards", Runtime.getRuntime().availableProcessors()),
+                        Integer.getInteger("mt.shard.capacity", 1024));
+            default:
+                throw new IllegalArgumentException("Unknown transfer engine: " + name);
+        }
+    }
+}
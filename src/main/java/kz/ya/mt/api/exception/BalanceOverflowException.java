@@ -0,0 +1,19 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class BalanceOverflowException extends RuntimeException {
+
+    private final String number;
+
+    public BalanceOverflowException(final String number) {
+        this.number = number;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Balance of Account %s would overflow", number);
+    }
+}
@@ -0,0 +1,19 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    private final String key;
+
+    public IdempotencyKeyReusedException(final String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Idempotency key %s was used for another transfer", key);
+    }
+}
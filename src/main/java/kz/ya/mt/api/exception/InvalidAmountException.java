@@ -0,0 +1,19 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class InvalidAmountException extends RuntimeException {
+
+    private final String amount;
+
+    public InvalidAmountException(final String amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Amount '%s' is not a valid money value", amount);
+    }
+}
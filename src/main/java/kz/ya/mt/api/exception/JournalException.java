@@ -0,0 +1,12 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class JournalException extends RuntimeException {
+
+    public JournalException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
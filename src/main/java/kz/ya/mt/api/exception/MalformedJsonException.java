@@ -0,0 +1,21 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class MalformedJsonException extends RuntimeException {
+
+    private final int position;
+    private final String reason;
+
+    public MalformedJsonException(final int position, final String reason) {
+        this.position = position;
+        this.reason = reason;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Malformed JSON at byte %d: %s", position, reason);
+    }
+}
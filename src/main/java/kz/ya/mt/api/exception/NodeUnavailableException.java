@@ -0,0 +1,20 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class NodeUnavailableException extends RuntimeException {
+
+    private final String node;
+
+    public NodeUnavailableException(final String node, final Throwable cause) {
+        super(cause);
+        this.node = node;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Node %s is not available", node);
+    }
+}
@@ -1,13 +0,0 @@
-package kz.ya.mt.api.exception;
-
-/**
- *
- * @author yerlana
- */
-public class NullAccountBalanceException extends RuntimeException {
-
-    @Override
-    public String getMessage() {
-        return "Account balance is null";
-    }
-}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package kz.ya.mt.api.exception;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class ReadOnlyReplicaException extends RuntimeException {
+
+    private final String primary;
+
+    public ReadOnlyReplicaException(final String primary) {
+        this.primary = primary;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Node follows %s and takes no changes", primary);
+    }
+}
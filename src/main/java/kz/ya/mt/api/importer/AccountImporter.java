@@ -0,0 +1,299 @@
+package kz.ya.mt.api.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.json.AccountJsonReader;
+import kz.ya.mt.api.model.ImportResponse;
+import kz.ya.mt.api.model.Money;
+
+/**
+ * Creates accounts from a stream of lines, NDJSON objects or CSV
+ * "number,balance" rows. Lines are cut into batches which worker threads
+ * parse and insert while the next batches are read. Batches are reused
+ * from a fixed pool, so memory doesn't depend on the size of the input, and
+ * reading waits for a free batch when the workers fall behind.
+ * <p>
+ * A line which fails is reported with its number and doesn't stop the
+ * import. A missing number is generated, a missing balance is zero.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class AccountImporter {
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    private static final int MAX_LINE = 4096;
+    private static final int BATCH_LINES = 4096;
+    private static final int BATCH_BYTES = 1 << 20;
+    private static final int READ_BUFFER = 1 << 16;
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final int maxErrors;
+    private final Predicate<String> local;
+
+    /**
+     * @param threads workers parsing and inserting batches
+     * @param maxErrors failed lines reported in detail, the rest are only
+     * counted
+     */
+    public AccountImporter(int threads, int maxErrors) {
+        this(threads, maxErrors, number -> true);
+    }
+
+    /**
+     * @param local tells whether an account belongs to this node, lines with
+     * accounts of other nodes fail
+     */
+    public AccountImporter(int threads, int maxErrors, Predicate<String> local) {
+        this.threads = threads;
+        this.maxErrors = maxErrors;
+        this.local = local;
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "account-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param expected number of accounts expected, to size the store up
+     * front, 0 if unknown
+     */
+    public ImportResponse importFrom(InputStream input, Format format, int expected)
+            throws IOException, InterruptedException {
+        if (expected > 0) {
+            AccountDao.getInstance().reserve(expected);
+        }
+        final Job job = new Job(format, local);
+        // two batches per worker: one being processed, one ready to be
+        final BlockingQueue<Batch> pool = new ArrayBlockingQueue<>(threads * 2);
+        for (int i = 0; i < threads * 2; i++) {
+            pool.add(new Batch());
+        }
+
+        final byte[] buffer = new byte[READ_BUFFER];
+        long line = 1;
+        Batch batch = pool.take().reset(line);
+        try {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                int from = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    batch.append(buffer, from, i);
+                    batch.endLine();
+                    line++;
+                    from = i + 1;
+                    if (batch.isFull()) {
+                        submit(job, batch, pool);
+                        batch = null;
+                        batch = pool.take().reset(line);
+                    }
+                }
+                batch.append(buffer, from, read);
+            }
+            if (batch.hasOpenLine()) {
+                batch.endLine();
+            }
+        } finally {
+            // the last batch is submitted even if reading failed, and the
+            // import returns only once every batch is back in the pool
+            if (batch != null) {
+                submit(job, batch, pool);
+            }
+            for (int i = 0; i < threads * 2; i++) {
+                pool.take();
+            }
+        }
+        return job.result(maxErrors);
+    }
+
+    private void submit(Job job, Batch batch, BlockingQueue<Batch> pool) {
+        executor.execute(() -> {
+            try {
+                job.process(batch, maxErrors);
+            } finally {
+                pool.add(batch);
+            }
+        });
+    }
+
+    /**
+     * State of one import, shared by the workers.
+     */
+    private static final class Job {
+
+        final Format format;
+        final Predicate<String> local;
+        final LongAdder imported = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final List<ImportResponse.LineError> errors = new ArrayList<>();
+
+        Job(Format format, Predicate<String> local) {
+            this.format = format;
+            this.local = local;
+        }
+
+        void process(Batch batch, int maxErrors) {
+            for (int i = 0; i < batch.lines; i++) {
+                final long line = batch.firstLine + i;
+                final int start = batch.starts[i];
+                int end = batch.ends[i];
+                if (end > start && batch.data[end - 1] == '\r') {
+                    end--;
+                }
+                if (isBlank(batch.data, start, end)) {
+                    continue;
+                }
+                try {
+                    if (batch.truncated[i]) {
+                        throw new IllegalArgumentException("Line is longer than " + MAX_LINE + " bytes");
+                    }
+                    if (format == Format.NDJSON) {
+                        final AccountJsonReader account = AccountJsonReader.read(batch.data, start, end);
+                        create(account.getNumber(), account.getBalance());
+                    } else if (!createFromCsv(line, batch.data, start, end)) {
+                        continue;
+                    }
+                    imported.increment();
+                } catch (RuntimeException ex) {
+                    failed.increment();
+                    synchronized (errors) {
+                        if (errors.size() < maxErrors) {
+                            errors.add(new ImportResponse.LineError(line, ex.getMessage()));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false for the header line
+         */
+        private boolean createFromCsv(long line, byte[] data, int start, int end) {
+            final String text = new String(data, start, end - start, StandardCharsets.UTF_8);
+            final int comma = text.indexOf(',');
+            final String number = (comma < 0 ? text : text.substring(0, comma)).trim();
+            if (line == 1 && number.equalsIgnoreCase("number")) {
+                return false;
+            }
+            final String balance = comma < 0 ? "" : text.substring(comma + 1).trim();
+            create(number.isEmpty() ? null : number, balance.isEmpty() ? 0 : Money.parse(balance));
+            return true;
+        }
+
+        private void create(String number, long balance) {
+            if (balance < 0) {
+                throw new InvalidAmountException(Money.toString(balance));
+            }
+            if (number == null) {
+                String generated = UUID.randomUUID().toString();
+                while (!local.test(generated)) {
+                    generated = UUID.randomUUID().toString();
+                }
+                AccountDao.getInstance().create(generated, balance);
+            } else if (local.test(number)) {
+                AccountDao.getInstance().create(number, balance);
+            } else {
+                throw new IllegalArgumentException("Account " + number + " belongs to another node");
+            }
+        }
+
+        ImportResponse result(int maxErrors) {
+            final List<ImportResponse.LineError> sorted;
+            synchronized (errors) {
+                sorted = new ArrayList<>(errors);
+            }
+            // workers finish batches out of order
+            sorted.sort(Comparator.comparingLong(ImportResponse.LineError::getLine));
+            return new ImportResponse(imported.sum(), failed.sum(), sorted);
+        }
+
+        private static boolean isBlank(byte[] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] != ' ' && data[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lines copied out of the read buffer, one array for all of them.
+     */
+    private static final class Batch {
+
+        final byte[] data = new byte[BATCH_BYTES + MAX_LINE];
+        final int[] starts = new int[BATCH_LINES];
+        final int[] ends = new int[BATCH_LINES];
+        final boolean[] truncated = new boolean[BATCH_LINES];
+        long firstLine;
+        int lines;
+        int size;
+        int lineStart;
+        boolean lineTruncated;
+
+        Batch reset(long firstLine) {
+            this.firstLine = firstLine;
+            lines = 0;
+            size = 0;
+            lineStart = 0;
+            lineTruncated = false;
+            return this;
+        }
+
+        /**
+         * Add bytes to the line being read, a line beyond the limit is
+         * truncated and fails later.
+         */
+        void append(byte[] buffer, int from, int to) {
+            final int room = MAX_LINE - (size - lineStart);
+            final int length = Math.min(to - from, room);
+            if (length < to - from) {
+                lineTruncated = true;
+            }
+            if (length > 0) {
+                System.arraycopy(buffer, from, data, size, length);
+                size += length;
+            }
+        }
+
+        void endLine() {
+            starts[lines] = lineStart;
+            ends[lines] = size;
+            truncated[lines] = lineTruncated;
+            lines++;
+            lineStart = size;
+            lineTruncated = false;
+        }
+
+        boolean hasOpenLine() {
+            return size > lineStart || lineTruncated;
+        }
+
+        boolean isFull() {
+            return lines == BATCH_LINES || size >= BATCH_BYTES;
+        }
+    }
+}
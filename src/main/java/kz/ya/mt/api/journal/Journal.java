@@ -0,0 +1,850 @@
+package kz.ya.mt.api.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import kz.ya.mt.api.exception.JournalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of account changes with group commit.
+ * <p>
+ * Records are encoded on the calling thread and appended to an in-memory
+ * buffer, one flusher thread writes the buffer to the current segment file
+ * and forces it to disk. Every append issued while the previous fsync was
+ * running, or within the configured max delay, shares the next fsync. The
+ * caller is expected to append while it holds account locks, and to wait
+ * for durability with {@link #awaitDurable()} only after releasing them.
+ * <p>
+ * A segment is a sequence of frames: [int length][int crc32][records], a
+ * frame is either replayed completely or not at all. Segment files are
+ * named by their start position, which is the total length of all frames
+ * written before them.
+ *
+ * @author yerlan.akhmetov
+ */
+public class Journal implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER = 8;
+    private static final int INITIAL_BUFFER = 1 << 16;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final int STAGING_BUFFER = 256;
+    private static final int POOLED_BUFFERS = 256;
+    private static final Method IS_VIRTUAL = isVirtualMethod();
+
+    private static final byte CREATE = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte UPDATE = 4;
+    private static final byte OWED = 5;
+    private static final byte SETTLED = 6;
+
+    /**
+     * Receives records of the journal in the order they were appended.
+     * Updates carry the resulting balance and version of the account, so
+     * applying an update again or after a newer one must be a no-op.
+     * <p>
+     * A transfer whose halves are applied one after another is journaled as
+     * the update of the sender together with the credit owed to the
+     * receiver, and the credit is settled together with the update of the
+     * receiver, or of the sender if it is refunded.
+     */
+    public interface Handler {
+
+        void created(String number, long balance, long timestamp);
+
+        void updated(String number, long balance, long version, long timestamp);
+
+        void deleted(String number);
+
+        void cleared();
+
+        void owed(long id, String fromNumber, String toNumber, long amount, long timestamp);
+
+        void settled(long id);
+    }
+
+    private final Path directory;
+    private final long maxDelayNanos;
+    private final long segmentSize;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition appended = appendLock.newCondition();
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    private volatile long appendedPosition;
+
+    /**
+     * Not a monitor, a virtual thread waiting on a condition doesn't pin
+     * its carrier thread.
+     */
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durable = durableLock.newCondition();
+    private final PriorityBlockingQueue<Waiter> waiters = new PriorityBlockingQueue<>();
+    private volatile long durablePosition;
+    private volatile JournalException failure;
+    private volatile boolean running = true;
+    private volatile Runnable beforeWrite;
+
+    private FileChannel segment;
+    private long segmentStart;
+    private final Thread flusher;
+
+    private final ThreadLocal<Staging> staging = ThreadLocal.withInitial(Staging::new);
+    /**
+     * Frame buffers of virtual threads, which mostly live for one transfer.
+     */
+    private final BlockingQueue<FrameBuffer> frameBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+    private Journal(Path directory, long maxDelayMicros, long segmentSize) {
+        this.directory = directory;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.segmentSize = segmentSize;
+        this.flusher = new Thread(this::flush, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Replay the directory from the position and open the last segment for
+     * appends. A torn or corrupted frame at the end of the journal, left by
+     * a crash in the middle of a write, is cut off.
+     *
+     * @param fromPosition position of the first record to replay, segments
+     * before it may be deleted already
+     * @param maxDelayMicros how long the flusher waits for more appends
+     * before an fsync, 0 to fsync as soon as possible
+     * @param segmentSize size after which a new segment file is started
+     */
+    public static Journal open(Path directory, long fromPosition, long maxDelayMicros, long segmentSize,
+            Handler handler) throws IOException {
+        Files.createDirectories(directory);
+        final Journal journal = new Journal(directory, maxDelayMicros, segmentSize);
+
+        final List<Path> segments = segments(directory);
+        long position = segments.isEmpty() ? fromPosition : startOf(segments.get(0));
+        long lastStart = position;
+        if (position > fromPosition) {
+            throw new IOException("Journal " + directory + " starts after position " + fromPosition);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            final Path path = segments.get(i);
+            final long start = startOf(path);
+            if (start != position) {
+                throw new IOException("Journal segment " + path + " doesn't follow position " + position);
+            }
+            lastStart = start;
+            final long size = Files.size(path);
+            if (start + size <= fromPosition && i < segments.size() - 1) {
+                // compacted into a snapshot already
+                position = start + size;
+                continue;
+            }
+            final long valid = replay(path, Math.max(0, fromPosition - start), handler);
+            position = start + valid;
+            if (valid < size) {
+                LOGGER.warn("Journal segment {} is truncated to {} bytes", path, valid);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+                // nothing after a damaged frame can be trusted
+                for (Path rest : segments.subList(i + 1, segments.size())) {
+                    LOGGER.warn("Journal segment {} is dropped", rest);
+                    Files.delete(rest);
+                }
+                break;
+            }
+        }
+        if (position < fromPosition) {
+            throw new IOException("Journal " + directory + " ends at " + position + " before " + fromPosition);
+        }
+
+        journal.appendedPosition = position;
+        journal.durablePosition = position;
+        journal.segmentStart = lastStart;
+        journal.segment = FileChannel.open(segmentPath(directory, journal.segmentStart),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journal.flusher.start();
+        LOGGER.info("Journal {} is opened at position {}", directory, position);
+        return journal;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return position after the last record forced to disk
+     */
+    public long getDurablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * @return position after the last appended record
+     */
+    public long getAppendedPosition() {
+        return appendedPosition;
+    }
+
+    /**
+     * @return position after the last record appended by the current thread
+     */
+    public long getLastPosition() {
+        return staging.get().lastPosition;
+    }
+
+    /**
+     * Delete segments which end before the position, the segment being
+     * written is always kept.
+     */
+    public void deleteSegmentsBefore(long position) throws IOException {
+        final List<Path> segments = segments(directory);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (startOf(segments.get(i + 1)) > position) {
+                break;
+            }
+            Files.delete(segments.get(i));
+            LOGGER.info("Journal segment {} is deleted", segments.get(i));
+        }
+    }
+
+    /**
+     * @return start of the first segment, the journal doesn't have the
+     * records before it anymore
+     */
+    public long getFirstPosition() throws IOException {
+        final List<Path> segments = segments(directory);
+        return segments.isEmpty() ? segmentStart : startOf(segments.get(0));
+    }
+
+    /**
+     * Delete all segments of a journal which is not open. The last ones go
+     * first, so after a crash in between the rest is still a valid journal.
+     */
+    public static void deleteSegments(Path directory) throws IOException {
+        final List<Path> segments = segments(directory);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Files.delete(segments.get(i));
+        }
+    }
+
+    /**
+     * Append whole frames copied from another journal as they are, so this
+     * journal stays a byte for byte copy of it, see
+     * {@link kz.ya.mt.api.replication.ReplicationClient}. They count as
+     * records of the current thread for {@link #awaitDurable()}.
+     *
+     * @return position after the frames
+     */
+    public long appendFrames(ByteBuffer frames) {
+        final long position = append(frames);
+        staging.get().lastPosition = position;
+        return position;
+    }
+
+    public void create(String number, long balance, long timestamp) {
+        staging.get().record(this, CREATE, number, balance, 0, timestamp).commit(this);
+    }
+
+    /**
+     * @param balance balance after the change
+     * @param version version of the account after the change
+     */
+    public void update(String number, long balance, long version, long timestamp) {
+        staging.get().record(this, UPDATE, number, balance, version, timestamp).commit(this);
+    }
+
+    public void delete(String number) {
+        staging.get().record(this, DELETE, number, 0, 0, 0).commit(this);
+    }
+
+    public void clear() {
+        staging.get().record(this, CLEAR, "", 0, 0, 0).commit(this);
+    }
+
+    /**
+     * @param id unique among the credits not settled yet
+     */
+    public void owe(long id, String fromNumber, String toNumber, long amount, long timestamp) {
+        staging.get().record(this, OWED, toNumber, amount, id, timestamp).string(fromNumber).commit(this);
+    }
+
+    public void settle(long id) {
+        staging.get().record(this, SETTLED, "", 0, id, 0).commit(this);
+    }
+
+    /**
+     * Records appended by the current thread until the matching
+     * {@link #commitFrame()} are written as one frame, so after a crash
+     * either all of them are replayed or none. Frames may be nested.
+     */
+    public void beginFrame() {
+        staging.get().depth++;
+    }
+
+    public void commitFrame() {
+        final Staging frame = staging.get();
+        if (--frame.depth == 0) {
+            frame.commit(this);
+        }
+    }
+
+    /**
+     * Run the action before the appended frames are written, so records of
+     * another log that changes in the journal depend on are durable first.
+     * Those records must be appended to the other log before the changes
+     * are journaled, and the action must make them durable, which lets one
+     * fsync of it cover a whole group of changes.
+     *
+     * @param action null to write without waiting for anything
+     */
+    public void setBeforeWrite(Runnable action) {
+        this.beforeWrite = action;
+    }
+
+    /**
+     * Make the current thread wait in {@link #awaitDurable()} for records
+     * appended by other threads as well, e.g. by helpers of its transfer.
+     */
+    public void join() {
+        final Staging frame = staging.get();
+        frame.lastPosition = Math.max(frame.lastPosition, appendedPosition);
+    }
+
+    /**
+     * Wait until every record appended by the current thread is on disk.
+     */
+    public void awaitDurable() throws InterruptedException {
+        awaitDurable(staging.get().lastPosition);
+    }
+
+    /**
+     * Wait until everything before the position is on disk.
+     */
+    public void awaitDurable(long position) throws InterruptedException {
+        if (durablePosition >= position) {
+            return;
+        }
+        durableLock.lock();
+        try {
+            while (durablePosition < position) {
+                checkFailure();
+                durable.await();
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until everything before the position is on disk, or the timeout
+     * elapses.
+     *
+     * @return false if the timeout has elapsed
+     */
+    public boolean awaitDurable(long position, long timeout, TimeUnit unit) throws InterruptedException {
+        if (durablePosition >= position) {
+            return true;
+        }
+        long remaining = unit.toNanos(timeout);
+        durableLock.lock();
+        try {
+            while (durablePosition < position) {
+                checkFailure();
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = durable.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #awaitDurable()} without blocking, the future is
+     * completed by the flusher thread.
+     */
+    public CompletableFuture<Void> whenDurable() {
+        final long position = staging.get().lastPosition;
+        if (durablePosition >= position) {
+            return DONE;
+        }
+        if (failure != null) {
+            return failed();
+        }
+        final Waiter waiter = new Waiter(position);
+        waiters.add(waiter);
+        // the flusher might have passed the position, or failed, before the waiter was added
+        if ((durablePosition >= position || failure != null) && waiters.remove(waiter)) {
+            return durablePosition >= position ? DONE : failed();
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Flush everything appended so far and stop the flusher thread.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        appendLock.lock();
+        try {
+            appended.signal();
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    private long append(ByteBuffer frame) {
+        appendLock.lock();
+        try {
+            checkFailure();
+            if (!running) {
+                throw new JournalException("Journal " + directory + " is closed", null);
+            }
+            if (active.remaining() < frame.remaining()) {
+                active = grow(active, frame.remaining());
+            }
+            final boolean wasEmpty = active.position() == 0;
+            appendedPosition += frame.remaining();
+            active.put(frame);
+            if (wasEmpty) {
+                appended.signal();
+            }
+            return appendedPosition;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            appendLock.lock();
+            try {
+                while (active.position() == 0 && running) {
+                    appended.awaitUninterruptibly();
+                }
+                if (active.position() == 0) {
+                    return;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+
+            if (maxDelayNanos > 0 && running) {
+                // let more appends join this fsync
+                LockSupport.parkNanos(maxDelayNanos);
+            }
+
+            final ByteBuffer batch;
+            final long position;
+            appendLock.lock();
+            try {
+                batch = active;
+                active = spare;
+                spare = batch;
+                position = appendedPosition;
+            } finally {
+                appendLock.unlock();
+            }
+
+            try {
+                final Runnable action = beforeWrite;
+                if (action != null) {
+                    action.run();
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    segment.write(batch);
+                }
+                segment.force(false);
+                batch.clear();
+                if (position - segmentStart >= segmentSize) {
+                    roll(position);
+                }
+            } catch (IOException | UncheckedIOException ex) {
+                LOGGER.error("Journal {} write failed", directory, ex);
+                appendLock.lock();
+                try {
+                    // nothing is appended after it, the records left in the buffer are dropped
+                    failure = new JournalException("Journal " + directory + " write failed", ex);
+                    active.clear();
+                } finally {
+                    appendLock.unlock();
+                }
+                completeWaiters();
+                return;
+            }
+            durablePosition = position;
+            completeWaiters();
+        }
+    }
+
+    private void roll(long position) throws IOException {
+        segment.close();
+        segmentStart = position;
+        segment = FileChannel.open(segmentPath(directory, position),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        LOGGER.info("Journal segment {} is started", segmentStart);
+    }
+
+    private void completeWaiters() {
+        durableLock.lock();
+        try {
+            durable.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+        final long position = durablePosition;
+        Waiter waiter;
+        while ((waiter = waiters.peek()) != null && (failure != null || waiter.position <= position)) {
+            if (waiters.remove(waiter)) {
+                if (failure != null) {
+                    waiter.future.completeExceptionally(failure);
+                } else {
+                    waiter.future.complete(null);
+                }
+            }
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private FrameBuffer borrow() {
+        final FrameBuffer frame = frameBuffers.poll();
+        return frame != null ? frame : new FrameBuffer();
+    }
+
+    private void release(FrameBuffer frame) {
+        // a buffer grown by a large frame is left to the garbage collector
+        if (frame.capacity() == STAGING_BUFFER) {
+            frameBuffers.offer(frame);
+        }
+    }
+
+    /**
+     * Looked up reflectively, the sources are compiled for Java 8.
+     *
+     * @return null before JDK 21
+     */
+    private static Method isVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            return false;
+        }
+    }
+
+    private CompletableFuture<Void> failed() {
+        // no failedFuture() on Java 8
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int required) {
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < required) {
+            capacity <<= 1;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * @return length of the valid prefix of the segment
+     */
+    static long replay(Path path, long offset, Handler handler) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (offset > buffer.limit()) {
+            throw new IOException("Journal segment " + path + " is shorter than " + offset);
+        }
+        buffer.position((int) offset);
+        return offset + replay(buffer, handler);
+    }
+
+    /**
+     * Replay the frames from the position of the buffer to its limit.
+     *
+     * @return length of the valid frames
+     */
+    public static long replay(ByteBuffer buffer, Handler handler) {
+        final int offset = buffer.position();
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() >= FRAME_HEADER) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start - offset;
+            }
+            final ByteBuffer records = buffer.slice();
+            records.limit(length);
+            crc.reset();
+            crc.update(records.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return start - offset;
+            }
+            apply(records, handler);
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position() - offset;
+    }
+
+    private static void apply(ByteBuffer records, Handler handler) {
+        while (records.hasRemaining()) {
+            final byte type = records.get();
+            final long timestamp = records.getLong();
+            final long balance = records.getLong();
+            final long version = records.getLong();
+            final String number = getString(records);
+            switch (type) {
+                case CREATE:
+                    handler.created(number, balance, timestamp);
+                    break;
+                case UPDATE:
+                    handler.updated(number, balance, version, timestamp);
+                    break;
+                case DELETE:
+                    handler.deleted(number);
+                    break;
+                case CLEAR:
+                    handler.cleared();
+                    break;
+                case OWED:
+                    // the only record with a second string, the sender
+                    handler.owed(version, getString(records), number, balance, timestamp);
+                    break;
+                case SETTLED:
+                    handler.settled(version);
+                    break;
+                default:
+                    throw new JournalException("Unknown journal record type " + type, null);
+            }
+        }
+    }
+
+    /**
+     * Strings are written as a char count followed by the chars, ASCII ones
+     * as single bytes, which is compact for the usual account numbers and
+     * never allocates.
+     */
+    static void putString(ByteBuffer buffer, String value) {
+        final int length = value.length();
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException("String is too long for the journal");
+        }
+        buffer.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else {
+                buffer.put((byte) -1).putChar(c);
+            }
+        }
+    }
+
+    static int maxStringBytes(String value) {
+        return 2 + 3 * value.length();
+    }
+
+    static String getString(ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            final int b = buffer.get();
+            chars[i] = b >= 0 ? (char) b : buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        // zero padded positions sort the same way as numbers
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static long startOf(Path segment) {
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static Path segmentPath(Path directory, long start) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Frame of the current thread and the position of its last append. A
+     * virtual thread per transfer needs its own staging for one transfer
+     * only, so it borrows the frame buffer from the pool while records are
+     * staged, other threads keep theirs.
+     */
+    private static final class Staging {
+
+        private final boolean pooled = isVirtual(Thread.currentThread());
+        private FrameBuffer frame;
+        private int depth;
+        private long lastPosition;
+
+        Staging record(Journal journal, byte type, String number, long balance, long version, long timestamp) {
+            if (frame == null) {
+                frame = pooled ? journal.borrow() : new FrameBuffer();
+            }
+            frame.record(type, number, balance, version, timestamp);
+            return this;
+        }
+
+        /**
+         * Add a string to the record staged last.
+         */
+        Staging string(String value) {
+            frame.string(value);
+            return this;
+        }
+
+        void commit(Journal journal) {
+            if (depth > 0 || frame == null || frame.isEmpty()) {
+                return;
+            }
+            try {
+                lastPosition = journal.append(frame.seal());
+            } finally {
+                frame.clear();
+                if (pooled) {
+                    journal.release(frame);
+                    frame = null;
+                }
+            }
+        }
+    }
+
+    private static final class FrameBuffer {
+
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer buffer = ByteBuffer.allocate(STAGING_BUFFER);
+
+        FrameBuffer() {
+            buffer.position(FRAME_HEADER);
+        }
+
+        void record(byte type, String number, long balance, long version, long timestamp) {
+            ensure(25 + maxStringBytes(number));
+            buffer.put(type).putLong(timestamp).putLong(balance).putLong(version);
+            putString(buffer, number);
+        }
+
+        void string(String value) {
+            ensure(maxStringBytes(value));
+            putString(buffer, value);
+        }
+
+        boolean isEmpty() {
+            return buffer.position() == FRAME_HEADER;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        /**
+         * @return the frame with its header, ready to be appended
+         */
+        ByteBuffer seal() {
+            final int length = buffer.position() - FRAME_HEADER;
+            buffer.flip();
+            buffer.position(FRAME_HEADER);
+            crc.reset();
+            crc.update(buffer);
+            buffer.putInt(0, length);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.position(0);
+            return buffer;
+        }
+
+        void clear() {
+            buffer.clear();
+            buffer.position(FRAME_HEADER);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                buffer = grow(buffer, bytes);
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        final long position;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            return Long.compare(position, other.position);
+        }
+    }
+}
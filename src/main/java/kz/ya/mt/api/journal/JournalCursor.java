@@ -0,0 +1,126 @@
+package kz.ya.mt.api.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads whole frames of a journal directory from a position on, while the
+ * journal is written, for shipping them to followers. Only frames before a
+ * limit are read, the durable position of the journal, as the rest may be
+ * written partially yet.
+ * <p>
+ * An open segment stays readable even if a snapshot deletes it meanwhile.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class JournalCursor implements AutoCloseable {
+
+    private static final int FRAME_HEADER = 8;
+
+    private final Path directory;
+    private FileChannel segment;
+    private long segmentStart;
+    private long position;
+
+    private JournalCursor(Path directory, long position) {
+        this.directory = directory;
+        this.position = position;
+    }
+
+    /**
+     * @throws IOException if the journal doesn't have the position anymore,
+     * as it was compacted into a snapshot
+     */
+    public static JournalCursor open(Path directory, long position) throws IOException {
+        final JournalCursor cursor = new JournalCursor(directory, position);
+        cursor.seek();
+        return cursor;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Read the frames after the position, as many as fit into the buffer,
+     * and move past them. A frame larger than the buffer is read alone into
+     * a bigger one.
+     *
+     * @param limit position not to read past, at a frame boundary
+     * @return the frames, empty if there are none before the limit
+     */
+    public ByteBuffer read(ByteBuffer buffer, long limit) throws IOException {
+        buffer.clear();
+        if (position >= limit) {
+            buffer.flip();
+            return buffer;
+        }
+        if (position >= segmentStart + segment.size()) {
+            // segments end at frame boundaries, the rest is in the next one
+            seek();
+        }
+        final long available = Math.min(limit, segmentStart + segment.size()) - position;
+        read(buffer, (int) Math.min(available, buffer.capacity()));
+
+        int end = 0;
+        while (end + FRAME_HEADER <= buffer.limit()) {
+            final int length = buffer.getInt(end);
+            if (length <= 0) {
+                throw new IOException("Journal " + directory + " has a corrupted frame at " + (position + end));
+            }
+            if (end + FRAME_HEADER + length > buffer.limit()) {
+                break;
+            }
+            end += FRAME_HEADER + length;
+        }
+        if (end == 0) {
+            final int length = buffer.getInt(0);
+            return read(ByteBuffer.allocate(FRAME_HEADER + length), limit);
+        }
+        buffer.limit(end);
+        position += end;
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+    }
+
+    private void read(ByteBuffer buffer, int length) throws IOException {
+        buffer.limit(length);
+        long offset = position - segmentStart;
+        while (buffer.hasRemaining()) {
+            final int read = segment.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Journal segment " + segmentStart + " ends before " + (offset + segmentStart));
+            }
+            offset += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Open the segment holding the position.
+     */
+    private void seek() throws IOException {
+        final List<Path> segments = Journal.segments(directory);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            final long start = Journal.startOf(segments.get(i));
+            if (start > position) {
+                continue;
+            }
+            close();
+            segment = FileChannel.open(segments.get(i), StandardOpenOption.READ);
+            segmentStart = start;
+            return;
+        }
+        throw new IOException("Journal " + directory + " doesn't have position " + position + " anymore");
+    }
+}
@@ -0,0 +1,296 @@
+package kz.ya.mt.api.journal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary copy of all accounts, taken at a journal position. Only the journal
+ * after that position has to be replayed on startup, and the segments before
+ * it can be deleted.
+ * <p>
+ * The file is a sequence of chunks [int length][int crc32][accounts],
+ * followed by the chunk offsets and a trailer [long position][int chunks]
+ * [long magic]. Chunks are independent, so they are loaded in parallel.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class Snapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Snapshot.class);
+
+    static final String PREFIX = "snapshot-";
+    static final String SUFFIX = ".snap";
+    private static final long MAGIC = 0x4D54534E41505631L;
+    private static final int TRAILER = 20;
+    private static final int CHUNK_HEADER = 8;
+    private static final int ACCOUNTS_PER_CHUNK = 8192;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Write a snapshot to a temporary file, it isn't picked up on startup
+     * until it is {@link #publish published}.
+     *
+     * @param position journal position from which changes are not guaranteed
+     * to be included
+     * @return the temporary file
+     */
+    public static Path write(Path directory, long position, Iterable<Account> accounts) throws IOException {
+        final Path file = directory.resolve(String.format("%s%020d%s.tmp", PREFIX, position, SUFFIX));
+        final List<Long> offsets = new ArrayList<>();
+        final CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+        long offset = 0;
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            chunk.position(CHUNK_HEADER);
+            for (Account account : accounts) {
+                final AccountState state = account.snapshot();
+                final int size = 32 + Journal.maxStringBytes(account.getNumber());
+                if (chunk.remaining() < size) {
+                    final ByteBuffer grown = ByteBuffer.allocate(chunk.capacity() * 2 + size);
+                    chunk.flip();
+                    chunk = grown.put(chunk);
+                }
+                Journal.putString(chunk, account.getNumber());
+                chunk.putLong(state.getBalance())
+                        .putLong(state.getVersion())
+                        .putLong(account.getCreatedAtMillis())
+                        .putLong(state.getModifiedAt());
+
+                if (++count == ACCOUNTS_PER_CHUNK) {
+                    offsets.add(offset);
+                    offset += writeChunk(channel, chunk, crc);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                offsets.add(offset);
+                offset += writeChunk(channel, chunk, crc);
+            }
+
+            final ByteBuffer trailer = ByteBuffer.allocate(offsets.size() * 8 + TRAILER);
+            for (long chunkOffset : offsets) {
+                trailer.putLong(chunkOffset);
+            }
+            trailer.putLong(position).putInt(offsets.size()).putLong(MAGIC);
+            trailer.flip();
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(true);
+        }
+        return file;
+    }
+
+    /**
+     * Copy a snapshot of another journal to a temporary file, it isn't
+     * picked up on startup until it is {@link #publish published}.
+     *
+     * @param length size of the snapshot file
+     * @return the temporary file
+     */
+    public static Path receive(Path directory, long position, InputStream input, long length) throws IOException {
+        final Path file = directory.resolve(String.format("%s%020d%s.tmp", PREFIX, position, SUFFIX));
+        final byte[] buffer = new byte[1 << 16];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long remaining = length;
+            while (remaining > 0) {
+                final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Snapshot " + file + " ends " + remaining + " bytes early");
+                }
+                final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                remaining -= read;
+            }
+            channel.force(true);
+        }
+        return file;
+    }
+
+    /**
+     * Atomically rename the temporary file, so it replaces older snapshots.
+     */
+    public static Path publish(Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        final Path target = file.resolveSibling(name.substring(0, name.length() - ".tmp".length()));
+        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /**
+     * Delete snapshots taken before the position and leftovers of
+     * unfinished ones.
+     */
+    public static void deleteBefore(Path directory, long position) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                if (name.endsWith(".tmp") || (name.endsWith(SUFFIX) && positionOf(path) < position)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    public static Optional<Path> latest(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Optional.empty();
+        }
+        final List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        // zero padded positions sort the same way as numbers
+        Collections.sort(snapshots);
+        return snapshots.isEmpty() ? Optional.empty() : Optional.of(snapshots.get(snapshots.size() - 1));
+    }
+
+    /**
+     * Decode chunks on the given number of threads, the consumer has to be
+     * thread-safe.
+     *
+     * @return journal position of the snapshot
+     */
+    public static long load(Path file, int threads, Consumer<Account> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < TRAILER) {
+                throw new IOException("Snapshot " + file + " is incomplete");
+            }
+            final ByteBuffer trailer = read(file, channel, size - TRAILER, TRAILER);
+            if (trailer.getLong(12) != MAGIC) {
+                throw new IOException("Snapshot " + file + " is incomplete");
+            }
+            final long position = trailer.getLong(0);
+            final int chunks = trailer.getInt(8);
+            final long table = size - TRAILER - chunks * 8L;
+            if (chunks < 0 || chunks > Integer.MAX_VALUE / 8 || table < 0) {
+                throw new IOException("Snapshot " + file + " is corrupted");
+            }
+            final ByteBuffer offsets = read(file, channel, table, chunks * 8);
+
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, chunks)));
+            try {
+                final List<Future<?>> results = new ArrayList<>(chunks);
+                for (int i = 0; i < chunks; i++) {
+                    final long offset = offsets.getLong(i * 8);
+                    results.add(executor.submit(() -> {
+                        readChunk(file, channel, offset, table, consumer);
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Snapshot " + file + " loading was interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof IOException
+                        ? (IOException) ex.getCause()
+                        : new IOException("Snapshot " + file + " is corrupted", ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            LOGGER.info("Snapshot {} is loaded", file);
+            return position;
+        }
+    }
+
+    public static long positionOf(Path snapshot) {
+        final String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static int writeChunk(FileChannel channel, ByteBuffer chunk, CRC32 crc) throws IOException {
+        final int length = chunk.position() - CHUNK_HEADER;
+        chunk.flip();
+        chunk.position(CHUNK_HEADER);
+        crc.reset();
+        crc.update(chunk);
+        chunk.putInt(0, length);
+        chunk.putInt(4, (int) crc.getValue());
+        chunk.position(0);
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+        chunk.position(CHUNK_HEADER);
+        return CHUNK_HEADER + length;
+    }
+
+    /**
+     * Only the chunk is mapped, a mapping can't be larger than 2 GB.
+     *
+     * @param end offset of the chunk table, no chunk goes past it
+     */
+    private static void readChunk(Path file, FileChannel channel, long offset, long end,
+            Consumer<Account> consumer) throws IOException {
+        if (offset < 0 || offset + CHUNK_HEADER > end) {
+            throw new IOException("Snapshot " + file + " has a corrupted chunk");
+        }
+        final ByteBuffer header = read(file, channel, offset, CHUNK_HEADER);
+        final int length = header.getInt(0);
+        final int checksum = header.getInt(4);
+        if (length < 0 || offset + CHUNK_HEADER + length > end) {
+            throw new IOException("Snapshot " + file + " has a corrupted chunk");
+        }
+        final ByteBuffer accounts = channel.map(FileChannel.MapMode.READ_ONLY, offset + CHUNK_HEADER, length);
+        final CRC32 crc = new CRC32();
+        crc.update(accounts.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot " + file + " has a corrupted chunk");
+        }
+        while (accounts.hasRemaining()) {
+            final String number = Journal.getString(accounts);
+            final long balance = accounts.getLong();
+            final long version = accounts.getLong();
+            final long createdAt = accounts.getLong();
+            final long modifiedAt = accounts.getLong();
+            consumer.accept(new Account(number, balance, createdAt, modifiedAt, version));
+        }
+    }
+
+    private static ByteBuffer read(Path file, FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Snapshot " + file + " is incomplete");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,59 @@
+package kz.ya.mt.api.json;
+
+/**
+ * Reads an account to import, {"number": "...", "balance": "10.50"}, from a
+ * line of NDJSON. Both fields may be missing, unknown fields are skipped.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class AccountJsonReader extends JsonReader {
+
+    private static final byte[] NUMBER = ascii("number");
+    private static final byte[] BALANCE = ascii("balance");
+
+    private String number;
+    private long balance;
+
+    private AccountJsonReader(byte[] input, int start, int end) {
+        super(input, start, end);
+    }
+
+    /**
+     * @param start first byte of the line
+     * @param end byte after the line
+     */
+    public static AccountJsonReader read(byte[] input, int start, int end) {
+        final AccountJsonReader reader = new AccountJsonReader(input, start, end);
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                final int name = reader.readName();
+                reader.expect(':');
+                if (reader.nameIs(name, NUMBER)) {
+                    reader.number = reader.readNullableString();
+                } else if (reader.nameIs(name, BALANCE)) {
+                    reader.balance = reader.consumeNull() ? 0 : reader.readMoney();
+                } else {
+                    reader.skipValue(0);
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        reader.expectEnd();
+        return reader;
+    }
+
+    /**
+     * @return null if a number is to be generated
+     */
+    public String getNumber() {
+        return number;
+    }
+
+    /**
+     * @return balance in minor units, 0 if missing
+     */
+    public long getBalance() {
+        return balance;
+    }
+}
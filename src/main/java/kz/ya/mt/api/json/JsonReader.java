@@ -0,0 +1,357 @@
+package kz.ya.mt.api.json;
+
+import java.nio.charset.StandardCharsets;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.MalformedJsonException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+import kz.ya.mt.api.model.Money;
+
+/**
+ * Tokenizer shared by the readers of request bodies: walks a range of UTF-8
+ * bytes once, without building a tree. Subclasses match the fields they
+ * know with {@link #nameIs} and skip the rest.
+ *
+ * @author yerlan.akhmetov
+ */
+abstract class JsonReader {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final byte[] input;
+    private final int start;
+    private final int end;
+    private int position;
+    private final Slice slice = new Slice();
+
+    JsonReader(byte[] input, int start, int end) {
+        this.input = input;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    /**
+     * @return amount in minor units, from a string or a number
+     */
+    final long readMoney() {
+        skipWhitespace();
+        if (consumeNull()) {
+            throw new NullInputAmountException();
+        }
+        final int from;
+        final int to;
+        if (peek() == '"') {
+            from = position + 1;
+            to = skipString();
+            if (to != position - 1) {
+                // escapes are not expected in an amount
+                throw new InvalidAmountException(new String(input, from, position - 1 - from, StandardCharsets.UTF_8));
+            }
+        } else {
+            from = position;
+            skipNumber();
+            to = position;
+        }
+        return Money.parse(slice.of(from, to));
+    }
+
+    final boolean readBoolean() {
+        skipWhitespace();
+        if (consumeLiteral("true")) {
+            return true;
+        }
+        if (consumeLiteral("false")) {
+            return false;
+        }
+        throw malformed("boolean expected");
+    }
+
+    final String readNullableString() {
+        skipWhitespace();
+        if (consumeNull()) {
+            return null;
+        }
+        if (peek() != '"') {
+            throw malformed("string expected");
+        }
+        final int from = position + 1;
+        final int to = skipString();
+        if (to == position - 1) {
+            return new String(input, from, to - from, StandardCharsets.UTF_8);
+        }
+        return decode(from, position - 1);
+    }
+
+    /**
+     * @return start of the name, which is a string without escapes
+     */
+    final int readName() {
+        skipWhitespace();
+        if (peek() != '"') {
+            throw malformed("field name expected");
+        }
+        final int from = position + 1;
+        skipString();
+        return from;
+    }
+
+    final boolean nameIs(int from, byte[] name) {
+        final int nameEnd = from + name.length;
+        if (nameEnd >= end || input[nameEnd] != '"') {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (input[from + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move past the string at the position.
+     *
+     * @return end of the leading part without escapes, the string has none
+     * if it is right before the closing quote
+     */
+    final int skipString() {
+        position++;
+        int plainEnd = -1;
+        while (position < end) {
+            final byte b = input[position];
+            if (b == '"') {
+                if (plainEnd < 0) {
+                    plainEnd = position;
+                }
+                position++;
+                return plainEnd;
+            }
+            if (b == '\\') {
+                if (plainEnd < 0) {
+                    plainEnd = position;
+                }
+                position += 2;
+                continue;
+            }
+            if ((b & 0xFF) < 0x20) {
+                throw malformed("control character in a string");
+            }
+            position++;
+        }
+        throw malformed("unterminated string");
+    }
+
+    private String decode(int from, int to) {
+        final StringBuilder text = new StringBuilder(to - from);
+        int run = from;
+        int i = from;
+        while (i < to) {
+            if (input[i] != '\\') {
+                i++;
+                continue;
+            }
+            text.append(new String(input, run, i - run, StandardCharsets.UTF_8));
+            if (i + 1 >= to) {
+                throw malformed("invalid escape");
+            }
+            final byte escaped = input[i + 1];
+            i += 2;
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    text.append((char) escaped);
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 > to) {
+                        throw malformed("invalid escape");
+                    }
+                    int c = 0;
+                    for (int j = 0; j < 4; j++) {
+                        c = (c << 4) | hex(input[i + j]);
+                    }
+                    text.append((char) c);
+                    i += 4;
+                    break;
+                default:
+                    throw malformed("invalid escape");
+            }
+            run = i;
+        }
+        return text.append(new String(input, run, to - run, StandardCharsets.UTF_8)).toString();
+    }
+
+    private int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw malformed("invalid escape");
+    }
+
+    final void skipNumber() {
+        final int from = position;
+        while (position < end) {
+            final byte b = input[position];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (position == from) {
+            throw malformed("value expected");
+        }
+    }
+
+    final void skipValue(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw malformed("nested too deep");
+        }
+        skipWhitespace();
+        final byte b = peek();
+        if (b == '"') {
+            skipString();
+        } else if (b == '{') {
+            position++;
+            if (!consume('}')) {
+                do {
+                    readName();
+                    expect(':');
+                    skipValue(depth + 1);
+                } while (consume(','));
+                expect('}');
+            }
+        } else if (b == '[') {
+            position++;
+            if (!consume(']')) {
+                do {
+                    skipValue(depth + 1);
+                } while (consume(','));
+                expect(']');
+            }
+        } else if (!consumeLiteral("true") && !consumeLiteral("false") && !consumeNull()) {
+            skipNumber();
+        }
+    }
+
+    final boolean consumeNull() {
+        return consumeLiteral("null");
+    }
+
+    final boolean consumeLiteral(String literal) {
+        skipWhitespace();
+        if (position + literal.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (input[position + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        position += literal.length();
+        return true;
+    }
+
+    final boolean consume(char c) {
+        skipWhitespace();
+        if (position < end && input[position] == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    final void expect(char c) {
+        if (!consume(c)) {
+            throw malformed("'" + c + "' expected");
+        }
+    }
+
+    final void expectEnd() {
+        skipWhitespace();
+        if (position != end) {
+            throw malformed("end of input expected");
+        }
+    }
+
+    final byte peek() {
+        if (position >= end) {
+            throw malformed("unexpected end of input");
+        }
+        return input[position];
+    }
+
+    final void skipWhitespace() {
+        while (position < end) {
+            final byte b = input[position];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    final MalformedJsonException malformed(String reason) {
+        return new MalformedJsonException(position - start, reason);
+    }
+
+    static byte[] ascii(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reusable view of a part of the input, amounts are ASCII.
+     */
+    private final class Slice implements CharSequence {
+
+        private int from;
+        private int to;
+
+        Slice of(int from, int to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (input[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(input, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+}
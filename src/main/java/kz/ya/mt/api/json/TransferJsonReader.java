@@ -0,0 +1,176 @@
+package kz.ya.mt.api.json;
+
+import java.util.Arrays;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+import kz.ya.mt.api.model.Money;
+
+/**
+ * Reads transfers from a UTF-8 JSON body in one pass over its bytes. Field
+ * names are matched in place, amounts are parsed into minor units straight
+ * from the body and only account numbers become strings, so there is no
+ * intermediate tree and no reflection.
+ * <p>
+ * A transfer is {"fromAccountNo": "...", "toAccountNo": "...", "amount":
+ * "10.50"}, the amount may be a number as well. A batch is {"atomic": true,
+ * "transfers": [...]}. Unknown fields are skipped.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class TransferJsonReader extends JsonReader {
+
+    private static final byte[] FROM_ACCOUNT_NO = ascii("fromAccountNo");
+    private static final byte[] TO_ACCOUNT_NO = ascii("toAccountNo");
+    private static final byte[] AMOUNT = ascii("amount");
+    private static final byte[] ATOMIC = ascii("atomic");
+    private static final byte[] TRANSFERS = ascii("transfers");
+
+    private TransferJsonReader(byte[] input) {
+        super(input, 0, input.length);
+    }
+
+    /**
+     * @return a single transfer
+     */
+    public static Transfers readTransfer(byte[] body) {
+        final TransferJsonReader reader = new TransferJsonReader(body);
+        final Transfers transfers = new Transfers(1);
+        reader.readTransferInto(transfers);
+        reader.expectEnd();
+        return transfers;
+    }
+
+    /**
+     * @return transfers of the batch, none if the list is missing
+     */
+    public static Transfers readBatch(byte[] body) {
+        final TransferJsonReader reader = new TransferJsonReader(body);
+        final Transfers transfers = new Transfers(16);
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                final int name = reader.readName();
+                reader.expect(':');
+                if (reader.nameIs(name, ATOMIC)) {
+                    transfers.atomic = reader.readBoolean();
+                } else if (reader.nameIs(name, TRANSFERS)) {
+                    if (!reader.consumeNull()) {
+                        reader.expect('[');
+                        if (!reader.consume(']')) {
+                            do {
+                                reader.readTransferInto(transfers);
+                            } while (reader.consume(','));
+                            reader.expect(']');
+                        }
+                    }
+                } else {
+                    reader.skipValue(0);
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        reader.expectEnd();
+        return transfers;
+    }
+
+    /**
+     * Parallel arrays of parsed transfers. A transfer with an invalid amount
+     * keeps the failure instead of the amount, so the rest of a batch can
+     * still be read.
+     */
+    public static final class Transfers {
+
+        private boolean atomic = true;
+        private int size;
+        private String[] fromAccountNos;
+        private String[] toAccountNos;
+        private long[] amounts;
+        private boolean[] hasAmounts;
+        private RuntimeException[] failures;
+
+        private Transfers(int capacity) {
+            fromAccountNos = new String[capacity];
+            toAccountNos = new String[capacity];
+            amounts = new long[capacity];
+            hasAmounts = new boolean[capacity];
+            failures = new RuntimeException[capacity];
+        }
+
+        public boolean isAtomic() {
+            return atomic;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return null if the field is missing or null
+         */
+        public String getFromAccountNo(int index) {
+            return fromAccountNos[index];
+        }
+
+        public String getToAccountNo(int index) {
+            return toAccountNos[index];
+        }
+
+        /**
+         * @return amount in minor units, see {@link Money}
+         * @throws RuntimeException if the amount is missing or invalid
+         */
+        public long getAmount(int index) {
+            if (failures[index] != null) {
+                throw failures[index];
+            }
+            if (!hasAmounts[index]) {
+                throw new NullInputAmountException();
+            }
+            return amounts[index];
+        }
+
+        private int add() {
+            if (size == amounts.length) {
+                final int capacity = size * 2;
+                fromAccountNos = Arrays.copyOf(fromAccountNos, capacity);
+                toAccountNos = Arrays.copyOf(toAccountNos, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                hasAmounts = Arrays.copyOf(hasAmounts, capacity);
+                failures = Arrays.copyOf(failures, capacity);
+            }
+            return size++;
+        }
+    }
+
+    private void readTransferInto(Transfers transfers) {
+        final int index = transfers.add();
+        if (consumeNull()) {
+            return;
+        }
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            final int name = readName();
+            expect(':');
+            if (nameIs(name, FROM_ACCOUNT_NO)) {
+                transfers.fromAccountNos[index] = readNullableString();
+            } else if (nameIs(name, TO_ACCOUNT_NO)) {
+                transfers.toAccountNos[index] = readNullableString();
+            } else if (nameIs(name, AMOUNT)) {
+                try {
+                    transfers.amounts[index] = readMoney();
+                    transfers.hasAmounts[index] = true;
+                    transfers.failures[index] = null;
+                } catch (InvalidAmountException | NullInputAmountException ex) {
+                    transfers.failures[index] = ex;
+                }
+            } else {
+                skipValue(0);
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+}
@@ -0,0 +1,279 @@
+package kz.ya.mt.api.ledger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Record of the latest completed transfers, kept in memory since startup.
+ * Entries are kept in a ring of a fixed capacity split into chunks, the
+ * oldest entry is overwritten by a new one once the ring is full, so an
+ * append never fails and the ledger never grows past its capacity. Every
+ * account has a history of the ids of its entries in chunked long arrays,
+ * so a page of history is read by position in O(page size) however long
+ * the history is, and chunks with evicted entries only are dropped.
+ * <p>
+ * Appends to different accounts don't contend, an account history is only
+ * locked while its own entry is added.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class Ledger {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK = 1 << CHUNK_SHIFT;
+
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<AtomicReferenceArray<Entry>> chunks;
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<>();
+
+    public Ledger() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of the latest entries kept, rounded up to a
+     * power of two of at least one chunk
+     */
+    public Ledger(int capacity) {
+        final int size = Math.max(CHUNK, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.mask = size - 1;
+        this.chunks = new AtomicReferenceArray<>(size >>> CHUNK_SHIFT);
+    }
+
+    /**
+     * Never fails, so it can be called once a transfer has been applied.
+     *
+     * @param amount in minor units, see {@link kz.ya.mt.api.model.Money}
+     * @param timestamp epoch milliseconds
+     * @return id of the entry
+     */
+    public long append(String fromAccountNo, String toAccountNo, long amount, long timestamp) {
+        final long id = sequence.getAndIncrement();
+        final History from = historyOf(fromAccountNo);
+        final History to = historyOf(toAccountNo);
+
+        final int slot = (int) id & mask;
+        // replaces the entry evicted from the ring, if any
+        chunkOf(slot).set(slot & (CHUNK - 1), new Entry(id, timestamp, fromAccountNo, toAccountNo, amount));
+        final long oldest = id - mask;
+        from.add(id, oldest);
+        to.add(id, oldest);
+        return id;
+    }
+
+    /**
+     * Entries of an account, newest first. Entries evicted from the ring
+     * are skipped, the page ends at the oldest entry still kept.
+     *
+     * @param before position in the history to start below, or a negative
+     * number for the newest entry
+     */
+    public Page page(String number, long before, int limit) {
+        final History history = histories.get(number);
+        if (history == null) {
+            return new Page(Collections.emptyList(), -1);
+        }
+        final Ids ids = history.ids;
+        final long kept = ids.first << CHUNK_SHIFT;
+        final long end = before < 0 ? ids.size : Math.min(before, ids.size);
+        final long start = Math.max(kept, end - limit);
+        final List<Entry> entries = new ArrayList<>((int) Math.max(0, end - start));
+        for (long position = end - 1; position >= start; position--) {
+            final long id = ids.get(position);
+            final AtomicReferenceArray<Entry> chunk = chunks.get((int) (id & mask) >>> CHUNK_SHIFT);
+            final Entry entry = chunk.get((int) id & (CHUNK - 1));
+            if (entry.id == id) {
+                entries.add(entry);
+            }
+        }
+        return new Page(entries, start > kept ? start : -1);
+    }
+
+    /**
+     * @return number of entries of the account, evicted ones included
+     */
+    public long size(String number) {
+        final History history = histories.get(number);
+        return history == null ? 0 : history.ids.size;
+    }
+
+    /**
+     * Forget the history of a deleted account, its entries stay in the
+     * histories of the other accounts.
+     */
+    public void remove(String number) {
+        histories.remove(number);
+    }
+
+    /**
+     * Drop all entries, must not run concurrently with appends.
+     */
+    public void clear() {
+        histories.clear();
+        for (int i = 0; i < chunks.length(); i++) {
+            chunks.set(i, null);
+        }
+        sequence.set(0);
+    }
+
+    private History historyOf(String number) {
+        final History history = histories.get(number);
+        return history != null ? history : histories.computeIfAbsent(number, History::new);
+    }
+
+    private AtomicReferenceArray<Entry> chunkOf(int slot) {
+        final int index = slot >>> CHUNK_SHIFT;
+        AtomicReferenceArray<Entry> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Completed transfer.
+     */
+    public static final class Entry {
+
+        private final long id;
+        private final long timestamp;
+        private final String fromAccountNo;
+        private final String toAccountNo;
+        private final long amount;
+
+        private Entry(long id, long timestamp, String fromAccountNo, String toAccountNo, long amount) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.fromAccountNo = fromAccountNo;
+            this.toAccountNo = toAccountNo;
+            this.amount = amount;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return epoch milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getFromAccountNo() {
+            return fromAccountNo;
+        }
+
+        public String getToAccountNo() {
+            return toAccountNo;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+    }
+
+    /**
+     * Entries of one request and where the next page starts.
+     */
+    public static final class Page {
+
+        private final List<Entry> entries;
+        private final long next;
+
+        private Page(List<Entry> entries, long next) {
+            this.entries = entries;
+            this.next = next;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return position to pass as before for older entries, -1 if there
+         * are none
+         */
+        public long getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * Entry ids of one account in append order, published at once so a
+     * reader sees chunks and size which belong together.
+     */
+    private static final class Ids {
+
+        final long[][] chunks;
+        /**
+         * Index in the whole history of the first chunk kept.
+         */
+        final long first;
+        final long size;
+
+        Ids(long[][] chunks, long first, long size) {
+            this.chunks = chunks;
+            this.first = first;
+            this.size = size;
+        }
+
+        long get(long position) {
+            return chunks[(int) ((position >>> CHUNK_SHIFT) - first)][(int) position & (CHUNK - 1)];
+        }
+    }
+
+    /**
+     * The first chunk starts small and grows, most accounts have a short
+     * history.
+     */
+    private static final class History {
+
+        private static final int INITIAL = 4;
+
+        final String number;
+        volatile Ids ids = new Ids(new long[][]{new long[INITIAL]}, 0, 0);
+
+        History(String number) {
+            this.number = number;
+        }
+
+        /**
+         * @param oldest id of the oldest entry kept in the ring
+         */
+        synchronized void add(long id, long oldest) {
+            final Ids current = ids;
+            final long position = current.size;
+            final int index = (int) ((position >>> CHUNK_SHIFT) - current.first);
+            final int slot = (int) position & (CHUNK - 1);
+            long[][] chunks = current.chunks;
+            long first = current.first;
+            if (index == chunks.length) {
+                // a full chunk whose last entry is evicted can't have any kept
+                int evicted = 0;
+                while (evicted < chunks.length && chunks[evicted][CHUNK - 1] < oldest) {
+                    evicted++;
+                }
+                first += evicted;
+                chunks = Arrays.copyOfRange(chunks, evicted, chunks.length + 1);
+                chunks[chunks.length - 1] = new long[CHUNK];
+            } else if (slot == chunks[index].length) {
+                // readers may hold the old chunk, which has the same entries
+                chunks = chunks.clone();
+                chunks[index] = Arrays.copyOf(chunks[index], slot * 2);
+            }
+            chunks[(int) ((position >>> CHUNK_SHIFT) - first)][slot] = id;
+            ids = new Ids(chunks, first, position + 1);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package kz.ya.mt.api.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log which doesn't slow down requests. A request only claims a
+ * preallocated slot of a ring buffer and copies a few fields into it, one
+ * writer thread formats the records and writes them in large chunks. When
+ * the buffer is full records are dropped and counted rather than waited for.
+ * <p>
+ * Lines are "epochMillis method uri status micros". The file is rolled to
+ * file.1, file.2 and so on when it reaches its size limit.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class AccessLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int SAMPLE_SCALE = 1 << 20;
+    private static final int CHUNK = 1 << 16;
+    private static final int MAX_LINE = 4096;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] timestamps;
+    private final long[] durations;
+    private final int[] statuses;
+    private final String[] methods;
+    private final String[] uris;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final int sampleThreshold;
+    private final LongAdder dropped = new LongAdder();
+    private final Output output;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+    private volatile boolean running = true;
+    private final Thread writer;
+
+    /**
+     * @param file null to write to the standard output
+     * @param maxBytes size after which the file is rolled
+     * @param maxFiles rolled files kept besides the current one
+     * @param capacity number of records buffered, rounded up to a power of two
+     * @param sampleRate share of requests logged, from 0 to 1
+     */
+    public AccessLog(Path file, long maxBytes, int maxFiles, int capacity, double sampleRate) throws IOException {
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        timestamps = new long[size];
+        durations = new long[size];
+        statuses = new int[size];
+        methods = new String[size];
+        uris = new String[size];
+        sampleThreshold = (int) Math.round(Math.max(0, Math.min(1, sampleRate)) * SAMPLE_SCALE);
+        output = file == null ? new Output(Channels.newChannel(System.out)) : new Output(file, maxBytes, maxFiles);
+
+        writer = new Thread(this::drain, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Safe to call from any thread, never blocks.
+     */
+    public void log(String method, String uri, int status, long micros) {
+        if (sampleThreshold < SAMPLE_SCALE && ThreadLocalRandom.current().nextInt(SAMPLE_SCALE) >= sampleThreshold) {
+            return;
+        }
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    timestamps[index] = System.currentTimeMillis();
+                    durations[index] = micros;
+                    statuses[index] = status;
+                    methods[index] = method;
+                    uris[index] = uri;
+                    sequences.lazySet(index, position + 1);
+                    return;
+                }
+            } else if (sequence < position) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write the buffered records and close the file.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    private void drain() {
+        try {
+            long reported = 0;
+            while (true) {
+                final boolean stopping = !running;
+                int drained = 0;
+                while (poll()) {
+                    drained++;
+                }
+                if (chunk.position() > 0) {
+                    flush();
+                }
+                final long lost = dropped.sum();
+                if (lost > reported) {
+                    LOGGER.warn("{} access log records were dropped", lost - reported);
+                    reported = lost;
+                }
+                if (stopping) {
+                    break;
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Access log is stopped: ", ex);
+        } finally {
+            output.close();
+        }
+    }
+
+    private boolean poll() throws IOException {
+        final int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+        if (chunk.remaining() < MAX_LINE) {
+            flush();
+        }
+        putLong(timestamps[index]);
+        chunk.put((byte) ' ');
+        putAscii(methods[index]);
+        chunk.put((byte) ' ');
+        putAscii(uris[index]);
+        chunk.put((byte) ' ');
+        putLong(statuses[index]);
+        chunk.put((byte) ' ');
+        putLong(durations[index]);
+        chunk.put((byte) '\n');
+
+        methods[index] = null;
+        uris[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return true;
+    }
+
+    private void flush() throws IOException {
+        chunk.flip();
+        output.write(chunk);
+        chunk.clear();
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            chunk.put((byte) '-');
+            value = -value;
+        }
+        final int start = chunk.position();
+        do {
+            chunk.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // digits were written in reverse
+        for (int i = start, j = chunk.position() - 1; i < j; i++, j--) {
+            final byte digit = chunk.get(i);
+            chunk.put(i, chunk.get(j));
+            chunk.put(j, digit);
+        }
+    }
+
+    /**
+     * Request URIs are percent-encoded, anything else is replaced.
+     */
+    private void putAscii(String value) {
+        if (value == null) {
+            chunk.put((byte) '-');
+            return;
+        }
+        final int length = Math.min(value.length(), MAX_LINE / 4);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            chunk.put(c > ' ' && c < 127 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static final class Output {
+
+        private final Path file;
+        private final long maxBytes;
+        private final int maxFiles;
+        private WritableByteChannel channel;
+        private long size;
+
+        Output(WritableByteChannel channel) {
+            this.file = null;
+            this.maxBytes = Long.MAX_VALUE;
+            this.maxFiles = 0;
+            this.channel = channel;
+        }
+
+        Output(Path file, long maxBytes, int maxFiles) throws IOException {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            open();
+        }
+
+        void write(ByteBuffer buffer) throws IOException {
+            if (file != null && size > 0 && size + buffer.remaining() > maxBytes) {
+                roll();
+            }
+            size += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void close() {
+            if (file == null) {
+                System.out.flush();
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.error("Access log was not closed: ", ex);
+            }
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            size = Files.size(file);
+        }
+
+        private void roll() throws IOException {
+            channel.close();
+            if (maxFiles > 0) {
+                Files.deleteIfExists(rolled(maxFiles));
+                for (int i = maxFiles - 1; i >= 1; i--) {
+                    if (Files.exists(rolled(i))) {
+                        Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(file);
+            }
+            open();
+        }
+
+        private Path rolled(int index) {
+            return file.resolveSibling(file.getFileName() + "." + index);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package kz.ya.mt.api.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the accounts transfers wait for most, with the Space-Saving
+ * algorithm: a fixed number of counters, and an account which isn't counted
+ * yet takes over the smallest counter. Every account waited for more often
+ * than once per capacity events is guaranteed to be counted, with an
+ * overcount of at most the error of its counter.
+ * <p>
+ * Memory doesn't depend on the number of accounts. Counters are striped by
+ * thread, and only waits longer than the threshold are recorded, so
+ * uncontended transfers don't touch the tracker at all.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class ContentionTracker {
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final Summary[] summaries;
+
+    /**
+     * @param thresholdMicros waits up to this long are not contention
+     * @param capacity number of counters of every stripe
+     */
+    public ContentionTracker(long thresholdMicros, int capacity) {
+        this.thresholdNanos = TimeUnit.MICROSECONDS.toNanos(thresholdMicros);
+        this.capacity = capacity;
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        summaries = new Summary[stripes];
+        for (int i = 0; i < stripes; i++) {
+            summaries[i] = new Summary();
+        }
+    }
+
+    /**
+     * @return true if the wait was long enough to count as contention
+     */
+    public boolean record(String number, long waitNanos) {
+        if (waitNanos <= thresholdNanos) {
+            return false;
+        }
+        final Summary summary = summaries[(int) Thread.currentThread().getId() & (summaries.length - 1)];
+        summary.lock.lock();
+        try {
+            summary.record(number, waitNanos);
+        } finally {
+            summary.lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * @return at most limit accounts, most waited for first
+     */
+    public List<Entry> top(int limit) {
+        final Map<String, Entry> merged = new HashMap<>();
+        for (Summary summary : summaries) {
+            summary.lock.lock();
+            try {
+                for (Counter counter : summary.counters.values()) {
+                    final Entry entry = merged.computeIfAbsent(counter.number, Entry::new);
+                    entry.waits += counter.count;
+                    entry.overcount += counter.error;
+                    entry.waitNanos += counter.waitNanos;
+                }
+            } finally {
+                summary.lock.unlock();
+            }
+        }
+        final List<Entry> entries = new ArrayList<>(merged.values());
+        entries.sort((a, b) -> Long.compare(b.waits, a.waits));
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    public void clear() {
+        for (Summary summary : summaries) {
+            summary.lock.lock();
+            try {
+                summary.counters.clear();
+            } finally {
+                summary.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Estimate for one account.
+     */
+    public static final class Entry {
+
+        private final String number;
+        private long waits;
+        private long overcount;
+        private long waitNanos;
+
+        private Entry(String number) {
+            this.number = number;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        /**
+         * @return number of waits, too high by at most {@link #getOvercount()}
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        public long getOvercount() {
+            return overcount;
+        }
+
+        /**
+         * @return average of the waits seen since the account is counted
+         */
+        public long getAverageWaitNanos() {
+            final long seen = waits - overcount;
+            return seen > 0 ? waitNanos / seen : 0;
+        }
+    }
+
+    private static final class Counter {
+
+        final String number;
+        long count;
+        long error;
+        long waitNanos;
+
+        Counter(String number, long error) {
+            this.number = number;
+            this.count = error;
+            this.error = error;
+        }
+    }
+
+    private final class Summary {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<String, Counter> counters = new HashMap<>();
+
+        void record(String number, long waitNanos) {
+            Counter counter = counters.get(number);
+            if (counter == null) {
+                long error = 0;
+                if (counters.size() == capacity) {
+                    Counter smallest = null;
+                    for (Counter candidate : counters.values()) {
+                        if (smallest == null || candidate.count < smallest.count) {
+                            smallest = candidate;
+                        }
+                    }
+                    counters.remove(smallest.number);
+                    error = smallest.count;
+                }
+                counter = new Counter(number, error);
+                counters.put(number, counter);
+            }
+            counter.count++;
+            counter.waitNanos += waitNanos;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package kz.ya.mt.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in nanoseconds with log-linear buckets, like
+ * HdrHistogram: every power of two is split into 32 linear sub-buckets,
+ * so a recorded value is known within about 3%. Values above about 68
+ * seconds are counted in the last bucket.
+ * <p>
+ * Counts are striped by thread, recording threads rarely share a counter
+ * and reads sum up all stripes.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_MASK = (1 << SUB_BITS) - 1;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) << SUB_BITS;
+    private static final int STRIPES = stripes();
+
+    /**
+     * Buckets of every stripe followed by its sum.
+     */
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    public Histogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        }
+    }
+
+    public void record(long nanos) {
+        final long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.incrementAndGet(indexOf(value));
+        stripe.addAndGet(BUCKETS, value);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long count() {
+        final long[] counts = counts();
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * @param quantile from 0 to 1
+     * @return upper bound of the bucket holding the value at the quantile, 0
+     * if nothing is recorded
+     */
+    public long valueAt(double quantile) {
+        final long[] counts = counts();
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(1, quantile)) * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * @return counts per bucket, summed up over stripes; the last element
+     * is the sum of recorded values
+     */
+    long[] counts() {
+        final long[] counts = new long[BUCKETS + 1];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i <= BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    static int indexOf(long value) {
+        if (value <= SUB_MASK) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & SUB_MASK);
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long upperBoundOf(int index) {
+        if (index <= SUB_MASK) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BITS) - 1;
+        final long lower = (long) ((1 << SUB_BITS) + (index & SUB_MASK)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
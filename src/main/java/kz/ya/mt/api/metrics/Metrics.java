@@ -0,0 +1,106 @@
+package kz.ya.mt.api.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfer metrics, exposed in the Prometheus text format by
+ * {@link #render()}. Recording is a few uncontended atomic increments, so
+ * it is always on.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class Metrics {
+
+    public static final Histogram REQUEST = new Histogram();
+    public static final Histogram SENDER_LOCK_WAIT = new Histogram();
+    public static final Histogram RECEIVER_LOCK_WAIT = new Histogram();
+    public static final Histogram APPLY = new Histogram();
+    public static final ContentionTracker CONTENTION = new ContentionTracker(
+            Long.getLong("mt.contention.thresholdMicros", 10),
+            Integer.getInteger("mt.contention.capacity", 128));
+
+    /**
+     * Bucket bounds in seconds, finer buckets are merged into them.
+     */
+    private static final double[] BOUNDS = {
+        1e-6, 2.5e-6, 5e-6, 1e-5, 2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3, 2.5e-3, 5e-3,
+        1e-2, 2.5e-2, 5e-2, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final ConcurrentMap<Integer, LongAdder> OUTCOMES = new ConcurrentSkipListMap<>();
+
+    static {
+        // known statuses are reported from the start, so their rates start at zero
+        for (int status : new int[]{200, 400, 404, 406, 408}) {
+            OUTCOMES.put(status, new LongAdder());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Count a finished transfer request by its response status.
+     */
+    public static void outcome(int status) {
+        LongAdder counter = OUTCOMES.get(status);
+        if (counter == null) {
+            counter = OUTCOMES.computeIfAbsent(status, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public static String render() {
+        final StringBuilder text = new StringBuilder(8192);
+        histogram(text, "mt_transfer_request_duration_seconds",
+                "Time to handle a transfer request until it is durable", null, REQUEST, true);
+        histogram(text, "mt_transfer_lock_wait_seconds",
+                "Time spent waiting for an account lock", "account=\"sender\"", SENDER_LOCK_WAIT, true);
+        histogram(text, "mt_transfer_lock_wait_seconds",
+                null, "account=\"receiver\"", RECEIVER_LOCK_WAIT, false);
+        histogram(text, "mt_transfer_apply_duration_seconds",
+                "Time to apply a transfer to the accounts", null, APPLY, true);
+
+        text.append("# HELP mt_transfer_requests_total Transfer requests by response status\n")
+                .append("# TYPE mt_transfer_requests_total counter\n");
+        for (Map.Entry<Integer, LongAdder> outcome : OUTCOMES.entrySet()) {
+            text.append("mt_transfer_requests_total{status=\"").append(outcome.getKey()).append("\"} ")
+                    .append(outcome.getValue().sum()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void histogram(StringBuilder text, String name, String help, String labels,
+            Histogram histogram, boolean header) {
+        if (header) {
+            text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                    .append("# TYPE ").append(name).append(" histogram\n");
+        }
+        final String prefix = labels == null ? "" : labels + ",";
+        final long[] counts = histogram.counts();
+        long count = 0;
+        int bucket = 0;
+        for (double bound : BOUNDS) {
+            final long nanos = (long) (bound * 1e9);
+            while (bucket < Histogram.BUCKETS && Histogram.upperBoundOf(bucket) <= nanos) {
+                count += counts[bucket++];
+            }
+            text.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(format(bound)).append("\"} ").append(count).append('\n');
+        }
+        while (bucket < Histogram.BUCKETS) {
+            count += counts[bucket++];
+        }
+        final String suffix = labels == null ? "" : "{" + labels + "}";
+        text.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n')
+                .append(name).append("_sum").append(suffix).append(' ')
+                .append(format(counts[Histogram.BUCKETS] / 1e9)).append('\n')
+                .append(name).append("_count").append(suffix).append(' ').append(count).append('\n');
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+}
@@ -1,75 +1,359 @@
 package kz.ya.mt.api.model;
 
-import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
+ * Balance is kept in minor units, see {@link Money}. Timestamps are kept as
+ * epoch milliseconds, so updating an account doesn't allocate.
+ * <p>
+ * Lock-free engines keep the balance in the atomically swapped {@link #getState()}
+ * instead. Once an account was touched by such an engine its state is the
+ * source of truth, and the plain setters must not be used anymore.
+ * <p>
+ * Subclasses may keep the balance elsewhere, e.g. off-heap, and share locks
+ * between accounts, see {@link #compareLockOrder}.
+ * <p>
+ * Readers which don't hold the lock use {@link #read()}, writers bump a
+ * sequence around every change so such a read can tell it was torn.
+ * <p>
+ * A hot account may be {@link #stripe striped}, then deposits to it don't
+ * need the account lock, see {@link StripedBalance}.
  *
  * @author yerlan.akhmetov
  */
 public class Account {
 
+    /**
+     * Failed optimistic reads before a reader yields to the writer.
+     */
+    protected static final int READ_SPINS = 64;
+
     private final String number;
-    private BigDecimal balance;
-    private final LocalDateTime createdAt;
-    private LocalDateTime modifiedAt;
-    private final transient Lock lock = new ReentrantLock();
-    private final transient LongAdder failCounter = new LongAdder();
+    private long balance;
+    private final long createdAt;
+    private long modifiedAt;
+    private long version;
+    private final transient Lock lock;
+    private final transient LongAdder failCounter;
+    private final transient StampedLock sequence;
+    private transient volatile Object state;
+    private transient volatile StripedBalance striped;
+    private transient volatile int contendedDeposits;
+
+    private static final AtomicReferenceFieldUpdater<Account, Object> STATE
+            = AtomicReferenceFieldUpdater.newUpdater(Account.class, Object.class, "state");
+    private static final AtomicIntegerFieldUpdater<Account> CONTENDED_DEPOSITS
+            = AtomicIntegerFieldUpdater.newUpdater(Account.class, "contendedDeposits");
 
     public Account(String number) {
-        this.number = number;
-        this.balance = BigDecimal.ZERO;
-        this.createdAt = LocalDateTime.now();
-        this.modifiedAt = LocalDateTime.now();
+        this(number, 0L);
+    }
+
+    public Account(String number, long balance) {
+        this(number, balance, System.currentTimeMillis());
     }
 
-    public Account(String number, BigDecimal balance) {
+    /**
+     * @param createdAt epoch milliseconds, used to restore a stored account
+     */
+    public Account(String number, long balance, long createdAt) {
+        this(number, balance, createdAt, createdAt, 0L);
+    }
+
+    /**
+     * Restore a stored account, timestamps are epoch milliseconds.
+     */
+    public Account(String number, long balance, long createdAt, long modifiedAt, long version) {
         this.number = number;
         this.balance = balance;
-        this.createdAt = LocalDateTime.now();
-        this.modifiedAt = LocalDateTime.now();
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+        this.version = version;
+        this.lock = new ReentrantLock();
+        this.failCounter = new LongAdder();
+        this.sequence = new StampedLock();
+    }
+
+    /**
+     * For subclasses which keep the balance and the fail count themselves,
+     * they override {@link #read()} as well.
+     */
+    protected Account(String number, long createdAt, Lock lock) {
+        this.number = number;
+        this.createdAt = createdAt;
+        this.lock = lock;
+        this.failCounter = null;
+        this.sequence = null;
     }
 
     public String getNumber() {
         return number;
     }
 
-    public BigDecimal getBalance() {
-        return balance;
+    public long getBalance() {
+        final Object current = state;
+        if (current != null) {
+            return resolve(current).getBalance();
+        }
+        return striped == null ? balance : striped.read().getBalance();
     }
 
-    public void setBalance(BigDecimal balance) {
+    public void setBalance(long balance) {
         this.balance = balance;
     }
 
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        return toLocalDateTime(createdAt);
     }
 
     public LocalDateTime getModifiedAt() {
-        return modifiedAt;
+        return toLocalDateTime(getModifiedAtMillis());
     }
 
-    public void setModifiedAt(LocalDateTime modifiedAt) {
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+
+    public long getModifiedAtMillis() {
+        final Object current = state;
+        if (current != null) {
+            return resolve(current).getModifiedAt();
+        }
+        return striped == null ? modifiedAt : striped.read().getModifiedAt();
+    }
+
+    public void setModifiedAt(long modifiedAt) {
         this.modifiedAt = modifiedAt;
     }
 
+    /**
+     * @return number of changes of the balance
+     */
+    public long getVersion() {
+        final Object current = state;
+        if (current != null) {
+            return resolve(current).getVersion();
+        }
+        return striped == null ? version : striped.read().getVersion();
+    }
+
+    /**
+     * Change the balance under the account lock. A striped account must not
+     * take deposits meanwhile, they would be overwritten, see {@link #add}.
+     *
+     * @return new version of the account
+     */
+    public long update(long balance, long modifiedAt) {
+        final StripedBalance current = striped;
+        if (current != null) {
+            return current.update(balance, modifiedAt);
+        }
+        // uncontended, writers hold the account lock already
+        final long stamp = sequence.writeLock();
+        try {
+            this.balance = balance;
+            this.modifiedAt = modifiedAt;
+            return ++version;
+        } finally {
+            sequence.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Set the balance to a stored version, used while nothing else touches
+     * the account.
+     */
+    public void restore(long balance, long version, long modifiedAt) {
+        final StripedBalance current = striped;
+        if (current != null) {
+            current.restore(balance, version, modifiedAt);
+            return;
+        }
+        final long stamp = sequence.writeLock();
+        try {
+            this.balance = balance;
+            this.version = version;
+            this.modifiedAt = modifiedAt;
+        } finally {
+            sequence.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Change the balance by the amount, which has been checked already. A
+     * deposit to a striped account lands on one of its stripes and doesn't
+     * need the account lock, anything else must be called under it.
+     *
+     * @param amount in minor units, negative for a withdrawal
+     */
+    public void add(long amount, long modifiedAt) {
+        final StripedBalance current = striped;
+        if (current == null) {
+            update(getBalance() + amount, modifiedAt);
+        } else if (amount >= 0) {
+            current.deposit(number, amount, modifiedAt);
+        } else {
+            current.withdraw(number, -amount, modifiedAt);
+        }
+    }
+
+    /**
+     * Spread deposits to the account over stripes from now on. Must be
+     * called under the account lock, an account stays striped for good.
+     *
+     * @param stripes number of stripes, rounded up to a power of two
+     * @return false if the account can't be striped, because its balance is
+     * kept elsewhere
+     */
+    public boolean stripe(int stripes) {
+        if (sequence == null || state != null) {
+            return false;
+        }
+        if (striped == null) {
+            final long stamp = sequence.writeLock();
+            try {
+                striped = new StripedBalance(stripes, balance, version, modifiedAt);
+            } finally {
+                sequence.unlockWrite(stamp);
+            }
+        }
+        return true;
+    }
+
+    public boolean isStriped() {
+        return striped != null;
+    }
+
+    /**
+     * Count a deposit which had to wait for the account.
+     *
+     * @return number of such deposits so far
+     */
+    public int incContendedDeposits() {
+        return CONTENDED_DEPOSITS.incrementAndGet(this);
+    }
+
+    public int getContendedDeposits() {
+        return contendedDeposits;
+    }
+
+    /**
+     * Consistent copy of the balance without the account lock. The fields
+     * are read optimistically and read again if a writer was active
+     * meanwhile, so readers never block transfers.
+     */
+    public AccountState read() {
+        final Object current = state;
+        if (current != null) {
+            return resolve(current);
+        }
+        for (int attempt = 1;; attempt++) {
+            final long stamp = sequence.tryOptimisticRead();
+            // checked after the stamp, the account is striped under the sequence
+            final StripedBalance stripes = striped;
+            if (stripes != null) {
+                return stripes.read();
+            }
+            final long readBalance = balance;
+            final long readVersion = version;
+            final long readModifiedAt = modifiedAt;
+            if (stamp != 0 && sequence.validate(stamp)) {
+                return new AccountState(readBalance, readVersion, readModifiedAt);
+            }
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Consistent copy of the balance, for storing it. Taken under the account
+     * lock, and a lock-free transfer in flight is completed first. The
+     * fields are read through the write sequence, as the single writer of
+     * the sharded engine doesn't take the lock.
+     */
+    public AccountState snapshot() {
+        lock.lock();
+        try {
+            Object current = state;
+            if (current == null) {
+                return read();
+            }
+            while (current instanceof PendingTransfer) {
+                ((PendingTransfer) current).complete();
+                current = state;
+            }
+            return (AccountState) current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public Lock getLock() {
         return lock;
     }
 
+    /**
+     * Accounts with the same stripe share a lock.
+     */
+    protected int getLockStripe() {
+        return 0;
+    }
+
+    /**
+     * Order in which locks of accounts must be taken, so that transfers never
+     * wait for each other in a cycle. Accounts sharing a lock are next to
+     * each other, and a lock held already is simply entered again.
+     */
+    public static int compareLockOrder(Account first, Account second) {
+        final int stripe = Integer.compare(first.getLockStripe(), second.getLockStripe());
+        return stripe != 0 ? stripe : first.number.compareTo(second.number);
+    }
+
     public void incFailedTransferCount() {
         failCounter.increment();
     }
-    
+
     public long getFailCount() {
         return failCounter.sum();
     }
 
+    /**
+     * @return either an {@link AccountState} or a {@link PendingTransfer},
+     * lazily initialized from the plain balance on first access
+     */
+    public Object getState() {
+        final Object current = state;
+        if (current != null) {
+            return current;
+        }
+        STATE.compareAndSet(this, null, new AccountState(balance, version, modifiedAt));
+        return state;
+    }
+
+    public boolean compareAndSetState(Object expect, Object update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+    private AccountState resolve(Object current) {
+        return current instanceof AccountState
+                ? (AccountState) current
+                : ((PendingTransfer) current).stateOf(this);
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -80,7 +364,7 @@ public class Account {
         }
         Account account = (Account) o;
         return Objects.equals(number, account.number)
-                && Objects.equals(createdAt, account.createdAt);
+                && createdAt == account.createdAt;
     }
 
     @Override
@@ -90,6 +374,6 @@ public class Account {
 
     @Override
     public String toString() {
-        return "Account [ " + number + " ] with balance \'" + balance + "\' was created at " + createdAt;
+        return "Account [ " + number + " ] with balance \'" + Money.toString(getBalance()) + "\' was created at " + getCreatedAt();
     }
 }
@@ -0,0 +1,40 @@
+package kz.ya.mt.api.model;
+
+/**
+ * Immutable balance snapshot of an {@link Account}, swapped atomically by
+ * lock-free transfer engines. Every update creates a new instance, so
+ * reference comparison is enough to detect a concurrent change.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class AccountState {
+
+    private final long balance;
+    private final long version;
+    private final long modifiedAt;
+
+    public AccountState(long balance, long version, long modifiedAt) {
+        this.balance = balance;
+        this.version = version;
+        this.modifiedAt = modifiedAt;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getModifiedAt() {
+        return modifiedAt;
+    }
+
+    /**
+     * @param delta signed amount in minor units, must not overflow
+     */
+    public AccountState apply(long delta, long modifiedAt) {
+        return new AccountState(balance + delta, version + 1, modifiedAt);
+    }
+}
@@ -0,0 +1,53 @@
+package kz.ya.mt.api.model;
+
+/**
+ * Consistent view of an account as of one moment, balance is a plain
+ * decimal string and timestamps are epoch milliseconds.
+ *
+ * @author yerlan.akhmetov
+ */
+public class AccountSummary {
+
+    private final String accountNo;
+    private final String balance;
+    private final long version;
+    private final long createdAt;
+    private final long modifiedAt;
+
+    public AccountSummary(String accountNo, String balance, long version, long createdAt, long modifiedAt) {
+        this.accountNo = accountNo;
+        this.balance = balance;
+        this.version = version;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+    }
+
+    public static AccountSummary of(Account account) {
+        final AccountState state = account.read();
+        return new AccountSummary(account.getNumber(), Money.toString(state.getBalance()), state.getVersion(),
+                account.getCreatedAtMillis(), state.getModifiedAt());
+    }
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public String getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return number of changes of the balance
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getModifiedAt() {
+        return modifiedAt;
+    }
+}
@@ -0,0 +1,32 @@
+package kz.ya.mt.api.model;
+
+import java.util.List;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class BatchTransferRequest {
+
+    private boolean atomic = true;
+    private List<TransferRequest> transfers;
+
+    public BatchTransferRequest() {
+    }
+
+    public BatchTransferRequest(boolean atomic, List<TransferRequest> transfers) {
+        this.atomic = atomic;
+        this.transfers = transfers;
+    }
+
+    /**
+     * @return true (default) to apply all transfers or none of them
+     */
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public List<TransferRequest> getTransfers() {
+        return transfers;
+    }
+}
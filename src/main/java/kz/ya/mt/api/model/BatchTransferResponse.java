@@ -0,0 +1,55 @@
+package kz.ya.mt.api.model;
+
+import java.util.List;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class BatchTransferResponse {
+
+    private final boolean atomic;
+    private final int completed;
+    private final List<Result> results;
+
+    public BatchTransferResponse(boolean atomic, int completed, List<Result> results) {
+        this.atomic = atomic;
+        this.completed = completed;
+        this.results = results;
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Outcome of a single transfer, status has the same meaning as the
+     * HTTP status of POST /transfer.
+     */
+    public static class Result {
+
+        private final int status;
+        private final String error;
+
+        public Result(int status, String error) {
+            this.status = status;
+            this.error = error;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
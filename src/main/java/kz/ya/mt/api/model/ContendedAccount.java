@@ -0,0 +1,49 @@
+package kz.ya.mt.api.model;
+
+/**
+ * Account which transfers had to wait for, as estimated by
+ * {@link kz.ya.mt.api.metrics.ContentionTracker}.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ContendedAccount {
+
+    private final String accountNo;
+    private final long waits;
+    private final long maxOvercount;
+    private final double averageWaitMicros;
+    private final long failedTransfers;
+
+    public ContendedAccount(String accountNo, long waits, long maxOvercount, double averageWaitMicros,
+            long failedTransfers) {
+        this.accountNo = accountNo;
+        this.waits = waits;
+        this.maxOvercount = maxOvercount;
+        this.averageWaitMicros = averageWaitMicros;
+        this.failedTransfers = failedTransfers;
+    }
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getMaxOvercount() {
+        return maxOvercount;
+    }
+
+    public double getAverageWaitMicros() {
+        return averageWaitMicros;
+    }
+
+    /**
+     * @return transfers which failed for lack of funds or a balance
+     * overflow, -1 if the account is deleted
+     */
+    public long getFailedTransfers() {
+        return failedTransfers;
+    }
+}
@@ -0,0 +1,58 @@
+package kz.ya.mt.api.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import, with the first failed lines.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ImportResponse {
+
+    private final long imported;
+    private final long failed;
+    private final List<LineError> errors;
+
+    public ImportResponse(long imported, long failed, List<LineError> errors) {
+        this.imported = imported;
+        this.failed = failed;
+        this.errors = errors;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return failed lines in order, at most as many as the importer keeps
+     */
+    public List<LineError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Line which was not imported, lines are numbered from 1.
+     */
+    public static class LineError {
+
+        private final long line;
+        private final String error;
+
+        public LineError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package kz.ya.mt.api.model;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+
+/**
+ * Money amounts are kept as {@code long} minor units (e.g. cents) with a
+ * fixed scale taken from the application currency, which is configured by
+ * the "mt.currency" system property (USD by default).
+ *
+ * @author yerlan.akhmetov
+ */
+public final class Money {
+
+    public static final Currency CURRENCY = Currency.getInstance(System.getProperty("mt.currency", "USD"));
+    public static final int SCALE = Math.max(CURRENCY.getDefaultFractionDigits(), 0);
+
+    private static final long FACTOR = pow10(SCALE);
+
+    private Money() {
+    }
+
+    /**
+     * @param units amount in major units (e.g. dollars)
+     * @return the same amount in minor units
+     */
+    public static long of(long units) {
+        try {
+            return Math.multiplyExact(units, FACTOR);
+        } catch (ArithmeticException ex) {
+            throw new InvalidAmountException(String.valueOf(units));
+        }
+    }
+
+    /**
+     * Exact conversion, amounts with more fraction digits than {@link #SCALE}
+     * are rejected instead of rounded.
+     */
+    public static long of(BigDecimal amount) {
+        if (amount == null) {
+            throw new NullInputAmountException();
+        }
+        try {
+            return amount.movePointRight(SCALE).longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new InvalidAmountException(amount.toPlainString());
+        }
+    }
+
+    /**
+     * Parses a plain decimal string like "-10", "10.5" or "10.50" into minor
+     * units without any intermediate objects. Exponents, grouping separators
+     * and fraction digits beyond {@link #SCALE} (unless they are zeros) are
+     * rejected.
+     */
+    public static long parse(String amount) {
+        return parse((CharSequence) amount);
+    }
+
+    /**
+     * Same as {@link #parse(String)}, for amounts which are not strings yet,
+     * e.g. a part of a request body.
+     */
+    public static long parse(CharSequence amount) {
+        if (amount == null) {
+            throw new NullInputAmountException();
+        }
+        final int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+
+        long result = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < length; i++) {
+            final char c = amount.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new InvalidAmountException(amount.toString());
+            }
+            digits++;
+            if (fractionDigits >= 0 && ++fractionDigits > SCALE) {
+                if (c != '0') {
+                    throw new InvalidAmountException(amount.toString());
+                }
+                continue;
+            }
+            // accumulate negatively, so Long.MIN_VALUE is still representable
+            result = multiplyAdd(result, c - '0', amount);
+        }
+        if (digits == 0) {
+            throw new InvalidAmountException(amount.toString());
+        }
+        for (int scale = Math.max(fractionDigits, 0); scale < SCALE; scale++) {
+            result = multiplyAdd(result, 0, amount);
+        }
+
+        if (negative) {
+            return result;
+        }
+        if (result == Long.MIN_VALUE) {
+            throw new InvalidAmountException(amount.toString());
+        }
+        return -result;
+    }
+
+    public static BigDecimal toBigDecimal(long amount) {
+        return BigDecimal.valueOf(amount, SCALE);
+    }
+
+    public static String toString(long amount) {
+        return toBigDecimal(amount).toPlainString();
+    }
+
+    private static long multiplyAdd(long result, int digit, CharSequence amount) {
+        if (result < Long.MIN_VALUE / 10) {
+            throw new InvalidAmountException(amount.toString());
+        }
+        result *= 10;
+        if (result < Long.MIN_VALUE + digit) {
+            throw new InvalidAmountException(amount.toString());
+        }
+        return result - digit;
+    }
+
+    private static long pow10(int scale) {
+        long factor = 1;
+        for (int i = 0; i < scale; i++) {
+            factor *= 10;
+        }
+        return factor;
+    }
+}
@@ -0,0 +1,23 @@
+package kz.ya.mt.api.model;
+
+/**
+ * In-flight update installed into an {@link Account} state instead of an
+ * {@link AccountState} while a lock-free transfer is being committed.
+ *
+ * @author yerlan.akhmetov
+ */
+public interface PendingTransfer {
+
+    /**
+     * @return logical state of the account, as if the transfer was already
+     * completed or rolled back
+     */
+    AccountState stateOf(Account account);
+
+    /**
+     * Drive the transfer to completion on behalf of its owner.
+     *
+     * @return true if the transfer was committed
+     */
+    boolean complete();
+}
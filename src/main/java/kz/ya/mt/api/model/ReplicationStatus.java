@@ -0,0 +1,63 @@
+package kz.ya.mt.api.model;
+
+import java.util.Map;
+
+/**
+ * Role of the node in journal replication and how far it has got.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ReplicationStatus {
+
+    private final String role;
+    private final long position;
+    private final Boolean connected;
+    private final Long lag;
+    private final Map<String, Long> followers;
+
+    private ReplicationStatus(String role, long position, Boolean connected, Long lag, Map<String, Long> followers) {
+        this.role = role;
+        this.position = position;
+        this.connected = connected;
+        this.lag = lag;
+        this.followers = followers;
+    }
+
+    /**
+     * @param followers acknowledged positions by follower address, null if
+     * the node doesn't ship its journal
+     */
+    public static ReplicationStatus primary(long position, Map<String, Long> followers) {
+        return new ReplicationStatus("primary", position, null, null, followers);
+    }
+
+    public static ReplicationStatus follower(long position, boolean connected, long lag, Map<String, Long> followers) {
+        return new ReplicationStatus("follower", position, connected, lag, followers);
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * @return durable position of the journal of the node
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public Boolean getConnected() {
+        return connected;
+    }
+
+    /**
+     * @return bytes of the journal of the primary not applied yet
+     */
+    public Long getLag() {
+        return lag;
+    }
+
+    public Map<String, Long> getFollowers() {
+        return followers;
+    }
+}
@@ -0,0 +1,218 @@
+package kz.ya.mt.api.model;
+
+import java.util.concurrent.locks.StampedLock;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+
+/**
+ * Balance of a hot account, split like a LongAdder but exact. Deposits are
+ * added to one of several stripes, picked by thread, under the lock of that
+ * stripe only, so concurrent deposits rarely wait for each other. Anything
+ * else, a withdrawal or a new balance, locks all stripes and folds them into
+ * the base first.
+ * <p>
+ * Reads take no lock: the stripes are read optimistically and read again if
+ * any of them has changed meanwhile, so a read sees the balance as it was at
+ * one instant.
+ *
+ * @author yerlan.akhmetov
+ */
+final class StripedBalance {
+
+    private final Stripe[] stripes;
+    private final int mask;
+    /**
+     * Changed only while all stripes are locked.
+     */
+    private long balance;
+    private long version;
+    private long modifiedAt;
+
+    StripedBalance(int count, long balance, long version, long modifiedAt) {
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = size - 1;
+        this.balance = balance;
+        this.version = version;
+        this.modifiedAt = modifiedAt;
+    }
+
+    int size() {
+        return stripes.length;
+    }
+
+    /**
+     * Safe without the account lock.
+     *
+     * @throws BalanceOverflowException if the total balance would overflow
+     */
+    void deposit(String number, long amount, long modifiedAt) {
+        final Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        final long stamp = stripe.writeLock();
+        try {
+            // the base can't change while a stripe is locked, and no stripe
+            // takes more than its share of the room, so the sum can't overflow
+            if (amount <= (Long.MAX_VALUE - balance) / stripes.length - stripe.balance) {
+                stripe.balance += amount;
+                stripe.changes++;
+                stripe.modifiedAt = Math.max(stripe.modifiedAt, modifiedAt);
+                return;
+            }
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+
+        // the share of the stripe is used up, check the total instead
+        final long[] stamps = lockAll();
+        try {
+            fold();
+            if (amount > Long.MAX_VALUE - balance) {
+                throw new BalanceOverflowException(number);
+            }
+            balance += amount;
+            this.modifiedAt = Math.max(this.modifiedAt, modifiedAt);
+            version++;
+        } finally {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Must be called under the account lock, deposits may go on meanwhile.
+     */
+    void withdraw(String number, long amount, long modifiedAt) {
+        final long[] stamps = lockAll();
+        try {
+            fold();
+            if (balance < amount) {
+                throw new NotEnoughFundsException(number);
+            }
+            balance -= amount;
+            this.modifiedAt = modifiedAt;
+            version++;
+        } finally {
+            unlockAll(stamps);
+        }
+    }
+
+    /**
+     * Must be called under the account lock with no deposits going on, as
+     * they would be overwritten.
+     *
+     * @return new version of the account
+     */
+    long update(long balance, long modifiedAt) {
+        final long[] stamps = lockAll();
+        try {
+            fold();
+            this.balance = balance;
+            this.modifiedAt = modifiedAt;
+            return ++version;
+        } finally {
+            unlockAll(stamps);
+        }
+    }
+
+    void restore(long balance, long version, long modifiedAt) {
+        final long[] stamps = lockAll();
+        try {
+            fold();
+            this.balance = balance;
+            this.version = version;
+            this.modifiedAt = modifiedAt;
+        } finally {
+            unlockAll(stamps);
+        }
+    }
+
+    AccountState read() {
+        final long[] stamps = new long[stripes.length];
+        for (int attempt = 1; attempt <= Account.READ_SPINS; attempt++) {
+            boolean valid = true;
+            for (int i = 0; i < stripes.length && valid; i++) {
+                stamps[i] = stripes[i].tryOptimisticRead();
+                valid = stamps[i] != 0;
+            }
+            if (!valid) {
+                Thread.yield();
+                continue;
+            }
+            final AccountState state = sum();
+            for (int i = 0; i < stripes.length && valid; i++) {
+                valid = stripes[i].validate(stamps[i]);
+            }
+            if (valid) {
+                return state;
+            }
+        }
+        // deposits keep landing, hold them off for a moment
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].readLock();
+        }
+        try {
+            return sum();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    private AccountState sum() {
+        long sumBalance = balance;
+        long sumVersion = version;
+        long lastModifiedAt = modifiedAt;
+        for (Stripe stripe : stripes) {
+            sumBalance += stripe.balance;
+            sumVersion += stripe.changes;
+            lastModifiedAt = Math.max(lastModifiedAt, stripe.modifiedAt);
+        }
+        return new AccountState(sumBalance, sumVersion, lastModifiedAt);
+    }
+
+    /**
+     * Must be called with all stripes locked.
+     */
+    private void fold() {
+        for (Stripe stripe : stripes) {
+            balance += stripe.balance;
+            version += stripe.changes;
+            modifiedAt = Math.max(modifiedAt, stripe.modifiedAt);
+            stripe.balance = 0;
+            stripe.changes = 0;
+        }
+    }
+
+    private long[] lockAll() {
+        final long[] stamps = new long[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].writeLock();
+        }
+        return stamps;
+    }
+
+    private void unlockAll(long[] stamps) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlockWrite(stamps[i]);
+        }
+    }
+
+    /**
+     * Lock and counters of a stripe in one object, padded so that stripes
+     * written by different threads don't share a cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class Stripe extends StampedLock {
+
+        long balance;
+        long changes;
+        long modifiedAt;
+        long p1, p2, p3, p4, p5, p6;
+    }
+}
@@ -0,0 +1,47 @@
+package kz.ya.mt.api.model;
+
+/**
+ * Completed transfer as seen from one account, amount is a plain decimal
+ * string, negative for the sender.
+ *
+ * @author yerlan.akhmetov
+ */
+public class Transaction {
+
+    private final long id;
+    private final long timestamp;
+    private final String fromAccountNo;
+    private final String toAccountNo;
+    private final String amount;
+
+    public Transaction(long id, long timestamp, String fromAccountNo, String toAccountNo, String amount) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.fromAccountNo = fromAccountNo;
+        this.toAccountNo = toAccountNo;
+        this.amount = amount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getFromAccountNo() {
+        return fromAccountNo;
+    }
+
+    public String getToAccountNo() {
+        return toAccountNo;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,28 @@
+package kz.ya.mt.api.model;
+
+import java.util.List;
+
+/**
+ * Transactions of an account, newest first, and the cursor of the next
+ * older page, null on the last one.
+ *
+ * @author yerlan.akhmetov
+ */
+public class TransactionPage {
+
+    private final List<Transaction> transactions;
+    private final String nextCursor;
+
+    public TransactionPage(List<Transaction> transactions, String nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,34 @@
+package kz.ya.mt.api.model;
+
+/**
+ * Single transfer of a request body, amount is a plain decimal string.
+ *
+ * @author yerlan.akhmetov
+ */
+public class TransferRequest {
+
+    private String fromAccountNo;
+    private String toAccountNo;
+    private String amount;
+
+    public TransferRequest() {
+    }
+
+    public TransferRequest(String fromAccountNo, String toAccountNo, String amount) {
+        this.fromAccountNo = fromAccountNo;
+        this.toAccountNo = toAccountNo;
+        this.amount = amount;
+    }
+
+    public String getFromAccountNo() {
+        return fromAccountNo;
+    }
+
+    public String getToAccountNo() {
+        return toAccountNo;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,190 @@
+package kz.ya.mt.api.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.journal.Journal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows the journal of a primary, see {@link ReplicationServer}. The
+ * frames are applied to the accounts of the DAO and appended to its own
+ * journal as they are, so the follower restarts from where it stopped and
+ * can take over as the primary. A lost connection is reestablished until
+ * the client is closed.
+ * <p>
+ * Frames which arrive together share one fsync, and are acknowledged once
+ * it is done.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class ReplicationClient implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationClient.class);
+
+    private final AccountDao dao;
+    private final InetSocketAddress primary;
+    private final long heartbeatMillis;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile long primaryPosition;
+
+    /**
+     * @param heartbeatMillis how often the primary sends heartbeats, the
+     * connection is dropped after three missing ones, and reestablished
+     * after one
+     */
+    public ReplicationClient(AccountDao dao, InetSocketAddress primary, long heartbeatMillis) {
+        if (dao.getJournal() == null) {
+            throw new IllegalStateException("Replication needs a journal");
+        }
+        this.dao = dao;
+        this.primary = primary;
+        this.heartbeatMillis = heartbeatMillis;
+        this.thread = new Thread(this::follow, "replication-client");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @param primary host:port of the replication server of the primary
+     */
+    public static InetSocketAddress parseAddress(String primary) {
+        final int colon = primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Primary must be host:port: " + primary);
+        }
+        return new InetSocketAddress(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1)));
+    }
+
+    /**
+     * @return false once the client is closed, e.g. the follower is promoted
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return how far the journal of the primary is ahead of this one, as of
+     * the last message of the primary
+     */
+    public long getLag() {
+        return Math.max(0, primaryPosition - dao.getJournal().getDurablePosition());
+    }
+
+    /**
+     * Stop following, the frames received so far are applied. The journal
+     * stays open, so the DAO can take writes then.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        final Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Replication connection was not closed: {}", ex.toString());
+            }
+        }
+        thread.join();
+    }
+
+    private void follow() {
+        while (running) {
+            try (Socket current = new Socket()) {
+                socket = current;
+                if (!running) {
+                    return;
+                }
+                current.connect(primary, (int) heartbeatMillis * 3);
+                current.setSoTimeout((int) heartbeatMillis * 3);
+                current.setTcpNoDelay(true);
+                connected = true;
+                receive(new DataInputStream(new BufferedInputStream(current.getInputStream(), 1 << 20)),
+                        new DataOutputStream(current.getOutputStream()));
+            } catch (IOException | RuntimeException ex) {
+                if (running) {
+                    LOGGER.warn("Replication from {} is interrupted: {}", primary, ex.toString());
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                connected = false;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(heartbeatMillis);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(DataInputStream in, DataOutputStream out) throws IOException, InterruptedException {
+        Journal journal = dao.getJournal();
+        // only what is durable counts as acknowledged
+        journal.awaitDurable(journal.getAppendedPosition());
+        out.writeInt(ReplicationServer.MAGIC);
+        out.writeLong(journal.getDurablePosition());
+        out.flush();
+        LOGGER.info("Following {} from position {}", primary, journal.getDurablePosition());
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (running) {
+            final byte type = in.readByte();
+            switch (type) {
+                case ReplicationServer.FRAMES:
+                    final long start = in.readLong();
+                    final int length = in.readInt();
+                    if (start != journal.getAppendedPosition()) {
+                        throw new IOException("Frames at " + start + " don't follow position "
+                                + journal.getAppendedPosition());
+                    }
+                    if (buffer.capacity() < length) {
+                        buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+                    }
+                    buffer.clear();
+                    in.readFully(buffer.array(), 0, length);
+                    buffer.limit(length);
+                    final long position = dao.replicate(buffer);
+                    primaryPosition = Math.max(primaryPosition, position);
+                    // more frames on the way join the same fsync
+                    if (in.available() == 0) {
+                        journal.awaitDurable(position);
+                        out.writeLong(position);
+                        out.flush();
+                    }
+                    break;
+                case ReplicationServer.SNAPSHOT:
+                    final long snapshotPosition = in.readLong();
+                    final long snapshotLength = in.readLong();
+                    LOGGER.info("Restoring snapshot at position {} of {}", snapshotPosition, primary);
+                    dao.restoreSnapshot(snapshotPosition, in, snapshotLength);
+                    journal = dao.getJournal();
+                    primaryPosition = snapshotPosition;
+                    out.writeLong(snapshotPosition);
+                    out.flush();
+                    break;
+                case ReplicationServer.HEARTBEAT:
+                    primaryPosition = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown replication message " + type);
+            }
+        }
+    }
+}
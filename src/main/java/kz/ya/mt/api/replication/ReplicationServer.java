@@ -0,0 +1,351 @@
+package kz.ya.mt.api.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.JournalException;
+import kz.ya.mt.api.journal.Journal;
+import kz.ya.mt.api.journal.JournalCursor;
+import kz.ya.mt.api.journal.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ships the journal of the primary to followers over TCP.
+ * <p>
+ * A follower connects with the position its own journal ends at, and gets
+ * every durable frame after it. A follower whose position was compacted
+ * into a snapshot, or which is ahead of this journal, gets the latest
+ * snapshot first and continues from its position. Followers acknowledge
+ * the position they have made durable, so the server can also be the
+ * {@link AccountDao.Replicas} changes wait for before they are reported.
+ * <p>
+ * Messages to a follower are [byte type] followed by FRAMES [long start]
+ * [int length][frames], SNAPSHOT [long position][long length][file] or
+ * HEARTBEAT [long durable position], sent when there is nothing to ship.
+ * The follower sends its [int magic][long position] once and then
+ * [long acknowledged position] whenever it has made frames durable.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class ReplicationServer implements AccountDao.Replicas, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationServer.class);
+
+    static final int MAGIC = 0x4D54524C;
+    static final byte FRAMES = 1;
+    static final byte SNAPSHOT = 2;
+    static final byte HEARTBEAT = 3;
+    private static final int BATCH = 1 << 20;
+
+    private final AccountDao dao;
+    private final ServerSocket serverSocket;
+    private final long heartbeatMillis;
+    private final int syncFollowers;
+    private final long ackTimeoutMillis;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final Thread acceptor;
+    private volatile boolean running = true;
+    /**
+     * Position made durable by at least {@link #syncFollowers} followers,
+     * it never goes back even if they disconnect.
+     */
+    private long replicated;
+
+    /**
+     * @param port port to listen on, 0 for any free one
+     * @param heartbeatMillis how often an idle follower is told the primary
+     * is alive
+     * @param syncFollowers followers which have to acknowledge a change in
+     * {@link #await}
+     * @param ackTimeoutMillis how long {@link #await} waits for them
+     */
+    public ReplicationServer(AccountDao dao, int port, long heartbeatMillis, int syncFollowers,
+            long ackTimeoutMillis) throws IOException {
+        if (dao.getJournal() == null) {
+            throw new IllegalStateException("Replication needs a journal");
+        }
+        this.dao = dao;
+        this.heartbeatMillis = heartbeatMillis;
+        this.syncFollowers = syncFollowers;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.replicated = dao.getJournal().getDurablePosition();
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(port));
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "replication-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most waits end long before their timeout
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.acceptor = new Thread(this::accept, "replication-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        LOGGER.info("Replication is listening on port {}", getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return positions acknowledged by the connected followers, by their
+     * addresses
+     */
+    public Map<String, Long> getFollowers() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Follower follower : followers) {
+            result.put(String.valueOf(follower.socket.getRemoteSocketAddress()), follower.acknowledged);
+        }
+        return result;
+    }
+
+    @Override
+    public void await(long position) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        synchronized (this) {
+            while (replicated < position) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw notAcknowledged(position);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> when(long position) {
+        final Waiter waiter = new Waiter(position);
+        synchronized (this) {
+            if (replicated >= position) {
+                return CompletableFuture.completedFuture(null);
+            }
+            waiters.add(waiter);
+        }
+        // no orTimeout() on Java 8
+        final ScheduledFuture<?> timeout = timer.schedule(() -> {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+            waiter.future.completeExceptionally(notAcknowledged(position));
+        }, ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        waiter.future.whenComplete((result, ex) -> timeout.cancel(false));
+        return waiter.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Follower follower : followers) {
+            follower.close();
+        }
+        timer.shutdownNow();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Follower follower = new Follower(socket);
+                final Thread sender = new Thread(follower::send, "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException ex) {
+                if (running) {
+                    LOGGER.error("Replication connection was not accepted: ", ex);
+                }
+            }
+        }
+    }
+
+    private void acknowledged() {
+        final List<Long> positions = new ArrayList<>();
+        for (Follower follower : followers) {
+            positions.add(follower.acknowledged);
+        }
+        if (positions.size() < syncFollowers) {
+            return;
+        }
+        Collections.sort(positions, Collections.reverseOrder());
+        final long position = positions.get(Math.max(0, syncFollowers - 1));
+        final List<Waiter> completed = new ArrayList<>();
+        synchronized (this) {
+            if (position <= replicated) {
+                return;
+            }
+            replicated = position;
+            notifyAll();
+            while (!waiters.isEmpty() && waiters.peek().position <= position) {
+                completed.add(waiters.poll());
+            }
+        }
+        for (Waiter waiter : completed) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private JournalException notAcknowledged(long position) {
+        return new JournalException(String.format("Journal position %d is not acknowledged by %d followers in %d ms",
+                position, syncFollowers, ackTimeoutMillis), null);
+    }
+
+    private final class Follower {
+
+        private final Socket socket;
+        private volatile long acknowledged = -1;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+        }
+
+        void send() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(socket.getOutputStream(), BATCH))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a follower");
+                }
+                final Journal journal = dao.getJournal();
+                long position = in.readLong();
+                LOGGER.info("Follower {} is connected at position {}", socket.getRemoteSocketAddress(), position);
+                if (position < journal.getFirstPosition() || position > journal.getDurablePosition()) {
+                    position = sendSnapshot(journal, out);
+                }
+                acknowledged = position;
+                followers.add(this);
+                final Thread reader = new Thread(() -> readAcks(in), "replication-acks-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+                ship(journal, position, out);
+            } catch (IOException | RuntimeException ex) {
+                if (running) {
+                    LOGGER.warn("Follower {} is disconnected: {}", socket.getRemoteSocketAddress(), ex.toString());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                followers.remove(this);
+                close();
+            }
+        }
+
+        private void ship(Journal journal, long position, DataOutputStream out)
+                throws IOException, InterruptedException {
+            final ByteBuffer buffer = ByteBuffer.allocate(BATCH);
+            try (JournalCursor cursor = JournalCursor.open(journal.getDirectory(), position)) {
+                while (running) {
+                    if (dao.getJournal() != journal) {
+                        throw new IOException("Journal was reopened");
+                    }
+                    final long start = cursor.getPosition();
+                    if (!journal.awaitDurable(start + 1, heartbeatMillis, TimeUnit.MILLISECONDS)) {
+                        out.writeByte(HEARTBEAT);
+                        out.writeLong(start);
+                        out.flush();
+                        continue;
+                    }
+                    final ByteBuffer frames = cursor.read(buffer, journal.getDurablePosition());
+                    out.writeByte(FRAMES);
+                    out.writeLong(start);
+                    out.writeInt(frames.remaining());
+                    out.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+                    if (cursor.getPosition() >= journal.getDurablePosition()) {
+                        out.flush();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return position of the snapshot
+         */
+        private long sendSnapshot(Journal journal, DataOutputStream out) throws IOException, InterruptedException {
+            Optional<Path> latest = Snapshot.latest(journal.getDirectory());
+            if (!latest.isPresent()) {
+                dao.snapshot();
+                latest = Snapshot.latest(journal.getDirectory());
+            }
+            // opened before a newer snapshot might delete it
+            try (FileChannel file = FileChannel.open(latest.get(), StandardOpenOption.READ)) {
+                final long position = Snapshot.positionOf(latest.get());
+                final long length = file.size();
+                LOGGER.info("Follower {} gets snapshot {}", socket.getRemoteSocketAddress(), latest.get());
+                out.writeByte(SNAPSHOT);
+                out.writeLong(position);
+                out.writeLong(length);
+                final InputStream input = Channels.newInputStream(file);
+                final byte[] chunk = new byte[1 << 16];
+                int read;
+                while ((read = input.read(chunk)) > 0) {
+                    out.write(chunk, 0, read);
+                }
+                out.flush();
+                return position;
+            }
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (running) {
+                    acknowledged = in.readLong();
+                    acknowledged();
+                }
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Follower connection was not closed: {}", ex.toString());
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        final long position;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            return Long.compare(position, other.position);
+        }
+    }
+}
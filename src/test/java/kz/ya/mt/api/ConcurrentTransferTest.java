@@ -1,7 +1,6 @@
 package kz.ya.mt.api;
 
 import java.lang.reflect.Field;
-import java.math.BigDecimal;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
@@ -10,6 +9,7 @@ import kz.ya.mt.api.controller.TransferController;
 import kz.ya.mt.api.dao.AccountDao;
 import kz.ya.mt.api.exception.NotEnoughFundsException;
 import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
 import net.jodah.concurrentunit.Waiter;
 import org.junit.After;
 import org.junit.Assert;
@@ -47,58 +47,58 @@ public class ConcurrentTransferTest {
 
     @Test
     public void shouldPassOnlyOneTransfer() throws Exception {
-        final Account acc1 = AccountDao.getInstance().create(BigDecimal.TEN);
-        final Account acc2 = AccountDao.getInstance().create(BigDecimal.ZERO);
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
 
         // send 10: AC1 -> AC2
-        executorService.submit(() -> transfer(acc1, acc2, BigDecimal.TEN));
+        executorService.submit(() -> transfer(acc1, acc2, Money.of(10)));
         // send 10: AC1 -> AC2
-        executorService.submit(() -> transfer(acc1, acc2, BigDecimal.TEN));
+        executorService.submit(() -> transfer(acc1, acc2, Money.of(10)));
 
         // block the main thread, until 1 thread is completed
         waiter.await(2, TimeUnit.SECONDS, 1);
 
-        BigDecimal acc1Balance = AccountDao.getInstance().get(acc1.getNumber()).get().getBalance();
-        BigDecimal acc2Balance = AccountDao.getInstance().get(acc2.getNumber()).get().getBalance();
+        long acc1Balance = AccountDao.getInstance().get(acc1.getNumber()).get().getBalance();
+        long acc2Balance = AccountDao.getInstance().get(acc2.getNumber()).get().getBalance();
 
-        Assert.assertEquals(acc1Balance, BigDecimal.ZERO);
-        Assert.assertEquals(acc2Balance, BigDecimal.TEN);
+        Assert.assertEquals(acc1Balance, Money.of(0));
+        Assert.assertEquals(acc2Balance, Money.of(10));
 //        Assert.assertEquals(1, acc1.getFailCount());
 //        Assert.assertEquals(0, acc2.getFailCount());
     }
 
     @Test
     public void shouldHandleConcurrentTransfers() throws Exception {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(200));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(50));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(200));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(50));
 
         // send 20: AC1 -> AC2
-        executorService.submit(() -> transfer(acc1, acc2, new BigDecimal(20)));
+        executorService.submit(() -> transfer(acc1, acc2, Money.of(20)));
         // send 15: AC2 -> AC1
-        executorService.submit(() -> transfer(acc2, acc1, new BigDecimal(15)));
+        executorService.submit(() -> transfer(acc2, acc1, Money.of(15)));
         // send 50: AC1 -> AC2
-        executorService.submit(() -> transfer(acc1, acc2, new BigDecimal(50)));
+        executorService.submit(() -> transfer(acc1, acc2, Money.of(50)));
 
         // block the main thread, until all 3 threads are completed
         waiter.await(5, TimeUnit.SECONDS, 3);
 
-        BigDecimal acc1Balance = AccountDao.getInstance().get(acc1.getNumber()).get().getBalance();
-        BigDecimal acc2Balance = AccountDao.getInstance().get(acc2.getNumber()).get().getBalance();
+        long acc1Balance = AccountDao.getInstance().get(acc1.getNumber()).get().getBalance();
+        long acc2Balance = AccountDao.getInstance().get(acc2.getNumber()).get().getBalance();
 
-        Assert.assertEquals(acc1Balance, new BigDecimal(145));
-        Assert.assertEquals(acc2Balance, new BigDecimal(105));
+        Assert.assertEquals(acc1Balance, Money.of(145));
+        Assert.assertEquals(acc2Balance, Money.of(105));
         Assert.assertEquals(0, acc1.getFailCount());
         Assert.assertEquals(0, acc2.getFailCount());
     }
 
-    private void transfer(Account from, Account to, BigDecimal amount) {
+    private void transfer(Account from, Account to, long amount) {
         try {
             Thread.sleep(ThreadLocalRandom.current().nextInt(3000));
 
-            boolean isCompletedSuccessfully = transferController.performTransaction(from, to, amount);
+            transferController.performTransaction(from, to, amount);
 
             System.out.println("Transfer [" + from.getNumber() + "] -> [" + to.getNumber()
-                    + "] result is " + isCompletedSuccessfully);
+                    + "] is completed");
 
             System.out.println(String.format("executing: thread [%s], time: %d ms",
                     Thread.currentThread().getName(),
@@ -114,80 +114,91 @@ public class ConcurrentTransferTest {
 
     @Test(expected = NotEnoughFundsException.class)
     public void shouldThrowNotEnoughFundsException() throws Exception {
-        final Account acc1 = AccountDao.getInstance().create(BigDecimal.ZERO);
-        final Account acc2 = AccountDao.getInstance().create(BigDecimal.ZERO);
+        final Account acc1 = AccountDao.getInstance().create(Money.of(0));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
 
         try {
-            boolean isCompletedSuccessfully = transferController.performTransaction(acc1, acc2, BigDecimal.TEN);
-
-            Assert.assertFalse(isCompletedSuccessfully);
+            transferController.performTransaction(acc1, acc2, Money.of(10));
         } catch (InterruptedException ex) {
             Assert.fail(ex.getMessage());
         }
 
-        Assert.assertEquals(BigDecimal.ZERO, acc1.getBalance());
-        Assert.assertEquals(BigDecimal.ZERO, acc2.getBalance());
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
         Assert.assertEquals(1, acc1.getFailCount());
         Assert.assertEquals(0, acc2.getFailCount());
     }
 
     @Test
-    public void shouldFailToTransferWhenSenderIsLocked() throws Exception {
-        final Account acc1 = AccountDao.getInstance().create(BigDecimal.TEN);
-        final Account acc2 = AccountDao.getInstance().create(BigDecimal.TEN);
+    public void shouldWaitUntilSenderIsUnlocked() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(10));
+
+        assertTransferWaitsForLock(acc1, acc2, acc1);
+    }
+
+    @Test
+    public void shouldWaitUntilReceiverIsUnlocked() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(10));
+
+        assertTransferWaitsForLock(acc1, acc2, acc2);
+    }
 
-        acc1.getLock().lock();
+    private void assertTransferWaitsForLock(Account acc1, Account acc2, Account locked) throws Exception {
+        locked.getLock().lock();
 
         Thread checkThread = new Thread(() -> {
             try {
-                boolean isCompletedSuccessfully = transferController.performTransaction(acc1, acc2, BigDecimal.ONE);
-
-                Assert.assertFalse(isCompletedSuccessfully);
+                transferController.performTransaction(acc1, acc2, Money.of(1));
             } catch (InterruptedException ex) {
                 Assert.fail(ex.getMessage());
             }
-
-            Assert.assertEquals(BigDecimal.TEN, acc1.getBalance());
-            Assert.assertEquals(BigDecimal.TEN, acc2.getBalance());
-            Assert.assertEquals(1, acc1.getFailCount());
-            Assert.assertEquals(0, acc2.getFailCount());
         });
 
         try {
             checkThread.start();
-            checkThread.join();
+            checkThread.join(500);
+
+            // transfer is parked on the lock, nothing has changed yet
+            Assert.assertTrue(checkThread.isAlive());
+            Assert.assertEquals(Money.of(10), acc1.getBalance());
+            Assert.assertEquals(Money.of(10), acc2.getBalance());
         } finally {
-            acc1.getLock().unlock();
+            locked.getLock().unlock();
         }
+        checkThread.join();
+
+        Assert.assertEquals(Money.of(9), acc1.getBalance());
+        Assert.assertEquals(Money.of(11), acc2.getBalance());
+        Assert.assertEquals(0, acc1.getFailCount());
+        Assert.assertEquals(0, acc2.getFailCount());
     }
 
     @Test
-    public void shouldFailToTransferWhenReceiverIsLocked() throws Exception {
-        final Account acc1 = AccountDao.getInstance().create(BigDecimal.TEN);
-        final Account acc2 = AccountDao.getInstance().create(BigDecimal.TEN);
-
-        acc2.getLock().lock();
-
-        Thread checkThread = new Thread(() -> {
-            try {
-                boolean isCompletedSuccessfully = transferController.performTransaction(acc1, acc2, BigDecimal.ONE);
-
-                Assert.assertFalse(isCompletedSuccessfully);
-            } catch (InterruptedException ex) {
-                Assert.fail(ex.getMessage());
-            }
+    public void shouldNotDeadlockOnCrossingTransfers() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100_000));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(100_000));
+        final int transfers = 10_000;
+
+        // send 1 back and forth: AC1 -> AC2 and AC2 -> AC1
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final boolean forward = i % 2 == 0;
+            executorService.submit(() -> {
+                try {
+                    for (int j = 0; j < transfers; j++) {
+                        transferController.performTransaction(
+                                forward ? acc1 : acc2, forward ? acc2 : acc1, Money.of(1));
+                    }
+                } catch (Exception ex) {
+                    waiter.fail(ex);
+                }
+                waiter.resume();
+            });
+        }
 
-            Assert.assertEquals(BigDecimal.TEN, acc1.getBalance());
-            Assert.assertEquals(BigDecimal.TEN, acc2.getBalance());
-            Assert.assertEquals(0, acc1.getFailCount());
-            Assert.assertEquals(1, acc2.getFailCount());
-        });
+        waiter.await(10, TimeUnit.SECONDS, NUMBER_OF_THREADS);
 
-        try {
-            checkThread.start();
-            checkThread.join();
-        } finally {
-            acc2.getLock().unlock();
-        }
+        Assert.assertEquals(Money.of(200_000), acc1.getBalance() + acc2.getBalance());
     }
 }
@@ -0,0 +1,180 @@
+package kz.ya.mt.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a concurrent history of transfers and balance reads could
+ * have happened one operation at a time, every operation taking effect at
+ * some instant between its call and its return (Wing and Gong search with
+ * memoized states, like Knossos and Porcupine).
+ * <p>
+ * The search is exponential in the worst case, histories are meant to be
+ * small: at most 64 operations over a few accounts.
+ *
+ * @author yerlan.akhmetov
+ */
+public final class LinearizabilityChecker {
+
+    private static final int MAX_OPERATIONS = 64;
+
+    private final long[] initialBalances;
+    private final List<Operation> operations = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param initialBalances balance of every account by index
+     */
+    public LinearizabilityChecker(long[] initialBalances) {
+        this.initialBalances = initialBalances.clone();
+    }
+
+    /**
+     * @param transferred false if the transfer has failed for lack of funds
+     */
+    public void transfer(int from, int to, long amount, boolean transferred, long calledAt, long returnedAt) {
+        add(new Operation(from, to, amount, transferred ? 1 : 0, calledAt, returnedAt));
+    }
+
+    public void read(int account, long balance, long calledAt, long returnedAt) {
+        add(new Operation(account, -1, 0, balance, calledAt, returnedAt));
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * @return true if some order of the operations respects real time and
+     * the sequential behaviour of accounts
+     */
+    public boolean isLinearizable() {
+        final Operation[] history = operations.toArray(new Operation[0]);
+        Arrays.sort(history, Comparator.comparingLong(operation -> operation.calledAt));
+        return new Search(history).linearize(0L, initialBalances.clone());
+    }
+
+    private void add(Operation operation) {
+        if (operation.returnedAt < operation.calledAt) {
+            throw new IllegalArgumentException("Operation returned before it was called");
+        }
+        synchronized (operations) {
+            if (operations.size() == MAX_OPERATIONS) {
+                throw new IllegalStateException("At most " + MAX_OPERATIONS + " operations are supported");
+            }
+            operations.add(operation);
+        }
+    }
+
+    private static final class Operation {
+
+        final int account;
+        final int to;
+        final long amount;
+        /**
+         * 1 or 0 for a transfer which has or hasn't moved the money, the
+         * balance seen by a read.
+         */
+        final long result;
+        final long calledAt;
+        final long returnedAt;
+
+        Operation(int account, int to, long amount, long result, long calledAt, long returnedAt) {
+            this.account = account;
+            this.to = to;
+            this.amount = amount;
+            this.result = result;
+            this.calledAt = calledAt;
+            this.returnedAt = returnedAt;
+        }
+
+        /**
+         * @return balances after the operation, null if it couldn't have
+         * returned its result from these balances
+         */
+        long[] apply(long[] balances) {
+            if (to < 0) {
+                return balances[account] == result ? balances : null;
+            }
+            final boolean transferred = balances[account] >= amount;
+            if (transferred != (result == 1)) {
+                return null;
+            }
+            if (!transferred) {
+                return balances;
+            }
+            final long[] next = balances.clone();
+            next[account] -= amount;
+            next[to] += amount;
+            return next;
+        }
+    }
+
+    private static final class Search {
+
+        private final Operation[] history;
+        private final long done;
+        private final Set<State> visited = new HashSet<>();
+
+        Search(Operation[] history) {
+            this.history = history;
+            this.done = history.length == MAX_OPERATIONS ? -1L : (1L << history.length) - 1;
+        }
+
+        boolean linearize(long linearized, long[] balances) {
+            if (linearized == done) {
+                return true;
+            }
+            // an operation may go next only if it was called before every pending one returned
+            long deadline = Long.MAX_VALUE;
+            for (int i = 0; i < history.length; i++) {
+                if ((linearized & 1L << i) == 0) {
+                    deadline = Math.min(deadline, history[i].returnedAt);
+                }
+            }
+            for (int i = 0; i < history.length && history[i].calledAt <= deadline; i++) {
+                if ((linearized & 1L << i) != 0) {
+                    continue;
+                }
+                final long[] next = history[i].apply(balances);
+                if (next != null && visited.add(new State(linearized | 1L << i, next))
+                        && linearize(linearized | 1L << i, next)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class State {
+
+        private final long linearized;
+        private final long[] balances;
+
+        State(long linearized, long[] balances) {
+            this.linearized = linearized;
+            this.balances = balances;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof State)) {
+                return false;
+            }
+            final State state = (State) o;
+            return linearized == state.linearized && Arrays.equals(balances, state.balances);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(linearized) * 31 + Arrays.hashCode(balances);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package kz.ya.mt.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class LinearizabilityCheckerTest {
+
+    @Test
+    public void shouldAcceptOverlappingOperationsInAnyOrder() {
+        final LinearizabilityChecker checker = new LinearizabilityChecker(new long[]{10, 0});
+        // the read overlaps the transfer and sees its result
+        checker.read(1, 10, 0, 30);
+        checker.transfer(0, 1, 10, true, 10, 20);
+        // the second transfer overlaps the first one and fails after it
+        checker.transfer(0, 1, 5, false, 5, 25);
+
+        Assert.assertTrue(checker.isLinearizable());
+    }
+
+    @Test
+    public void shouldRejectStaleRead() {
+        final LinearizabilityChecker checker = new LinearizabilityChecker(new long[]{10, 0});
+        checker.transfer(0, 1, 10, true, 0, 10);
+        // called after the transfer has returned, still sees the old balance
+        checker.read(1, 0, 20, 30);
+
+        Assert.assertFalse(checker.isLinearizable());
+    }
+
+    @Test
+    public void shouldRejectDoubleSpending() {
+        final LinearizabilityChecker checker = new LinearizabilityChecker(new long[]{10, 0, 0});
+        // both transfers succeed although only one of them is covered
+        checker.transfer(0, 1, 10, true, 0, 20);
+        checker.transfer(0, 2, 10, true, 5, 15);
+
+        Assert.assertFalse(checker.isLinearizable());
+    }
+}
@@ -1,9 +1,13 @@
 package kz.ya.mt.api;
 
 import io.restassured.RestAssured;
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.util.UUID;
 import kz.ya.mt.api.dao.AccountDao;
 import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -14,7 +18,7 @@ import org.junit.Test;
 public class RestApiIntegrationTest {
 
     @BeforeClass
-    public static void setUp() {
+    public static void setUp() throws IOException {
         configureHost();
         configurePort();
         configureBasePath();
@@ -46,7 +50,7 @@ public class RestApiIntegrationTest {
         RestAssured.basePath = basePath;
     }
 
-    private static void startServer() {
+    private static void startServer() throws IOException {
         Application.main(new String[]{});
     }
 
@@ -60,6 +64,32 @@ public class RestApiIntegrationTest {
         RestAssured.given().when().get("/health").then().statusCode(200);
     }
     
+    @Test
+    public void shouldExposeTransferMetrics() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(50));
+        RestAssured.given()
+                .formParam("fromAccountNo", acc1.getNumber())
+                .and().formParam("toAccountNo", acc2.getNumber())
+                .and().formParam("amount", "10.00")
+                .when().post("/transfer")
+                .then().statusCode(200);
+
+        RestAssured.get("/metrics").then()
+                .statusCode(200)
+                .body(Matchers.containsString("mt_transfer_request_duration_seconds_bucket{le=\"+Inf\"}"))
+                .body(Matchers.containsString("mt_transfer_lock_wait_seconds_count{account=\"sender\"}"))
+                .body(Matchers.containsString("mt_transfer_apply_duration_seconds_sum"))
+                .body(Matchers.containsString("mt_transfer_requests_total{status=\"200\"}"))
+                .body(Matchers.not(Matchers.containsString("mt_transfer_requests_total{status=\"200\"} 0")));
+    }
+
+    @Test
+    public void shouldReportContendedAccounts() {
+        RestAssured.get("/contention?limit=5").then().statusCode(200);
+        RestAssured.get("/contention?limit=0").then().statusCode(400);
+    }
+
     @Test
     public void shouldGetNotFoundStatusForInvalidEndpoint() {
         RestAssured.get("/invalid").then().statusCode(404);
@@ -67,8 +97,8 @@ public class RestApiIntegrationTest {
 
     @Test
     public void shouldTransfer() {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(100));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(50));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(50));
 
         RestAssured.given()
                 .formParam("fromAccountNo", acc1.getNumber())
@@ -90,8 +120,8 @@ public class RestApiIntegrationTest {
     
     @Test
     public void shouldFailToTransferFromZeroBalanceAccount() {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(0));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(100));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(0));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(100));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc1.getNumber())
@@ -103,7 +133,7 @@ public class RestApiIntegrationTest {
     
     @Test
     public void shouldFailToTransferToTheSameAccount() {
-        final Account acc = AccountDao.getInstance().create(new BigDecimal(100));
+        final Account acc = AccountDao.getInstance().create(Money.of(100));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc.getNumber())
@@ -124,7 +154,7 @@ public class RestApiIntegrationTest {
     
     @Test
     public void shouldGetBadRequestStatusForNullReceiver() {
-        final Account acc = AccountDao.getInstance().create(new BigDecimal(20));
+        final Account acc = AccountDao.getInstance().create(Money.of(20));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc.getNumber())
@@ -135,8 +165,8 @@ public class RestApiIntegrationTest {
     
     @Test
     public void shouldGetBadRequestStatusForNullAmount() {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(200));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(0));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(200));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc1.getNumber())
@@ -145,10 +175,23 @@ public class RestApiIntegrationTest {
                 .then().statusCode(400);
     }
     
+    @Test
+    public void shouldGetBadRequestStatusForInvalidAmount() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(200));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        
+        RestAssured.given()
+                .formParam("fromAccountNo", acc1.getNumber())
+                .formParam("toAccountNo", acc2.getNumber())
+                .and().formParam("amount", "10.001")
+                .when().post("/transfer")
+                .then().statusCode(400);
+    }
+    
     @Test
     public void shouldGetNotAcceptableStatusForNegativeAmount() {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(200));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(0));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(200));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc1.getNumber())
@@ -160,8 +203,8 @@ public class RestApiIntegrationTest {
     
     @Test
     public void shouldGetNotAcceptableStatusForZeroAmount() {
-        final Account acc1 = AccountDao.getInstance().create(new BigDecimal(200));
-        final Account acc2 = AccountDao.getInstance().create(new BigDecimal(0));
+        final Account acc1 = AccountDao.getInstance().create(Money.of(200));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
         
         RestAssured.given()
                 .formParam("fromAccountNo", acc1.getNumber())
@@ -170,4 +213,237 @@ public class RestApiIntegrationTest {
                 .when().post("/transfer")
                 .then().statusCode(406);
     }
+    
+    @Test
+    public void shouldTransferWithJsonBody() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        RestAssured.given()
+                .contentType("application/json")
+                .body(transfer(acc1, acc2, "25.50"))
+                .when().post("/transfer")
+                .then().statusCode(200);
+
+        Assert.assertEquals(Money.parse("74.50"), acc1.getBalance());
+        Assert.assertEquals(Money.parse("25.50"), acc2.getBalance());
+    }
+    
+    @Test
+    public void shouldGetBadRequestStatusForMalformedJsonTransfer() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        RestAssured.given()
+                .contentType("application/json")
+                .body("{\"fromAccountNo\":\"" + acc1.getNumber() + "\",")
+                .when().post("/transfer")
+                .then().statusCode(400);
+        RestAssured.given()
+                .contentType("application/json")
+                .body("{\"fromAccountNo\":\"" + acc1.getNumber() + "\",\"toAccountNo\":\"" + acc2.getNumber() + "\"}")
+                .when().post("/transfer")
+                .then().statusCode(400);
+
+        Assert.assertEquals(Money.of(100), acc1.getBalance());
+    }
+    
+    @Test
+    public void shouldTransferOnceForIdempotencyKey() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        final String key = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 3; i++) {
+            RestAssured.given()
+                    .header("Idempotency-Key", key)
+                    .formParam("fromAccountNo", acc1.getNumber())
+                    .and().formParam("toAccountNo", acc2.getNumber())
+                    .and().formParam("amount", "60.00")
+                    .when().post("/transfer")
+                    .then().statusCode(200);
+        }
+        // the failure of the first request is replayed as well
+        final String failedKey = UUID.randomUUID().toString();
+        for (int i = 0; i < 2; i++) {
+            RestAssured.given()
+                    .header("Idempotency-Key", failedKey)
+                    .formParam("fromAccountNo", acc1.getNumber())
+                    .and().formParam("toAccountNo", acc2.getNumber())
+                    .and().formParam("amount", "50.00")
+                    .when().post("/transfer")
+                    .then().statusCode(400);
+        }
+        RestAssured.given()
+                .header("Idempotency-Key", key)
+                .formParam("fromAccountNo", acc1.getNumber())
+                .and().formParam("toAccountNo", acc2.getNumber())
+                .and().formParam("amount", "10.00")
+                .when().post("/transfer")
+                .then().statusCode(422);
+
+        Assert.assertEquals(Money.of(40), acc1.getBalance());
+        Assert.assertEquals(Money.of(60), acc2.getBalance());
+    }
+    
+    @Test
+    public void shouldReadAccounts() {
+        final Account acc1 = AccountDao.getInstance().create(Money.parse("12.34"));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        RestAssured.given().when().get("/accounts/" + acc1.getNumber())
+                .then().statusCode(200)
+                .body("accountNo", Matchers.equalTo(acc1.getNumber()))
+                .body("balance", Matchers.equalTo("12.34"))
+                .body("version", Matchers.equalTo(0));
+        RestAssured.given().when().get("/accounts/unknown").then().statusCode(404);
+
+        RestAssured.given()
+                .queryParam("number", acc2.getNumber(), "unknown", acc1.getNumber())
+                .when().get("/accounts")
+                .then().statusCode(200)
+                .body("accountNo", Matchers.contains(acc2.getNumber(), acc1.getNumber()))
+                .body("balance", Matchers.contains("0.00", "12.34"));
+        RestAssured.given().when().get("/accounts").then().statusCode(400);
+    }
+    
+    @Test
+    public void shouldImportAccounts() {
+        final String first = UUID.randomUUID().toString();
+        final String second = UUID.randomUUID().toString();
+
+        RestAssured.given()
+                .contentType("text/csv")
+                .body("number,balance\n" + first + ",10.00\n" + second + ",5\n" + first + ",1\n")
+                .when().post("/accounts/import")
+                .then().statusCode(200)
+                .body("imported", Matchers.equalTo(2))
+                .body("failed", Matchers.equalTo(1))
+                .body("errors.line", Matchers.contains(4));
+
+        Assert.assertEquals(Money.of(10), AccountDao.getInstance().get(first).get().getBalance());
+        RestAssured.given()
+                .contentType("text/plain")
+                .body("")
+                .when().post("/accounts/import")
+                .then().statusCode(400);
+    }
+    
+    @Test
+    public void shouldPageAccountTransactions() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        for (int i = 1; i <= 3; i++) {
+            RestAssured.given()
+                    .formParam("fromAccountNo", acc1.getNumber())
+                    .and().formParam("toAccountNo", acc2.getNumber())
+                    .and().formParam("amount", i + ".00")
+                    .when().post("/transfer")
+                    .then().statusCode(200);
+        }
+
+        final String cursor = RestAssured.given()
+                .queryParam("limit", 2)
+                .when().get("/accounts/" + acc1.getNumber() + "/transactions")
+                .then().statusCode(200)
+                .body("transactions.amount", Matchers.contains("-3.00", "-2.00"))
+                .body("transactions.toAccountNo", Matchers.everyItem(Matchers.equalTo(acc2.getNumber())))
+                .extract().path("nextCursor");
+        RestAssured.given()
+                .queryParam("limit", 2)
+                .queryParam("cursor", cursor)
+                .when().get("/accounts/" + acc1.getNumber() + "/transactions")
+                .then().statusCode(200)
+                .body("transactions.amount", Matchers.contains("-1.00"))
+                .body("nextCursor", Matchers.nullValue());
+        RestAssured.given()
+                .when().get("/accounts/" + acc2.getNumber() + "/transactions")
+                .then().statusCode(200)
+                .body("transactions.amount", Matchers.contains("3.00", "2.00", "1.00"));
+
+        RestAssured.given().when().get("/accounts/unknown/transactions").then().statusCode(404);
+        RestAssured.given()
+                .queryParam("cursor", "abc")
+                .when().get("/accounts/" + acc1.getNumber() + "/transactions")
+                .then().statusCode(400);
+    }
+    
+    @Test
+    public void shouldTransferBatchAtomically() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        final Account acc3 = AccountDao.getInstance().create(Money.of(0));
+        
+        RestAssured.given()
+                .contentType("application/json")
+                .body(batch(true,
+                        transfer(acc1, acc2, "60"),
+                        transfer(acc2, acc3, "50.50")))
+                .when().post("/transfers/batch")
+                .then().statusCode(200)
+                .body("completed", Matchers.equalTo(2))
+                .body("results.status", Matchers.contains(200, 200));
+        
+        Assert.assertEquals(Money.of(40), acc1.getBalance());
+        Assert.assertEquals(Money.parse("9.50"), acc2.getBalance());
+        Assert.assertEquals(Money.parse("50.50"), acc3.getBalance());
+    }
+    
+    @Test
+    public void shouldRejectWholeAtomicBatchWhenOneTransferFails() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        
+        RestAssured.given()
+                .contentType("application/json")
+                .body(batch(true,
+                        transfer(acc1, acc2, "60"),
+                        transfer(acc1, acc2, "60")))
+                .when().post("/transfers/batch")
+                .then().statusCode(409)
+                .body("completed", Matchers.equalTo(0))
+                .body("results.status", Matchers.contains(409, 400));
+        
+        Assert.assertEquals(Money.of(100), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
+    }
+    
+    @Test
+    public void shouldApplyBestEffortBatchPartially() {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        
+        RestAssured.given()
+                .contentType("application/json")
+                .body(batch(false,
+                        transfer(acc1, acc2, "60"),
+                        transfer(acc1, acc2, "60"),
+                        "{\"fromAccountNo\":\"senderNo\",\"toAccountNo\":\"receiverNo\",\"amount\":\"1\"}",
+                        transfer(acc1, acc2, "-1")))
+                .when().post("/transfers/batch")
+                .then().statusCode(200)
+                .body("completed", Matchers.equalTo(1))
+                .body("results.status", Matchers.contains(200, 400, 404, 406));
+        
+        Assert.assertEquals(Money.of(40), acc1.getBalance());
+        Assert.assertEquals(Money.of(60), acc2.getBalance());
+    }
+    
+    @Test
+    public void shouldGetBadRequestStatusForMalformedBatch() {
+        RestAssured.given()
+                .contentType("application/json")
+                .body("{\"transfers\": [")
+                .when().post("/transfers/batch")
+                .then().statusCode(400);
+    }
+    
+    private static String transfer(Account from, Account to, String amount) {
+        return "{\"fromAccountNo\":\"" + from.getNumber() + "\",\"toAccountNo\":\"" + to.getNumber()
+                + "\",\"amount\":\"" + amount + "\"}";
+    }
+    
+    private static String batch(boolean atomic, String... transfers) {
+        return "{\"atomic\":" + atomic + ",\"transfers\":[" + String.join(",", transfers) + "]}";
+    }
 }
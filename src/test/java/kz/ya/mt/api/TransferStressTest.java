@@ -0,0 +1,283 @@
+package kz.ya.mt.api;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import kz.ya.mt.api.controller.TransferController;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.engine.TransferEngine;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import net.jodah.concurrentunit.Waiter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Random transfers between many accounts on all cores, for every transfer
+ * engine. Runs are short by default, a new engine should be validated with
+ * millions of transfers before it is deployed:
+ * <pre>
+ * ./mvnw test -Dtest=TransferStressTest -Dmt.stress.transfers=10000000 -Dmt.stress.rounds=5000
+ * </pre>
+ *
+ * @author yerlan.akhmetov
+ */
+public class TransferStressTest {
+
+    private static final int TRANSFERS = Integer.getInteger("mt.stress.transfers", 100_000);
+    private static final int ACCOUNTS = Integer.getInteger("mt.stress.accounts", 1000);
+    private static final int ROUNDS = Integer.getInteger("mt.stress.rounds", 100);
+    private static final int NUMBER_OF_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int CHECKPOINT = 5_000;
+    private static final long INITIAL_BALANCE = Money.of(100);
+
+    private TransferEngine transferEngine;
+    private TransferController transferController;
+    private Waiter waiter;
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        waiter = new Waiter();
+
+        // reset singleton before each test
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @After
+    public void tearDown() {
+        if (transferEngine != null) {
+            transferEngine.close();
+        }
+    }
+
+    @Test
+    public void shouldConserveMoneyWithLockEngine() throws Exception {
+        assertMoneyIsConserved("lock");
+    }
+
+    @Test
+    public void shouldConserveMoneyWithAsyncEngine() throws Exception {
+        assertMoneyIsConserved("async");
+    }
+
+    @Test
+    public void shouldConserveMoneyWithCasEngine() throws Exception {
+        assertMoneyIsConserved("cas");
+    }
+
+    @Test
+    public void shouldConserveMoneyWithShardedEngine() throws Exception {
+        assertMoneyIsConserved("sharded");
+    }
+
+    @Test
+    public void shouldBeLinearizableWithLockEngine() throws Exception {
+        assertLinearizable("lock");
+    }
+
+    @Test
+    public void shouldBeLinearizableWithAsyncEngine() throws Exception {
+        assertLinearizable("async");
+    }
+
+    @Test
+    public void shouldBeLinearizableWithCasEngine() throws Exception {
+        assertLinearizable("cas");
+    }
+
+    @Test
+    public void shouldBeLinearizableWithShardedEngine() throws Exception {
+        assertLinearizable("sharded");
+    }
+
+    /**
+     * Every few thousand transfers the threads meet at a checkpoint, where no
+     * transfer is in flight, and the sum of balances must be exactly what it
+     * was at the start. Meanwhile a reader checks that no balance is ever
+     * negative. At the end every account must hold its initial balance plus
+     * the transfers which have succeeded, and every failed transfer must be
+     * counted on its sender.
+     */
+    private void assertMoneyIsConserved(String engine) throws Exception {
+        start(engine);
+        final Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = AccountDao.getInstance().create(INITIAL_BALANCE);
+        }
+        final long total = INITIAL_BALANCE * ACCOUNTS;
+        final long[][] deltas = new long[NUMBER_OF_THREADS][ACCOUNTS];
+        final LongAdder failed = new LongAdder();
+
+        final Phaser checkpoints = new Phaser(NUMBER_OF_THREADS) {
+            @Override
+            protected boolean onAdvance(int phase, int parties) {
+                try {
+                    waiter.assertEquals(total, sumOf(accounts));
+                } catch (Throwable ex) {
+                    waiter.fail(ex);
+                }
+                return parties == 0;
+            }
+        };
+
+        final Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Account account = accounts[ThreadLocalRandom.current().nextInt(ACCOUNTS)];
+                final long balance = account.read().getBalance();
+                if (balance < 0) {
+                    waiter.fail("Negative balance " + balance + " of " + account.getNumber());
+                    return;
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        final int transfers = TRANSFERS / NUMBER_OF_THREADS;
+        for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+            final long[] delta = deltas[t];
+            new Thread(() -> {
+                try {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 1; i <= transfers; i++) {
+                        final int from = random.nextInt(ACCOUNTS);
+                        final int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                        // up to half of the initial balance, so some transfers fail
+                        final long amount = 1 + random.nextLong(INITIAL_BALANCE / 2);
+                        try {
+                            transferController.performTransaction(accounts[from], accounts[to], amount);
+                            delta[from] -= amount;
+                            delta[to] += amount;
+                        } catch (NotEnoughFundsException ex) {
+                            failed.increment();
+                        }
+                        if (i % CHECKPOINT == 0) {
+                            checkpoints.arriveAndAwaitAdvance();
+                        }
+                    }
+                    waiter.resume();
+                } catch (Throwable ex) {
+                    waiter.fail(ex);
+                } finally {
+                    checkpoints.arriveAndDeregister();
+                }
+            }).start();
+        }
+
+        try {
+            waiter.await(TRANSFERS / 100 + 60_000, TimeUnit.MILLISECONDS, NUMBER_OF_THREADS);
+        } finally {
+            reader.interrupt();
+        }
+        reader.join();
+
+        long failCount = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            long expected = INITIAL_BALANCE;
+            for (long[] delta : deltas) {
+                expected += delta[i];
+            }
+            Assert.assertEquals("Balance of " + accounts[i].getNumber(), expected, accounts[i].getBalance());
+            failCount += accounts[i].getFailCount();
+        }
+        Assert.assertEquals(total, sumOf(accounts));
+        Assert.assertEquals(failed.sum(), failCount);
+    }
+
+    /**
+     * Many short rounds over a few accounts with little money, so transfers
+     * contend and often fail. Each round records transfers and balance reads
+     * with their call and return times, and the history must be
+     * linearizable. Reads can't tell a transfer whose amount is between two
+     * shards from one not applied yet, so once all transfers of the round
+     * have returned every account must also hold exactly its initial balance
+     * plus the transfers which have succeeded.
+     */
+    private void assertLinearizable(String engine) throws Exception {
+        start(engine);
+        final int operations = 8;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long[] balances = {3, 2, 1};
+            final Account[] accounts = new Account[balances.length];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = AccountDao.getInstance().create(balances[i]);
+            }
+            final LinearizabilityChecker checker = new LinearizabilityChecker(balances);
+            final AtomicLongArray deltas = new AtomicLongArray(balances.length);
+            final CountDownLatch ready = new CountDownLatch(1);
+
+            for (int t = 0; t < 4; t++) {
+                new Thread(() -> {
+                    try {
+                        ready.await();
+                        final ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < operations; i++) {
+                            final int from = random.nextInt(accounts.length);
+                            if (random.nextInt(4) == 0) {
+                                final long calledAt = System.nanoTime();
+                                final long balance = accounts[from].read().getBalance();
+                                checker.read(from, balance, calledAt, System.nanoTime());
+                                continue;
+                            }
+                            final int to = (from + 1 + random.nextInt(accounts.length - 1)) % accounts.length;
+                            final long amount = 1 + random.nextInt(3);
+                            boolean transferred = true;
+                            final long calledAt = System.nanoTime();
+                            try {
+                                transferController.performTransaction(accounts[from], accounts[to], amount);
+                            } catch (NotEnoughFundsException ex) {
+                                transferred = false;
+                            }
+                            checker.transfer(from, to, amount, transferred, calledAt, System.nanoTime());
+                            if (transferred) {
+                                deltas.addAndGet(from, -amount);
+                                deltas.addAndGet(to, amount);
+                            }
+                        }
+                        waiter.resume();
+                    } catch (Throwable ex) {
+                        waiter.fail(ex);
+                    }
+                }).start();
+            }
+            ready.countDown();
+            waiter.await(10, TimeUnit.SECONDS, 4);
+
+            Assert.assertEquals(4 * operations, checker.size());
+            Assert.assertTrue(engine + " history of round " + round + " is not linearizable",
+                    checker.isLinearizable());
+            for (int i = 0; i < accounts.length; i++) {
+                Assert.assertEquals(engine + " balance after round " + round,
+                        balances[i] + deltas.get(i), accounts[i].read().getBalance());
+            }
+            Assert.assertEquals(Arrays.stream(balances).sum(), sumOf(accounts));
+        }
+    }
+
+    private void start(String engine) {
+        transferEngine = TransferEngine.create(engine);
+        transferController = new TransferController(transferEngine);
+    }
+
+    private static long sumOf(Account[] accounts) {
+        long sum = 0;
+        for (Account account : accounts) {
+            final long balance = account.read().getBalance();
+            if (balance < 0) {
+                throw new AssertionError("Negative balance " + balance + " of " + account.getNumber());
+            }
+            sum += balance;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,83 @@
+package kz.ya.mt.api.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class IdempotencyCacheTest {
+
+    @Test
+    public void shouldReturnEarlierEntryForKey() {
+        final IdempotencyCache cache = new IdempotencyCache(16, 60);
+        final IdempotencyCache.Entry first = new IdempotencyCache.Entry("a b 100");
+
+        Assert.assertNull(cache.putIfAbsent("key-1", first));
+        Assert.assertSame(first, cache.putIfAbsent("key-1", new IdempotencyCache.Entry("a b 100")));
+        Assert.assertNull(cache.putIfAbsent("key-2", new IdempotencyCache.Entry("a b 100")));
+    }
+
+    @Test
+    public void shouldExpireFinishedEntries() {
+        final AtomicLong now = new AtomicLong();
+        final IdempotencyCache cache = new IdempotencyCache(16, 60, now::get);
+        final IdempotencyCache.Entry first = new IdempotencyCache.Entry("a b 100");
+        cache.putIfAbsent("key-1", first);
+
+        now.set(61_000_000_000L);
+        // still in progress, a retry must not transfer again
+        Assert.assertSame(first, cache.putIfAbsent("key-1", new IdempotencyCache.Entry("a b 100")));
+
+        first.getOutcome().complete(null);
+        Assert.assertNull(cache.putIfAbsent("key-1", new IdempotencyCache.Entry("a b 100")));
+    }
+
+    @Test
+    public void shouldExecuteAgainAfterRemovedEntry() {
+        final IdempotencyCache cache = new IdempotencyCache(16, 60);
+        final IdempotencyCache.Entry first = new IdempotencyCache.Entry("a b 100");
+        cache.putIfAbsent("key-1", first);
+
+        // a retry which found the key protected it, it is removed all the same
+        Assert.assertSame(first, cache.putIfAbsent("key-1", new IdempotencyCache.Entry("a b 100")));
+        cache.remove("key-1", first);
+        final IdempotencyCache.Entry second = new IdempotencyCache.Entry("a b 100");
+        Assert.assertNull(cache.putIfAbsent("key-1", second));
+
+        // a late removal of the first entry doesn't drop the second one
+        cache.remove("key-1", first);
+        Assert.assertSame(second, cache.putIfAbsent("key-1", new IdempotencyCache.Entry("a b 100")));
+    }
+
+    @Test
+    public void shouldKeepRetriedKeysUnderStormOfNewOnes() {
+        final IdempotencyCache cache = new IdempotencyCache(64, 60);
+        final IdempotencyCache.Entry retried = new IdempotencyCache.Entry("a b 100");
+        cache.putIfAbsent("retried", retried);
+        retried.getOutcome().complete(null);
+        cache.putIfAbsent("retried", new IdempotencyCache.Entry("a b 100"));
+
+        for (int i = 0; i < 100_000; i++) {
+            final IdempotencyCache.Entry entry = new IdempotencyCache.Entry("a b " + i);
+            cache.putIfAbsent("once-" + i, entry);
+            entry.getOutcome().complete(null);
+        }
+
+        Assert.assertSame(retried, cache.putIfAbsent("retried", new IdempotencyCache.Entry("a b 100")));
+        Assert.assertTrue(cache.size() <= 64);
+    }
+
+    @Test
+    public void shouldNotEvictEntriesInProgress() {
+        final IdempotencyCache cache = new IdempotencyCache(1, 60);
+        final IdempotencyCache.Entry pending = new IdempotencyCache.Entry("a b 100");
+        cache.putIfAbsent("pending", pending);
+        cache.putIfAbsent("other", new IdempotencyCache.Entry("a b 200"));
+
+        Assert.assertSame(pending, cache.putIfAbsent("pending", new IdempotencyCache.Entry("a b 100")));
+        Assert.assertEquals(2, cache.size());
+    }
+}
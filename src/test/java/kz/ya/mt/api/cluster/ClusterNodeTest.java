@@ -0,0 +1,275 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.AccountNotFoundException;
+import kz.ya.mt.api.exception.NodeUnavailableException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Two nodes in one JVM sharing the account store, the peer calls the other
+ * node directly and fails on demand.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ClusterNodeTest {
+
+    private static final String NODE_A = "http://localhost:8000";
+    private static final String NODE_B = "http://localhost:8001";
+    private static final List<String> NODES = Arrays.asList(NODE_A, NODE_B);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StubPeer peer = new StubPeer();
+    private ClusterNode nodeA;
+    private ClusterNode nodeB;
+    private String senderNo;
+    private String receiverNo;
+
+    @Before
+    public void setUp() throws Exception {
+        resetDao();
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath().resolve("journal"), 0, 1 << 20);
+        startNodes();
+        senderNo = numberOf(NODE_A);
+        receiverNo = numberOf(NODE_B);
+        AccountDao.getInstance().create(senderNo, Money.of(100));
+        AccountDao.getInstance().create(receiverNo, Money.of(0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        nodeA.close();
+        nodeB.close();
+        AccountDao.getInstance().closeJournal();
+    }
+
+    @Test
+    public void shouldTransferToAccountOfAnotherNode() throws Exception {
+        nodeA.transfer(account(senderNo), receiverNo, Money.of(30));
+
+        Assert.assertEquals(Money.of(70), account(senderNo).getBalance());
+        Assert.assertEquals(Money.of(30), account(receiverNo).getBalance());
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(0, nodeB.getReservations());
+        // every node records the transfer, here both share one ledger
+        Assert.assertEquals(2, AccountDao.getInstance().getLedger().size(receiverNo));
+    }
+
+    @Test
+    public void shouldNotDebitWithoutFunds() throws Exception {
+        try {
+            nodeA.transfer(account(senderNo), receiverNo, Money.of(101));
+            Assert.fail();
+        } catch (NotEnoughFundsException ex) {
+            Assert.assertEquals(Money.of(100), account(senderNo).getBalance());
+            Assert.assertEquals(0, peer.prepares);
+        }
+    }
+
+    @Test
+    public void shouldRefundWhenReceiverIsMissing() throws Exception {
+        try {
+            nodeA.transfer(account(senderNo), numberOf(NODE_B), Money.of(30));
+            Assert.fail();
+        } catch (AccountNotFoundException ex) {
+            Assert.assertEquals(Money.of(100), account(senderNo).getBalance());
+            Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        }
+    }
+
+    @Test
+    public void shouldRefundWhenNodeIsDown() throws Exception {
+        peer.down = true;
+        try {
+            nodeA.transfer(account(senderNo), receiverNo, Money.of(30));
+            Assert.fail();
+        } catch (NodeUnavailableException ex) {
+            Assert.assertEquals(Money.of(100), account(senderNo).getBalance());
+            Assert.assertEquals(1, nodeA.getUndeliveredDecisions());
+        }
+
+        peer.down = false;
+        nodeA.resendDecisions();
+
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(Money.of(0), account(receiverNo).getBalance());
+    }
+
+    @Test
+    public void shouldResendCommitUntilDelivered() throws Exception {
+        peer.failDecisions = true;
+        nodeA.transfer(account(senderNo), receiverNo, Money.of(30));
+
+        Assert.assertEquals(Money.of(70), account(senderNo).getBalance());
+        Assert.assertEquals(Money.of(0), account(receiverNo).getBalance());
+        Assert.assertEquals(1, nodeB.getReservations());
+
+        peer.failDecisions = false;
+        nodeA.resendDecisions();
+        nodeB.commit(peer.lastId);
+
+        Assert.assertEquals(Money.of(30), account(receiverNo).getBalance());
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(0, nodeB.getReservations());
+    }
+
+    @Test
+    public void shouldAbortUndecidedTransferOnRecovery() throws Exception {
+        peer.crashAfterPrepare = true;
+        try {
+            nodeA.transfer(account(senderNo), receiverNo, Money.of(30));
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals(Money.of(70), account(senderNo).getBalance());
+            Assert.assertEquals(1, nodeB.getReservations());
+        }
+
+        restart();
+
+        // the debit is durable, so it's refunded
+        Assert.assertEquals(Money.of(100), account(senderNo).getBalance());
+        Assert.assertEquals(1, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(1, nodeB.getReservations());
+
+        nodeA.resendDecisions();
+
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(0, nodeB.getReservations());
+        Assert.assertEquals(Money.of(0), account(receiverNo).getBalance());
+
+        // the refund is durable as well and not made again
+        restart();
+        Assert.assertEquals(Money.of(100), account(senderNo).getBalance());
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+    }
+
+    @Test
+    public void shouldCommitOnceAfterRecovery() throws Exception {
+        peer.failDecisions = true;
+        nodeA.transfer(account(senderNo), receiverNo, Money.of(30));
+
+        restart();
+
+        Assert.assertEquals(Money.of(70), account(senderNo).getBalance());
+        Assert.assertEquals(1, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(1, nodeB.getReservations());
+
+        peer.failDecisions = false;
+        nodeA.resendDecisions();
+        nodeB.commit(peer.lastId);
+        restart();
+
+        Assert.assertEquals(Money.of(70), account(senderNo).getBalance());
+        Assert.assertEquals(Money.of(30), account(receiverNo).getBalance());
+        Assert.assertEquals(0, nodeA.getUndeliveredDecisions());
+        Assert.assertEquals(0, nodeB.getReservations());
+    }
+
+    private void restart() throws Exception {
+        nodeA.close();
+        nodeB.close();
+        AccountDao.getInstance().closeJournal();
+        resetDao();
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath().resolve("journal"), 0, 1 << 20);
+        startNodes();
+    }
+
+    private void startNodes() throws IOException {
+        final Path root = folder.getRoot().toPath();
+        nodeA = new ClusterNode(new HashRing(NODE_A, NODES), peer, root.resolve("a"), 0);
+        nodeB = new ClusterNode(new HashRing(NODE_B, NODES), peer, root.resolve("b"), 0);
+    }
+
+    private static void resetDao() throws Exception {
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    private static Account account(String number) {
+        return AccountDao.getInstance().get(number).get();
+    }
+
+    private static String numberOf(String node) {
+        final HashRing ring = new HashRing(node, NODES);
+        for (int i = 0;; i++) {
+            final String number = "acc-" + System.nanoTime() + "-" + i;
+            if (ring.isLocal(number)) {
+                return number;
+            }
+        }
+    }
+
+    private final class StubPeer implements Peer {
+
+        volatile boolean down;
+        volatile boolean failDecisions;
+        volatile boolean crashAfterPrepare;
+        volatile String lastId;
+        int prepares;
+
+        @Override
+        public int prepare(String node, String id, String fromAccountNo, String toAccountNo, long amount)
+                throws IOException {
+            prepares++;
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+            lastId = id;
+            try {
+                node(node).prepare(id, fromAccountNo, toAccountNo, amount);
+            } catch (AccountNotFoundException ex) {
+                return 404;
+            }
+            if (crashAfterPrepare) {
+                throw new IllegalStateException("Coordinator crashed");
+            }
+            return 200;
+        }
+
+        @Override
+        public void commit(String node, String id) throws IOException {
+            if (down || failDecisions) {
+                throw new IOException("Connection refused");
+            }
+            try {
+                node(node).commit(id);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        @Override
+        public void abort(String node, String id) throws IOException {
+            if (down || failDecisions) {
+                throw new IOException("Connection refused");
+            }
+            node(node).abort(id);
+        }
+
+        @Override
+        public Response forward(String node, String method, String path, String contentType,
+                Map<String, String> headers, byte[] body) {
+            throw new UnsupportedOperationException();
+        }
+
+        private ClusterNode node(String node) {
+            return NODE_A.equals(node) ? nodeA : nodeB;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package kz.ya.mt.api.cluster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class HashRingTest {
+
+    private static final List<String> NODES = Arrays.asList(
+            "http://localhost:8000", "http://localhost:8001", "http://localhost:8002");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectSelfOutsideOfNodes() {
+        new HashRing("http://localhost:9000", NODES);
+    }
+
+    @Test
+    public void shouldAgreeOnOwnerOnEveryNode() {
+        final HashRing first = new HashRing(NODES.get(0), NODES);
+        final HashRing second = new HashRing(NODES.get(1), NODES);
+        for (int i = 0; i < 1000; i++) {
+            final String number = UUID.randomUUID().toString();
+            Assert.assertEquals(first.ownerOf(number), second.ownerOf(number));
+            Assert.assertEquals(first.isLocal(number), first.getSelf().equals(second.ownerOf(number)));
+        }
+    }
+
+    @Test
+    public void shouldSpreadAccountsEvenly() {
+        final HashRing ring = new HashRing(NODES.get(0), NODES);
+        final Map<String, Integer> counts = new HashMap<>();
+        final int accounts = 30_000;
+        for (int i = 0; i < accounts; i++) {
+            counts.merge(ring.ownerOf("acc-" + i), 1, Integer::sum);
+        }
+        for (String node : NODES) {
+            final int count = counts.getOrDefault(node, 0);
+            Assert.assertTrue(node + " has " + count, Math.abs(count - accounts / 3) < accounts / 3 / 4);
+        }
+    }
+
+    @Test
+    public void shouldMoveOnlyAccountsOfNewNode() {
+        final HashRing before = new HashRing(NODES.get(0), NODES.subList(0, 2));
+        final HashRing after = new HashRing(NODES.get(0), NODES);
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            final String number = "acc-" + i;
+            if (!before.ownerOf(number).equals(after.ownerOf(number))) {
+                Assert.assertEquals(NODES.get(2), after.ownerOf(number));
+                moved++;
+            }
+        }
+        Assert.assertTrue("moved " + moved, moved > 2_000 && moved < 4_700);
+    }
+}
@@ -0,0 +1,108 @@
+package kz.ya.mt.api.cluster;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class TransferLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayRecordsInOrder() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (TransferLog log = TransferLog.create(directory, fresh -> fresh.prepare("t-1", "a", "b", "n", 5, 2))) {
+            log.commit("t-1");
+            log.reserve("t-2", "c", "d", 7);
+            log.sync(log.apply("t-2", 3));
+        }
+
+        final List<String> records = replay(directory);
+
+        Assert.assertEquals(
+                "[prepared t-1 a b n 5 2, committed t-1, reserved t-2 c d 7, applied t-2 3]",
+                records.toString());
+    }
+
+    @Test
+    public void shouldDropTornRecordAtTheEnd() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (TransferLog log = TransferLog.create(directory, fresh -> { })) {
+            log.commit("t-1");
+            log.sync(log.abort("t-2", 4));
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve("transfers.log"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Assert.assertEquals("[committed t-1]", replay(directory).toString());
+    }
+
+    @Test
+    public void shouldReplaceLogWithLiveRecords() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (TransferLog log = TransferLog.create(directory, fresh -> { })) {
+            log.sync(log.done("t-1"));
+        }
+        try (TransferLog log = TransferLog.create(directory, fresh -> fresh.release("t-2"))) {
+            log.sync(log.done("t-3"));
+        }
+
+        Assert.assertEquals("[released t-2, done t-3]", replay(directory).toString());
+    }
+
+    private static List<String> replay(Path directory) throws IOException {
+        final List<String> records = new ArrayList<>();
+        TransferLog.replay(directory, new TransferLog.Handler() {
+            @Override
+            public void prepared(String id, String fromAccountNo, String toAccountNo, String node, long amount,
+                    long version) {
+                records.add("prepared " + id + " " + fromAccountNo + " " + toAccountNo + " " + node + " "
+                        + amount + " " + version);
+            }
+
+            @Override
+            public void committed(String id) {
+                records.add("committed " + id);
+            }
+
+            @Override
+            public void aborted(String id, long version) {
+                records.add("aborted " + id + " " + version);
+            }
+
+            @Override
+            public void done(String id) {
+                records.add("done " + id);
+            }
+
+            @Override
+            public void reserved(String id, String fromAccountNo, String toAccountNo, long amount) {
+                records.add("reserved " + id + " " + fromAccountNo + " " + toAccountNo + " " + amount);
+            }
+
+            @Override
+            public void applied(String id, long version) {
+                records.add("applied " + id + " " + version);
+            }
+
+            @Override
+            public void released(String id) {
+                records.add("released " + id);
+            }
+        });
+        return records;
+    }
+}
@@ -1,25 +1,32 @@
 package kz.ya.mt.api.dao;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import kz.ya.mt.api.exception.AccountAlreadyExistsException;
+import kz.ya.mt.api.exception.BalanceOverflowException;
 import kz.ya.mt.api.exception.AccountNotFoundException;
 import kz.ya.mt.api.exception.EmptyAccountNumberException;
 import kz.ya.mt.api.exception.NotEnoughFundsException;
-import kz.ya.mt.api.exception.NullAccountBalanceException;
 import kz.ya.mt.api.exception.NullInputAccountException;
-import kz.ya.mt.api.exception.NullInputAmountException;
 import kz.ya.mt.api.exception.TransferNegativeAmountException;
 import kz.ya.mt.api.exception.TransferZeroAmountException;
 import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  *
@@ -27,6 +34,9 @@ import org.junit.Test;
  */
 public class AccountDaoTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
         // reset singleton before each test
@@ -35,6 +45,11 @@ public class AccountDaoTest {
         instance.set(null, null);
     }
 
+    @After
+    public void tearDown() throws IOException {
+        AccountDao.getInstance().closeJournal();
+    }
+
     @Test
     public void constructorShouldBePrivate() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
         Constructor<AccountDao> constructor = AccountDao.class.getDeclaredConstructor();
@@ -55,7 +70,7 @@ public class AccountDaoTest {
 
     @Test
     public void shouldGetAccountWhenItExists() {
-        final Account expResult = AccountDao.getInstance().create(BigDecimal.TEN);
+        final Account expResult = AccountDao.getInstance().create(Money.of(10));
         String number = expResult.getNumber();
 
         Account result = AccountDao.getInstance().get(number).get();
@@ -74,7 +89,7 @@ public class AccountDaoTest {
 
     @Test
     public void shouldCreateNewAccount() {
-        final Account account = AccountDao.getInstance().create(BigDecimal.TEN);
+        final Account account = AccountDao.getInstance().create(Money.of(10));
 
         final Account createdAccount = AccountDao.getInstance().get(account.getNumber()).get();
 
@@ -87,39 +102,34 @@ public class AccountDaoTest {
 
     @Test(expected = AccountAlreadyExistsException.class)
     public void shouldNotCreateNewAccountWithNumberWhichAlreadyExists() {
-        final Account account = AccountDao.getInstance().create(BigDecimal.TEN);
+        final Account account = AccountDao.getInstance().create(Money.of(10));
 
-        AccountDao.getInstance().create(account.getNumber(), BigDecimal.TEN);
+        AccountDao.getInstance().create(account.getNumber(), Money.of(10));
     }
 
     @Test(expected = EmptyAccountNumberException.class)
     public void shouldNotCreateAccountIfNumberIsNull() {
-        AccountDao.getInstance().create(null, BigDecimal.TEN);
+        AccountDao.getInstance().create(null, Money.of(10));
     }
 
     @Test(expected = EmptyAccountNumberException.class)
     public void shouldNotCreateAccountIfNumberIsEmpty() {
-        AccountDao.getInstance().create("", BigDecimal.TEN);
-    }
-
-    @Test(expected = NullAccountBalanceException.class)
-    public void shouldNotCreateAccountIfBalanceIsNull() {
-        AccountDao.getInstance().create("some number", null);
+        AccountDao.getInstance().create("", Money.of(10));
     }
 
     @Test
     public void shouldWithdrawAccount() throws Exception {
-        final Account account = AccountDao.getInstance().create(BigDecimal.TEN);
+        final Account account = AccountDao.getInstance().create(Money.of(10));
         LocalDateTime expectedModifiedAt = account.getModifiedAt();
 
         // send current thread to sleep for 1 sec, to make the difference in time
         Thread.sleep(1000);
 
-        AccountDao.getInstance().withdraw(account, BigDecimal.ONE);
+        AccountDao.getInstance().withdraw(account, Money.of(1));
 
         final Account updatedAccount = AccountDao.getInstance().get(account.getNumber()).get();
 
-        Assert.assertEquals(new BigDecimal(9), updatedAccount.getBalance());
+        Assert.assertEquals(Money.of(9), updatedAccount.getBalance());
         
         boolean isEqual = expectedModifiedAt.equals(updatedAccount.getModifiedAt());
         Assert.assertFalse(isEqual);
@@ -129,49 +139,44 @@ public class AccountDaoTest {
     public void shouldNotWithdrawIfAccountDoesNotExist() {
         String number = "wrongNumber";
 
-        AccountDao.getInstance().withdraw(new Account(number), BigDecimal.ONE);
+        AccountDao.getInstance().withdraw(new Account(number), Money.of(1));
     }
 
     @Test(expected = NullInputAccountException.class)
     public void shouldNotWithdrawIfAccountIsNull() {
-        AccountDao.getInstance().withdraw(null, BigDecimal.ONE);
-    }
-
-    @Test(expected = NullInputAmountException.class)
-    public void shouldNotWithdrawIfAmountIsNull() {
-        AccountDao.getInstance().withdraw(new Account("some number"), null);
+        AccountDao.getInstance().withdraw(null, Money.of(1));
     }
 
     @Test(expected = TransferNegativeAmountException.class)
     public void shouldNotWithdrawIfAmountIsNegative() {
-        AccountDao.getInstance().withdraw(new Account("some number"), new BigDecimal(-1));
+        AccountDao.getInstance().withdraw(new Account("some number"), Money.of(-1));
     }
 
     @Test(expected = TransferZeroAmountException.class)
     public void shouldNotWithdrawIfAmountIsZero() {
-        AccountDao.getInstance().withdraw(new Account("some number"), BigDecimal.ZERO);
+        AccountDao.getInstance().withdraw(new Account("some number"), Money.of(0));
     }
 
     @Test(expected = NotEnoughFundsException.class)
     public void shouldNotWithdrawIfAccountHasNotEnoughFunds() {
-        final Account account = AccountDao.getInstance().create(BigDecimal.ZERO);
+        final Account account = AccountDao.getInstance().create(Money.of(0));
 
-        AccountDao.getInstance().withdraw(account, BigDecimal.ONE);
+        AccountDao.getInstance().withdraw(account, Money.of(1));
     }
 
     @Test
     public void shouldDepositAccount() throws Exception {
-        final Account account = AccountDao.getInstance().create(BigDecimal.ZERO);
+        final Account account = AccountDao.getInstance().create(Money.of(0));
         LocalDateTime expectedModifiedAt = account.getModifiedAt();
 
         // send current thread to sleep for 1 sec, to make the difference in time
         Thread.sleep(1000);
 
-        AccountDao.getInstance().deposit(account, BigDecimal.ONE);
+        AccountDao.getInstance().deposit(account, Money.of(1));
 
         final Account updatedAccount = AccountDao.getInstance().get(account.getNumber()).get();
 
-        Assert.assertEquals(BigDecimal.ONE, updatedAccount.getBalance());
+        Assert.assertEquals(Money.of(1), updatedAccount.getBalance());
         
         boolean isEqual = expectedModifiedAt.equals(updatedAccount.getModifiedAt());
         Assert.assertFalse(isEqual);
@@ -181,32 +186,39 @@ public class AccountDaoTest {
     public void shouldNotDepositIfAccountDoesNotExist() {
         String number = "wrongNumber";
 
-        AccountDao.getInstance().deposit(new Account(number), BigDecimal.ONE);
+        AccountDao.getInstance().deposit(new Account(number), Money.of(1));
     }
 
     @Test(expected = NullInputAccountException.class)
     public void shouldNotDepositIfAccountIsNull() {
-        AccountDao.getInstance().deposit(null, BigDecimal.ONE);
-    }
-
-    @Test(expected = NullInputAmountException.class)
-    public void shouldNotDepositIfAmountIsNull() {
-        AccountDao.getInstance().deposit(new Account("some number"), null);
+        AccountDao.getInstance().deposit(null, Money.of(1));
     }
 
     @Test(expected = TransferNegativeAmountException.class)
     public void shouldNotDepositIfAmountIsNegative() {
-        AccountDao.getInstance().deposit(new Account("some number"), new BigDecimal(-1));
+        AccountDao.getInstance().deposit(new Account("some number"), Money.of(-1));
     }
 
     @Test(expected = TransferZeroAmountException.class)
     public void shouldNotDepositIfAmountIsZero() {
-        AccountDao.getInstance().deposit(new Account("some number"), BigDecimal.ZERO);
+        AccountDao.getInstance().deposit(new Account("some number"), Money.of(0));
+    }
+
+    @Test
+    public void shouldNotDepositIfBalanceOverflows() {
+        final Account account = AccountDao.getInstance().create(Long.MAX_VALUE);
+
+        try {
+            AccountDao.getInstance().deposit(account, 1L);
+            Assert.fail("Expected BalanceOverflowException");
+        } catch (BalanceOverflowException ex) {
+            Assert.assertEquals(Long.MAX_VALUE, account.getBalance());
+        }
     }
 
     @Test
     public void shouldDeleteAccount() {
-        final Account account = AccountDao.getInstance().create(BigDecimal.ZERO);
+        final Account account = AccountDao.getInstance().create(Money.of(0));
         String number = account.getNumber();
 
         AccountDao.getInstance().delete(account);
@@ -232,7 +244,7 @@ public class AccountDaoTest {
     public void shouldClearDatastore() {
         Assert.assertTrue(AccountDao.getInstance().isDatastoreIsEmpty());
 
-        AccountDao.getInstance().create(BigDecimal.ZERO);
+        AccountDao.getInstance().create(Money.of(0));
 
         Assert.assertFalse(AccountDao.getInstance().isDatastoreIsEmpty());
 
@@ -245,4 +257,108 @@ public class AccountDaoTest {
     public void shouldReturnTrueIfDatastoreIsEmpty() {
         Assert.assertTrue(AccountDao.getInstance().isDatastoreIsEmpty());
     }
+
+    @Test
+    public void shouldRestoreAccountsFromJournal() throws Exception {
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 1 << 20);
+        final Account acc1 = AccountDao.getInstance().create("acc-1", Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create("acc-2", Money.of(0));
+        final Account acc3 = AccountDao.getInstance().create("acc-3", Money.of(0));
+        AccountDao.getInstance().transfer(acc1, acc2, Money.of(30));
+        AccountDao.getInstance().withdraw(acc2, Money.of(10));
+        AccountDao.getInstance().deposit(acc3, Money.of(10));
+        AccountDao.getInstance().delete(acc3);
+        AccountDao.getInstance().awaitDurable();
+        AccountDao.getInstance().closeJournal();
+
+        setUp();
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 1 << 20);
+
+        final Account restored1 = AccountDao.getInstance().get("acc-1").get();
+        final Account restored2 = AccountDao.getInstance().get("acc-2").get();
+        Assert.assertEquals(Money.of(70), restored1.getBalance());
+        Assert.assertEquals(Money.of(20), restored2.getBalance());
+        Assert.assertEquals(acc1, restored1);
+        Assert.assertFalse(AccountDao.getInstance().get("acc-3").isPresent());
+    }
+
+    @Test
+    public void shouldRestoreAccountsFromSnapshotAndJournalTail() throws Exception {
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 256);
+        final Account acc1 = AccountDao.getInstance().create("acc-1", Money.of(100));
+        final Account acc2 = AccountDao.getInstance().create("acc-2", Money.of(0));
+        for (int i = 0; i < 10; i++) {
+            AccountDao.getInstance().transfer(acc1, acc2, Money.of(1));
+        }
+        final long position = AccountDao.getInstance().snapshot();
+        AccountDao.getInstance().transfer(acc1, acc2, Money.of(5));
+        AccountDao.getInstance().create("acc-3", Money.of(7));
+        AccountDao.getInstance().awaitDurable();
+        AccountDao.getInstance().closeJournal();
+
+        // segments before the snapshot are compacted away
+        Assert.assertTrue(position > 256);
+        Assert.assertFalse(Files.exists(folder.getRoot().toPath().resolve(String.format("journal-%020d.log", 0))));
+
+        setUp();
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 256);
+
+        Assert.assertEquals(Money.of(85), AccountDao.getInstance().get("acc-1").get().getBalance());
+        Assert.assertEquals(Money.of(15), AccountDao.getInstance().get("acc-2").get().getBalance());
+        Assert.assertEquals(Money.of(7), AccountDao.getInstance().get("acc-3").get().getBalance());
+        Assert.assertEquals(11, AccountDao.getInstance().get("acc-1").get().getVersion());
+    }
+
+    @Test
+    public void shouldConserveMoneyWhenSnapshotIsTakenDuringTransfers() throws Exception {
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 1 << 16);
+        final int accounts = 20;
+        final Account[] all = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            all[i] = AccountDao.getInstance().create("acc-" + i, Money.of(1000));
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        for (int t = 0; t < 2; t++) {
+            final int seed = t;
+            executorService.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    final Account from = all[(i * 7 + seed) % accounts];
+                    final Account to = all[(i * 13 + seed + 1) % accounts];
+                    if (from == to) {
+                        continue;
+                    }
+                    final Account first = from.getNumber().compareTo(to.getNumber()) < 0 ? from : to;
+                    final Account second = first == from ? to : from;
+                    first.getLock().lock();
+                    second.getLock().lock();
+                    try {
+                        AccountDao.getInstance().transfer(from, to, Money.of(1));
+                    } catch (NotEnoughFundsException ex) {
+                        // keep going
+                    } finally {
+                        second.getLock().unlock();
+                        first.getLock().unlock();
+                    }
+                }
+                return null;
+            });
+        }
+        for (int i = 0; i < 5; i++) {
+            AccountDao.getInstance().snapshot();
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        AccountDao.getInstance().closeJournal();
+
+        setUp();
+        AccountDao.getInstance().openJournal(folder.getRoot().toPath(), 0, 1 << 16);
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            final Account restored = AccountDao.getInstance().get("acc-" + i).get();
+            Assert.assertEquals(all[i].getBalance(), restored.getBalance());
+            total += restored.getBalance();
+        }
+        Assert.assertEquals(accounts * Money.of(1000), total);
+    }
 }
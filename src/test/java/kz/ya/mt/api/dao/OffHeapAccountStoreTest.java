@@ -0,0 +1,158 @@
+package kz.ya.mt.api.dao;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.engine.LockingTransferEngine;
+import kz.ya.mt.api.engine.TransferBatch;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class OffHeapAccountStoreTest {
+
+    private final OffHeapAccountStore store = new OffHeapAccountStore(2);
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        System.setProperty("mt.store", "offheap");
+        System.setProperty("mt.store.lockStripes", "2");
+        resetDao();
+    }
+
+    @After
+    public void tearDown() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        System.clearProperty("mt.store");
+        System.clearProperty("mt.store.lockStripes");
+        resetDao();
+    }
+
+    private static void resetDao() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @Test
+    public void shouldKeepAccountInSlot() {
+        final Account account = new Account("acc-1", Money.of(10), 1000L, 2000L, 3L);
+        final Account stored = store.insert(account, null);
+
+        Assert.assertNotSame(account, stored);
+        Assert.assertEquals(stored, store.get("acc-1"));
+        Assert.assertEquals(1000L, stored.getCreatedAtMillis());
+        Assert.assertEquals(Money.of(10), stored.getBalance());
+        Assert.assertEquals(3L, stored.getVersion());
+        Assert.assertEquals(2000L, stored.getModifiedAtMillis());
+
+        Assert.assertEquals(4L, stored.update(Money.of(7), 3000L));
+        stored.incFailedTransferCount();
+
+        final Account view = store.get("acc-1");
+        Assert.assertEquals(Money.of(7), view.getBalance());
+        Assert.assertEquals(4L, view.getVersion());
+        Assert.assertEquals(3000L, view.getModifiedAtMillis());
+        Assert.assertEquals(1L, view.getFailCount());
+        Assert.assertSame(stored.getLock(), view.getLock());
+    }
+
+    @Test
+    public void shouldNotInsertTakenNumber() {
+        Assert.assertNotNull(store.insert(new Account("acc-1", 1), null));
+        Assert.assertNull(store.insert(new Account("acc-1", 2), null));
+        Assert.assertEquals(1, store.get("acc-1").getBalance());
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void shouldRemoveAndClear() {
+        store.insert(new Account("acc-1", 1), null);
+        store.insert(new Account("acc-2", 2), null);
+        store.remove("acc-1", null);
+
+        Assert.assertNull(store.get("acc-1"));
+        int count = 0;
+        for (Account account : store.values()) {
+            Assert.assertEquals("acc-2", account.getNumber());
+            count++;
+        }
+        Assert.assertEquals(1, count);
+
+        store.clear();
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void shouldReadSlotWithoutLock() {
+        final Account stored = store.insert(new Account("acc-1", Money.of(10), 1000L, 2000L, 3L), null);
+        stored.getLock().lock();
+        try {
+            stored.update(Money.of(7), 4000L);
+        } finally {
+            stored.getLock().unlock();
+        }
+
+        final AccountState state = store.get("acc-1").read();
+        Assert.assertEquals(Money.of(7), state.getBalance());
+        Assert.assertEquals(4, state.getVersion());
+        Assert.assertEquals(4000L, state.getModifiedAt());
+    }
+
+    @Test
+    public void shouldGrowBeyondOneChunk() {
+        for (int i = 0; i < 70_000; i++) {
+            store.insert(new Account("acc-" + i, i), null);
+        }
+        Assert.assertEquals(69_999, store.get("acc-69999").getBalance());
+        Assert.assertEquals(2L * 65536 * OffHeapAccountStore.SLOT_SIZE, store.capacityBytes());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldRejectLockFreeState() {
+        store.insert(new Account("acc-1", 1), null).getState();
+    }
+
+    @Test
+    public void shouldNotDeadlockOnSharedLocks() throws Exception {
+        final LockingTransferEngine transferEngine = new LockingTransferEngine();
+        final Account[] accounts = new Account[4];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create("acc-" + i, Money.of(100_000));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        for (int t = 0; t < 3; t++) {
+            final int shift = t;
+            executorService.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    final Account from = accounts[(i + shift) % accounts.length];
+                    final Account to = accounts[(i + shift + 1 + shift % 2) % accounts.length];
+                    transferEngine.transfer(from, to, Money.of(1));
+                    final TransferBatch batch = new TransferBatch(2, true);
+                    batch.set(0, to, from, Money.of(1));
+                    batch.set(1, to, from, Money.of(1));
+                    transferEngine.transfer(batch);
+                    transferEngine.transfer(from, to, Money.of(1));
+                }
+                return null;
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (Account account : accounts) {
+            total += AccountDao.getInstance().get(account.getNumber()).get().getBalance();
+        }
+        Assert.assertEquals(accounts.length * Money.of(100_000), total);
+    }
+}
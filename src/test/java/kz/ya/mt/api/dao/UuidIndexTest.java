@@ -0,0 +1,146 @@
+package kz.ya.mt.api.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class UuidIndexTest {
+
+    @Test
+    public void shouldParseOnlyCanonicalUuids() {
+        final UUID uuid = UUID.randomUUID();
+        final String number = uuid.toString();
+
+        Assert.assertTrue(UuidIndex.isUuid(number));
+        Assert.assertEquals(uuid.getMostSignificantBits(), UuidIndex.high(number));
+        Assert.assertEquals(uuid.getLeastSignificantBits(), UuidIndex.low(number));
+        Assert.assertFalse(UuidIndex.isUuid(number.toUpperCase()));
+        Assert.assertFalse(UuidIndex.isUuid(number.replace('-', '_')));
+        Assert.assertFalse(UuidIndex.isUuid("acc-1"));
+    }
+
+    @Test
+    public void shouldInsertGetAndRemove() {
+        final UuidIndex index = new UuidIndex();
+        final Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final String number = i % 10 == 0 ? "acc-" + i : UUID.randomUUID().toString();
+            final int value = i;
+            Assert.assertEquals(i, index.insert(number, () -> value, null));
+            expected.put(number, i);
+        }
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(UuidIndex.MISSING, index.insert(entry.getKey(), () -> -5, null));
+            Assert.assertEquals((int) entry.getValue(), index.get(entry.getKey()));
+        }
+        Assert.assertEquals(1000, index.size());
+
+        int removed = 0;
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            if (entry.getValue() % 2 == 0) {
+                Assert.assertEquals((int) entry.getValue(), index.remove(entry.getKey(), null));
+                Assert.assertEquals(UuidIndex.MISSING, index.get(entry.getKey()));
+                removed++;
+            }
+        }
+        Assert.assertEquals(1000 - removed, index.size());
+
+        final Map<String, Integer> iterated = new HashMap<>();
+        final UuidIndex.Cursor cursor = index.cursor();
+        while (cursor.next()) {
+            iterated.put(cursor.number(), cursor.value());
+        }
+        expected.values().removeIf(value -> value % 2 == 0);
+        Assert.assertEquals(expected, iterated);
+
+        index.clear();
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.cursor().next());
+    }
+
+    @Test
+    public void shouldKeepEntriesWhenReserved() {
+        final UuidIndex index = new UuidIndex();
+        final String[] numbers = new String[1000];
+        for (int i = 0; i < 10; i++) {
+            numbers[i] = UUID.randomUUID().toString();
+            index.insert(numbers[i], () -> 0, null);
+        }
+        index.reserve(990);
+        for (int i = 10; i < numbers.length; i++) {
+            numbers[i] = UUID.randomUUID().toString();
+            index.insert(numbers[i], () -> 0, null);
+        }
+
+        Assert.assertEquals(numbers.length, index.size());
+        for (String number : numbers) {
+            Assert.assertEquals(0, index.get(number));
+        }
+    }
+
+    @Test
+    public void shouldCallHooksOnlyForChanges() {
+        final UuidIndex index = new UuidIndex();
+        final String number = UUID.randomUUID().toString();
+        final AtomicBoolean called = new AtomicBoolean();
+
+        index.insert(number, () -> 1, key -> called.set(true));
+        Assert.assertTrue(called.getAndSet(false));
+        index.insert(number, () -> 2, key -> called.set(true));
+        Assert.assertFalse(called.get());
+        index.remove(number, key -> called.set(true));
+        Assert.assertTrue(called.getAndSet(false));
+        index.remove(number, key -> called.set(true));
+        Assert.assertFalse(called.get());
+    }
+
+    @Test
+    public void shouldFindStableEntriesWhileTableIsRebuilt() throws Exception {
+        final UuidIndex index = new UuidIndex();
+        final String[] stable = new String[100];
+        for (int i = 0; i < stable.length; i++) {
+            stable[i] = UUID.randomUUID().toString();
+            final int value = i;
+            index.insert(stable[i], () -> value, null);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean lost = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                for (int i = 0; i < stable.length; i++) {
+                    if (index.get(stable[i]) != i) {
+                        lost.set(true);
+                    }
+                }
+            }
+            finished.countDown();
+        });
+        reader.start();
+
+        for (int round = 0; round < 20; round++) {
+            final String[] churn = new String[500];
+            for (int i = 0; i < churn.length; i++) {
+                churn[i] = UUID.randomUUID().toString();
+                index.insert(churn[i], () -> 1000, null);
+            }
+            for (String number : churn) {
+                index.remove(number, null);
+            }
+        }
+        done.set(true);
+        finished.await();
+
+        Assert.assertFalse(lost.get());
+        Assert.assertEquals(stable.length, index.size());
+    }
+}
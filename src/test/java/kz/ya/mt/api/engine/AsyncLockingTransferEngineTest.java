@@ -0,0 +1,142 @@
+package kz.ya.mt.api.engine;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class AsyncLockingTransferEngineTest {
+
+    private AsyncLockingTransferEngine transferEngine;
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        transferEngine = new AsyncLockingTransferEngine(2);
+
+        // reset singleton before each test
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @After
+    public void tearDown() {
+        transferEngine.close();
+    }
+
+    @Test
+    public void shouldTransfer() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(5));
+
+        transferEngine.transferAsync(acc1, acc2, Money.of(3)).get(5, TimeUnit.SECONDS);
+        transferEngine.transfer(acc2, acc1, Money.of(1));
+
+        Assert.assertEquals(Money.of(8), acc1.getBalance());
+        Assert.assertEquals(Money.of(7), acc2.getBalance());
+    }
+
+    @Test
+    public void shouldFailFutureWithNotEnoughFunds() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(1));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        try {
+            transferEngine.transferAsync(acc1, acc2, Money.of(10)).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected NotEnoughFundsException");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof NotEnoughFundsException);
+        }
+        Assert.assertEquals(Money.of(1), acc1.getBalance());
+        Assert.assertEquals(1, acc1.getFailCount());
+    }
+
+    @Test
+    public void shouldQueueTransfersWithoutBlockingCaller() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        final Lock lock = acc1.getLock();
+        lock.lock();
+        try {
+            // the first transfer holds the executor thread on the account
+            // lock, the others only queue up behind it
+            for (int i = 0; i < 10; i++) {
+                results.add(transferEngine.transferAsync(acc1, acc2, Money.of(1)));
+            }
+            Thread.sleep(100);
+            for (CompletableFuture<Void> result : results) {
+                Assert.assertFalse(result.isDone());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (CompletableFuture<Void> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(10), acc2.getBalance());
+    }
+
+    @Test
+    public void shouldConserveMoneyWithCrossingTransfers() throws Exception {
+        final Account[] accounts = new Account[10];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create(Money.of(100));
+        }
+
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            int from = ThreadLocalRandom.current().nextInt(accounts.length);
+            int to = (from + 1 + ThreadLocalRandom.current().nextInt(accounts.length - 1)) % accounts.length;
+            results.add(transferEngine.transferAsync(accounts[from], accounts[to], Money.of(1)));
+        }
+        for (CompletableFuture<Void> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof NotEnoughFundsException);
+            }
+        }
+
+        long total = 0;
+        for (Account account : accounts) {
+            Assert.assertTrue(account.getBalance() >= 0);
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(1000), total);
+    }
+
+    @Test
+    public void shouldApplyAtomicBatch() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        final TransferBatch batch = new TransferBatch(2, true);
+        batch.set(0, acc1, acc2, Money.of(4));
+        batch.set(1, acc2, acc1, Money.of(1));
+        transferEngine.transfer(batch);
+
+        Assert.assertFalse(batch.isFailed());
+        Assert.assertEquals(Money.of(7), acc1.getBalance());
+        Assert.assertEquals(Money.of(3), acc2.getBalance());
+    }
+}
@@ -0,0 +1,197 @@
+package kz.ya.mt.api.engine;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.exception.TransferNegativeAmountException;
+import kz.ya.mt.api.exception.TransferZeroAmountException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.AccountState;
+import kz.ya.mt.api.model.Money;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class CasTransferEngineTest {
+
+    private static final int NUMBER_OF_THREADS = 8;
+
+    private final CasTransferEngine transferEngine = new CasTransferEngine();
+
+    @Test
+    public void shouldTransfer() {
+        final Account acc1 = new Account("number1", Money.of(10));
+        final Account acc2 = new Account("number2", Money.of(5));
+
+        transferEngine.transfer(acc1, acc2, Money.of(3));
+        transferEngine.transfer(acc2, acc1, Money.of(1));
+
+        Assert.assertEquals(Money.of(8), acc1.getBalance());
+        Assert.assertEquals(Money.of(7), acc2.getBalance());
+        Assert.assertEquals(2, ((AccountState) acc1.getState()).getVersion());
+        Assert.assertEquals(2, ((AccountState) acc2.getState()).getVersion());
+    }
+
+    @Test
+    public void shouldThrowNotEnoughFundsException() {
+        final Account acc1 = new Account("number1", Money.of(1));
+        final Account acc2 = new Account("number2", Money.of(0));
+
+        try {
+            transferEngine.transfer(acc1, acc2, Money.of(10));
+            Assert.fail("Expected NotEnoughFundsException");
+        } catch (NotEnoughFundsException ex) {
+            Assert.assertEquals(Money.of(1), acc1.getBalance());
+            Assert.assertEquals(Money.of(0), acc2.getBalance());
+            Assert.assertEquals(1, acc1.getFailCount());
+        }
+    }
+
+    @Test(expected = TransferNegativeAmountException.class)
+    public void shouldNotTransferNegativeAmount() {
+        transferEngine.transfer(new Account("number1", Money.of(1)), new Account("number2"), Money.of(-1));
+    }
+
+    @Test(expected = TransferZeroAmountException.class)
+    public void shouldNotTransferZeroAmount() {
+        transferEngine.transfer(new Account("number1", Money.of(1)), new Account("number2"), 0L);
+    }
+
+    @Test
+    public void shouldApplyAtomicBatchInOrder() throws Exception {
+        final Account acc1 = new Account("number1", Money.of(10));
+        final Account acc2 = new Account("number2", Money.of(0));
+        final Account acc3 = new Account("number3", Money.of(0));
+
+        // the second transfer is only possible after the first one
+        final TransferBatch batch = new TransferBatch(2, true);
+        batch.set(0, acc1, acc2, Money.of(10));
+        batch.set(1, acc2, acc3, Money.of(10));
+        transferEngine.transfer(batch);
+
+        Assert.assertFalse(batch.isFailed());
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
+        Assert.assertEquals(Money.of(10), acc3.getBalance());
+        Assert.assertEquals(1, ((AccountState) acc2.getState()).getVersion());
+    }
+
+    @Test
+    public void shouldNotApplyAnythingWhenAtomicBatchFails() throws Exception {
+        final Account acc1 = new Account("number1", Money.of(10));
+        final Account acc2 = new Account("number2", Money.of(0));
+
+        final TransferBatch batch = new TransferBatch(2, true);
+        batch.set(0, acc1, acc2, Money.of(5));
+        batch.set(1, acc1, acc2, Money.of(6));
+        transferEngine.transfer(batch);
+
+        Assert.assertTrue(batch.isFailed());
+        Assert.assertNull(batch.getFailure(0));
+        Assert.assertTrue(batch.getFailure(1) instanceof NotEnoughFundsException);
+        Assert.assertEquals(Money.of(10), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
+        Assert.assertEquals(0, ((AccountState) acc1.getState()).getVersion());
+    }
+
+    @Test
+    public void shouldIgnoreAccountLocks() throws Exception {
+        final Account acc1 = new Account("number1", Money.of(10));
+        final Account acc2 = new Account("number2", Money.of(10));
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch transferred = new CountDownLatch(1);
+
+        Thread lockThread = new Thread(() -> {
+            acc1.getLock().lock();
+            try {
+                locked.countDown();
+                transferred.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                acc1.getLock().unlock();
+            }
+        });
+        lockThread.start();
+        locked.await();
+
+        transferEngine.transfer(acc1, acc2, Money.of(1));
+        transferred.countDown();
+        lockThread.join();
+
+        Assert.assertEquals(Money.of(9), acc1.getBalance());
+        Assert.assertEquals(Money.of(11), acc2.getBalance());
+    }
+
+    @Test
+    public void shouldConserveMoneyUnderConcurrentTransfers() throws Exception {
+        final Account[] accounts = new Account[10];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account("number" + i, Money.of(100));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            executorService.submit(() -> {
+                for (int j = 0; j < 20_000; j++) {
+                    int from = ThreadLocalRandom.current().nextInt(accounts.length);
+                    int to = (from + 1 + ThreadLocalRandom.current().nextInt(accounts.length - 1)) % accounts.length;
+                    try {
+                        transferEngine.transfer(accounts[from], accounts[to], Money.of(1));
+                    } catch (NotEnoughFundsException ex) {
+                        // expected from time to time
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (Account account : accounts) {
+            Assert.assertTrue(account.getBalance() >= 0);
+            Assert.assertTrue(account.getState() instanceof AccountState);
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(1000), total);
+    }
+
+    @Test
+    public void shouldConserveMoneyUnderConcurrentBatches() throws Exception {
+        final Account[] accounts = new Account[10];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new Account("number" + i, Money.of(100));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            executorService.submit(() -> {
+                for (int j = 0; j < 5_000; j++) {
+                    int first = ThreadLocalRandom.current().nextInt(accounts.length);
+                    int second = (first + 1 + ThreadLocalRandom.current().nextInt(accounts.length - 1)) % accounts.length;
+                    final TransferBatch batch = new TransferBatch(2, true);
+                    batch.set(0, accounts[first], accounts[second], Money.of(2));
+                    batch.set(1, accounts[second], accounts[(second + 1) % accounts.length], Money.of(1));
+                    transferEngine.transfer(batch);
+                }
+                return null;
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (Account account : accounts) {
+            Assert.assertTrue(account.getBalance() >= 0);
+            Assert.assertTrue(account.getState() instanceof AccountState);
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(1000), total);
+    }
+}
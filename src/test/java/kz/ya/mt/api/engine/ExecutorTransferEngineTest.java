@@ -0,0 +1,86 @@
+package kz.ya.mt.api.engine;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class ExecutorTransferEngineTest {
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        // reset singleton before each test
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @Test
+    public void shouldTransferOnExecutor() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(5));
+
+        try (ExecutorTransferEngine transferEngine = new ExecutorTransferEngine(
+                new LockingTransferEngine(), Executors.newCachedThreadPool())) {
+            transferEngine.transferAsync(acc1, acc2, Money.of(3)).get(5, TimeUnit.SECONDS);
+            try {
+                transferEngine.transferAsync(acc2, acc1, Money.of(100)).get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected NotEnoughFundsException");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof NotEnoughFundsException);
+            }
+        }
+
+        Assert.assertEquals(Money.of(7), acc1.getBalance());
+        Assert.assertEquals(Money.of(8), acc2.getBalance());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAsyncEngine() {
+        try (AsyncLockingTransferEngine async = new AsyncLockingTransferEngine(1)) {
+            new ExecutorTransferEngine(async, Executors.newCachedThreadPool());
+        }
+    }
+
+    @Test
+    public void shouldTransferOnVirtualThreads() throws Exception {
+        final ExecutorService executor;
+        try {
+            executor = ExecutorTransferEngine.newVirtualThreadPerTaskExecutor();
+        } catch (UnsupportedOperationException ex) {
+            Assume.assumeNoException(ex);
+            return;
+        }
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10_000));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        try (ExecutorTransferEngine transferEngine = new ExecutorTransferEngine(new LockingTransferEngine(), executor)) {
+            final List<CompletableFuture<Void>> results = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                results.add(transferEngine.transferAsync(acc1, acc2, Money.of(1)));
+            }
+            for (CompletableFuture<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(10_000), acc2.getBalance());
+    }
+}
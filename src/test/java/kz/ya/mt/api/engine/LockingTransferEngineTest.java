@@ -0,0 +1,161 @@
+package kz.ya.mt.api.engine;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class LockingTransferEngineTest {
+
+    private final LockingTransferEngine transferEngine = new LockingTransferEngine();
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        // reset singleton before each test
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @Test
+    public void shouldApplyAtomicBatchInOrder() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+        final Account acc3 = AccountDao.getInstance().create(Money.of(0));
+
+        // the second transfer is only possible after the first one
+        final TransferBatch batch = new TransferBatch(2, true);
+        batch.set(0, acc1, acc2, Money.of(10));
+        batch.set(1, acc2, acc3, Money.of(10));
+        transferEngine.transfer(batch);
+
+        Assert.assertFalse(batch.isFailed());
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
+        Assert.assertEquals(Money.of(10), acc3.getBalance());
+    }
+
+    @Test
+    public void shouldNotApplyAnythingWhenAtomicBatchFails() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        final TransferBatch batch = new TransferBatch(2, true);
+        batch.set(0, acc1, acc2, Money.of(5));
+        batch.set(1, acc1, acc2, Money.of(6));
+        transferEngine.transfer(batch);
+
+        Assert.assertTrue(batch.isFailed());
+        Assert.assertNull(batch.getFailure(0));
+        Assert.assertTrue(batch.getFailure(1) instanceof NotEnoughFundsException);
+        Assert.assertEquals(Money.of(10), acc1.getBalance());
+        Assert.assertEquals(Money.of(0), acc2.getBalance());
+    }
+
+    @Test
+    public void shouldApplyBestEffortBatchPartially() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        final TransferBatch batch = new TransferBatch(3, false);
+        batch.set(0, acc1, acc2, Money.of(5));
+        batch.set(1, acc1, acc2, Money.of(6));
+        batch.set(2, acc1, acc2, Money.of(5));
+        transferEngine.transfer(batch);
+
+        Assert.assertNull(batch.getFailure(0));
+        Assert.assertTrue(batch.getFailure(1) instanceof NotEnoughFundsException);
+        Assert.assertNull(batch.getFailure(2));
+        Assert.assertEquals(Money.of(0), acc1.getBalance());
+        Assert.assertEquals(Money.of(10), acc2.getBalance());
+    }
+
+    @Test
+    public void shouldNotDeadlockWithCrossingTransfers() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(100_000));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(100_000));
+        final Account acc3 = AccountDao.getInstance().create(Money.of(100_000));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        executorService.submit(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                final TransferBatch batch = new TransferBatch(2, true);
+                batch.set(0, acc3, acc2, Money.of(1));
+                batch.set(1, acc2, acc1, Money.of(1));
+                transferEngine.transfer(batch);
+            }
+            return null;
+        });
+        executorService.submit(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                transferEngine.transfer(acc1, acc3, Money.of(1));
+            }
+            return null;
+        });
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(Money.of(100_000), acc1.getBalance());
+        Assert.assertEquals(Money.of(100_000), acc2.getBalance());
+        Assert.assertEquals(Money.of(100_000), acc3.getBalance());
+    }
+
+    @Test
+    public void shouldStripeHotReceiver() throws Exception {
+        final LockingTransferEngine stripingEngine = new LockingTransferEngine(1, 4);
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        // the deposit waits for the receiver once, which makes it hot
+        acc2.getLock().lock();
+        final Thread contended = new Thread(() -> {
+            try {
+                stripingEngine.transfer(acc1, acc2, Money.of(1));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            contended.start();
+            contended.join(100);
+        } finally {
+            acc2.getLock().unlock();
+        }
+        contended.join();
+        Assert.assertTrue(acc2.isStriped());
+        Assert.assertEquals(1, acc2.getContendedDeposits());
+
+        // from now on deposits don't need the receiver lock
+        acc2.getLock().lock();
+        try {
+            final Thread deposit = new Thread(() -> {
+                try {
+                    stripingEngine.transfer(acc1, acc2, Money.of(2));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            deposit.start();
+            deposit.join(5_000);
+            Assert.assertFalse(deposit.isAlive());
+        } finally {
+            acc2.getLock().unlock();
+        }
+
+        stripingEngine.transfer(acc2, acc1, Money.of(1));
+        Assert.assertEquals(Money.of(8), acc1.getBalance());
+        Assert.assertEquals(Money.of(2), acc2.getBalance());
+        Assert.assertEquals(3, acc2.getVersion());
+    }
+}
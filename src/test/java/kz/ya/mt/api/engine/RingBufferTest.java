@@ -0,0 +1,72 @@
+package kz.ya.mt.api.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class RingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        Assert.assertEquals(1, new RingBuffer<>(1).capacity());
+        Assert.assertEquals(8, new RingBuffer<>(5).capacity());
+        Assert.assertEquals(16, new RingBuffer<>(16).capacity());
+    }
+
+    @Test
+    public void shouldRejectWhenFull() {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(2);
+
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertTrue(buffer.offer(1));
+        Assert.assertTrue(buffer.offer(2));
+        Assert.assertFalse(buffer.offer(3));
+
+        Assert.assertEquals(Integer.valueOf(1), buffer.poll());
+        Assert.assertTrue(buffer.offer(3));
+        Assert.assertEquals(Integer.valueOf(2), buffer.poll());
+        Assert.assertEquals(Integer.valueOf(3), buffer.poll());
+        Assert.assertNull(buffer.poll());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void shouldDeliverEveryElementFromManyProducers() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        final int producers = 4;
+        final int perProducer = 10_000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(producers);
+        for (int i = 0; i < producers; i++) {
+            executorService.submit(() -> {
+                for (int j = 1; j <= perProducer; j++) {
+                    while (!buffer.offer(j)) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+
+        long sum = 0;
+        for (int received = 0; received < producers * perProducer;) {
+            final Integer element = buffer.poll();
+            if (element != null) {
+                sum += element;
+                received++;
+            } else {
+                Thread.yield();
+            }
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum);
+        Assert.assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,295 @@
+package kz.ya.mt.api.engine;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.BalanceOverflowException;
+import kz.ya.mt.api.exception.NotEnoughFundsException;
+import kz.ya.mt.api.journal.Snapshot;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class ShardedTransferEngineTest {
+
+    private static final int NUMBER_OF_SHARDS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShardedTransferEngine transferEngine;
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        transferEngine = new ShardedTransferEngine(NUMBER_OF_SHARDS, 16);
+
+        // reset singleton before each test
+        resetDao();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transferEngine.close();
+        AccountDao.getInstance().closeJournal();
+    }
+
+    @Test
+    public void shouldTransfer() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(5));
+
+        transferEngine.transferAsync(acc1, acc2, Money.of(3)).get(5, TimeUnit.SECONDS);
+        transferEngine.transfer(acc2, acc1, Money.of(1));
+
+        Assert.assertEquals(Money.of(8), acc1.getBalance());
+        Assert.assertEquals(Money.of(7), acc2.getBalance());
+    }
+
+    @Test(expected = NotEnoughFundsException.class)
+    public void shouldThrowNotEnoughFundsException() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(1));
+        final Account acc2 = AccountDao.getInstance().create(Money.of(0));
+
+        try {
+            transferEngine.transfer(acc1, acc2, Money.of(10));
+        } finally {
+            Assert.assertEquals(Money.of(1), acc1.getBalance());
+            Assert.assertEquals(1, acc1.getFailCount());
+        }
+    }
+
+    @Test
+    public void shouldRefundSenderWhenReceiverOverflows() throws Exception {
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        final Account acc2 = AccountDao.getInstance().create(Long.MAX_VALUE);
+
+        try {
+            transferEngine.transferAsync(acc1, acc2, Money.of(1)).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected BalanceOverflowException");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof BalanceOverflowException);
+        }
+
+        Assert.assertEquals(Money.of(10), acc1.getBalance());
+        Assert.assertEquals(Long.MAX_VALUE, acc2.getBalance());
+    }
+
+    @Test
+    public void shouldConserveMoneyAcrossShards() throws Exception {
+        final Account[] accounts = new Account[20];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create(Money.of(100));
+        }
+
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            int from = ThreadLocalRandom.current().nextInt(accounts.length);
+            int to = (from + 1 + ThreadLocalRandom.current().nextInt(accounts.length - 1)) % accounts.length;
+            results.add(transferEngine.transferAsync(accounts[from], accounts[to], Money.of(1)));
+        }
+        for (CompletableFuture<Void> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof NotEnoughFundsException);
+            }
+        }
+
+        long total = 0;
+        for (Account account : accounts) {
+            Assert.assertTrue(account.getBalance() >= 0);
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(2000), total);
+    }
+
+    @Test
+    public void shouldApplyAtomicBatchAcrossShards() throws Exception {
+        final Account[] accounts = new Account[20];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create(Money.of(100));
+        }
+
+        // transfers of other requests keep running on the shards meanwhile
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            results.add(transferEngine.transferAsync(accounts[i % 10], accounts[(i + 1) % 10], Money.of(1)));
+        }
+        for (int i = 10; i < accounts.length - 1; i++) {
+            final TransferBatch batch = new TransferBatch(2, true);
+            batch.set(0, accounts[i], accounts[i + 1], Money.of(100));
+            batch.set(1, accounts[i + 1], accounts[i % 10], Money.of(100));
+            transferEngine.transfer(batch);
+            Assert.assertFalse(batch.isFailed());
+        }
+        final TransferBatch failing = new TransferBatch(2, true);
+        failing.set(0, accounts[19], accounts[10], Money.of(50));
+        failing.set(1, accounts[10], accounts[11], Money.of(51));
+        transferEngine.transfer(failing);
+        Assert.assertTrue(failing.getFailure(1) instanceof NotEnoughFundsException);
+
+        for (CompletableFuture<Void> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(Money.of(0), accounts[10].getBalance());
+        Assert.assertEquals(Money.of(100), accounts[19].getBalance());
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(2000), total);
+    }
+
+    @Test
+    public void shouldRedoCreditCutOffFromJournal() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        AccountDao.getInstance().openJournal(directory, 0, 1 << 20);
+        final Account acc1 = AccountDao.getInstance().create(Money.of(10));
+        Account acc2;
+        do {
+            acc2 = AccountDao.getInstance().create(Money.of(5));
+        } while (transferEngine.indexOf(acc2) == transferEngine.indexOf(acc1));
+
+        transferEngine.transferAsync(acc1, acc2, Money.of(3)).get(5, TimeUnit.SECONDS);
+        transferEngine.close();
+        AccountDao.getInstance().closeJournal();
+
+        // crash after the debit on the sender shard, before the credit on the receiver one
+        cutLastFrame(directory);
+        resetDao();
+        AccountDao.getInstance().openJournal(directory, 0, 1 << 20);
+        Assert.assertEquals(Money.of(7), AccountDao.getInstance().get(acc1.getNumber()).get().getBalance());
+        Assert.assertEquals(Money.of(5), AccountDao.getInstance().get(acc2.getNumber()).get().getBalance());
+
+        Assert.assertEquals(1, AccountDao.getInstance().settleOwed());
+        Assert.assertEquals(Money.of(8), AccountDao.getInstance().get(acc2.getNumber()).get().getBalance());
+
+        // the redone credit is settled in the journal
+        AccountDao.getInstance().closeJournal();
+        resetDao();
+        AccountDao.getInstance().openJournal(directory, 0, 1 << 20);
+        Assert.assertEquals(0, AccountDao.getInstance().settleOwed());
+        Assert.assertEquals(Money.of(7), AccountDao.getInstance().get(acc1.getNumber()).get().getBalance());
+        Assert.assertEquals(Money.of(8), AccountDao.getInstance().get(acc2.getNumber()).get().getBalance());
+    }
+
+    @Test
+    public void shouldSnapshotNoMoneyInFlight() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        AccountDao.getInstance().openJournal(directory, 0, 1 << 20);
+        AccountDao.getInstance().setWriters(transferEngine);
+        final Account[] accounts = new Account[20];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create(Money.of(100));
+        }
+
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 2000; i++) {
+                int from = ThreadLocalRandom.current().nextInt(accounts.length);
+                int to = (from + 1 + ThreadLocalRandom.current().nextInt(accounts.length - 1)) % accounts.length;
+                results.add(transferEngine.transferAsync(accounts[from], accounts[to], Money.of(1)));
+            }
+            // taken while the transfers above are running
+            AccountDao.getInstance().snapshot();
+            final LongAdder total = new LongAdder();
+            Snapshot.load(Snapshot.latest(directory).get(), 1, account -> total.add(account.getBalance()));
+            Assert.assertEquals(Money.of(2000), total.sum());
+        }
+        for (CompletableFuture<Void> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof NotEnoughFundsException);
+            }
+        }
+        transferEngine.close();
+        AccountDao.getInstance().closeJournal();
+
+        resetDao();
+        AccountDao.getInstance().openJournal(directory, 0, 1 << 20);
+        Assert.assertEquals(0, AccountDao.getInstance().settleOwed());
+        for (Account account : accounts) {
+            Assert.assertEquals(account.getBalance(),
+                    AccountDao.getInstance().get(account.getNumber()).get().getBalance());
+        }
+    }
+
+    @Test
+    public void shouldFinishTransfersInFlightOnClose() throws Exception {
+        final Account[] accounts = new Account[20];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDao.getInstance().create(Money.of(100));
+        }
+
+        final List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            results.add(transferEngine.transferAsync(accounts[i % accounts.length],
+                    accounts[(i + 1) % accounts.length], Money.of(1)));
+        }
+        transferEngine.close();
+
+        for (CompletableFuture<Void> result : results) {
+            Assert.assertTrue(result.isDone());
+        }
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalance();
+        }
+        Assert.assertEquals(Money.of(2000), total);
+        try {
+            transferEngine.transferAsync(accounts[0], accounts[1], Money.of(1));
+            Assert.fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException ex) {
+            // nothing is taken after close
+        }
+    }
+
+    private static void resetDao() throws NoSuchFieldException, IllegalAccessException {
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    /**
+     * Truncate the only journal segment before its last frame.
+     */
+    private static void cutLastFrame(Path directory) throws IOException {
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".log")).findFirst().get();
+        }
+        final ByteBuffer frames = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int last = 0;
+        while (frames.remaining() >= 8 && frames.getInt(frames.position()) > 0) {
+            last = frames.position();
+            frames.position(last + 8 + frames.getInt(last));
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(last);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package kz.ya.mt.api.importer;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.model.ImportResponse;
+import kz.ya.mt.api.model.Money;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class AccountImporterTest {
+
+    private final AccountImporter importer = new AccountImporter(2, 10);
+
+    @Before
+    public void setUp() throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        // reset singleton before each test
+        Field instance = AccountDao.class.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @Test
+    public void shouldImportNdjsonAndReportFailedLines() throws Exception {
+        final StringBuilder input = new StringBuilder()
+                .append("{\"number\": \"acc-1\", \"balance\": \"10.50\"}\n")
+                .append("\n")
+                .append("{\"number\": \"acc-1\", \"balance\": 1}\n")
+                .append("{\"balance\": 7, \"source\": {\"id\": 3}}\r\n")
+                .append("{\"number\": \"acc-2\", \"balance\": \"-1\"}\n")
+                .append("{\"number\": \"acc-3\"\n")
+                .append("{\"number\": \"");
+        for (int i = 0; i < 5000; i++) {
+            input.append('x');
+        }
+        input.append("\"}\n{\"number\": \"acc-4\", \"balance\": \"1.5\"}");
+
+        final ImportResponse response = importer.importFrom(stream(input.toString()),
+                AccountImporter.Format.NDJSON, 0);
+
+        Assert.assertEquals(3, response.getImported());
+        Assert.assertEquals(4, response.getFailed());
+        Assert.assertEquals(4, response.getErrors().size());
+        Assert.assertEquals(3, response.getErrors().get(0).getLine());
+        Assert.assertTrue(response.getErrors().get(0).getError().contains("acc-1"));
+        Assert.assertEquals(5, response.getErrors().get(1).getLine());
+        Assert.assertEquals(6, response.getErrors().get(2).getLine());
+        Assert.assertEquals(7, response.getErrors().get(3).getLine());
+        Assert.assertEquals(Money.parse("10.50"), AccountDao.getInstance().get("acc-1").get().getBalance());
+        Assert.assertEquals(Money.parse("1.50"), AccountDao.getInstance().get("acc-4").get().getBalance());
+    }
+
+    @Test
+    public void shouldImportCsvAcrossBatches() throws Exception {
+        final int accounts = 20_000;
+        final StringBuilder input = new StringBuilder("number,balance\n");
+        for (int i = 0; i < accounts; i++) {
+            input.append("acc-").append(i).append(", ").append(i % 100).append(".25\n");
+        }
+        input.append("acc-5,1\n");
+        input.append(",3\n");
+
+        final ImportResponse response = importer.importFrom(stream(input.toString()),
+                AccountImporter.Format.CSV, accounts);
+
+        Assert.assertEquals(accounts + 1, response.getImported());
+        Assert.assertEquals(1, response.getFailed());
+        Assert.assertEquals(accounts + 2, response.getErrors().get(0).getLine());
+        Assert.assertEquals(Money.parse("42.25"), AccountDao.getInstance().get("acc-19942").get().getBalance());
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            total += AccountDao.getInstance().get("acc-" + i).get().getBalance();
+        }
+        Assert.assertEquals(accounts / 100 * Money.parse("4975.00"), total);
+    }
+
+    @Test
+    public void shouldKeepOnlyFirstErrors() throws Exception {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            input.append("acc-").append(i).append(",abc\n");
+        }
+
+        final ImportResponse response = importer.importFrom(stream(input.toString()),
+                AccountImporter.Format.CSV, 0);
+
+        Assert.assertEquals(0, response.getImported());
+        Assert.assertEquals(100, response.getFailed());
+        Assert.assertEquals(10, response.getErrors().size());
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
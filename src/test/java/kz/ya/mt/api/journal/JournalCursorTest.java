@@ -0,0 +1,95 @@
+package kz.ya.mt.api.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class JournalCursorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadWholeFramesAcrossSegments() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final Numbers numbers = new Numbers();
+        try (Journal journal = Journal.open(directory, 0, 0, 100, numbers)) {
+            for (int i = 0; i < 20; i++) {
+                journal.create("acc-" + i, i, i);
+                // every fsync may start another segment
+                journal.awaitDurable();
+            }
+            Assert.assertTrue(Journal.segments(directory).size() > 1);
+
+            try (JournalCursor cursor = JournalCursor.open(directory, 0)) {
+                // smaller than a frame, every frame is read alone
+                final ByteBuffer buffer = ByteBuffer.allocate(16);
+                while (cursor.getPosition() < journal.getDurablePosition()) {
+                    final ByteBuffer frames = cursor.read(buffer, journal.getDurablePosition());
+                    Assert.assertEquals(frames.remaining(), Journal.replay(frames.duplicate(), numbers));
+                }
+                Assert.assertEquals(journal.getDurablePosition(), cursor.getPosition());
+                Assert.assertFalse(cursor.read(buffer, journal.getDurablePosition()).hasRemaining());
+            }
+        }
+        Assert.assertEquals(20, numbers.created.size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("acc-" + i, numbers.created.get(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotOpenCompactedPosition() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (Journal journal = Journal.open(directory, 0, 0, 100, new Numbers())) {
+            for (int i = 0; i < 20; i++) {
+                journal.create("acc-" + i, i, i);
+                journal.awaitDurable();
+            }
+            journal.deleteSegmentsBefore(journal.getDurablePosition());
+            Assert.assertTrue(journal.getFirstPosition() > 0);
+
+            JournalCursor.open(directory, 0);
+        }
+    }
+
+    private static final class Numbers implements Journal.Handler {
+
+        final List<String> created = new ArrayList<>();
+
+        @Override
+        public void created(String number, long balance, long timestamp) {
+            created.add(number);
+        }
+
+        @Override
+        public void updated(String number, long balance, long version, long timestamp) {
+        }
+
+        @Override
+        public void deleted(String number) {
+        }
+
+        @Override
+        public void cleared() {
+        }
+
+        @Override
+        public void owed(long id, String fromNumber, String toNumber, long amount, long timestamp) {
+        }
+
+        @Override
+        public void settled(long id) {
+        }
+    }
+}
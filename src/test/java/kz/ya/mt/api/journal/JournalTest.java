@@ -0,0 +1,276 @@
+package kz.ya.mt.api.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.exception.JournalException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayRecordsInOrder() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (Journal journal = Journal.open(directory, 0, 0, 1 << 20, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            journal.create("счёт-2", 0, 2);
+            journal.update("acc-1", 70, 1, 3);
+            journal.update("счёт-2", 30, 1, 3);
+            journal.update("acc-1", 80, 2, 5);
+            journal.owe(1, "acc-1", "счёт-2", 10, 6);
+            journal.settle(1);
+            journal.delete("acc-1");
+            journal.clear();
+            journal.awaitDurable();
+            Assert.assertEquals(Files.size(Journal.segmentPath(directory, 0)), journal.getDurablePosition());
+        }
+
+        final Recorder recorder = new Recorder();
+        Journal.open(directory, 0, 0, 1 << 20, recorder).close();
+
+        Assert.assertEquals(9, recorder.records.size());
+        Assert.assertEquals("created acc-1 100 1", recorder.records.get(0));
+        Assert.assertEquals("created счёт-2 0 2", recorder.records.get(1));
+        Assert.assertEquals("updated acc-1 70 1 3", recorder.records.get(2));
+        Assert.assertEquals("updated счёт-2 30 1 3", recorder.records.get(3));
+        Assert.assertEquals("updated acc-1 80 2 5", recorder.records.get(4));
+        Assert.assertEquals("owed 1 acc-1 счёт-2 10 6", recorder.records.get(5));
+        Assert.assertEquals("settled 1", recorder.records.get(6));
+        Assert.assertEquals("deleted acc-1", recorder.records.get(7));
+        Assert.assertEquals("cleared", recorder.records.get(8));
+    }
+
+    @Test
+    public void shouldCutOffTornFrame() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (Journal journal = Journal.open(directory, 0, 0, 1 << 20, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            journal.update("acc-1", 90, 1, 2);
+            journal.awaitDurable();
+        }
+        final Path segment = Journal.segmentPath(directory, 0);
+        final long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // crash in the middle of the last frame
+            channel.truncate(size - 3);
+        }
+
+        final Recorder recorder = new Recorder();
+        try (Journal journal = Journal.open(directory, 0, 0, 1 << 20, recorder)) {
+            Assert.assertEquals(1, recorder.records.size());
+            journal.update("acc-1", 105, 1, 3);
+            journal.awaitDurable();
+        }
+
+        final Recorder restarted = new Recorder();
+        Journal.open(directory, 0, 0, 1 << 20, restarted).close();
+        Assert.assertEquals(2, restarted.records.size());
+        Assert.assertEquals("updated acc-1 105 1 3", restarted.records.get(1));
+    }
+
+    @Test
+    public void shouldReplayFrameCompletelyOrNotAtAll() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (Journal journal = Journal.open(directory, 0, 0, 1 << 20, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            journal.beginFrame();
+            journal.update("acc-1", 90, 1, 2);
+            journal.update("acc-2", 10, 1, 2);
+            journal.commitFrame();
+            journal.awaitDurable();
+        }
+        final Path segment = Journal.segmentPath(directory, 0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 1);
+        }
+
+        final Recorder recorder = new Recorder();
+        Journal.open(directory, 0, 0, 1 << 20, recorder).close();
+        Assert.assertEquals(1, recorder.records.size());
+    }
+
+    @Test
+    public void shouldRollSegmentsAndReplayAll() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (Journal journal = Journal.open(directory, 0, 0, 64, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            for (int i = 1; i <= 10; i++) {
+                journal.update("acc-1", 100 - i, i, 2);
+                journal.awaitDurable();
+            }
+        }
+        Assert.assertTrue(Journal.segments(directory).size() > 1);
+
+        final Recorder recorder = new Recorder();
+        Journal.open(directory, 0, 0, 64, recorder).close();
+        Assert.assertEquals(11, recorder.records.size());
+    }
+
+    @Test
+    public void shouldReplayFromPositionAfterDeletedSegments() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final long position;
+        try (Journal journal = Journal.open(directory, 0, 0, 64, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            for (int i = 1; i <= 5; i++) {
+                journal.update("acc-1", 100 - i, i, 2);
+            }
+            journal.awaitDurable();
+            position = journal.getAppendedPosition();
+            journal.update("acc-1", 50, 6, 3);
+            journal.awaitDurable();
+            journal.deleteSegmentsBefore(position);
+        }
+        Assert.assertTrue(Journal.startOf(Journal.segments(directory).get(0)) > 0);
+
+        final Recorder recorder = new Recorder();
+        Journal.open(directory, position, 0, 64, recorder).close();
+        Assert.assertEquals(1, recorder.records.size());
+        Assert.assertEquals("updated acc-1 50 6 3", recorder.records.get(0));
+    }
+
+    @Test
+    public void shouldGroupConcurrentAppends() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final int threads = 4;
+        final int perThread = 500;
+        try (Journal journal = Journal.open(directory, 0, 1000, 1 << 20, new Recorder())) {
+            ExecutorService executorService = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                executorService.submit(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        journal.update("acc-1", j, j, j);
+                        journal.awaitDurable();
+                    }
+                    return null;
+                });
+            }
+            executorService.shutdown();
+            Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        final Recorder recorder = new Recorder();
+        Journal.open(directory, 0, 0, 1 << 20, recorder).close();
+        Assert.assertEquals(threads * perThread, recorder.records.size());
+    }
+
+    @Test
+    public void shouldCompleteFutureWhenDurable() throws Exception {
+        try (Journal journal = Journal.open(folder.getRoot().toPath(), 0, 1000, 1 << 20, new Recorder())) {
+            journal.create("acc-1", 100, 1);
+            journal.whenDurable().get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(journal.getDurablePosition() > 0);
+        }
+    }
+
+    @Test
+    public void shouldRunActionBeforeWritingFrames() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final Path segment = Journal.segmentPath(directory, 0);
+        final List<Long> sizes = new CopyOnWriteArrayList<>();
+        try (Journal journal = Journal.open(directory, 0, 0, 1 << 20, new Recorder())) {
+            journal.setBeforeWrite(() -> {
+                try {
+                    sizes.add(Files.size(segment));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            journal.create("acc-1", 100, 1);
+            journal.awaitDurable();
+            journal.update("acc-1", 70, 1, 2);
+            journal.awaitDurable();
+
+            Assert.assertEquals(2, sizes.size());
+            Assert.assertEquals(0, (long) sizes.get(0));
+            Assert.assertTrue(sizes.get(1) > 0 && sizes.get(1) < Files.size(segment));
+        }
+    }
+
+    @Test
+    public void shouldFailWaitersAndAppendsAfterWriteFailure() throws Exception {
+        try (Journal journal = Journal.open(folder.getRoot().toPath(), 0, 0, 1 << 20, new Recorder())) {
+            // the flusher can't write to a closed segment
+            final Field segment = Journal.class.getDeclaredField("segment");
+            segment.setAccessible(true);
+            ((FileChannel) segment.get(journal)).close();
+
+            journal.create("acc-1", 100, 1);
+            try {
+                journal.awaitDurable();
+                Assert.fail("Expected JournalException");
+            } catch (JournalException ex) {
+                // the write has failed
+            }
+            try {
+                // the waiter is added after the flusher has stopped
+                journal.whenDurable().get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected ExecutionException");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof JournalException);
+            }
+            try {
+                journal.create("acc-2", 100, 1);
+                Assert.fail("Expected JournalException");
+            } catch (JournalException ex) {
+                // nothing is buffered after the failure
+            }
+        }
+    }
+
+    private static final class Recorder implements Journal.Handler {
+
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void created(String number, long balance, long timestamp) {
+            records.add("created " + number + " " + balance + " " + timestamp);
+        }
+
+        @Override
+        public void updated(String number, long balance, long version, long timestamp) {
+            records.add("updated " + number + " " + balance + " " + version + " " + timestamp);
+        }
+
+        @Override
+        public void deleted(String number) {
+            records.add("deleted " + number);
+        }
+
+        @Override
+        public void cleared() {
+            records.add("cleared");
+        }
+
+        @Override
+        public void owed(long id, String fromNumber, String toNumber, long amount, long timestamp) {
+            records.add("owed " + id + " " + fromNumber + " " + toNumber + " " + amount + " " + timestamp);
+        }
+
+        @Override
+        public void settled(long id) {
+            records.add("settled " + id);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package kz.ya.mt.api.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import kz.ya.mt.api.model.Account;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldLoadAllChunksInParallel() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            accounts.add(new Account("acc-" + i, i, 1000 + i, 2000 + i, i % 7));
+        }
+
+        final Path file = Snapshot.write(directory, 42, accounts);
+        Assert.assertFalse(Snapshot.latest(directory).isPresent());
+        Snapshot.publish(file);
+
+        final Map<String, Account> loaded = new ConcurrentHashMap<>();
+        final long position = Snapshot.load(Snapshot.latest(directory).get(), 4,
+                account -> loaded.put(account.getNumber(), account));
+
+        Assert.assertEquals(42, position);
+        Assert.assertEquals(accounts.size(), loaded.size());
+        final Account account = loaded.get("acc-12345");
+        Assert.assertEquals(12345, account.getBalance());
+        Assert.assertEquals(12345 % 7, account.getVersion());
+        Assert.assertEquals(1000 + 12345, account.getCreatedAtMillis());
+        Assert.assertEquals(2000 + 12345, account.getModifiedAtMillis());
+    }
+
+    @Test
+    public void shouldKeepOnlyLatestSnapshot() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account("acc-1", 10));
+
+        Snapshot.publish(Snapshot.write(directory, 10, accounts));
+        final Path latest = Snapshot.publish(Snapshot.write(directory, 20, accounts));
+        Snapshot.write(directory, 30, accounts);
+        Snapshot.deleteBefore(directory, 20);
+
+        Assert.assertEquals(latest, Snapshot.latest(directory).get());
+        Assert.assertEquals(1, Files.list(directory).count());
+    }
+
+    @Test
+    public void shouldRejectCorruptedChunk() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            accounts.add(new Account("acc-" + i, i));
+        }
+        final Path file = Snapshot.write(directory, 42, accounts);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // a length which runs into the chunk table
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), 0);
+        }
+        try {
+            Snapshot.load(file, 2, account -> { });
+            Assert.fail("Expected IOException");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("corrupted chunk"));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package kz.ya.mt.api.json;
+
+import java.nio.charset.StandardCharsets;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.MalformedJsonException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+import kz.ya.mt.api.model.Money;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class TransferJsonReaderTest {
+
+    @Test
+    public void shouldReadTransfer() {
+        final TransferJsonReader.Transfers transfers = TransferJsonReader.readTransfer(bytes(
+                " {\"amount\": 10.5, \"note\": {\"tags\": [1, \"x\", null, true]},"
+                + " \"fromAccountNo\": \"a\\\"b\\u0041\", \"toAccountNo\": \"счёт\"} "));
+
+        Assert.assertEquals(1, transfers.size());
+        Assert.assertEquals("a\"bA", transfers.getFromAccountNo(0));
+        Assert.assertEquals("счёт", transfers.getToAccountNo(0));
+        Assert.assertEquals(Money.parse("10.50"), transfers.getAmount(0));
+    }
+
+    @Test
+    public void shouldKeepAmountFailuresPerTransfer() {
+        final TransferJsonReader.Transfers transfers = TransferJsonReader.readBatch(bytes(
+                "{\"transfers\": [{\"fromAccountNo\": \"a\", \"toAccountNo\": \"b\", \"amount\": \"1.234\"},"
+                + " {\"fromAccountNo\": \"a\", \"toAccountNo\": \"b\"},"
+                + " null,"
+                + " {\"amount\": \"7\"}], \"atomic\": false}"));
+
+        Assert.assertFalse(transfers.isAtomic());
+        Assert.assertEquals(4, transfers.size());
+        try {
+            transfers.getAmount(0);
+            Assert.fail();
+        } catch (InvalidAmountException ex) {
+            // expected
+        }
+        try {
+            transfers.getAmount(1);
+            Assert.fail();
+        } catch (NullInputAmountException ex) {
+            // expected
+        }
+        Assert.assertNull(transfers.getFromAccountNo(2));
+        Assert.assertNull(transfers.getToAccountNo(3));
+        Assert.assertEquals(Money.of(7), transfers.getAmount(3));
+    }
+
+    @Test
+    public void shouldReadEmptyBatch() {
+        Assert.assertEquals(0, TransferJsonReader.readBatch(bytes("{}")).size());
+        Assert.assertTrue(TransferJsonReader.readBatch(bytes("{\"transfers\": []}")).isAtomic());
+    }
+
+    @Test
+    public void shouldRejectMalformedInput() {
+        final String[] inputs = {
+            "",
+            "{",
+            "{\"fromAccountNo\": \"a\"",
+            "{\"fromAccountNo\": \"a}",
+            "{\"fromAccountNo\": 1}",
+            "{\"amount\": true}",
+            "{\"fromAccountNo\": \"a\",}",
+            "{} {}",
+            "{\"fromAccountNo\": \"\\x\"}",
+            "{\"note\": [[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[]]]}"
+        };
+        for (String input : inputs) {
+            try {
+                TransferJsonReader.readTransfer(bytes(input));
+                Assert.fail(input);
+            } catch (MalformedJsonException ex) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
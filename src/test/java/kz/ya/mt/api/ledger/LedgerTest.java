@@ -0,0 +1,119 @@
+package kz.ya.mt.api.ledger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class LedgerTest {
+
+    @Test
+    public void shouldPageHistoryNewestFirst() {
+        final Ledger ledger = new Ledger();
+        for (int i = 0; i < 10; i++) {
+            ledger.append("acc-1", "acc-2", i + 1, 1000 + i);
+        }
+        ledger.append("acc-3", "acc-2", 100, 2000);
+
+        final Ledger.Page first = ledger.page("acc-1", -1, 4);
+        Assert.assertEquals(4, first.getEntries().size());
+        Assert.assertEquals(10, first.getEntries().get(0).getAmount());
+        Assert.assertEquals(1009, first.getEntries().get(0).getTimestamp());
+        Assert.assertEquals(6, first.getNext());
+
+        // appends don't shift the following pages
+        ledger.append("acc-1", "acc-3", 50, 3000);
+        final Ledger.Page second = ledger.page("acc-1", first.getNext(), 4);
+        Assert.assertEquals(6, second.getEntries().get(0).getAmount());
+        final Ledger.Page last = ledger.page("acc-1", second.getNext(), 4);
+        Assert.assertEquals(2, last.getEntries().size());
+        Assert.assertEquals(1, last.getEntries().get(1).getAmount());
+        Assert.assertEquals(-1, last.getNext());
+
+        Assert.assertEquals("acc-3", ledger.page("acc-2", -1, 1).getEntries().get(0).getFromAccountNo());
+        Assert.assertTrue(ledger.page("acc-4", -1, 10).getEntries().isEmpty());
+    }
+
+    @Test
+    public void shouldKeepLongHistoriesAcrossChunks() {
+        final Ledger ledger = new Ledger();
+        final int entries = 40_000;
+        for (int i = 0; i < entries; i++) {
+            ledger.append("acc-1", "acc-" + (2 + i % 100), i, i);
+        }
+
+        Assert.assertEquals(entries, ledger.size("acc-1"));
+        Assert.assertEquals(entries / 100, ledger.size("acc-2"));
+        long before = -1;
+        long expected = entries - 1;
+        do {
+            final Ledger.Page page = ledger.page("acc-1", before, 1000);
+            for (Ledger.Entry entry : page.getEntries()) {
+                Assert.assertEquals(expected--, entry.getAmount());
+            }
+            before = page.getNext();
+        } while (before >= 0);
+        Assert.assertEquals(-1, expected);
+    }
+
+    @Test
+    public void shouldDropEntriesEvictedFromRing() {
+        final Ledger ledger = new Ledger(1 << 14);
+        final int entries = 100_000;
+        for (int i = 0; i < entries; i++) {
+            ledger.append("acc-1", "acc-" + (2 + i % 2), i, i);
+        }
+
+        Assert.assertEquals(entries, ledger.size("acc-1"));
+        int kept = 0;
+        long before = -1;
+        long expected = entries - 1;
+        do {
+            final Ledger.Page page = ledger.page("acc-1", before, 1000);
+            for (Ledger.Entry entry : page.getEntries()) {
+                Assert.assertEquals(expected--, entry.getAmount());
+                kept++;
+            }
+            before = page.getNext();
+        } while (before >= 0);
+        Assert.assertEquals(1 << 14, kept);
+        Assert.assertEquals(entries - 1, ledger.page("acc-3", -1, 1).getEntries().get(0).getId());
+    }
+
+    @Test
+    public void shouldAppendConcurrently() throws Exception {
+        final Ledger ledger = new Ledger();
+        final int threads = 4;
+        final int appends = 20_000;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String own = "own-" + t;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < appends; i++) {
+                    ledger.append(own, "shared", 1, i);
+                    if (i % 100 == 0) {
+                        // readers run alongside the appends
+                        Assert.assertFalse(ledger.page("shared", -1, 10).getEntries().isEmpty());
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        Assert.assertEquals(threads * appends, ledger.size("shared"));
+        for (int t = 0; t < threads; t++) {
+            Assert.assertEquals(appends, ledger.size("own-" + t));
+        }
+    }
+}
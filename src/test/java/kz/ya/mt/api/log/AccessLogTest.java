@@ -0,0 +1,67 @@
+package kz.ya.mt.api.log;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class AccessLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteRecordsInOrder() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("access.log");
+        final AccessLog accessLog = new AccessLog(file, 1 << 20, 2, 1024, 1);
+        for (int i = 0; i < 100; i++) {
+            accessLog.log("POST", "/transfer", 200, i);
+        }
+        accessLog.log("GET", "/accounts/счёт", 404, 7);
+        accessLog.close();
+
+        final List<String> lines = Files.readAllLines(file);
+        Assert.assertEquals(101, lines.size());
+        Assert.assertTrue(lines.get(0).matches("\\d+ POST /transfer 200 0"));
+        Assert.assertTrue(lines.get(99).endsWith(" POST /transfer 200 99"));
+        Assert.assertTrue(lines.get(100).endsWith(" GET /accounts/???? 404 7"));
+    }
+
+    @Test
+    public void shouldRollFileBySize() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("access.log");
+        final AccessLog accessLog = new AccessLog(file, 256, 2, 16, 1);
+        for (int i = 0; i < 50; i++) {
+            accessLog.log("POST", "/transfer", 200, i);
+            // one chunk per record, so every chunk may roll the file
+            Thread.sleep(2);
+        }
+        accessLog.close();
+
+        Assert.assertTrue(Files.exists(file));
+        Assert.assertTrue(Files.exists(file.resolveSibling("access.log.1")));
+        Assert.assertTrue(Files.exists(file.resolveSibling("access.log.2")));
+        Assert.assertFalse(Files.exists(file.resolveSibling("access.log.3")));
+        Assert.assertTrue(Files.size(file) <= 256);
+    }
+
+    @Test
+    public void shouldDropRecordsWhenSampleRateIsZero() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("access.log");
+        final AccessLog accessLog = new AccessLog(file, 1 << 20, 2, 16, 0);
+        for (int i = 0; i < 100; i++) {
+            accessLog.log("POST", "/transfer", 200, i);
+        }
+        accessLog.close();
+
+        Assert.assertEquals(0, Files.size(file));
+        Assert.assertEquals(0, accessLog.getDropped());
+    }
+}
@@ -0,0 +1,52 @@
+package kz.ya.mt.api.metrics;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class ContentionTrackerTest {
+
+    @Test
+    public void shouldIgnoreShortWaits() {
+        final ContentionTracker tracker = new ContentionTracker(10, 8);
+        tracker.record("acc-1", 5_000);
+        tracker.record("acc-1", 10_000);
+
+        Assert.assertTrue(tracker.top(10).isEmpty());
+    }
+
+    @Test
+    public void shouldFindHeavyHittersWithBoundedCounters() {
+        final ContentionTracker tracker = new ContentionTracker(0, 8);
+        for (int i = 0; i < 10_000; i++) {
+            tracker.record("hot-1", 2_000);
+            if (i % 2 == 0) {
+                tracker.record("hot-2", 4_000);
+            }
+            tracker.record("cold-" + ThreadLocalRandom.current().nextInt(1_000), 1_000);
+        }
+
+        final List<ContentionTracker.Entry> top = tracker.top(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("hot-1", top.get(0).getNumber());
+        Assert.assertEquals("hot-2", top.get(1).getNumber());
+        Assert.assertTrue(top.get(0).getWaits() - top.get(0).getOvercount() <= 10_000);
+        Assert.assertTrue(top.get(0).getWaits() >= 10_000);
+        Assert.assertEquals(2_000, top.get(0).getAverageWaitNanos());
+        Assert.assertEquals(4_000, top.get(1).getAverageWaitNanos());
+    }
+
+    @Test
+    public void shouldClearCounters() {
+        final ContentionTracker tracker = new ContentionTracker(0, 8);
+        tracker.record("acc-1", 1_000);
+        tracker.clear();
+
+        Assert.assertTrue(tracker.top(10).isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+package kz.ya.mt.api.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author yerlan.akhmetov
+ */
+public class HistogramTest {
+
+    @Test
+    public void shouldKeepBucketsContiguous() {
+        Assert.assertEquals(0, Histogram.indexOf(0));
+        for (int index = 1; index < Histogram.BUCKETS; index++) {
+            final long lower = Histogram.upperBoundOf(index - 1) + 1;
+            Assert.assertEquals(index, Histogram.indexOf(lower));
+            Assert.assertEquals(index, Histogram.indexOf(Histogram.upperBoundOf(index)));
+        }
+    }
+
+    @Test
+    public void shouldBoundRelativeError() {
+        for (long value = 1; value < 1L << 35; value = value * 3 + 1) {
+            final long upper = Histogram.upperBoundOf(Histogram.indexOf(value));
+            Assert.assertTrue(upper >= value);
+            Assert.assertTrue((upper - value) <= value / 32);
+        }
+    }
+
+    @Test
+    public void shouldCountAndSumRecordedValues() {
+        final Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(1_000_000);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        final long[] counts = histogram.counts();
+        long count = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            count += counts[i];
+        }
+        Assert.assertEquals(4, count);
+        Assert.assertEquals(1, counts[Histogram.BUCKETS - 1]);
+        Assert.assertEquals(10 + 1_000_000 + (1L << 36) - 1, counts[Histogram.BUCKETS]);
+    }
+
+    @Test
+    public void shouldFindValueAtQuantile() {
+        final Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.valueAt(0.99));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        Assert.assertEquals(1000, histogram.count());
+        final long median = histogram.valueAt(0.5);
+        Assert.assertTrue(median >= 500_000 && median <= 500_000 * 1.04);
+        final long p99 = histogram.valueAt(0.99);
+        Assert.assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.04);
+        Assert.assertTrue(histogram.valueAt(1) >= 1_000_000);
+        Assert.assertTrue(histogram.valueAt(0) <= 1000 * 1.04);
+    }
+
+    @Test
+    public void shouldRenderCumulativeBuckets() {
+        Metrics.APPLY.record(1_500);
+        final String text = Metrics.render();
+
+        Assert.assertTrue(text.contains("# TYPE mt_transfer_apply_duration_seconds histogram"));
+        Assert.assertTrue(text.contains("mt_transfer_requests_total{status=\"408\"} 0"));
+        long previous = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("mt_transfer_apply_duration_seconds_bucket")) {
+                final long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                Assert.assertTrue(count >= previous);
+                previous = count;
+            }
+        }
+        Assert.assertTrue(previous >= 1);
+    }
+}
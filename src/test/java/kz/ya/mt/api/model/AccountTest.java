@@ -1,7 +1,7 @@
 package kz.ya.mt.api.model;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import kz.ya.mt.api.exception.BalanceOverflowException;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -13,8 +13,8 @@ public class AccountTest {
 
     @Test
     public void objectsShouldBeEqual() {
-        Account accountOne = new Account("sameNumber", BigDecimal.ONE);
-        Account accountTwo = new Account("sameNumber", BigDecimal.ONE);
+        Account accountOne = new Account("sameNumber", Money.of(1));
+        Account accountTwo = new Account("sameNumber", Money.of(1));
 
         boolean isTheSame = accountOne.equals(accountTwo);
 
@@ -23,7 +23,7 @@ public class AccountTest {
 
     @Test
     public void objectsShouldBeEqualWhenTheyAreTheSameInstance() {
-        Account account = new Account("sameNumber", BigDecimal.ONE);
+        Account account = new Account("sameNumber", Money.of(1));
 
         boolean isTheSame = account.equals(account);
 
@@ -32,7 +32,7 @@ public class AccountTest {
 
     @Test
     public void objectsShouldNotBeEqualWhenOneIsNull() {
-        Account account = new Account("sameNumber", BigDecimal.ONE);
+        Account account = new Account("sameNumber", Money.of(1));
 
         boolean isTheSame = account.equals(null);
 
@@ -41,8 +41,8 @@ public class AccountTest {
 
     @Test
     public void objectsShouldBeInTheSameBucket() {
-        Account accountOne = new Account("sameNumber", BigDecimal.ONE);
-        Account accountTwo = new Account("sameNumber", BigDecimal.ONE);
+        Account accountOne = new Account("sameNumber", Money.of(1));
+        Account accountTwo = new Account("sameNumber", Money.of(1));
 
         boolean isTheSame = accountOne.hashCode() == accountTwo.hashCode();
 
@@ -51,7 +51,7 @@ public class AccountTest {
 
     @Test
     public void shouldNotBeTheSameAsOtherObject() {
-        Account account = new Account("sameNumber", BigDecimal.ONE);
+        Account account = new Account("sameNumber", Money.of(1));
         Object anotherObject = new Object();
 
         boolean isTheSame = account.equals(anotherObject);
@@ -61,8 +61,8 @@ public class AccountTest {
     
     @Test
     public void objectsShouldNotBeEqualWhenNumberIsDifferent() {
-        Account accountOne = new Account("number1", BigDecimal.ONE);
-        Account accountTwo = new Account("number2", BigDecimal.ONE);
+        Account accountOne = new Account("number1", Money.of(1));
+        Account accountTwo = new Account("number2", Money.of(1));
 
         boolean isTheSame = accountOne.equals(accountTwo);
 
@@ -71,8 +71,8 @@ public class AccountTest {
 
     @Test
     public void objectsShouldBeEqualWhenNumberIsSameButBalanceIsDifferent() {
-        Account accountOne = new Account("number1", BigDecimal.ONE);
-        Account accountTwo = new Account("number1", BigDecimal.TEN);
+        Account accountOne = new Account("number1", Money.of(1));
+        Account accountTwo = new Account("number1", Money.of(10));
 
         boolean isTheSame = accountOne.equals(accountTwo);
 
@@ -81,12 +81,12 @@ public class AccountTest {
     
     @Test
     public void objectsShouldNotBeEqualWhenNumberIsSameButCreatedAtIsDifferent() throws Exception {
-        Account accountOne = new Account("number1", BigDecimal.ONE);
+        Account accountOne = new Account("number1", Money.of(1));
         
         // send current thread to sleep for 1 sec, to make the difference in time
         Thread.sleep(1000);
         
-        Account accountTwo = new Account("number1", BigDecimal.TEN);
+        Account accountTwo = new Account("number1", Money.of(10));
 
         boolean isTheSame = accountOne.equals(accountTwo);
 
@@ -95,12 +95,116 @@ public class AccountTest {
     
     @Test
     public void objectsShouldBeEqualWhenNumberIsSameButModifiedAtIsDifferent() {
-        Account accountOne = new Account("number1", BigDecimal.ONE);
-        Account accountTwo = new Account("number1", BigDecimal.TEN);
-        accountTwo.setModifiedAt(LocalDateTime.MIN);
+        Account accountOne = new Account("number1", Money.of(1));
+        Account accountTwo = new Account("number1", Money.of(10));
+        accountTwo.setModifiedAt(0L);
 
         boolean isTheSame = accountOne.equals(accountTwo);
 
         Assert.assertTrue(isTheSame);
     }
+
+    @Test
+    public void shouldReadConsistentStateWhileUpdated() throws Exception {
+        final Account account = new Account("number", 0L, 0L);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread(() -> {
+            for (long i = 1; running.get(); i++) {
+                account.getLock().lock();
+                try {
+                    // balance and timestamp always go together
+                    account.update(i, i);
+                } finally {
+                    account.getLock().unlock();
+                }
+            }
+        });
+        writer.start();
+        try {
+            long lastVersion = 0;
+            for (int i = 0; i < 200_000; i++) {
+                final AccountState state = account.read();
+                Assert.assertEquals(state.getBalance(), state.getModifiedAt());
+                Assert.assertEquals(state.getBalance(), state.getVersion());
+                Assert.assertTrue(state.getVersion() >= lastVersion);
+                lastVersion = state.getVersion();
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void shouldKeepExactBalanceWhenStriped() throws Exception {
+        final Account account = new Account("number", 0L, 0L);
+        Assert.assertTrue(account.stripe(4));
+        final int depositors = 4;
+        final int deposits = 50_000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final long[] withdrawals = {0};
+
+        final Thread[] threads = new Thread[depositors];
+        for (int t = 0; t < depositors; t++) {
+            // deposits don't take the account lock
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < deposits; i++) {
+                    account.add(1, 1);
+                }
+            });
+            threads[t].start();
+        }
+        final Thread withdrawer = new Thread(() -> {
+            while (running.get()) {
+                account.getLock().lock();
+                try {
+                    if (account.getBalance() > 0) {
+                        account.add(-1, 2);
+                        withdrawals[0]++;
+                    }
+                } finally {
+                    account.getLock().unlock();
+                }
+            }
+        });
+        withdrawer.start();
+        try {
+            long lastVersion = 0;
+            for (int i = 0; i < 50_000; i++) {
+                final AccountState state = account.read();
+                Assert.assertTrue(state.getBalance() >= 0);
+                Assert.assertTrue(state.getVersion() >= lastVersion);
+                lastVersion = state.getVersion();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            running.set(false);
+            withdrawer.join();
+        }
+
+        Assert.assertTrue(account.isStriped());
+        Assert.assertEquals(depositors * deposits - withdrawals[0], account.getBalance());
+        Assert.assertEquals(depositors * deposits + withdrawals[0], account.getVersion());
+        Assert.assertEquals(2, account.getModifiedAtMillis());
+    }
+
+    @Test
+    public void shouldCheckOverflowOfStripedAccountAgainstTotal() {
+        final Account account = new Account("number", Long.MAX_VALUE - 100, 0L);
+        Assert.assertTrue(account.stripe(4));
+
+        // more than the share of one stripe, but the total still fits
+        account.add(60, 1);
+        account.add(40, 2);
+        Assert.assertEquals(Long.MAX_VALUE, account.getBalance());
+        try {
+            account.add(1, 3);
+            Assert.fail("Expected BalanceOverflowException");
+        } catch (BalanceOverflowException ex) {
+            Assert.assertEquals(Long.MAX_VALUE, account.getBalance());
+            Assert.assertEquals(2, account.getModifiedAtMillis());
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package kz.ya.mt.api.model;
+
+import java.math.BigDecimal;
+import kz.ya.mt.api.exception.InvalidAmountException;
+import kz.ya.mt.api.exception.NullInputAmountException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Expects the default USD currency with 2 fraction digits.
+ *
+ * @author yerlan.akhmetov
+ */
+public class MoneyTest {
+
+    @Test
+    public void shouldConvertMajorUnitsToMinorUnits() {
+        Assert.assertEquals(2, Money.SCALE);
+        Assert.assertEquals(1000L, Money.of(10));
+        Assert.assertEquals(-100L, Money.of(-1));
+        Assert.assertEquals(1050L, Money.of(new BigDecimal("10.5")));
+    }
+
+    @Test
+    public void shouldParseAmounts() {
+        Assert.assertEquals(1000L, Money.parse("10"));
+        Assert.assertEquals(1000L, Money.parse("10.00"));
+        Assert.assertEquals(1000L, Money.parse("10.000"));
+        Assert.assertEquals(1050L, Money.parse("10.5"));
+        Assert.assertEquals(1001L, Money.parse("+10.01"));
+        Assert.assertEquals(-1001L, Money.parse("-10.01"));
+        Assert.assertEquals(50L, Money.parse(".5"));
+        Assert.assertEquals(0L, Money.parse("0"));
+        Assert.assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+        Assert.assertEquals(Long.MIN_VALUE, Money.parse("-92233720368547758.08"));
+    }
+
+    @Test(expected = InvalidAmountException.class)
+    public void shouldNotParseAmountWithTooManyFractionDigits() {
+        Money.parse("10.001");
+    }
+
+    @Test(expected = InvalidAmountException.class)
+    public void shouldNotParseAmountWhichOverflows() {
+        Money.parse("92233720368547758.08");
+    }
+
+    @Test(expected = InvalidAmountException.class)
+    public void shouldNotParseNonNumericAmount() {
+        Money.parse("1e3");
+    }
+
+    @Test(expected = InvalidAmountException.class)
+    public void shouldNotParseEmptyAmount() {
+        Money.parse("-");
+    }
+
+    @Test(expected = NullInputAmountException.class)
+    public void shouldNotParseNullAmount() {
+        Money.parse(null);
+    }
+
+    @Test(expected = InvalidAmountException.class)
+    public void shouldNotConvertInexactBigDecimal() {
+        Money.of(new BigDecimal("0.001"));
+    }
+
+    @Test
+    public void shouldFormatAmounts() {
+        Assert.assertEquals("10.50", Money.toString(1050L));
+        Assert.assertEquals(new BigDecimal("-0.01"), Money.toBigDecimal(-1L));
+    }
+}
@@ -0,0 +1,188 @@
+package kz.ya.mt.api.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import kz.ya.mt.api.dao.AccountDao;
+import kz.ya.mt.api.exception.JournalException;
+import kz.ya.mt.api.journal.Journal;
+import kz.ya.mt.api.model.Account;
+import kz.ya.mt.api.model.Money;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Primary and follower in one JVM, each with its own DAO and journal.
+ *
+ * @author yerlan.akhmetov
+ */
+public class ReplicationTest {
+
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AccountDao primary;
+    private AccountDao follower;
+    private ReplicationServer server;
+    private ReplicationClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = newDao();
+        primary.openJournal(folder.getRoot().toPath().resolve("primary"), 0, 256);
+        server = new ReplicationServer(primary, 0, HEARTBEAT_MILLIS, 1, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+        primary.closeJournal();
+        if (follower != null) {
+            follower.closeJournal();
+        }
+    }
+
+    @Test
+    public void shouldApplyJournalOfPrimary() throws Exception {
+        startFollower();
+        final Account acc1 = primary.create("acc-1", Money.of(100));
+        final Account acc2 = primary.create("acc-2", Money.of(0));
+        for (int i = 0; i < 10; i++) {
+            primary.transfer(acc1, acc2, Money.of(1));
+        }
+        primary.delete(primary.create("acc-3", Money.of(0)));
+        primary.awaitDurable();
+
+        awaitFollower();
+        Assert.assertEquals(Money.of(90), follower.get("acc-1").get().getBalance());
+        Assert.assertEquals(Money.of(10), follower.get("acc-2").get().getBalance());
+        Assert.assertEquals(acc2.getVersion(), follower.get("acc-2").get().getVersion());
+        Assert.assertFalse(follower.get("acc-3").isPresent());
+    }
+
+    @Test
+    public void shouldCatchUpFromSnapshotOfCompactedJournal() throws Exception {
+        final Account acc1 = primary.create("acc-1", Money.of(100));
+        final Account acc2 = primary.create("acc-2", Money.of(0));
+        for (int i = 0; i < 10; i++) {
+            primary.transfer(acc1, acc2, Money.of(1));
+        }
+        primary.snapshot();
+        primary.transfer(acc1, acc2, Money.of(5));
+        primary.awaitDurable();
+        Assert.assertTrue(primary.getJournal().getFirstPosition() > 0);
+
+        startFollower();
+        awaitFollower();
+        Assert.assertEquals(Money.of(85), follower.get("acc-1").get().getBalance());
+        Assert.assertEquals(Money.of(15), follower.get("acc-2").get().getBalance());
+    }
+
+    @Test
+    public void shouldResumeAfterFollowerRestart() throws Exception {
+        startFollower();
+        final Account acc1 = primary.create("acc-1", Money.of(100));
+        final Account acc2 = primary.create("acc-2", Money.of(0));
+        primary.transfer(acc1, acc2, Money.of(10));
+        primary.awaitDurable();
+        awaitFollower();
+
+        client.close();
+        follower.closeJournal();
+        primary.transfer(acc1, acc2, Money.of(20));
+        primary.awaitDurable();
+
+        // the journal of the follower is a copy, so it restarts from its end
+        openFollower();
+        Assert.assertEquals(Money.of(10), follower.get("acc-2").get().getBalance());
+        client = new ReplicationClient(follower, new InetSocketAddress("localhost", server.getPort()),
+                HEARTBEAT_MILLIS);
+        awaitFollower();
+        Assert.assertEquals(Money.of(70), follower.get("acc-1").get().getBalance());
+        Assert.assertEquals(Money.of(30), follower.get("acc-2").get().getBalance());
+    }
+
+    @Test
+    public void shouldWaitForFollowerInSyncMode() throws Exception {
+        primary.setReplicas(server);
+        final Account acc1 = primary.create("acc-1", Money.of(100));
+        try {
+            primary.awaitDurable();
+            Assert.fail();
+        } catch (JournalException ex) {
+            // no follower has acknowledged the account
+        }
+        try {
+            primary.whenDurable().get();
+            Assert.fail();
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof JournalException);
+        }
+
+        startFollower();
+        primary.withdraw(acc1, Money.of(1));
+        primary.awaitDurable();
+        Assert.assertEquals(Money.of(99), follower.get("acc-1").get().getBalance());
+        primary.deposit(acc1, Money.of(1));
+        primary.whenDurable().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Money.of(100), follower.get("acc-1").get().getBalance());
+    }
+
+    @Test
+    public void shouldKeepAccountsWhenSnapshotIsCorrupted() throws Exception {
+        openFollower();
+        follower.create("acc-1", Money.of(100));
+        final Journal journal = follower.getJournal();
+
+        final byte[] garbage = new byte[64];
+        try {
+            follower.restoreSnapshot(42, new ByteArrayInputStream(garbage), garbage.length);
+            Assert.fail("Expected IOException");
+        } catch (IOException ex) {
+            // the snapshot has no valid trailer
+        }
+        Assert.assertSame(journal, follower.getJournal());
+        Assert.assertEquals(Money.of(100), follower.get("acc-1").get().getBalance());
+        follower.deposit(follower.get("acc-1").get(), Money.of(1));
+        follower.awaitDurable();
+    }
+
+    private void openFollower() throws Exception {
+        follower = newDao();
+        follower.openJournal(folder.getRoot().toPath().resolve("follower"), 0, 256);
+    }
+
+    private void startFollower() throws Exception {
+        openFollower();
+        client = new ReplicationClient(follower, new InetSocketAddress("localhost", server.getPort()),
+                HEARTBEAT_MILLIS);
+    }
+
+    private void awaitFollower() throws InterruptedException {
+        final long position = primary.getJournal().getDurablePosition();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (follower.getJournal().getDurablePosition() < position) {
+            Assert.assertTrue("Follower is behind", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(position, follower.getJournal().getDurablePosition());
+    }
+
+    private static AccountDao newDao() throws Exception {
+        final Constructor<AccountDao> constructor = AccountDao.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+}